@@ -0,0 +1,199 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.calcite.adapter.columnar;
+
+import org.apache.calcite.linq4j.AbstractEnumerable;
+import org.apache.calcite.linq4j.Enumerable;
+import org.apache.calcite.linq4j.Enumerator;
+import org.apache.calcite.linq4j.tree.Primitive;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Set of rows held as one {@link ColumnVector} per column.
+ *
+ * <p>Relational expressions in {@link ColumnarConvention} exchange batches
+ * rather than rows.
+ */
+public final class ColumnBatch {
+  /** Maximum number of rows in a batch created from rows. Large enough to
+   * amortize the per-batch overhead of each operator, small enough that a
+   * batch's vectors fit in cache. */
+  public static final int DEFAULT_SIZE = 1024;
+
+  public final int size;
+  public final ColumnVector[] columns;
+
+  /** Creates a ColumnBatch. */
+  public ColumnBatch(int size, ColumnVector[] columns) {
+    this.size = size;
+    this.columns = columns;
+  }
+
+  /** Creates a batch containing the rows at the given positions. */
+  public ColumnBatch gather(int[] positions, int count) {
+    final ColumnVector[] vectors = new ColumnVector[columns.length];
+    for (int i = 0; i < columns.length; i++) {
+      vectors[i] = columns[i].gather(positions, count);
+    }
+    return new ColumnBatch(count, vectors);
+  }
+
+  /** Returns the row at a given position. */
+  public Object[] row(int i) {
+    final Object[] row = new Object[columns.length];
+    for (int j = 0; j < columns.length; j++) {
+      row[j] = columns[j].get(i);
+    }
+    return row;
+  }
+
+  /** Creates a batch that contains all rows of a list of batches. */
+  static ColumnBatch concat(List<ColumnBatch> batches,
+      List<Primitive> primitives) {
+    if (batches.size() == 1) {
+      return batches.get(0);
+    }
+    int size = 0;
+    for (ColumnBatch batch : batches) {
+      size += batch.size;
+    }
+    final ColumnVector[] vectors = new ColumnVector[primitives.size()];
+    for (int i = 0; i < vectors.length; i++) {
+      vectors[i] = new ColumnVector(primitives.get(i), size);
+      int pos = 0;
+      for (ColumnBatch batch : batches) {
+        vectors[i].copyFrom(batch.columns[i], 0, pos, batch.size);
+        pos += batch.size;
+      }
+    }
+    return new ColumnBatch(size, vectors);
+  }
+
+  /** Converts a sequence of rows into a sequence of batches. */
+  public static Enumerable<ColumnBatch> fromRows(final Enumerable<Object[]> rows,
+      final List<Primitive> primitives) {
+    return new AbstractEnumerable<ColumnBatch>() {
+      public Enumerator<ColumnBatch> enumerator() {
+        return new RowToBatchEnumerator(rows.enumerator(), primitives);
+      }
+    };
+  }
+
+  /** Converts a sequence of batches into a sequence of rows.
+   *
+   * <p>Used by generated code. */
+  public static Enumerable<Object[]> toRows(
+      final Enumerable<ColumnBatch> batches) {
+    return new AbstractEnumerable<Object[]>() {
+      public Enumerator<Object[]> enumerator() {
+        return new BatchToRowEnumerator(batches.enumerator());
+      }
+    };
+  }
+
+  /** Enumerator that reads rows and returns batches. */
+  private static class RowToBatchEnumerator implements Enumerator<ColumnBatch> {
+    private final Enumerator<Object[]> rows;
+    private final List<Primitive> primitives;
+    private final List<Object[]> buffer = new ArrayList<>();
+    private ColumnBatch current;
+
+    RowToBatchEnumerator(Enumerator<Object[]> rows,
+        List<Primitive> primitives) {
+      this.rows = rows;
+      this.primitives = primitives;
+    }
+
+    public ColumnBatch current() {
+      return current;
+    }
+
+    public boolean moveNext() {
+      buffer.clear();
+      while (buffer.size() < DEFAULT_SIZE && rows.moveNext()) {
+        buffer.add(rows.current());
+      }
+      if (buffer.isEmpty()) {
+        current = null;
+        return false;
+      }
+      final ColumnVector[] vectors = new ColumnVector[primitives.size()];
+      for (int j = 0; j < vectors.length; j++) {
+        final ColumnVector vector =
+            new ColumnVector(primitives.get(j), buffer.size());
+        for (int i = 0; i < buffer.size(); i++) {
+          vector.set(i, buffer.get(i)[j]);
+        }
+        vectors[j] = vector;
+      }
+      current = new ColumnBatch(buffer.size(), vectors);
+      return true;
+    }
+
+    public void reset() {
+      rows.reset();
+      current = null;
+    }
+
+    public void close() {
+      rows.close();
+    }
+  }
+
+  /** Enumerator that reads batches and returns rows. */
+  private static class BatchToRowEnumerator implements Enumerator<Object[]> {
+    private final Enumerator<ColumnBatch> batches;
+    private ColumnBatch batch;
+    private int i;
+    private Object[] current;
+
+    BatchToRowEnumerator(Enumerator<ColumnBatch> batches) {
+      this.batches = batches;
+    }
+
+    public Object[] current() {
+      return current;
+    }
+
+    public boolean moveNext() {
+      while (batch == null || i >= batch.size) {
+        if (!batches.moveNext()) {
+          current = null;
+          return false;
+        }
+        batch = batches.current();
+        i = 0;
+      }
+      current = batch.row(i++);
+      return true;
+    }
+
+    public void reset() {
+      batches.reset();
+      batch = null;
+      current = null;
+    }
+
+    public void close() {
+      batches.close();
+    }
+  }
+}
+
+// End ColumnBatch.java
@@ -0,0 +1,290 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.calcite.adapter.columnar;
+
+import org.apache.calcite.linq4j.tree.Primitive;
+
+import java.util.Arrays;
+
+/**
+ * Values of one column in a {@link ColumnBatch}.
+ *
+ * <p>Values are held in one of three arrays, depending on their
+ * {@link Storage}: {@code long[]} for booleans and integral types (including
+ * dates and times), {@code double[]} for floating-point types, and
+ * {@code Object[]} for all other types. Null values are recorded in a
+ * bitmap, which is null if the column has no null values; the array slot of a
+ * null value is zero.
+ *
+ * <p>A vector is not modified after it has been added to a batch, so
+ * operators may share vectors between their input and output batches.
+ */
+public final class ColumnVector {
+  /** Java type of the values, as they appear in a row; for example
+   * {@link Primitive#INT} for a column whose rows contain {@link Integer}
+   * values. {@link Primitive#OTHER} for non-primitive values. */
+  public final Primitive primitive;
+  public final int size;
+  public final long[] longs;
+  public final double[] doubles;
+  public final Object[] objects;
+  private long[] nulls;
+
+  /** Creates a ColumnVector with all values zero and not null. */
+  public ColumnVector(Primitive primitive, int size) {
+    this.primitive = primitive;
+    this.size = size;
+    final Storage storage = Storage.of(primitive);
+    this.longs = storage == Storage.LONG ? new long[size] : null;
+    this.doubles = storage == Storage.DOUBLE ? new double[size] : null;
+    this.objects = storage == Storage.OBJECT ? new Object[size] : null;
+  }
+
+  /** Returns how values are stored. */
+  public Storage storage() {
+    return Storage.of(primitive);
+  }
+
+  /** Returns whether any value is null. */
+  public boolean hasNulls() {
+    return nulls != null;
+  }
+
+  /** Returns whether the value at a given position is null. */
+  public boolean isNull(int i) {
+    return nulls != null && (nulls[i >>> 6] & (1L << i)) != 0;
+  }
+
+  /** Marks the value at a given position as null. */
+  public void setNull(int i) {
+    if (nulls == null) {
+      nulls = new long[(size + 63) >>> 6];
+    }
+    nulls[i >>> 6] |= 1L << i;
+  }
+
+  /** Marks the value at a given position as not null. */
+  public void clearNull(int i) {
+    if (nulls != null) {
+      nulls[i >>> 6] &= ~(1L << i);
+    }
+  }
+
+  /** Marks as null every value that is null in a given vector of the same
+   * size. */
+  public void orNulls(ColumnVector v) {
+    if (v.nulls != null) {
+      if (nulls == null) {
+        nulls = v.nulls.clone();
+      } else {
+        for (int i = 0; i < nulls.length; i++) {
+          nulls[i] |= v.nulls[i];
+        }
+      }
+    }
+  }
+
+  /** Returns the value at a given position, boxed as it would appear in a
+   * row. */
+  public Object get(int i) {
+    if (isNull(i)) {
+      return null;
+    }
+    switch (primitive) {
+    case BOOLEAN:
+      return longs[i] != 0;
+    case BYTE:
+      return (byte) longs[i];
+    case CHAR:
+      return (char) longs[i];
+    case SHORT:
+      return (short) longs[i];
+    case INT:
+      return (int) longs[i];
+    case LONG:
+      return longs[i];
+    case FLOAT:
+      return (float) doubles[i];
+    case DOUBLE:
+      return doubles[i];
+    default:
+      return objects[i];
+    }
+  }
+
+  /** Sets the value at a given position from a value as it appears in a
+   * row. */
+  public void set(int i, Object o) {
+    if (o == null) {
+      setNull(i);
+      return;
+    }
+    switch (Storage.of(primitive)) {
+    case LONG:
+      if (o instanceof Boolean) {
+        longs[i] = (Boolean) o ? 1L : 0L;
+      } else if (o instanceof Character) {
+        longs[i] = (Character) o;
+      } else {
+        longs[i] = ((Number) o).longValue();
+      }
+      break;
+    case DOUBLE:
+      doubles[i] = ((Number) o).doubleValue();
+      break;
+    default:
+      objects[i] = o;
+    }
+  }
+
+  /** Converts a value to the range of this vector's type, as a Java cast
+   * would; for example, wraps a {@code long} to an {@code int} if the type is
+   * {@link Primitive#INT}. */
+  public long narrow(long v) {
+    switch (primitive) {
+    case BOOLEAN:
+      return v != 0 ? 1L : 0L;
+    case BYTE:
+      return (byte) v;
+    case CHAR:
+      return (char) v;
+    case SHORT:
+      return (short) v;
+    case INT:
+      return (int) v;
+    default:
+      return v;
+    }
+  }
+
+  /** Converts a value to the precision of this vector's type. */
+  public double narrow(double v) {
+    return primitive == Primitive.FLOAT ? (float) v : v;
+  }
+
+  /** Returns the values as {@code double}s, converting if the vector holds
+   * integral values. */
+  public double[] toDoubles() {
+    if (doubles != null) {
+      return doubles;
+    }
+    final double[] values = new double[size];
+    for (int i = 0; i < size; i++) {
+      values[i] = longs[i];
+    }
+    return values;
+  }
+
+  /** Creates a vector containing the values at the given positions. */
+  public ColumnVector gather(int[] positions, int count) {
+    final ColumnVector v = new ColumnVector(primitive, count);
+    switch (storage()) {
+    case LONG:
+      for (int i = 0; i < count; i++) {
+        v.longs[i] = longs[positions[i]];
+      }
+      break;
+    case DOUBLE:
+      for (int i = 0; i < count; i++) {
+        v.doubles[i] = doubles[positions[i]];
+      }
+      break;
+    default:
+      for (int i = 0; i < count; i++) {
+        v.objects[i] = objects[positions[i]];
+      }
+    }
+    if (nulls != null) {
+      for (int i = 0; i < count; i++) {
+        if (isNull(positions[i])) {
+          v.setNull(i);
+        }
+      }
+    }
+    return v;
+  }
+
+  /** Copies values from another vector of the same type into this one. */
+  void copyFrom(ColumnVector source, int sourcePos, int pos, int count) {
+    switch (storage()) {
+    case LONG:
+      System.arraycopy(source.longs, sourcePos, longs, pos, count);
+      break;
+    case DOUBLE:
+      System.arraycopy(source.doubles, sourcePos, doubles, pos, count);
+      break;
+    default:
+      System.arraycopy(source.objects, sourcePos, objects, pos, count);
+    }
+    if (source.nulls != null) {
+      for (int i = 0; i < count; i++) {
+        if (source.isNull(sourcePos + i)) {
+          setNull(pos + i);
+        }
+      }
+    }
+  }
+
+  /** Creates a vector of a given size all of whose values are the same. */
+  public static ColumnVector constant(Primitive primitive, int size,
+      Object value) {
+    final ColumnVector v = new ColumnVector(primitive, size);
+    if (value == null) {
+      if (size > 0) {
+        Arrays.fill(v.nulls = new long[(size + 63) >>> 6], -1L);
+      }
+      return v;
+    }
+    v.set(0, value);
+    switch (v.storage()) {
+    case LONG:
+      Arrays.fill(v.longs, v.longs[0]);
+      break;
+    case DOUBLE:
+      Arrays.fill(v.doubles, v.doubles[0]);
+      break;
+    default:
+      Arrays.fill(v.objects, value);
+    }
+    return v;
+  }
+
+  /** How the values of a vector are stored. */
+  public enum Storage {
+    LONG, DOUBLE, OBJECT;
+
+    /** Returns how values of a given Java type are stored. */
+    public static Storage of(Primitive primitive) {
+      switch (primitive) {
+      case BOOLEAN:
+      case BYTE:
+      case CHAR:
+      case SHORT:
+      case INT:
+      case LONG:
+        return LONG;
+      case FLOAT:
+      case DOUBLE:
+        return DOUBLE;
+      default:
+        return OBJECT;
+      }
+    }
+  }
+}
+
+// End ColumnVector.java
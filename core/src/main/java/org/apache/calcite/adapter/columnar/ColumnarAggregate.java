@@ -0,0 +1,448 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.calcite.adapter.columnar;
+
+import org.apache.calcite.adapter.columnar.ColumnVector.Storage;
+import org.apache.calcite.adapter.java.JavaTypeFactory;
+import org.apache.calcite.linq4j.AbstractEnumerable;
+import org.apache.calcite.linq4j.Enumerable;
+import org.apache.calcite.linq4j.Enumerator;
+import org.apache.calcite.linq4j.Linq4j;
+import org.apache.calcite.linq4j.tree.Primitive;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelOptCost;
+import org.apache.calcite.plan.RelOptPlanner;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.rel.InvalidRelException;
+import org.apache.calcite.rel.RelCollations;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.Aggregate;
+import org.apache.calcite.rel.core.AggregateCall;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.sql.SqlKind;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.calcite.sql.type.SqlTypeUtil;
+import org.apache.calcite.util.ImmutableBitSet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Implementation of {@link org.apache.calcite.rel.core.Aggregate} in
+ * columnar convention, using a hash table.
+ *
+ * <p>For each input batch, finds the group of each row, then updates each
+ * aggregate function's accumulators in a loop over the batch. Accumulators
+ * are arrays indexed by group, so there is no per-group object.
+ *
+ * <p>Supports {@code COUNT}, {@code SUM}, {@code $SUM0}, {@code MIN} and
+ * {@code MAX}, without {@code DISTINCT} or {@code FILTER}, and a single
+ * grouping set. */
+public class ColumnarAggregate extends Aggregate implements ColumnarRel {
+  /** Creates a ColumnarAggregate. */
+  public ColumnarAggregate(RelOptCluster cluster, RelTraitSet traitSet,
+      RelNode input, ImmutableBitSet groupSet,
+      List<ImmutableBitSet> groupSets, List<AggregateCall> aggCalls)
+      throws InvalidRelException {
+    super(cluster, traitSet, input, groupSet, groupSets, aggCalls);
+    assert getConvention() instanceof ColumnarConvention;
+
+    if (getGroupType() != Group.SIMPLE) {
+      throw new InvalidRelException("grouping sets not supported");
+    }
+    final JavaTypeFactory typeFactory =
+        (JavaTypeFactory) cluster.getTypeFactory();
+    for (AggregateCall aggCall : aggCalls) {
+      if (!canImplement(aggCall, input.getRowType(), typeFactory)) {
+        throw new InvalidRelException(
+            "aggregation " + aggCall + " not supported");
+      }
+    }
+  }
+
+  @Override public ColumnarAggregate copy(RelTraitSet traitSet, RelNode input,
+      ImmutableBitSet groupSet,
+      List<ImmutableBitSet> groupSets, List<AggregateCall> aggCalls) {
+    try {
+      return new ColumnarAggregate(getCluster(), traitSet, input,
+          groupSet, groupSets, aggCalls);
+    } catch (InvalidRelException e) {
+      // Semantic error not possible. Must be a bug. Convert to
+      // internal error.
+      throw new AssertionError(e);
+    }
+  }
+
+  @Override public RelOptCost computeSelfCost(RelOptPlanner planner,
+      RelMetadataQuery mq) {
+    return super.computeSelfCost(planner, mq)
+        .multiplyBy(ColumnarConvention.COST_MULTIPLIER);
+  }
+
+  private static boolean canImplement(AggregateCall aggCall,
+      RelDataType inputRowType, JavaTypeFactory typeFactory) {
+    if (aggCall.isDistinct()
+        || aggCall.hasFilter()
+        || !aggCall.collation.equals(RelCollations.EMPTY)) {
+      return false;
+    }
+    final List<Integer> args = aggCall.getArgList();
+    final Storage storage =
+        Storage.of(VectorExpression.primitive(typeFactory, aggCall.getType()));
+    switch (aggCall.getAggregation().getKind()) {
+    case COUNT:
+      return args.size() <= 1;
+    case SUM:
+    case SUM0:
+    case MIN:
+    case MAX:
+      if (args.size() != 1) {
+        return false;
+      }
+      final RelDataType argType =
+          inputRowType.getFieldList().get(args.get(0)).getType();
+      if (storage != Storage.of(VectorExpression.primitive(typeFactory, argType))) {
+        return false;
+      }
+      if (storage == Storage.OBJECT) {
+        // MIN and MAX of strings and decimals use their natural order
+        switch (aggCall.getAggregation().getKind()) {
+        case MIN:
+        case MAX:
+          return SqlTypeUtil.isCharacter(argType)
+              || argType.getSqlTypeName() == SqlTypeName.DECIMAL;
+        default:
+          return false;
+        }
+      }
+      return true;
+    default:
+      return false;
+    }
+  }
+
+  public BatchSource toBatchSource() {
+    final JavaTypeFactory typeFactory =
+        (JavaTypeFactory) getCluster().getTypeFactory();
+    final List<Primitive> outputPrimitives =
+        VectorExpression.primitives(typeFactory, getRowType());
+    final int[] keys = groupSet.toArray();
+    final List<AggregateCall> aggCallList = aggCalls;
+    final BatchSource input = ((ColumnarRel) getInput()).toBatchSource();
+    return dataContext -> new AbstractEnumerable<ColumnBatch>() {
+      public Enumerator<ColumnBatch> enumerator() {
+        return Linq4j.enumerator(
+            aggregateBatches(input.batches(dataContext), keys, aggCallList,
+                outputPrimitives));
+      }
+    };
+  }
+
+  /** Aggregates the batches of the input, and returns batches containing a
+   * row per group. */
+  private static List<ColumnBatch> aggregateBatches(
+      Enumerable<ColumnBatch> input, int[] keys, List<AggregateCall> aggCalls,
+      List<Primitive> outputPrimitives) {
+    final List<Accumulator> accumulators = new ArrayList<>();
+    for (AggregateCall aggCall : aggCalls) {
+      accumulators.add(accumulator(aggCall));
+    }
+
+    // Map from group key to group ordinal. If there is one key column, the
+    // key is the value; otherwise it is a list of values.
+    final Map<Object, Integer> groups = new HashMap<>();
+    final List<Object> groupKeys = new ArrayList<>();
+    int groupCount = keys.length == 0 ? 1 : 0;
+    try (Enumerator<ColumnBatch> batches = input.enumerator()) {
+      while (batches.moveNext()) {
+        final ColumnBatch batch = batches.current();
+        final int[] groupIds = new int[batch.size];
+        if (keys.length > 0) {
+          for (int i = 0; i < batch.size; i++) {
+            final Object key;
+            if (keys.length == 1) {
+              key = batch.columns[keys[0]].get(i);
+            } else {
+              final Object[] values = new Object[keys.length];
+              for (int k = 0; k < keys.length; k++) {
+                values[k] = batch.columns[keys[k]].get(i);
+              }
+              key = Arrays.asList(values);
+            }
+            Integer groupId = groups.get(key);
+            if (groupId == null) {
+              groupId = groupCount++;
+              groups.put(key, groupId);
+              groupKeys.add(key);
+            }
+            groupIds[i] = groupId;
+          }
+        }
+        for (Accumulator accumulator : accumulators) {
+          accumulator.ensureCapacity(groupCount);
+          accumulator.add(batch, groupIds);
+        }
+      }
+    }
+    for (Accumulator accumulator : accumulators) {
+      accumulator.ensureCapacity(groupCount);
+    }
+
+    final List<ColumnBatch> output = new ArrayList<>();
+    for (int start = 0; start < groupCount; start += ColumnBatch.DEFAULT_SIZE) {
+      final int size = Math.min(ColumnBatch.DEFAULT_SIZE, groupCount - start);
+      final ColumnVector[] vectors = new ColumnVector[outputPrimitives.size()];
+      for (int k = 0; k < keys.length; k++) {
+        final ColumnVector vector =
+            new ColumnVector(outputPrimitives.get(k), size);
+        for (int i = 0; i < size; i++) {
+          final Object key = groupKeys.get(start + i);
+          vector.set(i, keys.length == 1 ? key : ((List) key).get(k));
+        }
+        vectors[k] = vector;
+      }
+      for (int j = 0; j < accumulators.size(); j++) {
+        final ColumnVector vector =
+            new ColumnVector(outputPrimitives.get(keys.length + j), size);
+        accumulators.get(j).write(vector, start);
+        vectors[keys.length + j] = vector;
+      }
+      output.add(new ColumnBatch(size, vectors));
+    }
+    return output;
+  }
+
+  private static Accumulator accumulator(AggregateCall aggCall) {
+    final int arg =
+        aggCall.getArgList().isEmpty() ? -1 : aggCall.getArgList().get(0);
+    switch (aggCall.getAggregation().getKind()) {
+    case COUNT:
+      return new CountAccumulator(arg);
+    case SUM:
+    case SUM0:
+      return new SumAccumulator(arg,
+          aggCall.getAggregation().getKind() == SqlKind.SUM0);
+    default:
+      return new MinMaxAccumulator(arg,
+          aggCall.getAggregation().getKind() == SqlKind.MIN);
+    }
+  }
+
+  /** Holds the state of an aggregate function for every group. */
+  private abstract static class Accumulator {
+    final int arg;
+    /** Number of non-null values seen, per group. */
+    long[] counts = new long[0];
+
+    Accumulator(int arg) {
+      this.arg = arg;
+    }
+
+    /** Makes room for a given number of groups. */
+    void ensureCapacity(int groupCount) {
+      if (counts.length < groupCount) {
+        final int capacity = Math.max(groupCount, counts.length * 2);
+        counts = Arrays.copyOf(counts, capacity);
+        grow(capacity);
+      }
+    }
+
+    void grow(int capacity) {}
+
+    /** Adds the rows of a batch; {@code groupIds[i]} is the group of row
+     * {@code i}. */
+    abstract void add(ColumnBatch batch, int[] groupIds);
+
+    /** Writes the result of a contiguous range of groups. */
+    abstract void write(ColumnVector vector, int start);
+  }
+
+  /** Accumulator for {@code COUNT}. */
+  private static class CountAccumulator extends Accumulator {
+    CountAccumulator(int arg) {
+      super(arg);
+    }
+
+    void add(ColumnBatch batch, int[] groupIds) {
+      final long[] counts = this.counts;
+      if (arg < 0 || !batch.columns[arg].hasNulls()) {
+        for (int i = 0; i < batch.size; i++) {
+          counts[groupIds[i]]++;
+        }
+      } else {
+        final ColumnVector v = batch.columns[arg];
+        for (int i = 0; i < batch.size; i++) {
+          if (!v.isNull(i)) {
+            counts[groupIds[i]]++;
+          }
+        }
+      }
+    }
+
+    void write(ColumnVector vector, int start) {
+      for (int i = 0; i < vector.size; i++) {
+        vector.longs[i] = counts[start + i];
+      }
+    }
+  }
+
+  /** Accumulator for {@code SUM} and {@code $SUM0}. */
+  private static class SumAccumulator extends Accumulator {
+    private final boolean zeroIfEmpty;
+    long[] longSums = new long[0];
+    double[] doubleSums = new double[0];
+
+    SumAccumulator(int arg, boolean zeroIfEmpty) {
+      super(arg);
+      this.zeroIfEmpty = zeroIfEmpty;
+    }
+
+    @Override void grow(int capacity) {
+      longSums = Arrays.copyOf(longSums, capacity);
+      doubleSums = Arrays.copyOf(doubleSums, capacity);
+    }
+
+    void add(ColumnBatch batch, int[] groupIds) {
+      final ColumnVector v = batch.columns[arg];
+      final long[] counts = this.counts;
+      if (v.storage() == Storage.LONG) {
+        final long[] values = v.longs;
+        final long[] sums = longSums;
+        for (int i = 0; i < batch.size; i++) {
+          if (!v.isNull(i)) {
+            sums[groupIds[i]] += values[i];
+            counts[groupIds[i]]++;
+          }
+        }
+      } else {
+        final double[] values = v.doubles;
+        final double[] sums = doubleSums;
+        for (int i = 0; i < batch.size; i++) {
+          if (!v.isNull(i)) {
+            sums[groupIds[i]] += values[i];
+            counts[groupIds[i]]++;
+          }
+        }
+      }
+    }
+
+    void write(ColumnVector vector, int start) {
+      for (int i = 0; i < vector.size; i++) {
+        if (counts[start + i] == 0 && !zeroIfEmpty) {
+          vector.setNull(i);
+        } else if (vector.storage() == Storage.LONG) {
+          vector.longs[i] = vector.narrow(longSums[start + i]);
+        } else {
+          vector.doubles[i] = vector.narrow(doubleSums[start + i]);
+        }
+      }
+    }
+  }
+
+  /** Accumulator for {@code MIN} and {@code MAX}. */
+  private static class MinMaxAccumulator extends Accumulator {
+    private final boolean min;
+    long[] longValues = new long[0];
+    double[] doubleValues = new double[0];
+    Object[] objectValues = new Object[0];
+
+    MinMaxAccumulator(int arg, boolean min) {
+      super(arg);
+      this.min = min;
+    }
+
+    @Override void grow(int capacity) {
+      longValues = Arrays.copyOf(longValues, capacity);
+      doubleValues = Arrays.copyOf(doubleValues, capacity);
+      objectValues = Arrays.copyOf(objectValues, capacity);
+    }
+
+    @SuppressWarnings("unchecked")
+    void add(ColumnBatch batch, int[] groupIds) {
+      final ColumnVector v = batch.columns[arg];
+      final long[] counts = this.counts;
+      switch (v.storage()) {
+      case LONG:
+        final long[] longs = v.longs;
+        for (int i = 0; i < batch.size; i++) {
+          if (!v.isNull(i)) {
+            final int g = groupIds[i];
+            final long l = longs[i];
+            if (counts[g]++ == 0
+                || (min ? l < longValues[g] : l > longValues[g])) {
+              longValues[g] = l;
+            }
+          }
+        }
+        break;
+      case DOUBLE:
+        final double[] doubles = v.doubles;
+        for (int i = 0; i < batch.size; i++) {
+          if (!v.isNull(i)) {
+            final int g = groupIds[i];
+            final double d = doubles[i];
+            if (counts[g]++ == 0
+                || (min ? d < doubleValues[g] : d > doubleValues[g])) {
+              doubleValues[g] = d;
+            }
+          }
+        }
+        break;
+      default:
+        final Object[] objects = v.objects;
+        for (int i = 0; i < batch.size; i++) {
+          if (!v.isNull(i)) {
+            final int g = groupIds[i];
+            final Comparable o = (Comparable) objects[i];
+            if (counts[g]++ == 0) {
+              objectValues[g] = o;
+            } else {
+              final int c = o.compareTo(objectValues[g]);
+              if (min ? c < 0 : c > 0) {
+                objectValues[g] = o;
+              }
+            }
+          }
+        }
+      }
+    }
+
+    void write(ColumnVector vector, int start) {
+      for (int i = 0; i < vector.size; i++) {
+        if (counts[start + i] == 0) {
+          vector.setNull(i);
+          continue;
+        }
+        switch (vector.storage()) {
+        case LONG:
+          vector.longs[i] = longValues[start + i];
+          break;
+        case DOUBLE:
+          vector.doubles[i] = doubleValues[start + i];
+          break;
+        default:
+          vector.objects[i] = objectValues[start + i];
+        }
+      }
+    }
+  }
+}
+
+// End ColumnarAggregate.java
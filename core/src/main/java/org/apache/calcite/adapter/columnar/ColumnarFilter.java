@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.calcite.adapter.columnar;
+
+import org.apache.calcite.adapter.java.JavaTypeFactory;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelOptCost;
+import org.apache.calcite.plan.RelOptPlanner;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.Filter;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.rex.RexNode;
+
+import java.util.Objects;
+
+/** Implementation of {@link org.apache.calcite.rel.core.Filter} in
+ * columnar convention.
+ *
+ * <p>Evaluates the condition over each batch, then copies the rows for which
+ * it is true into a new batch. A batch in which every row qualifies is passed
+ * on unchanged, and a batch in which no row qualifies is skipped. */
+public class ColumnarFilter extends Filter implements ColumnarRel {
+  /** Creates a ColumnarFilter.
+   *
+   * <p>Use {@link #create} unless you know what you're doing. */
+  public ColumnarFilter(RelOptCluster cluster, RelTraitSet traitSet,
+      RelNode input, RexNode condition) {
+    super(cluster, traitSet, input, condition);
+    assert getConvention() instanceof ColumnarConvention;
+  }
+
+  /** Creates a ColumnarFilter. */
+  public static ColumnarFilter create(final RelNode input,
+      RexNode condition) {
+    final RelOptCluster cluster = input.getCluster();
+    return new ColumnarFilter(cluster,
+        cluster.traitSetOf(ColumnarConvention.INSTANCE), input, condition);
+  }
+
+  public ColumnarFilter copy(RelTraitSet traitSet, RelNode input,
+      RexNode condition) {
+    return new ColumnarFilter(getCluster(), traitSet, input, condition);
+  }
+
+  @Override public RelOptCost computeSelfCost(RelOptPlanner planner,
+      RelMetadataQuery mq) {
+    return super.computeSelfCost(planner, mq)
+        .multiplyBy(ColumnarConvention.COST_MULTIPLIER);
+  }
+
+  public BatchSource toBatchSource() {
+    final VectorExpression condition =
+        VectorExpression.translate(getCondition(),
+            (JavaTypeFactory) getCluster().getTypeFactory());
+    final BatchSource input = ((ColumnarRel) getInput()).toBatchSource();
+    return dataContext -> input.batches(dataContext)
+        .select(batch -> filter(condition, batch))
+        .where(Objects::nonNull);
+  }
+
+  /** Returns the rows of a batch for which a condition is true, or null if
+   * there are none. */
+  private static ColumnBatch filter(VectorExpression condition,
+      ColumnBatch batch) {
+    final ColumnVector v = condition.evaluate(batch);
+    final long[] values = v.longs;
+    final int[] positions = new int[batch.size];
+    int count = 0;
+    if (v.hasNulls()) {
+      for (int i = 0; i < batch.size; i++) {
+        if (values[i] != 0 && !v.isNull(i)) {
+          positions[count++] = i;
+        }
+      }
+    } else {
+      for (int i = 0; i < batch.size; i++) {
+        if (values[i] != 0) {
+          positions[count++] = i;
+        }
+      }
+    }
+    if (count == 0) {
+      return null;
+    }
+    if (count == batch.size) {
+      return batch;
+    }
+    return batch.gather(positions, count);
+  }
+}
+
+// End ColumnarFilter.java
@@ -0,0 +1,387 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.calcite.adapter.columnar;
+
+import org.apache.calcite.adapter.columnar.ColumnVector.Storage;
+import org.apache.calcite.adapter.java.JavaTypeFactory;
+import org.apache.calcite.linq4j.AbstractEnumerable;
+import org.apache.calcite.linq4j.Enumerator;
+import org.apache.calcite.linq4j.tree.Primitive;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelOptCost;
+import org.apache.calcite.plan.RelOptPlanner;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.rel.InvalidRelException;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.RelNodes;
+import org.apache.calcite.rel.core.CorrelationId;
+import org.apache.calcite.rel.core.Join;
+import org.apache.calcite.rel.core.JoinInfo;
+import org.apache.calcite.rel.core.JoinRelType;
+import org.apache.calcite.rel.metadata.RelMdUtil;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.sql.type.SqlTypeUtil;
+import org.apache.calcite.util.ImmutableIntList;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/** Implementation of {@link org.apache.calcite.rel.core.Join} in columnar
+ * convention, as an inner equi-join using a hash table.
+ *
+ * <p>Reads all batches of the right input into a single batch and builds a
+ * hash table of its row positions. Then, for each batch of the left input,
+ * finds the matching rows and gathers the left and right columns of the
+ * matches into an output batch.
+ *
+ * <p>Keys are never boxed. The hash codes of a batch's keys are computed in
+ * a loop over each key column, and candidate rows are compared column by
+ * column, reading the vectors' primitive arrays.
+ *
+ * <p>Keys are compared by their stored values, so an {@code INTEGER} key
+ * matches a {@code BIGINT} key with the same value. */
+public class ColumnarHashJoin extends Join implements ColumnarRel {
+  /** Creates a ColumnarHashJoin. */
+  public ColumnarHashJoin(RelOptCluster cluster, RelTraitSet traitSet,
+      RelNode left, RelNode right, RexNode condition,
+      Set<CorrelationId> variablesSet, JoinRelType joinType)
+      throws InvalidRelException {
+    super(cluster, traitSet, left, right, condition, variablesSet, joinType);
+    assert getConvention() instanceof ColumnarConvention;
+
+    if (!variablesSet.isEmpty()) {
+      throw new InvalidRelException(
+          "ColumnarHashJoin does not support correlation variables");
+    }
+    if (joinType != JoinRelType.INNER) {
+      throw new InvalidRelException(
+          "ColumnarHashJoin only supports inner join");
+    }
+    final JoinInfo joinInfo = analyzeCondition();
+    if (!joinInfo.isEqui() || joinInfo.leftKeys.isEmpty()) {
+      throw new InvalidRelException(
+          "ColumnarHashJoin only supports equi-join");
+    }
+    final JavaTypeFactory typeFactory =
+        (JavaTypeFactory) cluster.getTypeFactory();
+    for (int i = 0; i < joinInfo.leftKeys.size(); i++) {
+      final RelDataType leftType = left.getRowType().getFieldList()
+          .get(joinInfo.leftKeys.get(i)).getType();
+      final RelDataType rightType = right.getRowType().getFieldList()
+          .get(joinInfo.rightKeys.get(i)).getType();
+      final Storage leftStorage =
+          Storage.of(VectorExpression.primitive(typeFactory, leftType));
+      final Storage rightStorage =
+          Storage.of(VectorExpression.primitive(typeFactory, rightType));
+      if (leftStorage != rightStorage
+          || leftStorage == Storage.OBJECT
+              && !(SqlTypeUtil.isCharacter(leftType)
+                  && SqlTypeUtil.isCharacter(rightType))) {
+        throw new InvalidRelException(
+            "ColumnarHashJoin does not support keys of type " + leftType
+                + " and " + rightType);
+      }
+    }
+  }
+
+  @Override public ColumnarHashJoin copy(RelTraitSet traitSet,
+      RexNode condition, RelNode left, RelNode right, JoinRelType joinType,
+      boolean semiJoinDone) {
+    try {
+      return new ColumnarHashJoin(getCluster(), traitSet, left, right,
+          condition, variablesSet, joinType);
+    } catch (InvalidRelException e) {
+      // Semantic error not possible. Must be a bug. Convert to
+      // internal error.
+      throw new AssertionError(e);
+    }
+  }
+
+  @Override public RelOptCost computeSelfCost(RelOptPlanner planner,
+      RelMetadataQuery mq) {
+    double rowCount = mq.getRowCount(this);
+
+    // Make one of the flipped versions slightly more expensive, as
+    // EnumerableHashJoin does, so that plans are stable
+    if (RelNodes.COMPARATOR.compare(left, right) > 0) {
+      rowCount = RelMdUtil.addEpsilon(rowCount);
+    }
+
+    // The right input is read into the hash table, the left input is
+    // streamed
+    rowCount += left.estimateRowCount(mq) + right.estimateRowCount(mq);
+    return planner.getCostFactory().makeCost(rowCount, 0, 0)
+        .multiplyBy(ColumnarConvention.COST_MULTIPLIER);
+  }
+
+  public BatchSource toBatchSource() {
+    final JavaTypeFactory typeFactory =
+        (JavaTypeFactory) getCluster().getTypeFactory();
+    final JoinInfo joinInfo = analyzeCondition();
+    final List<Primitive> rightPrimitives =
+        VectorExpression.primitives(typeFactory, right.getRowType());
+    final BatchSource leftSource = ((ColumnarRel) left).toBatchSource();
+    final BatchSource rightSource = ((ColumnarRel) right).toBatchSource();
+    return dataContext -> new AbstractEnumerable<ColumnBatch>() {
+      public Enumerator<ColumnBatch> enumerator() {
+        final List<ColumnBatch> rightBatches = new ArrayList<>();
+        try (Enumerator<ColumnBatch> e =
+                 rightSource.batches(dataContext).enumerator()) {
+          while (e.moveNext()) {
+            rightBatches.add(e.current());
+          }
+        }
+        final HashTable hashTable =
+            new HashTable(ColumnBatch.concat(rightBatches, rightPrimitives),
+                joinInfo.rightKeys);
+        return new ProbeEnumerator(
+            leftSource.batches(dataContext).enumerator(), hashTable,
+            joinInfo.leftKeys);
+      }
+    };
+  }
+
+  /** Returns the hash code of the key of each row in a batch. */
+  private static int[] hashes(ColumnVector[] keyColumns, int size) {
+    final int[] hashes = new int[size];
+    for (ColumnVector v : keyColumns) {
+      switch (v.storage()) {
+      case LONG:
+        final long[] longs = v.longs;
+        for (int i = 0; i < size; i++) {
+          hashes[i] = hashes[i] * 31 + Long.hashCode(longs[i]);
+        }
+        break;
+      case DOUBLE:
+        final double[] doubles = v.doubles;
+        for (int i = 0; i < size; i++) {
+          hashes[i] = hashes[i] * 31 + Long.hashCode(bits(doubles[i]));
+        }
+        break;
+      default:
+        final Object[] objects = v.objects;
+        for (int i = 0; i < size; i++) {
+          // The slot of a null value is null
+          hashes[i] = hashes[i] * 31
+              + (objects[i] == null ? 0 : objects[i].hashCode());
+        }
+      }
+    }
+    return hashes;
+  }
+
+  /** Returns the bits of a {@code double} key. In SQL, 0.0 = -0.0, so both
+   * have the same bits. */
+  private static long bits(double d) {
+    return Double.doubleToLongBits(d == 0d ? 0d : d);
+  }
+
+  /** Returns whether any of the key columns is null in a given row. */
+  private static boolean hasNull(ColumnVector[] keyColumns, int i) {
+    for (ColumnVector v : keyColumns) {
+      if (v.isNull(i)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Returns whether row {@code i} of one set of key columns has the same key
+   * as row {@code j} of another. Keys are not null, and corresponding columns
+   * have the same storage. */
+  private static boolean keysEqual(ColumnVector[] keyColumns0, int i,
+      ColumnVector[] keyColumns1, int j) {
+    for (int k = 0; k < keyColumns0.length; k++) {
+      final ColumnVector v0 = keyColumns0[k];
+      final ColumnVector v1 = keyColumns1[k];
+      switch (v0.storage()) {
+      case LONG:
+        if (v0.longs[i] != v1.longs[j]) {
+          return false;
+        }
+        break;
+      case DOUBLE:
+        if (bits(v0.doubles[i]) != bits(v1.doubles[j])) {
+          return false;
+        }
+        break;
+      default:
+        if (!v0.objects[i].equals(v1.objects[j])) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  private static ColumnVector[] columns(ColumnBatch batch,
+      ImmutableIntList keys) {
+    final ColumnVector[] columns = new ColumnVector[keys.size()];
+    for (int k = 0; k < columns.length; k++) {
+      columns[k] = batch.columns[keys.get(k)];
+    }
+    return columns;
+  }
+
+  /** Hash table built from the rows of the right input. Rows whose keys
+   * fall in the same bucket form a chain, in input order. Rows with a null
+   * key are not in the table. */
+  private static class HashTable {
+    final ColumnBatch batch;
+    final ColumnVector[] keyColumns;
+    final int[] hashes;
+    /** First row of each bucket's chain, or -1. */
+    final int[] buckets;
+    /** Next row of each row's chain, or -1. */
+    final int[] next;
+
+    HashTable(ColumnBatch batch, ImmutableIntList keys) {
+      this.batch = batch;
+      this.keyColumns = columns(batch, keys);
+      this.hashes = hashes(keyColumns, batch.size);
+      this.next = new int[batch.size];
+      // A power of two, at least twice the number of rows
+      this.buckets = new int[Integer.highestOneBit(Math.max(batch.size, 1)) << 2];
+      Arrays.fill(buckets, -1);
+      for (int i = batch.size - 1; i >= 0; i--) {
+        if (!hasNull(keyColumns, i)) {
+          final int b = bucket(hashes[i]);
+          next[i] = buckets[b];
+          buckets[b] = i;
+        }
+      }
+    }
+
+    int bucket(int hash) {
+      return (hash ^ (hash >>> 16)) & (buckets.length - 1);
+    }
+
+    /** Returns the first row, starting at {@code j} and following its chain,
+     * whose key equals the key of row {@code i} of the probe columns;
+     * or -1. */
+    int find(int j, ColumnVector[] probeColumns, int i, int hash) {
+      for (; j >= 0; j = next[j]) {
+        if (hashes[j] == hash && keysEqual(probeColumns, i, keyColumns, j)) {
+          return j;
+        }
+      }
+      return -1;
+    }
+  }
+
+  /** Enumerator that probes the hash table with each batch of the left
+   * input. Emits a batch when a left batch is exhausted or when the output
+   * batch is full. */
+  private static class ProbeEnumerator implements Enumerator<ColumnBatch> {
+    /** Value of {@link #match} before the current row has been looked up. */
+    private static final int NOT_STARTED = -2;
+
+    private final Enumerator<ColumnBatch> left;
+    private final HashTable hashTable;
+    private final ImmutableIntList leftKeys;
+    private final int[] leftPositions = new int[ColumnBatch.DEFAULT_SIZE];
+    private final int[] rightPositions = new int[ColumnBatch.DEFAULT_SIZE];
+    private ColumnBatch batch;
+    private ColumnVector[] keyColumns;
+    private int[] hashes;
+    private int row;
+    private int match = NOT_STARTED;
+    private ColumnBatch current;
+
+    ProbeEnumerator(Enumerator<ColumnBatch> left, HashTable hashTable,
+        ImmutableIntList leftKeys) {
+      this.left = left;
+      this.hashTable = hashTable;
+      this.leftKeys = leftKeys;
+    }
+
+    public ColumnBatch current() {
+      return current;
+    }
+
+    public boolean moveNext() {
+      int count = 0;
+      for (;;) {
+        if (batch == null) {
+          if (!left.moveNext()) {
+            current = null;
+            return false;
+          }
+          batch = left.current();
+          keyColumns = columns(batch, leftKeys);
+          hashes = hashes(keyColumns, batch.size);
+          row = 0;
+          match = NOT_STARTED;
+        }
+        for (; row < batch.size; row++, match = NOT_STARTED) {
+          if (match == NOT_STARTED) {
+            match = hasNull(keyColumns, row)
+                ? -1
+                : hashTable.find(hashTable.buckets[hashTable.bucket(hashes[row])],
+                    keyColumns, row, hashes[row]);
+          }
+          while (match >= 0) {
+            leftPositions[count] = row;
+            rightPositions[count] = match;
+            ++count;
+            match = hashTable.find(hashTable.next[match], keyColumns, row,
+                hashes[row]);
+            if (count == leftPositions.length) {
+              current = output(batch, count);
+              return true;
+            }
+          }
+        }
+        final ColumnBatch exhausted = batch;
+        batch = null;
+        if (count > 0) {
+          current = output(exhausted, count);
+          return true;
+        }
+      }
+    }
+
+    private ColumnBatch output(ColumnBatch leftBatch, int count) {
+      final ColumnBatch rightBatch = hashTable.batch;
+      final ColumnVector[] vectors =
+          new ColumnVector[leftBatch.columns.length
+              + rightBatch.columns.length];
+      for (int i = 0; i < leftBatch.columns.length; i++) {
+        vectors[i] = leftBatch.columns[i].gather(leftPositions, count);
+      }
+      for (int i = 0; i < rightBatch.columns.length; i++) {
+        vectors[leftBatch.columns.length + i] =
+            rightBatch.columns[i].gather(rightPositions, count);
+      }
+      return new ColumnBatch(count, vectors);
+    }
+
+    public void reset() {
+      throw new UnsupportedOperationException();
+    }
+
+    public void close() {
+      left.close();
+    }
+  }
+}
+
+// End ColumnarHashJoin.java
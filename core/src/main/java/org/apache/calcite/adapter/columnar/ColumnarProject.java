@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.calcite.adapter.columnar;
+
+import org.apache.calcite.adapter.java.JavaTypeFactory;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelOptCost;
+import org.apache.calcite.plan.RelOptPlanner;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.Project;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rex.RexNode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** Implementation of {@link org.apache.calcite.rel.core.Project} in
+ * columnar convention.
+ *
+ * <p>A field reference costs nothing: the output batch shares the input
+ * batch's vector. */
+public class ColumnarProject extends Project implements ColumnarRel {
+  /** Creates a ColumnarProject. */
+  public ColumnarProject(RelOptCluster cluster, RelTraitSet traitSet,
+      RelNode input, List<? extends RexNode> projects, RelDataType rowType) {
+    super(cluster, traitSet, input, projects, rowType);
+    assert getConvention() instanceof ColumnarConvention;
+  }
+
+  public ColumnarProject copy(RelTraitSet traitSet, RelNode input,
+      List<RexNode> projects, RelDataType rowType) {
+    return new ColumnarProject(getCluster(), traitSet, input, projects,
+        rowType);
+  }
+
+  @Override public RelOptCost computeSelfCost(RelOptPlanner planner,
+      RelMetadataQuery mq) {
+    return super.computeSelfCost(planner, mq)
+        .multiplyBy(ColumnarConvention.COST_MULTIPLIER);
+  }
+
+  public BatchSource toBatchSource() {
+    final JavaTypeFactory typeFactory =
+        (JavaTypeFactory) getCluster().getTypeFactory();
+    final List<VectorExpression> expressions = new ArrayList<>();
+    for (RexNode project : getProjects()) {
+      expressions.add(VectorExpression.translate(project, typeFactory));
+    }
+    final BatchSource input = ((ColumnarRel) getInput()).toBatchSource();
+    return dataContext -> input.batches(dataContext)
+        .select(batch -> {
+          final ColumnVector[] vectors =
+              new ColumnVector[expressions.size()];
+          for (int i = 0; i < vectors.length; i++) {
+            vectors[i] = expressions.get(i).evaluate(batch);
+          }
+          return new ColumnBatch(batch.size, vectors);
+        });
+  }
+}
+
+// End ColumnarProject.java
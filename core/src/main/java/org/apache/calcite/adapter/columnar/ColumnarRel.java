@@ -0,0 +1,48 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.calcite.adapter.columnar;
+
+import org.apache.calcite.DataContext;
+import org.apache.calcite.linq4j.Enumerable;
+import org.apache.calcite.rel.RelNode;
+
+/**
+ * Relational expression that can be executed using columnar batches.
+ *
+ * @see ColumnarConvention
+ */
+public interface ColumnarRel extends RelNode {
+  /** Creates the executable form of this relational expression.
+   *
+   * <p>Called once, when the enclosing enumerable plan is implemented. The
+   * result is held by the compiled plan, which may be cached, so it must not
+   * reference relational expressions, the planner, or anything else that is
+   * only needed during planning. */
+  BatchSource toBatchSource();
+
+  /** Executable form of a {@link ColumnarRel}. */
+  interface BatchSource {
+    /** Executes the relational expression, returning its rows as a
+     * sequence of batches.
+     *
+     * <p>May be called several times, including concurrently, so
+     * implementations must not keep per-execution state. */
+    Enumerable<ColumnBatch> batches(DataContext dataContext);
+  }
+}
+
+// End ColumnarRel.java
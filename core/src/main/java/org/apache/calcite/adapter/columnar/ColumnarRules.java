@@ -0,0 +1,285 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.calcite.adapter.columnar;
+
+import org.apache.calcite.adapter.enumerable.EnumerableConvention;
+import org.apache.calcite.adapter.enumerable.EnumerableRel;
+import org.apache.calcite.adapter.java.JavaTypeFactory;
+import org.apache.calcite.plan.Convention;
+import org.apache.calcite.plan.RelOptPlanner;
+import org.apache.calcite.plan.RelOptRule;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.rel.InvalidRelException;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.convert.ConverterRule;
+import org.apache.calcite.rel.core.RelFactories;
+import org.apache.calcite.rel.logical.LogicalAggregate;
+import org.apache.calcite.rel.logical.LogicalFilter;
+import org.apache.calcite.rel.logical.LogicalJoin;
+import org.apache.calcite.rel.logical.LogicalProject;
+import org.apache.calcite.rel.logical.LogicalTableScan;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.tools.RelBuilderFactory;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Rules that convert relational expressions to
+ * {@link ColumnarConvention columnar calling convention}.
+ *
+ * <p>They are registered by
+ * {@link org.apache.calcite.prepare.CalcitePrepareImpl} if the
+ * {@link org.apache.calcite.config.CalciteConnectionProperty#COLUMNAR}
+ * connection property is true. A relational expression is converted only if
+ * every expression and aggregate function it contains can be evaluated over
+ * batches; otherwise it remains in enumerable convention, and converters
+ * join the two conventions.
+ */
+public class ColumnarRules {
+  private ColumnarRules() {}
+
+  public static final RelOptRule COLUMNAR_TABLE_SCAN_RULE =
+      new ColumnarTableScanRule(RelFactories.LOGICAL_BUILDER);
+
+  public static final RelOptRule COLUMNAR_FILTER_RULE =
+      new ColumnarFilterRule(RelFactories.LOGICAL_BUILDER);
+
+  public static final RelOptRule COLUMNAR_PROJECT_RULE =
+      new ColumnarProjectRule(RelFactories.LOGICAL_BUILDER);
+
+  public static final RelOptRule COLUMNAR_AGGREGATE_RULE =
+      new ColumnarAggregateRule(RelFactories.LOGICAL_BUILDER);
+
+  public static final RelOptRule COLUMNAR_HASH_JOIN_RULE =
+      new ColumnarHashJoinRule(RelFactories.LOGICAL_BUILDER);
+
+  public static final RelOptRule ENUMERABLE_TO_COLUMNAR_RULE =
+      new EnumerableToColumnarRule(RelFactories.LOGICAL_BUILDER);
+
+  public static final RelOptRule COLUMNAR_TO_ENUMERABLE_RULE =
+      new ColumnarToEnumerableRule(RelFactories.LOGICAL_BUILDER);
+
+  /** All rules that convert relational expressions to and from columnar
+   * convention. */
+  public static final ImmutableList<RelOptRule> RULES =
+      ImmutableList.of(
+          COLUMNAR_TABLE_SCAN_RULE,
+          COLUMNAR_FILTER_RULE,
+          COLUMNAR_PROJECT_RULE,
+          COLUMNAR_AGGREGATE_RULE,
+          COLUMNAR_HASH_JOIN_RULE,
+          ENUMERABLE_TO_COLUMNAR_RULE,
+          COLUMNAR_TO_ENUMERABLE_RULE);
+
+  /** Returns whether all of a list of expressions can be evaluated over
+   * batches. */
+  static boolean canTranslate(RelNode rel, List<RexNode> nodes) {
+    if (!(rel.getCluster().getTypeFactory() instanceof JavaTypeFactory)) {
+      return false;
+    }
+    final JavaTypeFactory typeFactory =
+        (JavaTypeFactory) rel.getCluster().getTypeFactory();
+    for (RexNode node : nodes) {
+      if (VectorExpression.translate(node, typeFactory) == null) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static RelTraitSet columnar(RelNode rel) {
+    return rel.getTraitSet().replace(ColumnarConvention.INSTANCE);
+  }
+
+  /** Rule that converts a {@link LogicalTableScan} of a
+   * {@link org.apache.calcite.schema.ScannableTable} to a
+   * {@link ColumnarTableScan}. */
+  public static class ColumnarTableScanRule extends ConverterRule {
+    /**
+     * Creates a ColumnarTableScanRule.
+     *
+     * @param relBuilderFactory Builder for relational expressions
+     */
+    public ColumnarTableScanRule(RelBuilderFactory relBuilderFactory) {
+      super(LogicalTableScan.class,
+          (Predicate<LogicalTableScan>) scan ->
+              scan.getCluster().getTypeFactory() instanceof JavaTypeFactory
+                  && ColumnarTableScan.canHandle(scan.getTable()),
+          Convention.NONE, ColumnarConvention.INSTANCE, relBuilderFactory,
+          "ColumnarTableScanRule");
+    }
+
+    public RelNode convert(RelNode rel) {
+      final LogicalTableScan scan = (LogicalTableScan) rel;
+      return ColumnarTableScan.create(scan.getCluster(), scan.getTable());
+    }
+  }
+
+  /** Rule that converts a {@link LogicalFilter} to a
+   * {@link ColumnarFilter}. */
+  public static class ColumnarFilterRule extends ConverterRule {
+    /**
+     * Creates a ColumnarFilterRule.
+     *
+     * @param relBuilderFactory Builder for relational expressions
+     */
+    public ColumnarFilterRule(RelBuilderFactory relBuilderFactory) {
+      super(LogicalFilter.class,
+          (Predicate<LogicalFilter>) filter ->
+              canTranslate(filter, ImmutableList.of(filter.getCondition())),
+          Convention.NONE, ColumnarConvention.INSTANCE, relBuilderFactory,
+          "ColumnarFilterRule");
+    }
+
+    public RelNode convert(RelNode rel) {
+      final LogicalFilter filter = (LogicalFilter) rel;
+      return ColumnarFilter.create(
+          convert(filter.getInput(), columnar(filter.getInput())),
+          filter.getCondition());
+    }
+  }
+
+  /** Rule that converts a {@link LogicalProject} to a
+   * {@link ColumnarProject}. */
+  public static class ColumnarProjectRule extends ConverterRule {
+    /**
+     * Creates a ColumnarProjectRule.
+     *
+     * @param relBuilderFactory Builder for relational expressions
+     */
+    public ColumnarProjectRule(RelBuilderFactory relBuilderFactory) {
+      super(LogicalProject.class,
+          (Predicate<LogicalProject>) project ->
+              canTranslate(project, project.getProjects()),
+          Convention.NONE, ColumnarConvention.INSTANCE, relBuilderFactory,
+          "ColumnarProjectRule");
+    }
+
+    public RelNode convert(RelNode rel) {
+      final LogicalProject project = (LogicalProject) rel;
+      return new ColumnarProject(rel.getCluster(), columnar(rel),
+          convert(project.getInput(), columnar(project.getInput())),
+          project.getProjects(), project.getRowType());
+    }
+  }
+
+  /** Rule that converts a {@link LogicalAggregate} to a
+   * {@link ColumnarAggregate}. */
+  public static class ColumnarAggregateRule extends ConverterRule {
+    /**
+     * Creates a ColumnarAggregateRule.
+     *
+     * @param relBuilderFactory Builder for relational expressions
+     */
+    public ColumnarAggregateRule(RelBuilderFactory relBuilderFactory) {
+      super(LogicalAggregate.class,
+          (Predicate<LogicalAggregate>) agg ->
+              agg.getCluster().getTypeFactory() instanceof JavaTypeFactory,
+          Convention.NONE, ColumnarConvention.INSTANCE, relBuilderFactory,
+          "ColumnarAggregateRule");
+    }
+
+    public RelNode convert(RelNode rel) {
+      final LogicalAggregate agg = (LogicalAggregate) rel;
+      try {
+        return new ColumnarAggregate(rel.getCluster(), columnar(agg),
+            convert(agg.getInput(), columnar(agg.getInput())),
+            agg.getGroupSet(), agg.getGroupSets(), agg.getAggCallList());
+      } catch (InvalidRelException e) {
+        RelOptPlanner.LOGGER.debug(e.toString());
+        return null;
+      }
+    }
+  }
+
+  /** Rule that converts a {@link LogicalJoin} to a
+   * {@link ColumnarHashJoin}. */
+  public static class ColumnarHashJoinRule extends ConverterRule {
+    /**
+     * Creates a ColumnarHashJoinRule.
+     *
+     * @param relBuilderFactory Builder for relational expressions
+     */
+    public ColumnarHashJoinRule(RelBuilderFactory relBuilderFactory) {
+      super(LogicalJoin.class,
+          (Predicate<LogicalJoin>) join ->
+              join.getCluster().getTypeFactory() instanceof JavaTypeFactory,
+          Convention.NONE, ColumnarConvention.INSTANCE, relBuilderFactory,
+          "ColumnarHashJoinRule");
+    }
+
+    public RelNode convert(RelNode rel) {
+      final LogicalJoin join = (LogicalJoin) rel;
+      try {
+        return new ColumnarHashJoin(rel.getCluster(), columnar(join),
+            convert(join.getLeft(), columnar(join.getLeft())),
+            convert(join.getRight(), columnar(join.getRight())),
+            join.getCondition(), join.getVariablesSet(), join.getJoinType());
+      } catch (InvalidRelException e) {
+        RelOptPlanner.LOGGER.debug(e.toString());
+        return null;
+      }
+    }
+  }
+
+  /** Rule that converts any enumerable relational expression to columnar
+   * convention. */
+  public static class EnumerableToColumnarRule extends ConverterRule {
+    /**
+     * Creates an EnumerableToColumnarRule.
+     *
+     * @param relBuilderFactory Builder for relational expressions
+     */
+    public EnumerableToColumnarRule(RelBuilderFactory relBuilderFactory) {
+      super(EnumerableRel.class,
+          (Predicate<RelNode>) r ->
+              !(r instanceof ColumnarToEnumerableConverter)
+                  && r.getCluster().getTypeFactory() instanceof JavaTypeFactory,
+          EnumerableConvention.INSTANCE, ColumnarConvention.INSTANCE,
+          relBuilderFactory, "EnumerableToColumnarRule");
+    }
+
+    public RelNode convert(RelNode rel) {
+      return new EnumerableToColumnarConverter(rel.getCluster(), rel);
+    }
+  }
+
+  /** Rule that converts any columnar relational expression to enumerable
+   * convention. */
+  public static class ColumnarToEnumerableRule extends ConverterRule {
+    /**
+     * Creates a ColumnarToEnumerableRule.
+     *
+     * @param relBuilderFactory Builder for relational expressions
+     */
+    public ColumnarToEnumerableRule(RelBuilderFactory relBuilderFactory) {
+      super(ColumnarRel.class,
+          (Predicate<RelNode>) r -> !(r instanceof EnumerableToColumnarConverter),
+          ColumnarConvention.INSTANCE, EnumerableConvention.INSTANCE,
+          relBuilderFactory, "ColumnarToEnumerableRule");
+    }
+
+    public RelNode convert(RelNode rel) {
+      return new ColumnarToEnumerableConverter(rel.getCluster(), rel);
+    }
+  }
+}
+
+// End ColumnarRules.java
@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.calcite.adapter.columnar;
+
+import org.apache.calcite.adapter.java.JavaTypeFactory;
+import org.apache.calcite.linq4j.tree.Primitive;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelOptCost;
+import org.apache.calcite.plan.RelOptPlanner;
+import org.apache.calcite.plan.RelOptTable;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.rel.RelCollationTraitDef;
+import org.apache.calcite.rel.core.TableScan;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.schema.ScannableTable;
+import org.apache.calcite.schema.Table;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+/**
+ * Scan of a table that implements {@link ScannableTable}, in columnar
+ * convention.
+ *
+ * <p>Reads rows and copies them into batches; operators above the scan
+ * process batches.
+ */
+public class ColumnarTableScan extends TableScan implements ColumnarRel {
+  /** Creates a ColumnarTableScan.
+   *
+   * <p>Use {@link #create} unless you know what you are doing. */
+  ColumnarTableScan(RelOptCluster cluster, RelTraitSet traitSet,
+      RelOptTable table) {
+    super(cluster, traitSet, table);
+    Preconditions.checkArgument(canHandle(table));
+  }
+
+  /** Creates a ColumnarTableScan. */
+  public static ColumnarTableScan create(RelOptCluster cluster,
+      RelOptTable relOptTable) {
+    // Batches hold rows in the order that the table returns them, so the
+    // scan has the same collations as the table (as does EnumerableTableScan)
+    final Table table = relOptTable.unwrap(Table.class);
+    final RelTraitSet traitSet =
+        cluster.traitSetOf(ColumnarConvention.INSTANCE)
+            .replaceIfs(RelCollationTraitDef.INSTANCE, () -> {
+              if (table != null) {
+                return table.getStatistic().getCollations();
+              }
+              return ImmutableList.of();
+            });
+    return new ColumnarTableScan(cluster, traitSet, relOptTable);
+  }
+
+  public static boolean canHandle(RelOptTable table) {
+    return table.unwrap(ScannableTable.class) != null;
+  }
+
+  @Override public RelOptCost computeSelfCost(RelOptPlanner planner,
+      RelMetadataQuery mq) {
+    return super.computeSelfCost(planner, mq)
+        .multiplyBy(ColumnarConvention.COST_MULTIPLIER);
+  }
+
+  public BatchSource toBatchSource() {
+    final JavaTypeFactory typeFactory =
+        (JavaTypeFactory) getCluster().getTypeFactory();
+    final ScannableTable scannableTable = table.unwrap(ScannableTable.class);
+    final List<Primitive> primitives =
+        VectorExpression.primitives(typeFactory, getRowType());
+    return dataContext ->
+        ColumnBatch.fromRows(scannableTable.scan(dataContext), primitives);
+  }
+}
+
+// End ColumnarTableScan.java
@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.calcite.adapter.columnar;
+
+import org.apache.calcite.adapter.enumerable.EnumerableConvention;
+import org.apache.calcite.adapter.enumerable.EnumerableRel;
+import org.apache.calcite.adapter.enumerable.EnumerableRelImplementor;
+import org.apache.calcite.adapter.enumerable.JavaRowFormat;
+import org.apache.calcite.adapter.enumerable.PhysType;
+import org.apache.calcite.adapter.enumerable.PhysTypeImpl;
+import org.apache.calcite.linq4j.tree.BlockBuilder;
+import org.apache.calcite.linq4j.tree.Expression;
+import org.apache.calcite.linq4j.tree.Expressions;
+import org.apache.calcite.plan.ConventionTraitDef;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelOptCost;
+import org.apache.calcite.plan.RelOptPlanner;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.convert.ConverterImpl;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.util.BuiltInMethod;
+
+import java.util.List;
+
+/**
+ * Relational expression that converts a columnar input to enumerable
+ * calling convention.
+ *
+ * <p>When implemented, creates the input's
+ * {@link ColumnarRel.BatchSource}; the generated code calls it, and converts
+ * each batch into rows.
+ *
+ * @see ColumnarConvention
+ * @see EnumerableConvention
+ */
+public class ColumnarToEnumerableConverter extends ConverterImpl
+    implements EnumerableRel {
+  protected ColumnarToEnumerableConverter(RelOptCluster cluster,
+      RelNode input) {
+    super(cluster, ConventionTraitDef.INSTANCE,
+        cluster.traitSetOf(EnumerableConvention.INSTANCE), input);
+  }
+
+  @Override public ColumnarToEnumerableConverter copy(RelTraitSet traitSet,
+      List<RelNode> inputs) {
+    return new ColumnarToEnumerableConverter(getCluster(), sole(inputs));
+  }
+
+  @Override public RelOptCost computeSelfCost(RelOptPlanner planner,
+      RelMetadataQuery mq) {
+    // Turning batches into rows reads each vector once, in a loop over the
+    // batch, as columnar operators do, so it is costed as one
+    return super.computeSelfCost(planner, mq)
+        .multiplyBy(ColumnarConvention.COST_MULTIPLIER);
+  }
+
+  public Result implement(EnumerableRelImplementor implementor, Prefer pref) {
+    final BlockBuilder builder = new BlockBuilder();
+    final PhysType physType =
+        PhysTypeImpl.of(implementor.getTypeFactory(), getRowType(),
+            JavaRowFormat.ARRAY);
+    final ColumnarRel.BatchSource source =
+        ((ColumnarRel) getInput()).toBatchSource();
+    final Expression batches_ =
+        Expressions.call(
+            implementor.stash(source, ColumnarRel.BatchSource.class),
+            BuiltInMethod.COLUMNAR_BATCHES.method,
+            implementor.getRootExpression());
+    final Expression rows_ = builder.append("rows",
+        Expressions.call(BuiltInMethod.COLUMN_BATCH_TO_ROWS.method,
+            batches_));
+    final Expression sliced_ =
+        getRowType().getFieldCount() == 1
+            ? Expressions.call(BuiltInMethod.SLICE0.method, rows_)
+            : rows_;
+    builder.add(sliced_);
+    return implementor.result(physType, builder.toBlock());
+  }
+}
+
+// End ColumnarToEnumerableConverter.java
@@ -0,0 +1,119 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.calcite.adapter.columnar;
+
+import org.apache.calcite.DataContext;
+import org.apache.calcite.adapter.enumerable.EnumerableCalc;
+import org.apache.calcite.adapter.enumerable.EnumerableConvention;
+import org.apache.calcite.adapter.enumerable.EnumerableInterpretable;
+import org.apache.calcite.adapter.enumerable.EnumerableRel;
+import org.apache.calcite.adapter.java.JavaTypeFactory;
+import org.apache.calcite.linq4j.QueryProvider;
+import org.apache.calcite.linq4j.tree.Primitive;
+import org.apache.calcite.plan.ConventionTraitDef;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.convert.ConverterImpl;
+import org.apache.calcite.rex.RexProgram;
+import org.apache.calcite.runtime.ArrayBindable;
+import org.apache.calcite.runtime.Bindable;
+import org.apache.calcite.schema.SchemaPlus;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Relational expression that converts an enumerable input to columnar
+ * calling convention.
+ *
+ * <p>When implemented, generates and compiles code for the input, as
+ * {@link org.apache.calcite.adapter.enumerable.EnumerableBindable} does;
+ * when executed, binds that code and copies its rows into batches.
+ *
+ * @see EnumerableConvention
+ * @see ColumnarConvention
+ */
+public class EnumerableToColumnarConverter extends ConverterImpl
+    implements ColumnarRel {
+  protected EnumerableToColumnarConverter(RelOptCluster cluster,
+      RelNode input) {
+    super(cluster, ConventionTraitDef.INSTANCE,
+        cluster.traitSetOf(ColumnarConvention.INSTANCE), input);
+  }
+
+  @Override public EnumerableToColumnarConverter copy(RelTraitSet traitSet,
+      List<RelNode> inputs) {
+    return new EnumerableToColumnarConverter(getCluster(), sole(inputs));
+  }
+
+  public BatchSource toBatchSource() {
+    // An identity Calc ensures that the rows are arrays, whatever the
+    // physical format of the input.
+    final EnumerableRel rel =
+        EnumerableCalc.create(getInput(),
+            RexProgram.createIdentity(getInput().getRowType()));
+    final Map<String, Object> parameters = new HashMap<>();
+    final Bindable bindable = EnumerableInterpretable.toBindable(parameters,
+        null, rel, EnumerableRel.Prefer.ARRAY);
+    final ArrayBindable arrayBindable = EnumerableInterpretable.box(bindable);
+    final List<Primitive> primitives =
+        VectorExpression.primitives(
+            (JavaTypeFactory) getCluster().getTypeFactory(), getRowType());
+    return dataContext -> {
+      final DataContext context = parameters.isEmpty()
+          ? dataContext
+          : new StashedDataContext(dataContext, parameters);
+      return ColumnBatch.fromRows(arrayBindable.bind(context), primitives);
+    };
+  }
+
+  /** Data context that also contains the values stashed while generating
+   * code. */
+  private static class StashedDataContext implements DataContext {
+    private final DataContext dataContext;
+    private final Map<String, Object> parameters;
+
+    StashedDataContext(DataContext dataContext,
+        Map<String, Object> parameters) {
+      this.dataContext = dataContext;
+      this.parameters = parameters;
+    }
+
+    public SchemaPlus getRootSchema() {
+      return dataContext.getRootSchema();
+    }
+
+    public JavaTypeFactory getTypeFactory() {
+      return dataContext.getTypeFactory();
+    }
+
+    public QueryProvider getQueryProvider() {
+      return dataContext.getQueryProvider();
+    }
+
+    public Object get(String name) {
+      if (parameters.containsKey(name)) {
+        return parameters.get(name);
+      }
+      return dataContext.get(name);
+    }
+  }
+}
+
+// End EnumerableToColumnarConverter.java
@@ -0,0 +1,633 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.calcite.adapter.columnar;
+
+import org.apache.calcite.adapter.columnar.ColumnVector.Storage;
+import org.apache.calcite.adapter.java.JavaTypeFactory;
+import org.apache.calcite.linq4j.tree.Primitive;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeField;
+import org.apache.calcite.rex.RexCall;
+import org.apache.calcite.rex.RexInputRef;
+import org.apache.calcite.rex.RexLiteral;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.sql.SqlKind;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.calcite.sql.type.SqlTypeUtil;
+import org.apache.calcite.util.DateString;
+import org.apache.calcite.util.NlsString;
+import org.apache.calcite.util.TimeString;
+import org.apache.calcite.util.TimestampString;
+
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Expression that is evaluated over a {@link ColumnBatch}, producing a
+ * {@link ColumnVector}.
+ *
+ * <p>Each kind of expression evaluates a whole batch in a loop over primitive
+ * arrays, so the cost of dispatching on the kind of expression and of
+ * checking for nulls is paid once per batch rather than once per row.
+ *
+ * <p>Only a subset of scalar expressions is supported: input fields,
+ * literals, arithmetic, comparisons, boolean logic, {@code IS [NOT] NULL}
+ * and numeric casts. {@link #translate} returns null for any other
+ * expression, and the planner keeps the relational expression that contains
+ * it in {@link org.apache.calcite.adapter.enumerable.EnumerableConvention}.
+ */
+public abstract class VectorExpression {
+  /** Java type of the values produced by this expression. */
+  public final Primitive primitive;
+
+  VectorExpression(Primitive primitive) {
+    this.primitive = primitive;
+  }
+
+  /** Evaluates this expression over a batch. The caller must not modify the
+   * returned vector, because it may be shared. */
+  public abstract ColumnVector evaluate(ColumnBatch batch);
+
+  /** Returns how values of a given SQL type appear in rows in enumerable
+   * convention. */
+  public static Primitive primitive(JavaTypeFactory typeFactory,
+      RelDataType type) {
+    final Type clazz = typeFactory.getJavaClass(type);
+    final Primitive primitive = Primitive.ofBoxOr(clazz);
+    return primitive == null || primitive == Primitive.VOID
+        ? Primitive.OTHER
+        : primitive;
+  }
+
+  /** Returns how the fields of a given row type appear in rows in enumerable
+   * convention. */
+  public static List<Primitive> primitives(JavaTypeFactory typeFactory,
+      RelDataType rowType) {
+    final List<Primitive> list = new ArrayList<>();
+    for (RelDataTypeField field : rowType.getFieldList()) {
+      list.add(primitive(typeFactory, field.getType()));
+    }
+    return list;
+  }
+
+  /** Converts a row expression into a vector expression, or returns null if
+   * the expression cannot be evaluated over batches. */
+  public static VectorExpression translate(RexNode node,
+      JavaTypeFactory typeFactory) {
+    final Primitive primitive = primitive(typeFactory, node.getType());
+    final Storage storage = Storage.of(primitive);
+    if (node instanceof RexInputRef) {
+      return new InputRef(primitive, ((RexInputRef) node).getIndex());
+    }
+    if (node instanceof RexLiteral) {
+      final Object value = literalValue((RexLiteral) node, storage);
+      return value == UNSUPPORTED ? null : new Literal(primitive, value);
+    }
+    if (!(node instanceof RexCall)) {
+      return null;
+    }
+    final RexCall call = (RexCall) node;
+    final List<VectorExpression> operands = new ArrayList<>();
+    for (RexNode operand : call.getOperands()) {
+      final VectorExpression e = translate(operand, typeFactory);
+      if (e == null) {
+        return null;
+      }
+      operands.add(e);
+    }
+    switch (call.getKind()) {
+    case PLUS:
+    case MINUS:
+    case TIMES:
+    case DIVIDE:
+      if (!isNumeric(call) || storage == Storage.OBJECT) {
+        return null;
+      }
+      final VectorExpression left = operands.get(0);
+      final VectorExpression right = operands.get(1);
+      if (storage == Storage.LONG
+          && (Storage.of(left.primitive) != Storage.LONG
+              || Storage.of(right.primitive) != Storage.LONG)) {
+        return null;
+      }
+      return new Arithmetic(primitive, call.getKind(), left, right);
+    case MINUS_PREFIX:
+      if (!isNumeric(call) || storage == Storage.OBJECT
+          || Storage.of(operands.get(0).primitive) != storage) {
+        return null;
+      }
+      return new Negate(primitive, operands.get(0));
+    case PLUS_PREFIX:
+      return operands.get(0);
+    case EQUALS:
+    case NOT_EQUALS:
+    case LESS_THAN:
+    case LESS_THAN_OR_EQUAL:
+    case GREATER_THAN:
+    case GREATER_THAN_OR_EQUAL:
+      final RelDataType type0 = call.getOperands().get(0).getType();
+      final RelDataType type1 = call.getOperands().get(1).getType();
+      final Storage storage0 = Storage.of(operands.get(0).primitive);
+      final Storage storage1 = Storage.of(operands.get(1).primitive);
+      if (storage0 == Storage.OBJECT || storage1 == Storage.OBJECT) {
+        // Only compare objects of types whose Java values are Comparable
+        // and compare the same way in SQL
+        if (storage0 != storage1
+            || !isComparableObject(type0)
+            || !isComparableObject(type1)
+            || SqlTypeUtil.isCharacter(type0)
+                != SqlTypeUtil.isCharacter(type1)) {
+          return null;
+        }
+      }
+      return new Comparison(call.getKind(), operands.get(0), operands.get(1));
+    case AND:
+    case OR:
+      return new Logical(call.getKind(), operands);
+    case NOT:
+      return new Not(operands.get(0));
+    case IS_NULL:
+    case IS_NOT_NULL:
+      return new IsNull(call.getKind() == SqlKind.IS_NULL, operands.get(0));
+    case CAST:
+      final RelDataType fromType = call.getOperands().get(0).getType();
+      if (SqlTypeUtil.equalSansNullability(typeFactory, fromType,
+          call.getType())) {
+        return operands.get(0);
+      }
+      if (!SqlTypeUtil.isNumeric(fromType)
+          || !SqlTypeUtil.isNumeric(call.getType())
+          || storage == Storage.OBJECT
+          || Storage.of(operands.get(0).primitive) == Storage.OBJECT) {
+        return null;
+      }
+      return new Cast(primitive, operands.get(0));
+    default:
+      return null;
+    }
+  }
+
+  private static boolean isNumeric(RexCall call) {
+    if (!SqlTypeUtil.isNumeric(call.getType())) {
+      return false;
+    }
+    for (RexNode operand : call.getOperands()) {
+      if (!SqlTypeUtil.isNumeric(operand.getType())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isComparableObject(RelDataType type) {
+    return SqlTypeUtil.isCharacter(type)
+        || type.getSqlTypeName() == SqlTypeName.DECIMAL;
+  }
+
+  /** Marker for a literal whose value cannot be held in a vector. */
+  private static final Object UNSUPPORTED = new Object();
+
+  /** Returns the value of a literal as it would appear in a row. */
+  private static Object literalValue(RexLiteral literal, Storage storage) {
+    if (literal.isNull()) {
+      return null;
+    }
+    final Comparable value = literal.getValueAs(Comparable.class);
+    if (value instanceof BigDecimal) {
+      final BigDecimal bd = (BigDecimal) value;
+      switch (storage) {
+      case LONG:
+        return bd.longValue();
+      case DOUBLE:
+        return bd.doubleValue();
+      default:
+        return literal.getType().getSqlTypeName() == SqlTypeName.DECIMAL
+            ? bd
+            : UNSUPPORTED;
+      }
+    } else if (value instanceof Boolean) {
+      return storage == Storage.LONG ? value : UNSUPPORTED;
+    } else if (value instanceof NlsString) {
+      return storage == Storage.OBJECT
+          ? ((NlsString) value).getValue()
+          : UNSUPPORTED;
+    } else if (value instanceof DateString) {
+      return storage == Storage.LONG
+          ? (long) ((DateString) value).getDaysSinceEpoch()
+          : UNSUPPORTED;
+    } else if (value instanceof TimeString) {
+      return storage == Storage.LONG
+          ? (long) ((TimeString) value).getMillisOfDay()
+          : UNSUPPORTED;
+    } else if (value instanceof TimestampString) {
+      return storage == Storage.LONG
+          ? ((TimestampString) value).getMillisSinceEpoch()
+          : UNSUPPORTED;
+    }
+    return UNSUPPORTED;
+  }
+
+  /** Reference to a field of the input batch. */
+  static class InputRef extends VectorExpression {
+    final int index;
+
+    InputRef(Primitive primitive, int index) {
+      super(primitive);
+      this.index = index;
+    }
+
+    public ColumnVector evaluate(ColumnBatch batch) {
+      return batch.columns[index];
+    }
+  }
+
+  /** Literal value. The vector is cached and re-used for batches of the same
+   * size; the expression may be evaluated by several threads at once, so the
+   * cache is read once per call. */
+  static class Literal extends VectorExpression {
+    final Object value;
+    private volatile ColumnVector vector;
+
+    Literal(Primitive primitive, Object value) {
+      super(primitive);
+      this.value = value;
+    }
+
+    public ColumnVector evaluate(ColumnBatch batch) {
+      ColumnVector v = vector;
+      if (v == null || v.size != batch.size) {
+        v = ColumnVector.constant(primitive, batch.size, value);
+        vector = v;
+      }
+      return v;
+    }
+  }
+
+  /** Binary arithmetic operator. */
+  static class Arithmetic extends VectorExpression {
+    final SqlKind kind;
+    final VectorExpression left;
+    final VectorExpression right;
+
+    Arithmetic(Primitive primitive, SqlKind kind, VectorExpression left,
+        VectorExpression right) {
+      super(primitive);
+      this.kind = kind;
+      this.left = left;
+      this.right = right;
+    }
+
+    public ColumnVector evaluate(ColumnBatch batch) {
+      final ColumnVector v0 = left.evaluate(batch);
+      final ColumnVector v1 = right.evaluate(batch);
+      final int n = batch.size;
+      final ColumnVector result = new ColumnVector(primitive, n);
+      result.orNulls(v0);
+      result.orNulls(v1);
+      if (result.storage() == Storage.LONG) {
+        final long[] a = v0.longs;
+        final long[] b = v1.longs;
+        final long[] r = result.longs;
+        switch (kind) {
+        case PLUS:
+          for (int i = 0; i < n; i++) {
+            r[i] = a[i] + b[i];
+          }
+          break;
+        case MINUS:
+          for (int i = 0; i < n; i++) {
+            r[i] = a[i] - b[i];
+          }
+          break;
+        case TIMES:
+          for (int i = 0; i < n; i++) {
+            r[i] = a[i] * b[i];
+          }
+          break;
+        default:
+          // Null values are stored as zero; do not divide by them
+          for (int i = 0; i < n; i++) {
+            if (!result.isNull(i)) {
+              r[i] = a[i] / b[i];
+            }
+          }
+        }
+        if (primitive != Primitive.LONG) {
+          for (int i = 0; i < n; i++) {
+            r[i] = result.narrow(r[i]);
+          }
+        }
+      } else {
+        final double[] a = v0.toDoubles();
+        final double[] b = v1.toDoubles();
+        final double[] r = result.doubles;
+        switch (kind) {
+        case PLUS:
+          for (int i = 0; i < n; i++) {
+            r[i] = a[i] + b[i];
+          }
+          break;
+        case MINUS:
+          for (int i = 0; i < n; i++) {
+            r[i] = a[i] - b[i];
+          }
+          break;
+        case TIMES:
+          for (int i = 0; i < n; i++) {
+            r[i] = a[i] * b[i];
+          }
+          break;
+        default:
+          for (int i = 0; i < n; i++) {
+            r[i] = a[i] / b[i];
+          }
+        }
+        if (primitive == Primitive.FLOAT) {
+          for (int i = 0; i < n; i++) {
+            r[i] = (float) r[i];
+          }
+        }
+      }
+      return result;
+    }
+  }
+
+  /** Unary minus. */
+  static class Negate extends VectorExpression {
+    final VectorExpression operand;
+
+    Negate(Primitive primitive, VectorExpression operand) {
+      super(primitive);
+      this.operand = operand;
+    }
+
+    public ColumnVector evaluate(ColumnBatch batch) {
+      final ColumnVector v = operand.evaluate(batch);
+      final int n = batch.size;
+      final ColumnVector result = new ColumnVector(primitive, n);
+      result.orNulls(v);
+      if (result.storage() == Storage.LONG) {
+        for (int i = 0; i < n; i++) {
+          result.longs[i] = result.narrow(-v.longs[i]);
+        }
+      } else {
+        for (int i = 0; i < n; i++) {
+          result.doubles[i] = -v.doubles[i];
+        }
+      }
+      return result;
+    }
+  }
+
+  /** Comparison operator. Produces a {@link Primitive#BOOLEAN} vector. */
+  static class Comparison extends VectorExpression {
+    final SqlKind kind;
+    final VectorExpression left;
+    final VectorExpression right;
+
+    Comparison(SqlKind kind, VectorExpression left, VectorExpression right) {
+      super(Primitive.BOOLEAN);
+      this.kind = kind;
+      this.left = left;
+      this.right = right;
+    }
+
+    @SuppressWarnings("unchecked")
+    public ColumnVector evaluate(ColumnBatch batch) {
+      final ColumnVector v0 = left.evaluate(batch);
+      final ColumnVector v1 = right.evaluate(batch);
+      final int n = batch.size;
+      final ColumnVector result = new ColumnVector(Primitive.BOOLEAN, n);
+      result.orNulls(v0);
+      result.orNulls(v1);
+      final long[] r = result.longs;
+
+      // First compute the sign of the comparison, then apply the operator
+      if (v0.storage() == Storage.LONG && v1.storage() == Storage.LONG) {
+        final long[] a = v0.longs;
+        final long[] b = v1.longs;
+        for (int i = 0; i < n; i++) {
+          r[i] = Long.compare(a[i], b[i]);
+        }
+      } else if (v0.storage() != Storage.OBJECT) {
+        final double[] a = v0.toDoubles();
+        final double[] b = v1.toDoubles();
+        for (int i = 0; i < n; i++) {
+          r[i] = a[i] < b[i] ? -1 : a[i] > b[i] ? 1 : 0;
+        }
+      } else {
+        final Object[] a = v0.objects;
+        final Object[] b = v1.objects;
+        for (int i = 0; i < n; i++) {
+          if (!result.isNull(i)) {
+            r[i] = ((Comparable) a[i]).compareTo(b[i]);
+          }
+        }
+      }
+      switch (kind) {
+      case EQUALS:
+        for (int i = 0; i < n; i++) {
+          r[i] = r[i] == 0 ? 1 : 0;
+        }
+        break;
+      case NOT_EQUALS:
+        for (int i = 0; i < n; i++) {
+          r[i] = r[i] != 0 ? 1 : 0;
+        }
+        break;
+      case LESS_THAN:
+        for (int i = 0; i < n; i++) {
+          r[i] = r[i] < 0 ? 1 : 0;
+        }
+        break;
+      case LESS_THAN_OR_EQUAL:
+        for (int i = 0; i < n; i++) {
+          r[i] = r[i] <= 0 ? 1 : 0;
+        }
+        break;
+      case GREATER_THAN:
+        for (int i = 0; i < n; i++) {
+          r[i] = r[i] > 0 ? 1 : 0;
+        }
+        break;
+      default:
+        for (int i = 0; i < n; i++) {
+          r[i] = r[i] >= 0 ? 1 : 0;
+        }
+      }
+      return result;
+    }
+  }
+
+  /** {@code AND} or {@code OR}, with SQL three-valued logic. */
+  static class Logical extends VectorExpression {
+    final SqlKind kind;
+    final List<VectorExpression> operands;
+
+    Logical(SqlKind kind, List<VectorExpression> operands) {
+      super(Primitive.BOOLEAN);
+      this.kind = kind;
+      this.operands = operands;
+    }
+
+    public ColumnVector evaluate(ColumnBatch batch) {
+      final int n = batch.size;
+      // For AND, FALSE is decisive; for OR, TRUE is
+      final long decisive = kind == SqlKind.AND ? 0L : 1L;
+      final ColumnVector result =
+          ColumnVector.constant(Primitive.BOOLEAN, n, kind == SqlKind.AND);
+      final long[] r = result.longs;
+      final int[] positions = new int[n];
+      for (VectorExpression operand : operands) {
+        // Evaluate each operand only for the rows whose result is not yet
+        // known, as the generated row-at-a-time code does; so in
+        // "b <> 0 AND a / b > 1" we do not divide rows where b is 0.
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+          if (r[i] != decisive || result.isNull(i)) {
+            positions[count++] = i;
+          }
+        }
+        if (count == 0) {
+          break;
+        }
+        if (count < n) {
+          final ColumnVector v = operand.evaluate(batch.gather(positions, count));
+          final long[] a = v.longs;
+          for (int j = 0; j < count; j++) {
+            final int i = positions[j];
+            if (v.isNull(j)) {
+              result.setNull(i);
+            } else if (a[j] == decisive) {
+              r[i] = decisive;
+              result.clearNull(i);
+            }
+          }
+          continue;
+        }
+        final ColumnVector v = operand.evaluate(batch);
+        final long[] a = v.longs;
+        if (!v.hasNulls() && !result.hasNulls()) {
+          if (decisive == 0L) {
+            for (int i = 0; i < n; i++) {
+              r[i] &= a[i];
+            }
+          } else {
+            for (int i = 0; i < n; i++) {
+              r[i] |= a[i];
+            }
+          }
+          continue;
+        }
+        for (int i = 0; i < n; i++) {
+          if (r[i] == decisive && !result.isNull(i)) {
+            continue;
+          }
+          if (v.isNull(i)) {
+            result.setNull(i);
+          } else if (a[i] == decisive) {
+            r[i] = decisive;
+            result.clearNull(i);
+          }
+        }
+      }
+      return result;
+    }
+  }
+
+  /** {@code NOT}. */
+  static class Not extends VectorExpression {
+    final VectorExpression operand;
+
+    Not(VectorExpression operand) {
+      super(Primitive.BOOLEAN);
+      this.operand = operand;
+    }
+
+    public ColumnVector evaluate(ColumnBatch batch) {
+      final ColumnVector v = operand.evaluate(batch);
+      final int n = batch.size;
+      final ColumnVector result = new ColumnVector(Primitive.BOOLEAN, n);
+      result.orNulls(v);
+      for (int i = 0; i < n; i++) {
+        result.longs[i] = 1L - v.longs[i];
+      }
+      return result;
+    }
+  }
+
+  /** {@code IS NULL} or {@code IS NOT NULL}. */
+  static class IsNull extends VectorExpression {
+    final boolean isNull;
+    final VectorExpression operand;
+
+    IsNull(boolean isNull, VectorExpression operand) {
+      super(Primitive.BOOLEAN);
+      this.isNull = isNull;
+      this.operand = operand;
+    }
+
+    public ColumnVector evaluate(ColumnBatch batch) {
+      final ColumnVector v = operand.evaluate(batch);
+      final int n = batch.size;
+      if (!v.hasNulls()) {
+        return ColumnVector.constant(Primitive.BOOLEAN, n, !isNull);
+      }
+      final ColumnVector result = new ColumnVector(Primitive.BOOLEAN, n);
+      for (int i = 0; i < n; i++) {
+        result.longs[i] = v.isNull(i) == isNull ? 1L : 0L;
+      }
+      return result;
+    }
+  }
+
+  /** Conversion between numeric types. */
+  static class Cast extends VectorExpression {
+    final VectorExpression operand;
+
+    Cast(Primitive primitive, VectorExpression operand) {
+      super(primitive);
+      this.operand = operand;
+    }
+
+    public ColumnVector evaluate(ColumnBatch batch) {
+      final ColumnVector v = operand.evaluate(batch);
+      final int n = batch.size;
+      final ColumnVector result = new ColumnVector(primitive, n);
+      result.orNulls(v);
+      if (result.storage() == Storage.DOUBLE) {
+        final double[] a = v.toDoubles();
+        for (int i = 0; i < n; i++) {
+          result.doubles[i] = result.narrow(a[i]);
+        }
+      } else if (v.storage() == Storage.DOUBLE) {
+        for (int i = 0; i < n; i++) {
+          result.longs[i] = result.narrow((long) v.doubles[i]);
+        }
+      } else {
+        for (int i = 0; i < n; i++) {
+          result.longs[i] = result.narrow(v.longs[i]);
+        }
+      }
+      return result;
+    }
+  }
+}
+
+// End VectorExpression.java
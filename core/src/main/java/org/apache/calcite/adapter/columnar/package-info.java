@@ -0,0 +1,32 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/**
+ * Query execution over batches of columns.
+ *
+ * <p>Relational expressions in
+ * {@link org.apache.calcite.adapter.columnar.ColumnarConvention} exchange
+ * {@link org.apache.calcite.adapter.columnar.ColumnBatch} objects, each of
+ * which holds a vector of primitive values per column. The rules in
+ * {@link org.apache.calcite.adapter.columnar.ColumnarRules} are registered if
+ * the {@code columnar} connection property is set.
+ */
+@PackageMarker
+package org.apache.calcite.adapter.columnar;
+
+import org.apache.calcite.avatica.util.PackageMarker;
+
+// End package-info.java
@@ -17,6 +17,7 @@
 package org.apache.calcite.adapter.enumerable;
 
 import org.apache.calcite.adapter.java.JavaTypeFactory;
+import org.apache.calcite.config.CalciteConnectionConfig;
 import org.apache.calcite.linq4j.JoinType;
 import org.apache.calcite.linq4j.Ord;
 import org.apache.calcite.linq4j.function.Function2;
@@ -42,12 +43,14 @@
 
 import com.google.common.collect.ImmutableList;
 
+import java.io.Serializable;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.Type;
 import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.ToIntFunction;
 
 /**
  * Utilities for generating programs in the Enumerable (functional)
@@ -86,6 +89,93 @@ static Type javaClass(
     return clazz instanceof Class ? clazz : Object[].class;
   }
 
+  /** Returns whether the value of every field of a row type is primitive or
+   * {@link Serializable}; if so, the row, converted by
+   * {@link #spillPhysType} if necessary, can be written to disk by an
+   * operator that spills. */
+  static boolean isSerializable(JavaTypeFactory typeFactory,
+      RelDataType rowType) {
+    for (RelDataTypeField field : rowType.getFieldList()) {
+      final RelDataType type = field.getType();
+      if (type.isStruct()) {
+        if (!isSerializable(typeFactory, type)) {
+          return false;
+        }
+        continue;
+      }
+      final Type clazz = typeFactory.getJavaClass(type);
+      if (!(clazz instanceof Class)
+          || !((Class) clazz).isPrimitive()
+              && !Serializable.class.isAssignableFrom((Class) clazz)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Returns the maximum number of rows (or groups) that an operator holds
+   * in memory before spilling, or -1 if the operator should never spill.
+   *
+   * <p>{@code threshold} reads the value from the connection's
+   * configuration. The operator never spills if the value is not positive,
+   * or if the rows of any of its inputs cannot be serialized (see
+   * {@link #isSerializable}). */
+  static int spillThreshold(RelNode rel,
+      ToIntFunction<CalciteConnectionConfig> threshold) {
+    final CalciteConnectionConfig config = rel.getCluster().getPlanner()
+        .getContext().unwrap(CalciteConnectionConfig.class);
+    if (config == null || threshold.applyAsInt(config) <= 0) {
+      return -1;
+    }
+    final JavaTypeFactory typeFactory =
+        (JavaTypeFactory) rel.getCluster().getTypeFactory();
+    for (RelNode input : rel.getInputs()) {
+      if (!isSerializable(typeFactory, input.getRowType())) {
+        return -1;
+      }
+    }
+    return threshold.applyAsInt(config);
+  }
+
+  /** Returns the physical type in which an operator holds the rows of an
+   * input, given the operator's spill threshold.
+   *
+   * <p>An operator that may spill writes rows to disk by serialization.
+   * {@link #isSerializable} checks the types of the fields, but not the
+   * object that holds them: only arrays ({@link JavaRowFormat#ARRAY}) and
+   * single values ({@link JavaRowFormat#SCALAR}) are serializable. Custom
+   * classes, such as those of a reflective schema, lists
+   * ({@link JavaRowFormat#LIST}) and {@link JavaRowFormat#ROW} rows need
+   * not be, so if the operator may spill, rows in any other format are
+   * converted to arrays. */
+  static PhysType spillPhysType(JavaTypeFactory typeFactory,
+      PhysType physType, int spillThreshold) {
+    if (spillThreshold <= 0) {
+      return physType;
+    }
+    switch (physType.getFormat()) {
+    case ARRAY:
+    case SCALAR:
+      return physType;
+    default:
+      return PhysTypeImpl.of(typeFactory, physType.getRowType(),
+          JavaRowFormat.ARRAY, false);
+    }
+  }
+
+  /** Appends an input's expression to a block, converting its rows if
+   * {@code physType}, say from {@link #spillPhysType}, has a different
+   * format. */
+  static Expression appendInput(BlockBuilder builder, String name,
+      EnumerableRel.Result result, PhysType physType) {
+    final Expression expression = builder.append(name, result.block);
+    if (physType.getFormat() == result.physType.getFormat()) {
+      return expression;
+    }
+    return builder.append(name,
+        result.physType.convertTo(expression, physType.getFormat()));
+  }
+
   static List<Type> fieldTypes(
       final JavaTypeFactory typeFactory,
       final List<? extends RelDataType> inputTypes) {
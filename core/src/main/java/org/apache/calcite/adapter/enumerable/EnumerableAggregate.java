@@ -19,16 +19,23 @@
 import org.apache.calcite.adapter.enumerable.impl.AggAddContextImpl;
 import org.apache.calcite.adapter.enumerable.impl.AggResultContextImpl;
 import org.apache.calcite.adapter.java.JavaTypeFactory;
+import org.apache.calcite.config.CalciteConnectionConfig;
 import org.apache.calcite.config.CalciteSystemProperty;
 import org.apache.calcite.jdbc.JavaTypeFactoryImpl;
 import org.apache.calcite.linq4j.Ord;
+import org.apache.calcite.linq4j.PrimitiveHashAggregate;
+import org.apache.calcite.linq4j.function.DoubleFunction1;
+import org.apache.calcite.linq4j.function.Function;
 import org.apache.calcite.linq4j.function.Function0;
 import org.apache.calcite.linq4j.function.Function1;
 import org.apache.calcite.linq4j.function.Function2;
+import org.apache.calcite.linq4j.function.LongFunction1;
+import org.apache.calcite.linq4j.function.Predicate1;
 import org.apache.calcite.linq4j.tree.BlockBuilder;
 import org.apache.calcite.linq4j.tree.Expression;
 import org.apache.calcite.linq4j.tree.Expressions;
 import org.apache.calcite.linq4j.tree.ParameterExpression;
+import org.apache.calcite.linq4j.tree.Primitive;
 import org.apache.calcite.linq4j.tree.Types;
 import org.apache.calcite.plan.RelOptCluster;
 import org.apache.calcite.plan.RelTraitSet;
@@ -42,6 +49,7 @@
 import org.apache.calcite.rex.RexInputRef;
 import org.apache.calcite.rex.RexNode;
 import org.apache.calcite.sql.SqlAggFunction;
+import org.apache.calcite.sql.SqlKind;
 import org.apache.calcite.util.BuiltInMethod;
 import org.apache.calcite.util.ImmutableBitSet;
 import org.apache.calcite.util.Pair;
@@ -178,7 +186,17 @@ public Result implement(EnumerableRelImplementor implementor, Prefer pref) {
     // return child
     //     .distinct(equalityComparer);
 
-    final PhysType inputPhysType = result.physType;
+    final PhysType inputPhysType =
+        EnumUtils.spillPhysType(typeFactory, result.physType,
+            spillThreshold());
+    if (inputPhysType != result.physType) {
+      childExp = builder.append("child",
+          result.physType.convertTo(childExp, inputPhysType.getFormat()));
+    }
+
+    if (isPrimitive(typeFactory, inputPhysType)) {
+      return implementPrimitive(implementor, builder, childExp, inputPhysType);
+    }
 
     ParameterExpression parameter =
         Expressions.parameter(inputPhysType.getJavaRowType(), "a0");
@@ -365,20 +383,28 @@ public RexToLixTranslator rowTranslator() {
                   resultBlock.toBlock(),
                   key_,
                   acc_));
-      builder.add(
-          Expressions.return_(null,
-              Expressions.call(
-                  BuiltInMethod.GROUP_BY_MULTIPLE.method,
-                  Expressions.list(childExp,
-                      keySelectors_,
-                      Expressions.call(lambdaFactory,
-                          BuiltInMethod.AGG_LAMBDA_FACTORY_ACC_INITIALIZER.method),
-                      Expressions.call(lambdaFactory,
-                          BuiltInMethod.AGG_LAMBDA_FACTORY_ACC_ADDER.method),
-                      Expressions.call(lambdaFactory,
-                          BuiltInMethod.AGG_LAMBDA_FACTORY_ACC_RESULT_SELECTOR.method,
-                          resultSelector))
-                      .appendIfNotNull(keyPhysType.comparer()))));
+      final Expressions.FluentList<Expression> args =
+          Expressions.list(childExp,
+              keySelectors_,
+              Expressions.call(lambdaFactory,
+                  BuiltInMethod.AGG_LAMBDA_FACTORY_ACC_INITIALIZER.method),
+              Expressions.call(lambdaFactory,
+                  BuiltInMethod.AGG_LAMBDA_FACTORY_ACC_ADDER.method),
+              Expressions.call(lambdaFactory,
+                  BuiltInMethod.AGG_LAMBDA_FACTORY_ACC_RESULT_SELECTOR.method,
+                  resultSelector));
+      if (spillThreshold() > 0) {
+        builder.add(
+            Expressions.return_(null,
+                spillingGroupBy(BuiltInMethod.SPILLING_GROUP_BY_MULTIPLE,
+                    args, keyPhysType)));
+      } else {
+        builder.add(
+            Expressions.return_(null,
+                Expressions.call(
+                    BuiltInMethod.GROUP_BY_MULTIPLE.method,
+                    args.appendIfNotNull(keyPhysType.comparer()))));
+      }
     } else if (groupCount == 0) {
       final Expression resultSelector =
           builder.append(
@@ -427,23 +453,261 @@ public RexToLixTranslator rowTranslator() {
                   resultBlock.toBlock(),
                   key_,
                   acc_));
+      final Expressions.FluentList<Expression> args =
+          Expressions.list(keySelector_,
+              Expressions.call(lambdaFactory,
+                  BuiltInMethod.AGG_LAMBDA_FACTORY_ACC_INITIALIZER.method),
+              Expressions.call(lambdaFactory,
+                  BuiltInMethod.AGG_LAMBDA_FACTORY_ACC_ADDER.method),
+              Expressions.call(lambdaFactory,
+                  BuiltInMethod.AGG_LAMBDA_FACTORY_ACC_RESULT_SELECTOR.method,
+                  resultSelector_));
       builder.add(
-          Expressions.return_(null,
-              Expressions.call(childExp,
-                  BuiltInMethod.GROUP_BY2.method,
-                  Expressions.list(keySelector_,
-                      Expressions.call(lambdaFactory,
-                          BuiltInMethod.AGG_LAMBDA_FACTORY_ACC_INITIALIZER.method),
-                      Expressions.call(lambdaFactory,
-                          BuiltInMethod.AGG_LAMBDA_FACTORY_ACC_ADDER.method),
-                      Expressions.call(lambdaFactory,
-                          BuiltInMethod.AGG_LAMBDA_FACTORY_ACC_RESULT_SELECTOR.method,
-                          resultSelector_))
-                      .appendIfNotNull(keyPhysType.comparer()))));
+          Expressions.return_(null, groupBy(childExp, args, keyPhysType)));
     }
     return implementor.result(physType, builder.toBlock());
   }
 
+  /** Generates a call that groups the input on a single grouping set: in
+   * parallel if the input is partitioned on the group keys, spilling to disk
+   * if there may be too many groups to hold in memory, otherwise in
+   * memory. */
+  private Expression groupBy(Expression childExp,
+      Expressions.FluentList<Expression> args, PhysType keyPhysType) {
+    final EnumerableExchange exchange = partitionedInput();
+    if (exchange != null) {
+      // Each group is in a single partition; group the partitions in
+      // parallel.
+      return Expressions.call(BuiltInMethod.PARTITIONED_GROUP_BY.method,
+          Expressions.list(childExp)
+              .appendAll(args)
+              .append(
+                  Util.first(keyPhysType.comparer(),
+                      Expressions.constant(null)))
+              .append(
+                  Expressions.call(BuiltInMethod.PARALLEL_EXECUTOR.method))
+              .append(Expressions.constant(exchange.partitionCount)));
+    } else if (spillThreshold() > 0) {
+      return spillingGroupBy(BuiltInMethod.SPILLING_GROUP_BY,
+          Expressions.list(childExp).appendAll(args), keyPhysType);
+    } else {
+      return Expressions.call(childExp, BuiltInMethod.GROUP_BY2.method,
+          args.appendIfNotNull(keyPhysType.comparer()));
+    }
+  }
+
+  /** Generates a call to a method that groups rows, holding at most
+   * {@link #spillThreshold()} groups in memory and spilling the rows of
+   * other groups to disk. */
+  private Expression spillingGroupBy(BuiltInMethod method,
+      Expressions.FluentList<Expression> args, PhysType keyPhysType) {
+    return Expressions.call(method.method,
+        args.append(
+            Util.first(keyPhysType.comparer(), Expressions.constant(null)))
+            .append(Expressions.constant(spillThreshold())));
+  }
+
+  /** Returns whether this aggregate can be implemented by a
+   * {@link PrimitiveHashAggregate}, which holds keys and accumulators in
+   * primitive arrays rather than boxing them.
+   *
+   * <p>Requires a single group key of integral type (which includes
+   * {@code DATE} and {@code TIMESTAMP}), and that every call is
+   * {@code COUNT}, {@code SUM}, {@code $SUM0}, {@code MIN} or {@code MAX},
+   * without filter or ordering, whose argument and result are either both
+   * integral or both {@code DOUBLE}. Not used if the aggregate may spill,
+   * because a {@code PrimitiveHashAggregate} holds all groups in memory. */
+  private boolean isPrimitive(JavaTypeFactory typeFactory,
+      PhysType inputPhysType) {
+    if (getGroupType() != Group.SIMPLE
+        || groupSet.cardinality() != 1
+        || spillThreshold() > 0
+        || partitionedInput() != null
+        || !fieldPrimitive(inputPhysType, groupSet.nth(0)).isFixedNumeric()) {
+      return false;
+    }
+    for (AggregateCall aggCall : aggCalls) {
+      if (aggCall.filterArg >= 0
+          || !aggCall.collation.equals(RelCollations.EMPTY)) {
+        return false;
+      }
+      switch (aggCall.getAggregation().getKind()) {
+      case COUNT:
+        if (aggCall.getArgList().size() > 1) {
+          return false;
+        }
+        break;
+      case SUM:
+      case SUM0:
+      case MIN:
+      case MAX:
+        final Primitive arg =
+            fieldPrimitive(inputPhysType, aggCall.getArgList().get(0));
+        final Primitive result = primitive(typeFactory, aggCall.type);
+        if (!(arg.isFixedNumeric() && result.isFixedNumeric()
+            || arg == Primitive.DOUBLE && result == Primitive.DOUBLE)) {
+          return false;
+        }
+        break;
+      default:
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Implements this aggregate using a {@link PrimitiveHashAggregate}.
+   *
+   * <p>Generates code such as
+   *
+   * <blockquote><pre>
+   * return new PrimitiveHashAggregate(null,
+   *     new LongFunction1() {
+   *       public long apply(Employee row) {
+   *         return (long) row.deptno;
+   *       }
+   *     },
+   *     Primitive.INT)
+   *   .count(null)
+   *   .sumLong(null,
+   *     new LongFunction1() {
+   *       public long apply(Employee row) {
+   *         return (long) row.salary;
+   *       }
+   *     },
+   *     Primitive.INT, false)
+   *   .aggregate(child);</pre></blockquote>
+   */
+  private Result implementPrimitive(EnumerableRelImplementor implementor,
+      BlockBuilder builder, Expression childExp, PhysType inputPhysType) {
+    final JavaTypeFactory typeFactory = implementor.getTypeFactory();
+    final PhysType physType =
+        PhysTypeImpl.of(typeFactory, getRowType(), JavaRowFormat.ARRAY, false);
+    final ParameterExpression row =
+        Expressions.parameter(inputPhysType.getJavaRowType(), "row");
+    final int key = groupSet.nth(0);
+    Expression aggregate =
+        Expressions.new_(BuiltInMethod.PRIMITIVE_HASH_AGGREGATE.constructor,
+            nullPredicate(inputPhysType, row, key),
+            selector(inputPhysType, row, key, LongFunction1.class),
+            Expressions.constant(
+                primitive(typeFactory,
+                    getRowType().getFieldList().get(0).getType())));
+    for (AggregateCall aggCall : aggCalls) {
+      final SqlKind kind = aggCall.getAggregation().getKind();
+      if (kind == SqlKind.COUNT) {
+        aggregate =
+            Expressions.call(aggregate,
+                BuiltInMethod.PRIMITIVE_AGGREGATE_COUNT.method,
+                aggCall.getArgList().isEmpty()
+                    ? RexImpTable.NULL_EXPR
+                    : nullPredicate(inputPhysType, row,
+                        aggCall.getArgList().get(0)));
+        continue;
+      }
+      final int arg = aggCall.getArgList().get(0);
+      final Primitive primitive = primitive(typeFactory, aggCall.type);
+      final boolean isDouble = primitive == Primitive.DOUBLE;
+      final BuiltInMethod method;
+      final boolean flag;
+      switch (kind) {
+      case SUM:
+      case SUM0:
+        method = isDouble
+            ? BuiltInMethod.PRIMITIVE_AGGREGATE_SUM_DOUBLE
+            : BuiltInMethod.PRIMITIVE_AGGREGATE_SUM_LONG;
+        flag = kind == SqlKind.SUM0;
+        break;
+      default:
+        method = isDouble
+            ? BuiltInMethod.PRIMITIVE_AGGREGATE_MIN_MAX_DOUBLE
+            : BuiltInMethod.PRIMITIVE_AGGREGATE_MIN_MAX_LONG;
+        flag = kind == SqlKind.MAX;
+      }
+      aggregate =
+          Expressions.call(aggregate, method.method,
+              nullPredicate(inputPhysType, row, arg),
+              selector(inputPhysType, row, arg,
+                  isDouble ? DoubleFunction1.class : LongFunction1.class),
+              Expressions.constant(primitive),
+              Expressions.constant(flag));
+    }
+    builder.add(
+        Expressions.return_(null,
+            Expressions.call(aggregate,
+                BuiltInMethod.PRIMITIVE_AGGREGATE.method, childExp)));
+    return implementor.result(physType, builder.toBlock());
+  }
+
+  /** Returns the primitive type of a field of the input row, or
+   * {@link Primitive#OTHER} if the field is not of primitive or boxed
+   * primitive type. */
+  private static Primitive fieldPrimitive(PhysType inputPhysType, int field) {
+    return Util.first(
+        Primitive.ofBoxOr(inputPhysType.getJavaFieldType(field)),
+        Primitive.OTHER);
+  }
+
+  private static Primitive primitive(JavaTypeFactory typeFactory,
+      RelDataType type) {
+    return Util.first(Primitive.ofBoxOr(typeFactory.getJavaClass(type)),
+        Primitive.OTHER);
+  }
+
+  /** Generates a {@link Predicate1} that returns whether a field is null,
+   * or a null literal if the field is of primitive type and therefore
+   * never null. */
+  private static Expression nullPredicate(PhysType inputPhysType,
+      ParameterExpression row, int field) {
+    final Expression ref = inputPhysType.fieldReference(row, field);
+    if (Primitive.is(ref.getType())) {
+      return RexImpTable.NULL_EXPR;
+    }
+    return Expressions.lambda(Predicate1.class,
+        Expressions.equal(ref, RexImpTable.NULL_EXPR), row);
+  }
+
+  /** Generates a {@link LongFunction1} or {@link DoubleFunction1} that
+   * returns the value of a field, converted to {@code long} or
+   * {@code double}. */
+  private static Expression selector(PhysType inputPhysType,
+      ParameterExpression row, int field, Class<? extends Function> clazz) {
+    final Class type =
+        clazz == DoubleFunction1.class ? double.class : long.class;
+    return Expressions.lambda(clazz,
+        RexToLixTranslator.convert(inputPhysType.fieldReference(row, field),
+            type),
+        row);
+  }
+
+  /** Returns the maximum number of groups to hold in memory before
+   * spilling, or -1 if the aggregate should never spill.
+   *
+   * <p>The aggregate never spills if its input rows cannot be serialized,
+   * say because a field holds a Java object of a class that is not
+   * {@link java.io.Serializable}.
+   *
+   * @see org.apache.calcite.config.CalciteConnectionProperty#AGGREGATE_SPILL_THRESHOLD */
+  protected int spillThreshold() {
+    return EnumUtils.spillThreshold(this,
+        CalciteConnectionConfig::aggregateSpillThreshold);
+  }
+
+  /** Returns the input if it is an {@link EnumerableExchange} that
+   * partitions rows on a subset of the group keys, otherwise null.
+   *
+   * <p>Returns null if the aggregate may spill; grouping of each partition
+   * happens in memory. */
+  private EnumerableExchange partitionedInput() {
+    if (getInput() instanceof EnumerableExchange && spillThreshold() <= 0) {
+      final EnumerableExchange exchange = (EnumerableExchange) getInput();
+      if (exchange.isPartitionedOn(groupSet)) {
+        return exchange;
+      }
+    }
+    return null;
+  }
+
   private static boolean hasOrderedCall(List<AggImpState> aggs) {
     for (AggImpState agg : aggs) {
       if (!agg.call.collation.equals(RelCollations.EMPTY)) {
@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.calcite.adapter.enumerable;
+
+import org.apache.calcite.linq4j.tree.BlockBuilder;
+import org.apache.calcite.linq4j.tree.Expression;
+import org.apache.calcite.linq4j.tree.Expressions;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.rel.RelDistribution;
+import org.apache.calcite.rel.RelDistributionTraitDef;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.RelWriter;
+import org.apache.calcite.rel.core.Exchange;
+import org.apache.calcite.util.BuiltInMethod;
+import org.apache.calcite.util.ImmutableBitSet;
+
+/** Implementation of {@link org.apache.calcite.rel.core.Exchange} in
+ * {@link org.apache.calcite.adapter.enumerable.EnumerableConvention enumerable calling convention}.
+ *
+ * <p>The distribution must be hash-distributed. The exchange returns its
+ * input's rows unchanged, but an {@link EnumerableAggregate} or
+ * {@link EnumerableHashJoin} directly above it reads the rows as
+ * {@link #partitionCount} partitions and processes the partitions in
+ * parallel.
+ *
+ * @see EnumerablePartitionRule */
+public class EnumerableExchange extends Exchange implements EnumerableRel {
+  /** Number of partitions, and the number of threads that process them. */
+  public final int partitionCount;
+
+  /**
+   * Creates an EnumerableExchange.
+   *
+   * <p>Use {@link #create} unless you know what you're doing.
+   */
+  public EnumerableExchange(RelOptCluster cluster, RelTraitSet traitSet,
+      RelNode input, RelDistribution distribution, int partitionCount) {
+    super(cluster, traitSet, input, distribution);
+    this.partitionCount = partitionCount;
+    assert getConvention() instanceof EnumerableConvention;
+    assert distribution.getType() == RelDistribution.Type.HASH_DISTRIBUTED;
+    assert partitionCount > 1;
+  }
+
+  /** Creates an EnumerableExchange. */
+  public static EnumerableExchange create(RelNode input,
+      RelDistribution distribution, int partitionCount) {
+    final RelOptCluster cluster = input.getCluster();
+    distribution = RelDistributionTraitDef.INSTANCE.canonize(distribution);
+    final RelTraitSet traitSet =
+        input.getTraitSet().replace(EnumerableConvention.INSTANCE)
+            .replace(distribution);
+    return new EnumerableExchange(cluster, traitSet, input, distribution,
+        partitionCount);
+  }
+
+  @Override public EnumerableExchange copy(RelTraitSet traitSet,
+      RelNode newInput, RelDistribution newDistribution) {
+    return new EnumerableExchange(getCluster(), traitSet, newInput,
+        newDistribution, partitionCount);
+  }
+
+  @Override public RelWriter explainTerms(RelWriter pw) {
+    return super.explainTerms(pw)
+        .item("partitionCount", partitionCount);
+  }
+
+  /** Returns whether this exchange partitions its input on a subset of the
+   * given fields; if so, rows that are equal on all of {@code keys} are in
+   * the same partition. */
+  public boolean isPartitionedOn(ImmutableBitSet keys) {
+    return keys.contains(ImmutableBitSet.of(distribution.getKeys()));
+  }
+
+  public Result implement(EnumerableRelImplementor implementor, Prefer pref) {
+    final BlockBuilder builder = new BlockBuilder();
+    final EnumerableRel child = (EnumerableRel) getInput();
+    final Result result = implementor.visitChild(this, 0, child, pref);
+    final Expression childExp =
+        builder.append("child", result.block);
+
+    // Rows are not copied or converted, so the physical type is the input's
+    builder.add(
+        Expressions.return_(null,
+            Expressions.call(BuiltInMethod.EXCHANGE.method,
+                childExp,
+                builder.append("keySelector",
+                    result.physType.generateAccessor(
+                        distribution.getKeys())),
+                Expressions.constant(partitionCount))));
+    return implementor.result(result.physType, builder.toBlock());
+  }
+}
+
+// End EnumerableExchange.java
@@ -16,6 +16,7 @@
  */
 package org.apache.calcite.adapter.enumerable;
 
+import org.apache.calcite.config.CalciteConnectionConfig;
 import org.apache.calcite.linq4j.tree.BlockBuilder;
 import org.apache.calcite.linq4j.tree.Expression;
 import org.apache.calcite.linq4j.tree.Expressions;
@@ -141,6 +142,36 @@ public static EnumerableHashJoin create(
     }
   }
 
+  /** Returns the maximum number of rows of the right input to hold in memory
+   * before spilling, or -1 if the join should never spill.
+   *
+   * <p>The join never spills if the rows of either input cannot be
+   * serialized, say because a field holds a Java object of a class that is
+   * not {@link java.io.Serializable}.
+   *
+   * @see org.apache.calcite.config.CalciteConnectionProperty#HASH_JOIN_SPILL_THRESHOLD */
+  protected int spillThreshold() {
+    return EnumUtils.spillThreshold(this,
+        CalciteConnectionConfig::hashJoinSpillThreshold);
+  }
+
+  /** Returns the number of partitions if the right (build) input is an
+   * {@link EnumerableExchange} that partitions rows on the join keys,
+   * otherwise 1.
+   *
+   * <p>If the build input is partitioned, its hash table is built in
+   * parallel, unless the join may spill. The left (probe) input is streamed
+   * whether or not it is partitioned. */
+  protected int partitionCount() {
+    if (right instanceof EnumerableExchange) {
+      final EnumerableExchange rightExchange = (EnumerableExchange) right;
+      if (rightExchange.distribution.getKeys().equals(joinInfo.rightKeys)) {
+        return rightExchange.partitionCount;
+      }
+    }
+    return 1;
+  }
+
   @Override public Result implement(EnumerableRelImplementor implementor, Prefer pref) {
     switch (joinType) {
     case SEMI:
@@ -153,23 +184,25 @@ public static EnumerableHashJoin create(
 
   private Result implementHashSemiJoin(EnumerableRelImplementor implementor, Prefer pref) {
     assert joinType == JoinRelType.SEMI || joinType == JoinRelType.ANTI;
-    final Method method = joinType == JoinRelType.SEMI
-        ? BuiltInMethod.SEMI_JOIN.method
-        : BuiltInMethod.ANTI_JOIN.method;
+    final int spillThreshold = spillThreshold();
     BlockBuilder builder = new BlockBuilder();
     final Result leftResult =
         implementor.visitChild(this, 0, (EnumerableRel) left, pref);
+    final PhysType leftPhysType =
+        EnumUtils.spillPhysType(implementor.getTypeFactory(),
+            leftResult.physType, spillThreshold);
     Expression leftExpression =
-        builder.append(
-            "left", leftResult.block);
+        EnumUtils.appendInput(builder, "left", leftResult, leftPhysType);
     final Result rightResult =
         implementor.visitChild(this, 1, (EnumerableRel) right, pref);
+    final PhysType rightPhysType =
+        EnumUtils.spillPhysType(implementor.getTypeFactory(),
+            rightResult.physType, spillThreshold);
     Expression rightExpression =
-        builder.append(
-            "right", rightResult.block);
-    final PhysType physType = leftResult.physType;
+        EnumUtils.appendInput(builder, "right", rightResult, rightPhysType);
+    final PhysType physType = leftPhysType;
     final PhysType keyPhysType =
-        leftResult.physType.project(
+        leftPhysType.project(
             joinInfo.leftKeys, JavaRowFormat.LIST);
     Expression predicate = Expressions.constant(null);
     if (!joinInfo.nonEquiConditions.isEmpty()) {
@@ -177,22 +210,32 @@ private Result implementHashSemiJoin(EnumerableRelImplementor implementor, Prefe
           getCluster().getRexBuilder(), joinInfo.nonEquiConditions, true);
       if (nonEquiCondition != null) {
         predicate = EnumUtils.generatePredicate(implementor, getCluster().getRexBuilder(),
-            left, right, leftResult.physType, rightResult.physType, nonEquiCondition);
+            left, right, leftPhysType, rightPhysType, nonEquiCondition);
       }
     }
+    final Expressions.FluentList<Expression> args =
+        Expressions.list(
+            leftExpression,
+            rightExpression,
+            leftPhysType.generateAccessor(joinInfo.leftKeys),
+            rightPhysType.generateAccessor(joinInfo.rightKeys),
+            Util.first(keyPhysType.comparer(),
+                Expressions.constant(null)));
+    final Method method;
+    if (spillThreshold > 0) {
+      method = BuiltInMethod.SPILLING_SEMI_JOIN.method;
+      args.append(Expressions.constant(joinType == JoinRelType.ANTI))
+          .append(predicate)
+          .append(Expressions.constant(spillThreshold));
+    } else {
+      method = joinType == JoinRelType.SEMI
+          ? BuiltInMethod.SEMI_JOIN.method
+          : BuiltInMethod.ANTI_JOIN.method;
+      args.append(predicate);
+    }
     return implementor.result(
         physType,
-        builder.append(
-            Expressions.call(
-                method,
-                Expressions.list(
-                    leftExpression,
-                    rightExpression,
-                    leftResult.physType.generateAccessor(joinInfo.leftKeys),
-                    rightResult.physType.generateAccessor(joinInfo.rightKeys),
-                    Util.first(keyPhysType.comparer(),
-                        Expressions.constant(null)),
-                    predicate)))
+        builder.append(Expressions.call(method, args))
             .toBlock());
   }
 
@@ -200,19 +243,23 @@ private Result implementHashJoin(EnumerableRelImplementor implementor, Prefer pr
     BlockBuilder builder = new BlockBuilder();
     final Result leftResult =
         implementor.visitChild(this, 0, (EnumerableRel) left, pref);
+    final PhysType leftPhysType =
+        EnumUtils.spillPhysType(implementor.getTypeFactory(),
+            leftResult.physType, spillThreshold());
     Expression leftExpression =
-        builder.append(
-            "left", leftResult.block);
+        EnumUtils.appendInput(builder, "left", leftResult, leftPhysType);
     final Result rightResult =
         implementor.visitChild(this, 1, (EnumerableRel) right, pref);
+    final PhysType rightPhysType =
+        EnumUtils.spillPhysType(implementor.getTypeFactory(),
+            rightResult.physType, spillThreshold());
     Expression rightExpression =
-        builder.append(
-            "right", rightResult.block);
+        EnumUtils.appendInput(builder, "right", rightResult, rightPhysType);
     final PhysType physType =
         PhysTypeImpl.of(
             implementor.getTypeFactory(), getRowType(), pref.preferArray());
     final PhysType keyPhysType =
-        leftResult.physType.project(
+        leftPhysType.project(
             joinInfo.leftKeys, JavaRowFormat.LIST);
     Expression predicate = Expressions.constant(null);
     if (!joinInfo.nonEquiConditions.isEmpty()) {
@@ -220,32 +267,50 @@ private Result implementHashJoin(EnumerableRelImplementor implementor, Prefer pr
           getCluster().getRexBuilder(), joinInfo.nonEquiConditions, true);
       if (nonEquiCondition != null) {
         predicate = EnumUtils.generatePredicate(implementor, getCluster().getRexBuilder(),
-            left, right, leftResult.physType, rightResult.physType, nonEquiCondition);
+            left, right, leftPhysType, rightPhysType, nonEquiCondition);
       }
     }
+    final Expressions.FluentList<Expression> args =
+        Expressions.list(
+            rightExpression,
+            leftPhysType.generateAccessor(joinInfo.leftKeys),
+            rightPhysType.generateAccessor(joinInfo.rightKeys),
+            EnumUtils.joinSelector(joinType,
+                physType,
+                ImmutableList.of(leftPhysType, rightPhysType)))
+            .append(
+                Util.first(keyPhysType.comparer(),
+                    Expressions.constant(null)))
+            .append(
+                Expressions.constant(joinType.generatesNullsOnLeft()))
+            .append(
+                Expressions.constant(
+                    joinType.generatesNullsOnRight()))
+            .append(predicate);
+    final int spillThreshold = spillThreshold();
+    final int partitionCount = partitionCount();
+    final Expression join;
+    if (spillThreshold > 0) {
+      join = Expressions.call(BuiltInMethod.SPILLING_HASH_JOIN.method,
+          Expressions.list(leftExpression)
+              .appendAll(args)
+              .append(Expressions.constant(spillThreshold)));
+    } else if (partitionCount > 1) {
+      // Hash the right input's partitions in parallel, then stream the left
+      // input through the partitions' tables.
+      join = Expressions.call(BuiltInMethod.PARTITIONED_HASH_JOIN.method,
+          Expressions.list(leftExpression)
+              .appendAll(args)
+              .append(
+                  Expressions.call(BuiltInMethod.PARALLEL_EXECUTOR.method))
+              .append(Expressions.constant(partitionCount)));
+    } else {
+      join = Expressions.call(leftExpression, BuiltInMethod.HASH_JOIN.method,
+          args);
+    }
     return implementor.result(
         physType,
-        builder.append(
-            Expressions.call(
-                leftExpression,
-                BuiltInMethod.HASH_JOIN.method,
-                Expressions.list(
-                    rightExpression,
-                    leftResult.physType.generateAccessor(joinInfo.leftKeys),
-                    rightResult.physType.generateAccessor(joinInfo.rightKeys),
-                    EnumUtils.joinSelector(joinType,
-                        physType,
-                        ImmutableList.of(
-                            leftResult.physType, rightResult.physType)))
-                    .append(
-                        Util.first(keyPhysType.comparer(),
-                            Expressions.constant(null)))
-                    .append(
-                        Expressions.constant(joinType.generatesNullsOnLeft()))
-                    .append(
-                        Expressions.constant(
-                            joinType.generatesNullsOnRight()))
-                    .append(predicate)))
+        builder.append(join)
             .toBlock());
   }
 }
@@ -32,6 +32,7 @@
 import org.apache.calcite.linq4j.tree.ClassDeclaration;
 import org.apache.calcite.linq4j.tree.Expressions;
 import org.apache.calcite.linq4j.tree.FieldDeclaration;
+import org.apache.calcite.linq4j.tree.NodeDigester;
 import org.apache.calcite.linq4j.tree.VisitorImpl;
 import org.apache.calcite.plan.ConventionTraitDef;
 import org.apache.calcite.plan.RelOptCluster;
@@ -44,9 +45,13 @@
 import org.apache.calcite.runtime.Typed;
 import org.apache.calcite.runtime.Utilities;
 import org.apache.calcite.util.Util;
+import org.apache.calcite.util.javac.CompiledClassCache;
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.hash.HashCode;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 
 import org.codehaus.commons.compiler.CompileException;
 import org.codehaus.commons.compiler.CompilerFactoryFactory;
@@ -59,6 +64,7 @@
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Relational expression that converts an enumerable input to interpretable
@@ -95,12 +101,51 @@ public Node implement(final InterpreterImplementor implementor) {
    * <p>It allows to re-use Bindable objects for queries appearing relatively
    * often. It is used to avoid the cost of compiling and generating a new class
    * and also instantiating the object.
+   *
+   * <p>The key is a {@link NodeDigester digest} of the generated class, so
+   * that looking up a class that is already in the cache does not require
+   * converting it to Java source. If
+   * {@link CalciteSystemProperty#BINDABLE_CACHE_MAX_WEIGHT} is set, entries are
+   * evicted based on their estimated size in bytes; otherwise, on their
+   * number.
    */
-  private static final Cache<String, Bindable> BINDABLE_CACHE =
-      CacheBuilder.newBuilder()
-          .concurrencyLevel(CalciteSystemProperty.BINDABLE_CACHE_CONCURRENCY_LEVEL.value())
-          .maximumSize(CalciteSystemProperty.BINDABLE_CACHE_MAX_SIZE.value())
-          .build();
+  private static final Cache<BindableKey, BindableEntry> BINDABLE_CACHE =
+      createBindableCache();
+
+  /** Estimated size, in bytes, of the entries in {@link #BINDABLE_CACHE}. */
+  private static final AtomicLong BINDABLE_CACHE_WEIGHT = new AtomicLong();
+
+  private static Cache<BindableKey, BindableEntry> createBindableCache() {
+    final CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder()
+        .concurrencyLevel(CalciteSystemProperty.BINDABLE_CACHE_CONCURRENCY_LEVEL.value());
+    final long maxWeight = CalciteSystemProperty.BINDABLE_CACHE_MAX_WEIGHT.value();
+    if (maxWeight > 0) {
+      builder.maximumWeight(maxWeight)
+          .weigher((BindableKey key, BindableEntry entry) -> entry.weight);
+    } else {
+      builder.maximumSize(CalciteSystemProperty.BINDABLE_CACHE_MAX_SIZE.value());
+    }
+    return builder
+        .removalListener((RemovalNotification<BindableKey, BindableEntry> n) ->
+            BINDABLE_CACHE_WEIGHT.addAndGet(-n.getValue().weight))
+        .build();
+  }
+
+  private static boolean isBindableCacheEnabled() {
+    return CalciteSystemProperty.BINDABLE_CACHE_MAX_SIZE.value() != 0
+        || CalciteSystemProperty.BINDABLE_CACHE_MAX_WEIGHT.value() > 0;
+  }
+
+  /** Returns the number of entries in the cache of Bindable objects. */
+  public static long getBindableCacheSize() {
+    return BINDABLE_CACHE.size();
+  }
+
+  /** Returns the estimated size, in bytes, of the entries in the cache of
+   * Bindable objects. */
+  public static long getBindableCacheWeight() {
+    return BINDABLE_CACHE_WEIGHT.get();
+  }
 
   public static Bindable toBindable(Map<String, Object> parameters,
       CalcitePrepare.SparkHandler spark, EnumerableRel rel,
@@ -110,6 +155,19 @@ public static Bindable toBindable(Map<String, Object> parameters,
             parameters);
 
     final ClassDeclaration expr = relImplementor.implementRoot(rel, prefer);
+    if (spark != null && spark.enabled()) {
+      final String s = toJava(expr);
+      try {
+        return spark.compile(expr, s);
+      } catch (Exception e) {
+        throw compileError(s, e);
+      }
+    }
+    return getBindable(expr, rel.getRowType().getFieldCount());
+  }
+
+  /** Converts a class declaration to Java source. */
+  private static String toJava(ClassDeclaration expr) {
     String s = Expressions.toString(expr.memberDeclarations, "\n", false);
 
     if (CalciteSystemProperty.DEBUG.value()) {
@@ -117,21 +175,68 @@ public static Bindable toBindable(Map<String, Object> parameters,
     }
 
     Hook.JAVA_PLAN.run(s);
+    return s;
+  }
 
-    try {
-      if (spark != null && spark.enabled()) {
-        return spark.compile(expr, s);
-      } else {
-        return getBindable(expr, s, rel.getRowType().getFieldCount());
+  private static RuntimeException compileError(String s, Exception e) {
+    return Helper.INSTANCE.wrap("Error while compiling generated Java code:\n"
+        + s, e);
+  }
+
+  /** Returns a Bindable for a class declaration, compiling it if it is not
+   * in the cache.
+   *
+   * <p>On a cache hit the class is not converted to Java source again;
+   * {@link Hook#JAVA_PLAN} is called with the source kept in the cache
+   * entry, as it is on a miss. */
+  static Bindable getBindable(ClassDeclaration expr, int fieldCount) {
+    if (isBindableCacheEnabled()) {
+      StaticFieldDetector detector = new StaticFieldDetector();
+      expr.accept(detector);
+      if (!detector.containsStaticField) {
+        final BindableKey key = new BindableKey(
+            NodeDigester.digest(expr), fieldCount == 1);
+        final boolean[] loaded = {false};
+        try {
+          final BindableEntry entry = BINDABLE_CACHE.get(key, () -> {
+            loaded[0] = true;
+            final String s = toJava(expr);
+            final BindableEntry newEntry =
+                new BindableEntry(compile(expr, s, fieldCount), s);
+            BINDABLE_CACHE_WEIGHT.addAndGet(newEntry.weight);
+            return newEntry;
+          });
+          if (!loaded[0]) {
+            Hook.JAVA_PLAN.run(entry.s);
+          }
+          return entry.bindable;
+        } catch (UncheckedExecutionException | ExecutionException e) {
+          throw Util.toUnchecked((Exception) e.getCause());
+        }
       }
-    } catch (Exception e) {
-      throw Helper.INSTANCE.wrap("Error while compiling generated Java code:\n"
-          + s, e);
     }
+    return compile(expr, toJava(expr), fieldCount);
   }
 
   static Bindable getBindable(ClassDeclaration expr, String s, int fieldCount)
-      throws CompileException, IOException, ExecutionException {
+      throws CompileException, IOException, ReflectiveOperationException {
+    final CompiledClassCache classCache = CompiledClassCache.instance();
+    if (classCache != null) {
+      // Wrap the class body in a compilation unit, as the class body
+      // evaluator would, so that the bytecode can be stored
+      final String source = "public final class " + expr.name
+          + " extends " + Utilities.class.getName()
+          + " implements "
+          + (fieldCount == 1
+              ? Bindable.class.getName() + ", " + Typed.class.getName()
+              : ArrayBindable.class.getName())
+          + " {\n"
+          + s
+          + "\n}\n";
+      return (Bindable) classCache.loadClass(expr.name, source,
+          EnumerableInterpretable.class.getClassLoader())
+          .getDeclaredConstructor().newInstance();
+    }
     ICompilerFactory compilerFactory;
     try {
       compilerFactory = CompilerFactoryFactory.getDefaultCompilerFactory();
@@ -151,15 +256,56 @@ static Bindable getBindable(ClassDeclaration expr, String s, int fieldCount)
       // Add line numbers to the generated janino class
       cbe.setDebuggingInformation(true, true, true);
     }
+    return (Bindable) cbe.createInstance(new StringReader(s));
+  }
 
-    if (CalciteSystemProperty.BINDABLE_CACHE_MAX_SIZE.value() != 0) {
-      StaticFieldDetector detector = new StaticFieldDetector();
-      expr.accept(detector);
-      if (!detector.containsStaticField) {
-        return BINDABLE_CACHE.get(s, () -> (Bindable) cbe.createInstance(new StringReader(s)));
-      }
+  /** Compiles Java source, wrapping any error. */
+  private static Bindable compile(ClassDeclaration expr, String s,
+      int fieldCount) {
+    try {
+      return getBindable(expr, s, fieldCount);
+    } catch (Exception e) {
+      throw compileError(s, e);
+    }
+  }
+
+  /** Key of the cache of Bindable objects. */
+  private static class BindableKey {
+    final HashCode digest;
+    final boolean scalar;
+
+    BindableKey(HashCode digest, boolean scalar) {
+      this.digest = digest;
+      this.scalar = scalar;
+    }
+
+    @Override public int hashCode() {
+      return digest.hashCode() * 31 + Boolean.hashCode(scalar);
+    }
+
+    @Override public boolean equals(Object obj) {
+      return obj == this
+          || obj instanceof BindableKey
+          && digest.equals(((BindableKey) obj).digest)
+          && scalar == ((BindableKey) obj).scalar;
+    }
+  }
+
+  /** Entry in the cache of Bindable objects. */
+  private static class BindableEntry {
+    final Bindable bindable;
+    /** Java source of the class, for {@link Hook#JAVA_PLAN} on a hit. */
+    final String s;
+    /** Estimated size in bytes. The size of a generated class is roughly
+     * proportional to the length of its source code, so we use that; the
+     * entry also holds the source, two bytes per character. */
+    final int weight;
+
+    BindableEntry(Bindable bindable, String s) {
+      this.bindable = bindable;
+      this.s = s;
+      this.weight = 3 * s.length();
     }
-    return (Bindable) cbe.createInstance(new StringReader(s));
   }
 
   /**
@@ -176,7 +322,7 @@ static class StaticFieldDetector extends VisitorImpl<Void> {
 
   /** Converts a bindable over scalar values into an array bindable, with each
    * row as an array of 1 element. */
-  static ArrayBindable box(final Bindable bindable) {
+  public static ArrayBindable box(final Bindable bindable) {
     if (bindable instanceof ArrayBindable) {
       return (ArrayBindable) bindable;
     }
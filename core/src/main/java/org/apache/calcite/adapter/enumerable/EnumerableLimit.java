@@ -34,6 +34,8 @@
 import org.apache.calcite.rex.RexLiteral;
 import org.apache.calcite.rex.RexNode;
 import org.apache.calcite.util.BuiltInMethod;
+import org.apache.calcite.util.Pair;
+import org.apache.calcite.util.Util;
 
 import java.util.List;
 
@@ -42,6 +44,11 @@ public class EnumerableLimit extends SingleRel implements EnumerableRel {
   public final RexNode offset;
   public final RexNode fetch;
 
+  /** Maximum number of rows, {@code offset + fetch}, that a limit may return
+   * if it is to be implemented, with the sort beneath it, as a top-N
+   * operation. */
+  static final int TOP_N_MAX_ROWS = 10_000;
+
   /** Creates an EnumerableLimit.
    *
    * <p>Use {@link #create} unless you know what you're doing. */
@@ -91,6 +98,12 @@ public static EnumerableLimit create(final RelNode input, RexNode offset,
   }
 
   public Result implement(EnumerableRelImplementor implementor, Prefer pref) {
+    if (isSmallTopN() && getInput() instanceof EnumerableSort) {
+      final EnumerableSort sort = (EnumerableSort) getInput();
+      if (sort.offset == null && sort.fetch == null) {
+        return implementTopN(implementor, pref, sort);
+      }
+    }
     final BlockBuilder builder = new BlockBuilder();
     final EnumerableRel child = (EnumerableRel) getInput();
     final Result result = implementor.visitChild(this, 0, child, pref);
@@ -125,6 +138,52 @@ public Result implement(EnumerableRelImplementor implementor, Prefer pref) {
     return implementor.result(physType, builder.toBlock());
   }
 
+  /** Returns whether {@code offset} and {@code fetch} are literals whose sum
+   * is at most {@link #TOP_N_MAX_ROWS}. If they are parameters, or large, we
+   * do not know that a bounded heap is cheaper than a full sort. */
+  private boolean isSmallTopN() {
+    if (!(fetch instanceof RexLiteral)
+        || offset != null && !(offset instanceof RexLiteral)) {
+      return false;
+    }
+    final long rowCount = (long) RexLiteral.intValue(fetch)
+        + (offset == null ? 0 : RexLiteral.intValue(offset));
+    return rowCount <= TOP_N_MAX_ROWS;
+  }
+
+  /** Implements this limit and the sort beneath it as a single "top-N"
+   * operation, which keeps only {@code offset + fetch} rows in memory rather
+   * than sorting the whole input. */
+  private Result implementTopN(EnumerableRelImplementor implementor,
+      Prefer pref, EnumerableSort sort) {
+    final BlockBuilder builder = new BlockBuilder();
+    final EnumerableRel child = (EnumerableRel) sort.getInput();
+    final Result result = implementor.visitChild(sort, 0, child, pref);
+    final PhysType physType =
+        PhysTypeImpl.of(
+            implementor.getTypeFactory(),
+            getRowType(),
+            result.format);
+    final Expression childExp = builder.append("child", result.block);
+    final Pair<Expression, Expression> pair =
+        result.physType.generateCollationKey(
+            sort.getCollation().getFieldCollations());
+    builder.add(
+        Expressions.return_(null,
+            Expressions.call(
+                BuiltInMethod.ORDER_BY_WITH_FETCH_AND_OFFSET.method,
+                childExp,
+                builder.append("keySelector", pair.left),
+                Util.first(
+                    builder.appendIfNotNull("comparator", pair.right),
+                    Expressions.constant(null)),
+                offset == null
+                    ? Expressions.constant(0)
+                    : getExpression(offset),
+                getExpression(fetch))));
+    return implementor.result(physType, builder.toBlock());
+  }
+
   private static Expression getExpression(RexNode offset) {
     if (offset instanceof RexDynamicParam) {
       final RexDynamicParam param = (RexDynamicParam) offset;
@@ -21,6 +21,7 @@
 import org.apache.calcite.linq4j.tree.Expression;
 import org.apache.calcite.linq4j.tree.Expressions;
 import org.apache.calcite.linq4j.tree.ParameterExpression;
+import org.apache.calcite.linq4j.tree.Primitive;
 import org.apache.calcite.linq4j.tree.Types;
 import org.apache.calcite.plan.RelOptCluster;
 import org.apache.calcite.plan.RelOptCost;
@@ -38,6 +39,7 @@
 import org.apache.calcite.rel.type.RelDataType;
 import org.apache.calcite.rex.RexLiteral;
 import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.rex.RexUtil;
 import org.apache.calcite.util.BuiltInMethod;
 import org.apache.calcite.util.ImmutableIntList;
 import org.apache.calcite.util.Pair;
@@ -65,7 +67,10 @@ public class EnumerableMergeJoin extends Join implements EnumerableRel {
     super(cluster, traits, left, right, condition, variablesSet, joinType);
     final List<RelCollation> collations =
         traits.getTraits(RelCollationTraitDef.INSTANCE);
-    assert collations == null || RelCollations.contains(collations, joinInfo.leftKeys);
+    assert collations == null
+        || joinType == JoinRelType.RIGHT
+        || joinType == JoinRelType.FULL
+        || RelCollations.contains(collations, joinInfo.leftKeys);
   }
 
   @Deprecated // to be removed before 2.0
@@ -93,7 +98,8 @@ public static EnumerableMergeJoin create(RelNode left, RelNode right,
     if (traitSet.isEnabled(RelCollationTraitDef.INSTANCE)) {
       final RelMetadataQuery mq = cluster.getMetadataQuery();
       final List<RelCollation> collations =
-          RelMdCollation.mergeJoin(mq, left, right, leftKeys, rightKeys);
+          RelMdCollation.mergeJoin(mq, left, right, leftKeys, rightKeys,
+              joinType);
       traitSet = traitSet.replace(collations);
     }
     return new EnumerableMergeJoin(cluster, traitSet, left, right, condition,
@@ -138,6 +144,8 @@ public Result implement(EnumerableRelImplementor implementor, Prefer pref) {
         PhysTypeImpl.of(typeFactory, getRowType(), pref.preferArray());
     final List<Expression> leftExpressions = new ArrayList<>();
     final List<Expression> rightExpressions = new ArrayList<>();
+    final List<Expression> leftNulls = new ArrayList<>();
+    final List<Expression> rightNulls = new ArrayList<>();
     for (Pair<Integer, Integer> pair : Pair.zip(joinInfo.leftKeys, joinInfo.rightKeys)) {
       final RelDataType keyType =
           typeFactory.leastRestrictive(
@@ -145,17 +153,35 @@ public Result implement(EnumerableRelImplementor implementor, Prefer pref) {
                   left.getRowType().getFieldList().get(pair.left).getType(),
                   right.getRowType().getFieldList().get(pair.right).getType()));
       final Type keyClass = typeFactory.getJavaClass(keyType);
-      leftExpressions.add(
+      final Expression leftKey =
           Types.castIfNecessary(keyClass,
-              leftResult.physType.fieldReference(left_, pair.left)));
-      rightExpressions.add(
+              leftResult.physType.fieldReference(left_, pair.left));
+      final Expression rightKey =
           Types.castIfNecessary(keyClass,
-              rightResult.physType.fieldReference(right_, pair.right)));
+              rightResult.physType.fieldReference(right_, pair.right));
+      leftExpressions.add(leftKey);
+      rightExpressions.add(rightKey);
+      if (!Primitive.is(leftKey.getType())) {
+        leftNulls.add(Expressions.equal(leftKey, RexImpTable.NULL_EXPR));
+      }
+      if (!Primitive.is(rightKey.getType())) {
+        rightNulls.add(Expressions.equal(rightKey, RexImpTable.NULL_EXPR));
+      }
     }
     final PhysType leftKeyPhysType =
         leftResult.physType.project(joinInfo.leftKeys, JavaRowFormat.LIST);
     final PhysType rightKeyPhysType =
         rightResult.physType.project(joinInfo.rightKeys, JavaRowFormat.LIST);
+    Expression predicate = Expressions.constant(null);
+    if (!joinInfo.nonEquiConditions.isEmpty()) {
+      final RexNode nonEquiCondition = RexUtil.composeConjunction(
+          getCluster().getRexBuilder(), joinInfo.nonEquiConditions, true);
+      if (nonEquiCondition != null) {
+        predicate = EnumUtils.generatePredicate(implementor,
+            getCluster().getRexBuilder(), left, right, leftResult.physType,
+            rightResult.physType, nonEquiCondition);
+      }
+    }
     return implementor.result(
         physType,
         builder.append(
@@ -165,17 +191,32 @@ public Result implement(EnumerableRelImplementor implementor, Prefer pref) {
                     leftExpression,
                     rightExpression,
                     Expressions.lambda(
-                        leftKeyPhysType.record(leftExpressions), left_),
+                        keyRecord(leftKeyPhysType, leftExpressions, leftNulls),
+                        left_),
                     Expressions.lambda(
-                        rightKeyPhysType.record(rightExpressions), right_),
+                        keyRecord(rightKeyPhysType, rightExpressions,
+                            rightNulls),
+                        right_),
+                    predicate,
                     EnumUtils.joinSelector(joinType,
                         physType,
                         ImmutableList.of(
                             leftResult.physType, rightResult.physType)),
                     Expressions.constant(
-                        joinType.generatesNullsOnLeft()),
-                    Expressions.constant(
-                        joinType.generatesNullsOnRight())))).toBlock());
+                        EnumUtils.toLinq4jJoinType(joinType))))).toBlock());
+  }
+
+  /** Generates the key of a row, or null if any component of a composite key
+   * is null. (A null key never matches; a composite key that contains a null
+   * component would otherwise compare as if it were a value.) */
+  private static Expression keyRecord(PhysType keyPhysType,
+      List<Expression> expressions, List<Expression> nulls) {
+    final Expression record = keyPhysType.record(expressions);
+    if (expressions.size() == 1 || nulls.isEmpty()) {
+      return record;
+    }
+    return Expressions.condition(Expressions.foldOr(nulls),
+        RexImpTable.NULL_EXPR, record);
   }
 }
 
@@ -51,11 +51,6 @@ class EnumerableMergeJoinRule extends ConverterRule {
   @Override public RelNode convert(RelNode rel) {
     LogicalJoin join = (LogicalJoin) rel;
     final JoinInfo info = join.analyzeCondition();
-    if (join.getJoinType() != JoinRelType.INNER) {
-      // EnumerableMergeJoin only supports inner join.
-      // (It supports non-equi join, using a post-filter; see below.)
-      return null;
-    }
     if (info.pairs().size() == 0) {
       // EnumerableMergeJoin CAN support cartesian join, but disable it for now.
       return null;
@@ -87,8 +82,33 @@ class EnumerableMergeJoinRule extends ConverterRule {
 
     RelTraitSet traitSet = join.getTraitSet()
         .replace(EnumerableConvention.INSTANCE);
-    if (!collations.isEmpty()) {
+    switch (join.getJoinType()) {
+    case INNER:
       traitSet = traitSet.replace(collations);
+      break;
+    case LEFT:
+    case SEMI:
+    case ANTI:
+      // Rows of the right input that have no match (and, for an outer join,
+      // null values) interrupt the right input's sort order
+      traitSet = traitSet.replace(collations.get(0));
+      break;
+    default:
+      // Rows that have no match interrupt both sort orders
+      break;
+    }
+    if (join.getJoinType() != JoinRelType.INNER) {
+      // For other join types, the non-equi conditions are evaluated while
+      // matching rows, because a post-filter would remove rows that ought to
+      // be null-extended (or, for a semi- or anti-join, rows that ought to
+      // be retained)
+      return new EnumerableMergeJoin(cluster,
+          traitSet,
+          left,
+          right,
+          join.getCondition(),
+          join.getVariablesSet(),
+          join.getJoinType());
     }
     newRel = new EnumerableMergeJoin(cluster,
         traitSet,
@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.calcite.adapter.enumerable;
+
+import org.apache.calcite.plan.RelOptRule;
+import org.apache.calcite.plan.RelOptRuleCall;
+import org.apache.calcite.plan.RelOptRuleOperand;
+import org.apache.calcite.rel.RelDistributions;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.Aggregate;
+import org.apache.calcite.rel.core.JoinInfo;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.util.ImmutableBitSet;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Planner rule that places an {@link EnumerableExchange} on the inputs of an
+ * {@link EnumerableAggregate} or {@link EnumerableHashJoin}, so that the
+ * aggregate or join is executed in parallel.
+ *
+ * <p>An input is partitioned if its estimated row count
+ * ({@link RelMetadataQuery#getRowCount}) is at least a given threshold and it
+ * is not already split ({@link RelMetadataQuery#splitCount} is 1).
+ *
+ * <p>The rule operates on physical expressions, so it is applied after the
+ * main planning phase, by a {@link org.apache.calcite.plan.hep.HepPlanner}.
+ *
+ * @see org.apache.calcite.config.CalciteConnectionProperty#PARALLELISM
+ */
+public abstract class EnumerablePartitionRule extends RelOptRule {
+  /** Number of partitions to create. */
+  protected final int partitionCount;
+  /** Minimum estimated row count of an input that is worth partitioning. */
+  protected final double minRowCount;
+
+  /** Creates an EnumerablePartitionRule. */
+  protected EnumerablePartitionRule(RelOptRuleOperand operand,
+      int partitionCount, double minRowCount, String description) {
+    super(operand, description);
+    if (partitionCount < 2) {
+      throw new IllegalArgumentException("partitionCount: " + partitionCount);
+    }
+    this.partitionCount = partitionCount;
+    this.minRowCount = minRowCount;
+  }
+
+  /** Returns whether an input is not already split. */
+  protected static boolean isUnsplit(RelNode input, RelMetadataQuery mq) {
+    final Integer splitCount = mq.splitCount(input);
+    return splitCount == null || splitCount <= 1;
+  }
+
+  /** Returns whether an input is large enough to be worth partitioning. */
+  protected boolean isLarge(RelNode input, RelMetadataQuery mq) {
+    final Double rowCount = mq.getRowCount(input);
+    return rowCount != null && rowCount >= minRowCount;
+  }
+
+  /** Rule that partitions the input of an {@link EnumerableAggregate} on its
+   * group keys. */
+  public static class AggregateRule extends EnumerablePartitionRule {
+    /** Creates an AggregateRule. */
+    public AggregateRule(int partitionCount, double minRowCount) {
+      super(operand(EnumerableAggregate.class, operand(RelNode.class, any())),
+          partitionCount, minRowCount,
+          "EnumerablePartitionRule:Aggregate");
+    }
+
+    @Override public void onMatch(RelOptRuleCall call) {
+      final EnumerableAggregate aggregate = call.rel(0);
+      final RelNode input = call.rel(1);
+      final ImmutableBitSet groupSet = aggregate.getGroupSet();
+      if (aggregate.getGroupType() != Aggregate.Group.SIMPLE
+          || groupSet.isEmpty()) {
+        // One group, or grouping sets; groups are not confined to one
+        // partition
+        return;
+      }
+      if (aggregate.getAggCallList().isEmpty()
+          && groupSet.cardinality() == input.getRowType().getFieldCount()) {
+        // Implemented as DISTINCT, which does not use partitions
+        return;
+      }
+      final RelMetadataQuery mq = call.getMetadataQuery();
+      if (!isUnsplit(input, mq) || !isLarge(input, mq)) {
+        return;
+      }
+      final EnumerableExchange exchange =
+          EnumerableExchange.create(input,
+              RelDistributions.hash(groupSet.asList()), partitionCount);
+      call.transformTo(
+          aggregate.copy(aggregate.getTraitSet(), ImmutableList.of(exchange)));
+    }
+  }
+
+  /** Rule that partitions the right (build) input of an
+   * {@link EnumerableHashJoin} on its join keys, so that the join's hash
+   * table is built in parallel. The left (probe) input is streamed, so it is
+   * not partitioned. */
+  public static class HashJoinRule extends EnumerablePartitionRule {
+    /** Creates a HashJoinRule. */
+    public HashJoinRule(int partitionCount, double minRowCount) {
+      super(
+          operand(EnumerableHashJoin.class,
+              operand(RelNode.class, any()),
+              operand(RelNode.class, any())),
+          partitionCount, minRowCount,
+          "EnumerablePartitionRule:HashJoin");
+    }
+
+    @Override public void onMatch(RelOptRuleCall call) {
+      final EnumerableHashJoin join = call.rel(0);
+      final RelNode left = call.rel(1);
+      final RelNode right = call.rel(2);
+      if (join.isSemiJoin()) {
+        return;
+      }
+      final JoinInfo joinInfo = join.analyzeCondition();
+      if (joinInfo.leftKeys.isEmpty()) {
+        return;
+      }
+      final RelMetadataQuery mq = call.getMetadataQuery();
+      if (!isUnsplit(right, mq) || !isLarge(right, mq)) {
+        return;
+      }
+      final EnumerableExchange rightExchange =
+          EnumerableExchange.create(right,
+              RelDistributions.hash(joinInfo.rightKeys), partitionCount);
+      call.transformTo(
+          join.copy(join.getTraitSet(),
+              ImmutableList.of(left, rightExchange)));
+    }
+  }
+}
+
+// End EnumerablePartitionRule.java
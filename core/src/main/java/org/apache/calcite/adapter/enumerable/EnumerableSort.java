@@ -16,6 +16,7 @@
  */
 package org.apache.calcite.adapter.enumerable;
 
+import org.apache.calcite.config.CalciteConnectionConfig;
 import org.apache.calcite.linq4j.tree.BlockBuilder;
 import org.apache.calcite.linq4j.tree.Expression;
 import org.apache.calcite.linq4j.tree.Expressions;
@@ -27,6 +28,7 @@
 import org.apache.calcite.rex.RexNode;
 import org.apache.calcite.util.BuiltInMethod;
 import org.apache.calcite.util.Pair;
+import org.apache.calcite.util.Util;
 
 /** Implementation of {@link org.apache.calcite.rel.core.Sort} in
  * {@link org.apache.calcite.adapter.enumerable.EnumerableConvention enumerable calling convention}. */
@@ -68,19 +70,43 @@ public Result implement(EnumerableRelImplementor implementor, Prefer pref) {
     final BlockBuilder builder = new BlockBuilder();
     final EnumerableRel child = (EnumerableRel) getInput();
     final Result result = implementor.visitChild(this, 0, child, pref);
-    final PhysType physType =
-        PhysTypeImpl.of(
-            implementor.getTypeFactory(),
-            getRowType(),
-            result.format);
+    final int spillThreshold = spillThreshold();
     Expression childExp =
         builder.append("child", result.block);
 
-    PhysType inputPhysType = result.physType;
+    final PhysType inputPhysType =
+        EnumUtils.spillPhysType(implementor.getTypeFactory(),
+            result.physType, spillThreshold);
+    final PhysType physType;
+    if (inputPhysType != result.physType) {
+      childExp = builder.append("child",
+          result.physType.convertTo(childExp, inputPhysType.getFormat()));
+      physType =
+          PhysTypeImpl.of(implementor.getTypeFactory(), getRowType(),
+              inputPhysType.getFormat(), false);
+    } else {
+      physType =
+          PhysTypeImpl.of(
+              implementor.getTypeFactory(),
+              getRowType(),
+              result.format);
+    }
     final Pair<Expression, Expression> pair =
         inputPhysType.generateCollationKey(
             collation.getFieldCollations());
 
+    if (spillThreshold > 0) {
+      builder.add(
+          Expressions.return_(null,
+              Expressions.call(BuiltInMethod.ORDER_BY_SPILLING.method,
+                  childExp,
+                  builder.append("keySelector", pair.left),
+                  Util.first(
+                      builder.appendIfNotNull("comparator", pair.right),
+                      Expressions.constant(null)),
+                  Expressions.constant(spillThreshold))));
+      return implementor.result(physType, builder.toBlock());
+    }
     builder.add(
         Expressions.return_(null,
             Expressions.call(childExp,
@@ -91,6 +117,19 @@ public Result implement(EnumerableRelImplementor implementor, Prefer pref) {
                         builder.appendIfNotNull("comparator", pair.right)))));
     return implementor.result(physType, builder.toBlock());
   }
+
+  /** Returns the maximum number of rows to sort in memory before spilling,
+   * or -1 if the sort should never spill.
+   *
+   * <p>The sort never spills if its rows cannot be serialized, say because a
+   * field holds a Java object of a class that is not
+   * {@link java.io.Serializable}.
+   *
+   * @see org.apache.calcite.config.CalciteConnectionProperty#SORT_SPILL_THRESHOLD */
+  protected int spillThreshold() {
+    return EnumUtils.spillThreshold(this,
+        CalciteConnectionConfig::sortSpillThreshold);
+  }
 }
 
 // End EnumerableSort.java
@@ -428,29 +428,7 @@ public Expression implement(RexToLixTranslator translator,
     map.put(IS_FALSE, new IsXxxImplementor(false, false));
     map.put(IS_NOT_FALSE, new IsXxxImplementor(false, true));
 
-    // LIKE and SIMILAR
-    final MethodImplementor likeImplementor =
-        new MethodImplementor(BuiltInMethod.LIKE.method);
-    defineImplementor(LIKE, NullPolicy.STRICT, likeImplementor, false);
-    defineImplementor(NOT_LIKE, NullPolicy.STRICT,
-        NotImplementor.of(likeImplementor), false);
-    final MethodImplementor similarImplementor =
-        new MethodImplementor(BuiltInMethod.SIMILAR.method);
-    defineImplementor(SIMILAR_TO, NullPolicy.STRICT, similarImplementor, false);
-    defineImplementor(NOT_SIMILAR_TO, NullPolicy.STRICT,
-        NotImplementor.of(similarImplementor), false);
-
-    // POSIX REGEX
-    final MethodImplementor posixRegexImplementor =
-        new MethodImplementor(BuiltInMethod.POSIX_REGEX.method);
-    defineImplementor(SqlStdOperatorTable.POSIX_REGEX_CASE_INSENSITIVE, NullPolicy.STRICT,
-        posixRegexImplementor, false);
-    defineImplementor(SqlStdOperatorTable.POSIX_REGEX_CASE_SENSITIVE, NullPolicy.STRICT,
-        posixRegexImplementor, false);
-    defineImplementor(SqlStdOperatorTable.NEGATED_POSIX_REGEX_CASE_INSENSITIVE, NullPolicy.STRICT,
-        NotImplementor.of(posixRegexImplementor), false);
-    defineImplementor(SqlStdOperatorTable.NEGATED_POSIX_REGEX_CASE_SENSITIVE, NullPolicy.STRICT,
-        NotImplementor.of(posixRegexImplementor), false);
+    defineMatchers();
     defineImplementor(REGEXP_REPLACE, NullPolicy.STRICT,
         new NotNullImplementor() {
           final NotNullImplementor[] implementors = {
@@ -465,7 +443,41 @@ public Expression implement(RexToLixTranslator translator,
           };
           public Expression implement(RexToLixTranslator translator, RexCall call,
               List<Expression> translatedOperands) {
-            return implementors[call.getOperands().size() - 3]
+            final List<RexNode> operands = call.getOperands();
+            // Inside a program, such as that of an EnumerableCalc, the
+            // operands are references to the program's expressions
+            final List<Object> patternValues =
+                literalValues(
+                    operands.size() < 6
+                        ? ImmutableList.of(translator.deref(operands.get(1)))
+                        : ImmutableList.of(translator.deref(operands.get(1)),
+                            translator.deref(operands.get(5))));
+            if (patternValues != null
+                && compiles(BuiltInMethod.REGEXP_PATTERN.method,
+                    operands.size() < 6
+                        ? Arrays.asList(patternValues.get(0), null)
+                        : patternValues)) {
+              // Constant pattern. The optimizer moves the call to
+              // regexpPattern into a static field, so the pattern is
+              // compiled once.
+              final Expression pattern =
+                  Expressions.call(BuiltInMethod.REGEXP_PATTERN.method,
+                      translatedOperands.get(1),
+                      operands.size() < 6
+                          ? Expressions.constant(null, String.class)
+                          : translatedOperands.get(5));
+              return Expressions.call(
+                  BuiltInMethod.REGEXP_REPLACE_PATTERN.method,
+                  translatedOperands.get(0), pattern,
+                  translatedOperands.get(2),
+                  operands.size() < 4
+                      ? Expressions.constant(1)
+                      : translatedOperands.get(3),
+                  operands.size() < 5
+                      ? Expressions.constant(0)
+                      : translatedOperands.get(4));
+            }
+            return implementors[operands.size() - 3]
                 .implement(translator, call, translatedOperands);
           }
         }, false);
@@ -653,6 +665,39 @@ private <T> Supplier<T> constructorSupplier(Class<T> klass) {
     };
   }
 
+  /** Defines implementors for the operators that match a string against a
+   * pattern: LIKE, SIMILAR TO and POSIX regular expressions. */
+  private void defineMatchers() {
+    // LIKE and SIMILAR
+    final NotNullImplementor likeImplementor =
+        new MatcherImplementor(BuiltInMethod.LIKE.method,
+            BuiltInMethod.LIKE_MATCHER.method,
+            BuiltInMethod.LIKE_ESCAPE_MATCHER.method);
+    defineImplementor(LIKE, NullPolicy.STRICT, likeImplementor, false);
+    defineImplementor(NOT_LIKE, NullPolicy.STRICT,
+        NotImplementor.of(likeImplementor), false);
+    final NotNullImplementor similarImplementor =
+        new MatcherImplementor(BuiltInMethod.SIMILAR.method,
+            BuiltInMethod.SIMILAR_MATCHER.method,
+            BuiltInMethod.SIMILAR_ESCAPE_MATCHER.method);
+    defineImplementor(SIMILAR_TO, NullPolicy.STRICT, similarImplementor, false);
+    defineImplementor(NOT_SIMILAR_TO, NullPolicy.STRICT,
+        NotImplementor.of(similarImplementor), false);
+
+    // POSIX REGEX
+    final NotNullImplementor posixRegexImplementor =
+        new MatcherImplementor(BuiltInMethod.POSIX_REGEX.method,
+            BuiltInMethod.POSIX_REGEX_MATCHER.method);
+    defineImplementor(SqlStdOperatorTable.POSIX_REGEX_CASE_INSENSITIVE, NullPolicy.STRICT,
+        posixRegexImplementor, false);
+    defineImplementor(SqlStdOperatorTable.POSIX_REGEX_CASE_SENSITIVE, NullPolicy.STRICT,
+        posixRegexImplementor, false);
+    defineImplementor(SqlStdOperatorTable.NEGATED_POSIX_REGEX_CASE_INSENSITIVE, NullPolicy.STRICT,
+        NotImplementor.of(posixRegexImplementor), false);
+    defineImplementor(SqlStdOperatorTable.NEGATED_POSIX_REGEX_CASE_SENSITIVE, NullPolicy.STRICT,
+        NotImplementor.of(posixRegexImplementor), false);
+  }
+
   private void defineImplementor(
       SqlOperator operator,
       NullPolicy nullPolicy,
@@ -2223,6 +2268,90 @@ public Expression implement(
     }
   }
 
+  /** Implementor for functions that match a string against a pattern, such
+   * as {@code LIKE}, {@code SIMILAR TO} and POSIX regular expressions.
+   *
+   * <p>If the pattern and other arguments are literals, generates a call to
+   * a method that creates a {@link org.apache.calcite.runtime.Like.Matcher},
+   * and applies the matcher to the string. The optimizer moves the creation
+   * of the matcher into a static field of the generated class, so the
+   * pattern is compiled once, not for each row. Otherwise generates a call
+   * to a method that caches compiled patterns. */
+  private static class MatcherImplementor implements NotNullImplementor {
+    private final Method method;
+    /** Methods that create a matcher; one for each number of arguments
+     * after the string, for example without and with an escape character. */
+    private final List<Method> matcherMethods;
+
+    MatcherImplementor(Method method, Method... matcherMethods) {
+      this.method = method;
+      this.matcherMethods = ImmutableList.copyOf(matcherMethods);
+    }
+
+    public Expression implement(RexToLixTranslator translator, RexCall call,
+        List<Expression> translatedOperands) {
+      // Inside a program, such as that of an EnumerableCalc, the operands
+      // are references to the program's expressions
+      final List<RexNode> patterns = new ArrayList<>();
+      for (RexNode operand : Util.skip(call.getOperands())) {
+        patterns.add(translator.deref(operand));
+      }
+      final List<Object> patternValues = literalValues(patterns);
+      final Method matcherMethod = matcherMethod(patterns.size());
+      if (patternValues != null
+          && matcherMethod != null
+          && compiles(matcherMethod, patternValues)) {
+        final Expression matcher =
+            Expressions.call(matcherMethod, Util.skip(translatedOperands));
+        return Expressions.call(matcher, BuiltInMethod.MATCHER_MATCHES.method,
+            translatedOperands.get(0));
+      }
+      return Expressions.call(method, translatedOperands);
+    }
+
+    /** Returns the method that creates a matcher from a given number of
+     * arguments, or null if there is none. */
+    private Method matcherMethod(int argCount) {
+      for (Method matcherMethod : matcherMethods) {
+        if (matcherMethod.getParameterCount() == argCount) {
+          return matcherMethod;
+        }
+      }
+      return null;
+    }
+  }
+
+  /** Returns the values of a list of literals, or null if any of the
+   * expressions is not a literal or is the NULL literal. */
+  private static List<Object> literalValues(List<RexNode> operands) {
+    final List<Object> values = new ArrayList<>();
+    for (RexNode operand : operands) {
+      if (!(operand instanceof RexLiteral) || RexLiteral.isNullLiteral(operand)) {
+        return null;
+      }
+      final RexLiteral literal = (RexLiteral) operand;
+      values.add(SqlTypeUtil.isCharacter(literal.getType())
+          ? literal.getValueAs(String.class)
+          : literal.getValueAs(Boolean.class));
+    }
+    return values;
+  }
+
+  /** Returns whether a method that compiles a pattern succeeds for the given
+   * arguments. If it does not, the generated code compiles the pattern for
+   * each row, so that the error is reported when the query is executed, as
+   * it would be for a pattern that is not a literal. */
+  private static boolean compiles(Method method, List<Object> args) {
+    try {
+      method.invoke(null, args.toArray());
+      return true;
+    } catch (InvocationTargetException e) {
+      return false;
+    } catch (IllegalAccessException e) {
+      throw new AssertionError(e);
+    }
+  }
+
   /** Implementor for SQL functions that generates calls to a given method name.
    *
    * <p>Use this, as opposed to {@link MethodImplementor}, if the SQL function
@@ -0,0 +1,564 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.calcite.adapter.jdbc;
+
+import com.google.common.base.Preconditions;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+
+/**
+ * Data source that keeps a bounded pool of connections to an underlying
+ * data source, and a cache of prepared statements for each connection.
+ *
+ * <p>At most {@link #maxConnections} connections are in use at a time; a
+ * thread that asks for a connection while all are in use waits until one is
+ * returned. Closing a connection obtained from this data source returns the
+ * underlying connection to the pool.
+ *
+ * <p>If {@link #statementCacheSize} is positive, each connection keeps up to
+ * that many prepared statements, keyed by SQL text.
+ * {@link Connection#prepareStatement(String)} returns a cached statement if
+ * one is not in use, and closing the statement returns it to the cache. A
+ * query whose dynamic parameters are bound as parameters of the statement
+ * is therefore prepared once per connection, not once per execution.
+ *
+ * <p>{@link #metrics()} returns counters that describe how well the pool and
+ * the cache are working. A {@link JdbcSchema} that uses a pool returns it
+ * from {@link JdbcSchema#getDataSource()}.
+ */
+public class JdbcConnectionPool implements DataSource, AutoCloseable {
+  /** Maximum number of connections, if only a statement cache size is
+   * specified. */
+  public static final int DEFAULT_MAX_CONNECTIONS = 8;
+
+  /** How long to wait for a connection, if all are in use, before giving
+   * up. */
+  private static final long MAX_WAIT_MILLIS = 30_000L;
+
+  private final DataSource dataSource;
+  /** Maximum number of connections in use at a time. */
+  public final int maxConnections;
+  /** Maximum number of prepared statements cached per connection, or 0 if
+   * statements are not cached. */
+  public final int statementCacheSize;
+
+  private final Semaphore permits;
+  /** Connections not in use, most recently used first; guarded by this. */
+  private final Deque<PooledConnection> idle = new ArrayDeque<>();
+  /** Whether {@link #close()} has been called; guarded by this. */
+  private boolean closed;
+
+  private final AtomicInteger activeConnections = new AtomicInteger();
+  private final AtomicLong connectionsCreated = new AtomicLong();
+  private final AtomicLong connectionRequests = new AtomicLong();
+  private final AtomicLong connectionWaits = new AtomicLong();
+  private final AtomicLong statementCacheHits = new AtomicLong();
+  private final AtomicLong statementCacheMisses = new AtomicLong();
+  private final AtomicLong statementCacheEvictions = new AtomicLong();
+
+  /** Creates a JdbcConnectionPool. */
+  public JdbcConnectionPool(DataSource dataSource, int maxConnections,
+      int statementCacheSize) {
+    Preconditions.checkArgument(maxConnections > 0,
+        "maxConnections must be positive");
+    Preconditions.checkArgument(statementCacheSize >= 0,
+        "statementCacheSize must not be negative");
+    this.dataSource = Objects.requireNonNull(dataSource);
+    this.maxConnections = maxConnections;
+    this.statementCacheSize = statementCacheSize;
+    this.permits = new Semaphore(maxConnections, true);
+  }
+
+  /** Wraps a data source in a pool if either of the options is positive;
+   * otherwise returns the data source unchanged.
+   *
+   * @param dataSource Underlying data source
+   * @param maxConnections Maximum number of connections in use at a time,
+   *                       or 0 for {@link #DEFAULT_MAX_CONNECTIONS}
+   * @param statementCacheSize Maximum number of prepared statements to cache
+   *                           per connection, or 0 to not cache statements
+   */
+  public static DataSource wrap(DataSource dataSource, int maxConnections,
+      int statementCacheSize) {
+    if (maxConnections <= 0 && statementCacheSize <= 0) {
+      return dataSource;
+    }
+    return new JdbcConnectionPool(dataSource,
+        maxConnections > 0 ? maxConnections : DEFAULT_MAX_CONNECTIONS,
+        statementCacheSize);
+  }
+
+  /** Returns a snapshot of this pool's counters. */
+  public Metrics metrics() {
+    final int idleConnections;
+    synchronized (this) {
+      idleConnections = idle.size();
+    }
+    return new Metrics(activeConnections.get(), idleConnections,
+        connectionsCreated.get(), connectionRequests.get(),
+        connectionWaits.get(), statementCacheHits.get(),
+        statementCacheMisses.get(), statementCacheEvictions.get());
+  }
+
+  public Connection getConnection() throws SQLException {
+    connectionRequests.incrementAndGet();
+    if (!permits.tryAcquire()) {
+      connectionWaits.incrementAndGet();
+      try {
+        if (!permits.tryAcquire(MAX_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+          throw new SQLException("Timed out waiting for a connection; all "
+              + maxConnections + " connections are in use");
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new SQLException("Interrupted while waiting for a connection",
+            e);
+      }
+    }
+    try {
+      PooledConnection pooled = takeIdle();
+      if (pooled == null) {
+        pooled = new PooledConnection(dataSource.getConnection());
+        connectionsCreated.incrementAndGet();
+      }
+      activeConnections.incrementAndGet();
+      return proxy(Connection.class, new ConnectionHandler(pooled));
+    } catch (SQLException | RuntimeException e) {
+      permits.release();
+      throw e;
+    }
+  }
+
+  /** Returns an idle connection that is still open, or null. */
+  private PooledConnection takeIdle() throws SQLException {
+    final List<PooledConnection> discarded = new ArrayList<>();
+    try {
+      synchronized (this) {
+        if (closed) {
+          throw new SQLException("Connection pool is closed");
+        }
+        for (;;) {
+          final PooledConnection pooled = idle.poll();
+          if (pooled == null || !pooled.connection.isClosed()) {
+            return pooled;
+          }
+          discarded.add(pooled);
+        }
+      }
+    } finally {
+      for (PooledConnection pooled : discarded) {
+        pooled.close();
+      }
+    }
+  }
+
+  /** Returns a connection to the pool, or closes it if it is no longer
+   * usable. */
+  private void release(PooledConnection pooled) {
+    activeConnections.decrementAndGet();
+    boolean reuse;
+    try {
+      reuse = !pooled.connection.isClosed();
+      if (reuse
+          && pooled.autoCommit
+          && !pooled.connection.getAutoCommit()) {
+        // The user left a transaction open. Roll it back.
+        pooled.connection.rollback();
+        pooled.connection.setAutoCommit(true);
+      }
+    } catch (SQLException e) {
+      reuse = false;
+    }
+    synchronized (this) {
+      if (reuse && !closed) {
+        idle.push(pooled);
+        pooled = null;
+      }
+    }
+    if (pooled != null) {
+      pooled.close();
+    }
+    permits.release();
+  }
+
+  /** Closes the connections that are not in use. Connections that are in use
+   * are closed when they are returned. */
+  public void close() {
+    final List<PooledConnection> connections;
+    synchronized (this) {
+      closed = true;
+      connections = new ArrayList<>(idle);
+      idle.clear();
+    }
+    for (PooledConnection pooled : connections) {
+      pooled.close();
+    }
+  }
+
+  public Connection getConnection(String username, String password)
+      throws SQLException {
+    throw new SQLFeatureNotSupportedException(
+        "Connection pool does not support per-connection credentials");
+  }
+
+  public PrintWriter getLogWriter() throws SQLException {
+    return dataSource.getLogWriter();
+  }
+
+  public void setLogWriter(PrintWriter out) throws SQLException {
+    dataSource.setLogWriter(out);
+  }
+
+  public void setLoginTimeout(int seconds) throws SQLException {
+    dataSource.setLoginTimeout(seconds);
+  }
+
+  public int getLoginTimeout() throws SQLException {
+    return dataSource.getLoginTimeout();
+  }
+
+  public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+    return dataSource.getParentLogger();
+  }
+
+  public <T> T unwrap(Class<T> iface) throws SQLException {
+    if (iface.isInstance(this)) {
+      return iface.cast(this);
+    }
+    return dataSource.unwrap(iface);
+  }
+
+  public boolean isWrapperFor(Class<?> iface) throws SQLException {
+    return iface.isInstance(this) || dataSource.isWrapperFor(iface);
+  }
+
+  private static <T> T proxy(Class<T> iface, InvocationHandler handler) {
+    return iface.cast(
+        Proxy.newProxyInstance(JdbcConnectionPool.class.getClassLoader(),
+            new Class[] {iface}, handler));
+  }
+
+  private static void closeQuietly(AutoCloseable closeable) {
+    try {
+      closeable.close();
+    } catch (Exception e) {
+      // ignore
+    }
+  }
+
+  /** Snapshot of the counters of a {@link JdbcConnectionPool}. */
+  public static class Metrics {
+    /** Number of connections in use. */
+    public final int activeConnections;
+    /** Number of open connections that are not in use. */
+    public final int idleConnections;
+    /** Number of connections opened on the underlying data source. */
+    public final long connectionsCreated;
+    /** Number of requests for a connection. */
+    public final long connectionRequests;
+    /** Number of requests for a connection that had to wait because all
+     * connections were in use. */
+    public final long connectionWaits;
+    /** Number of requests to prepare a statement that were satisfied from
+     * the cache. */
+    public final long statementCacheHits;
+    /** Number of requests to prepare a statement that prepared a new
+     * statement. */
+    public final long statementCacheMisses;
+    /** Number of cached statements closed to make room for others. */
+    public final long statementCacheEvictions;
+
+    Metrics(int activeConnections, int idleConnections,
+        long connectionsCreated, long connectionRequests,
+        long connectionWaits, long statementCacheHits,
+        long statementCacheMisses, long statementCacheEvictions) {
+      this.activeConnections = activeConnections;
+      this.idleConnections = idleConnections;
+      this.connectionsCreated = connectionsCreated;
+      this.connectionRequests = connectionRequests;
+      this.connectionWaits = connectionWaits;
+      this.statementCacheHits = statementCacheHits;
+      this.statementCacheMisses = statementCacheMisses;
+      this.statementCacheEvictions = statementCacheEvictions;
+    }
+
+    @Override public String toString() {
+      return "{activeConnections: " + activeConnections
+          + ", idleConnections: " + idleConnections
+          + ", connectionsCreated: " + connectionsCreated
+          + ", connectionRequests: " + connectionRequests
+          + ", connectionWaits: " + connectionWaits
+          + ", statementCacheHits: " + statementCacheHits
+          + ", statementCacheMisses: " + statementCacheMisses
+          + ", statementCacheEvictions: " + statementCacheEvictions + "}";
+    }
+  }
+
+  /** Connection to the underlying data source, and its cached
+   * statements. */
+  private class PooledConnection {
+    final Connection connection;
+    /** Auto-commit setting when the connection was opened. */
+    final boolean autoCommit;
+    /** Cached statements by SQL, least recently used first. */
+    private final Map<String, CachedStatement> statements =
+        new LinkedHashMap<>(16, 0.75f, true);
+
+    PooledConnection(Connection connection) throws SQLException {
+      this.connection = connection;
+      this.autoCommit = connection.getAutoCommit();
+    }
+
+    /** Returns a prepared statement for a SQL string, from the cache if
+     * possible. */
+    synchronized PreparedStatement prepare(String sql,
+        Connection connectionProxy) throws SQLException {
+      CachedStatement cached = statements.get(sql);
+      if (cached != null && !cached.inUse) {
+        statementCacheHits.incrementAndGet();
+        cached.inUse = true;
+        return proxy(PreparedStatement.class,
+            new CachedStatementHandler(this, cached, connectionProxy));
+      }
+      statementCacheMisses.incrementAndGet();
+      final PreparedStatement statement = connection.prepareStatement(sql);
+      if (cached != null) {
+        // A statement for the same SQL is in use on this connection. Do not
+        // cache a second one.
+        return proxy(PreparedStatement.class,
+            new Handler(statement, connectionProxy));
+      }
+      try {
+        cached = new CachedStatement(sql, statement);
+      } catch (SQLException e) {
+        closeQuietly(statement);
+        throw e;
+      }
+      cached.inUse = true;
+      statements.put(sql, cached);
+      evict();
+      return proxy(PreparedStatement.class,
+          new CachedStatementHandler(this, cached, connectionProxy));
+    }
+
+    /** Returns a statement to the cache, clearing its parameters and
+     * restoring the settings it had when it was prepared, so that the next
+     * user does not inherit the previous user's timeout or limits. */
+    synchronized void recycle(CachedStatement cached) {
+      cached.inUse = false;
+      try {
+        cached.statement.clearParameters();
+        cached.statement.setQueryTimeout(cached.queryTimeout);
+        cached.statement.setFetchSize(cached.fetchSize);
+        cached.statement.setMaxRows(cached.maxRows);
+      } catch (SQLException e) {
+        statements.remove(cached.sql, cached);
+        closeQuietly(cached.statement);
+      }
+      evict();
+    }
+
+    /** Closes the least recently used statements that are not in use, until
+     * the cache is no larger than its limit. */
+    private void evict() {
+      final Iterator<CachedStatement> iterator =
+          statements.values().iterator();
+      while (statements.size() > statementCacheSize && iterator.hasNext()) {
+        final CachedStatement cached = iterator.next();
+        if (!cached.inUse) {
+          iterator.remove();
+          closeQuietly(cached.statement);
+          statementCacheEvictions.incrementAndGet();
+        }
+      }
+    }
+
+    void close() {
+      synchronized (this) {
+        for (CachedStatement cached : statements.values()) {
+          closeQuietly(cached.statement);
+        }
+        statements.clear();
+      }
+      closeQuietly(connection);
+    }
+  }
+
+  /** Prepared statement in the cache of a connection. */
+  private static class CachedStatement {
+    final String sql;
+    final PreparedStatement statement;
+    /** Driver's default query timeout, fetch size and maximum number of
+     * rows, captured when the statement was prepared. */
+    final int queryTimeout;
+    final int fetchSize;
+    final int maxRows;
+    /** Whether the statement has been handed out and not yet closed;
+     * guarded by the owning {@link PooledConnection}. */
+    boolean inUse;
+
+    CachedStatement(String sql, PreparedStatement statement)
+        throws SQLException {
+      this.sql = sql;
+      this.statement = statement;
+      this.queryTimeout = statement.getQueryTimeout();
+      this.fetchSize = statement.getFetchSize();
+      this.maxRows = statement.getMaxRows();
+    }
+  }
+
+  /** Handler for a proxy of a JDBC connection, statement or result set.
+   *
+   * <p>Statements and result sets returned by the proxy are proxies too, so
+   * that calling {@link Statement#getConnection()} or
+   * {@link ResultSet#getStatement()} and closing the result returns the
+   * proxy, not the underlying object; otherwise code that closes a result
+   * set, its statement and its connection would close the pooled
+   * connection. */
+  private static class Handler implements InvocationHandler {
+    final Object delegate;
+    /** Proxy of the connection or statement that created this object, or
+     * null. */
+    final Object parent;
+    volatile boolean closed;
+
+    Handler(Object delegate, Object parent) {
+      this.delegate = delegate;
+      this.parent = parent;
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args)
+        throws Throwable {
+      switch (method.getName()) {
+      case "close":
+        if (!closed) {
+          closed = true;
+          close();
+        }
+        return null;
+      case "isClosed":
+        return closed;
+      case "equals":
+        return proxy == args[0];
+      case "hashCode":
+        return System.identityHashCode(proxy);
+      case "toString":
+        return delegate.toString();
+      case "getConnection":
+      case "getStatement":
+        if (parent != null && method.getParameterCount() == 0) {
+          return parent;
+        }
+        break;
+      }
+      if (closed) {
+        throw new SQLException("Object is closed");
+      }
+      final Object result;
+      try {
+        result = method.invoke(delegate, args);
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+      final Class<?> type = method.getReturnType();
+      if (result != null
+          && (type == Statement.class
+              || type == PreparedStatement.class
+              || type == CallableStatement.class
+              || type == ResultSet.class)) {
+        return proxy(type, new Handler(result, proxy));
+      }
+      return result;
+    }
+
+    /** Called the first time the proxy is closed. */
+    void close() throws Exception {
+      ((AutoCloseable) delegate).close();
+    }
+  }
+
+  /** Handler for a proxy of a pooled connection. Closing the proxy returns
+   * the connection to the pool. */
+  private class ConnectionHandler extends Handler {
+    private final PooledConnection pooled;
+
+    ConnectionHandler(PooledConnection pooled) {
+      super(pooled.connection, null);
+      this.pooled = pooled;
+    }
+
+    @Override public Object invoke(Object proxy, Method method, Object[] args)
+        throws Throwable {
+      if (!closed
+          && statementCacheSize > 0
+          && method.getName().equals("prepareStatement")
+          && method.getParameterCount() == 1) {
+        return pooled.prepare((String) args[0], (Connection) proxy);
+      }
+      return super.invoke(proxy, method, args);
+    }
+
+    @Override void close() {
+      release(pooled);
+    }
+  }
+
+  /** Handler for a proxy of a cached statement. Closing the proxy returns
+   * the statement to the cache. */
+  private static class CachedStatementHandler extends Handler {
+    private final PooledConnection pooled;
+    private final CachedStatement cached;
+
+    CachedStatementHandler(PooledConnection pooled, CachedStatement cached,
+        Connection connectionProxy) {
+      super(cached.statement, connectionProxy);
+      this.pooled = pooled;
+      this.cached = cached;
+    }
+
+    @Override void close() {
+      pooled.recycle(cached);
+    }
+  }
+}
+
+// End JdbcConnectionPool.java
@@ -49,12 +49,41 @@ public class JdbcConvention extends Convention.Impl {
 
   public final SqlDialect dialect;
   public final Expression expression;
+  /** Number of rows to fetch from the database at a time, or 0 to use the
+   * JDBC driver's default. */
+  public final int fetchSize;
+  /** Whether to ask the JDBC driver to stream rows, rather than reading the
+   * whole result into memory. */
+  public final boolean streaming;
+  /** Number of rows to read ahead in a background thread, or 0 to read rows
+   * only when they are needed. */
+  public final int prefetchSize;
+  /** Whether to execute every query as a prepared statement, so that the
+   * data source can reuse statements. True if the data source is a
+   * {@link JdbcConnectionPool} that caches statements. */
+  public final boolean prepareStatements;
 
   public JdbcConvention(SqlDialect dialect, Expression expression,
       String name) {
+    this(dialect, expression, name, 0, false, 0);
+  }
+
+  public JdbcConvention(SqlDialect dialect, Expression expression,
+      String name, int fetchSize, boolean streaming, int prefetchSize) {
+    this(dialect, expression, name, fetchSize, streaming, prefetchSize,
+        false);
+  }
+
+  public JdbcConvention(SqlDialect dialect, Expression expression,
+      String name, int fetchSize, boolean streaming, int prefetchSize,
+      boolean prepareStatements) {
     super("JDBC." + name, JdbcRel.class);
     this.dialect = dialect;
     this.expression = expression;
+    this.fetchSize = fetchSize;
+    this.streaming = streaming;
+    this.prefetchSize = prefetchSize;
+    this.prepareStatements = prepareStatements;
   }
 
   public static JdbcConvention of(SqlDialect dialect, Expression expression,
@@ -62,6 +91,19 @@ public static JdbcConvention of(SqlDialect dialect, Expression expression,
     return new JdbcConvention(dialect, expression, name);
   }
 
+  public static JdbcConvention of(SqlDialect dialect, Expression expression,
+      String name, int fetchSize, boolean streaming, int prefetchSize) {
+    return new JdbcConvention(dialect, expression, name, fetchSize,
+        streaming, prefetchSize);
+  }
+
+  public static JdbcConvention of(SqlDialect dialect, Expression expression,
+      String name, int fetchSize, boolean streaming, int prefetchSize,
+      boolean prepareStatements) {
+    return new JdbcConvention(dialect, expression, name, fetchSize,
+        streaming, prefetchSize, prepareStatements);
+  }
+
   @Override public void register(RelOptPlanner planner) {
     for (RelOptRule rule : JdbcRules.rules(this)) {
       planner.addRule(rule);
@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.calcite.adapter.jdbc;
+
+import org.apache.calcite.util.Util;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Specification for reading a {@link JdbcTable} as several partitions, each
+ * by a separate query, in parallel.
+ *
+ * <p>The table is divided into ranges of a numeric, date or timestamp
+ * column. The ranges divide the interval between the lower and upper bound
+ * into {@link #partitionCount} equal parts, except that the first partition
+ * also contains values below the lower bound and nulls, and the last
+ * partition contains values above the upper bound. Thus the bounds affect
+ * only how evenly rows are distributed among the partitions, not which rows
+ * are returned. If the bounds are not specified, they are the minimum and
+ * maximum values of the column, read from the database and read again once
+ * they are older than {@link #boundsTtl} milliseconds.
+ *
+ * <p>Partitioning applies only to queries that read the table and apply
+ * filters and projections, and whose rows are therefore the union of the rows
+ * of the partitions; other queries read the table in one query.
+ */
+public class JdbcPartitioning {
+  /** Default value of {@link #boundsTtl}: 10 minutes. */
+  public static final long DEFAULT_BOUNDS_TTL = 600_000L;
+
+  /** Name of the column whose values determine the partition of a row. */
+  public final String column;
+  /** Number of partitions. */
+  public final int partitionCount;
+  /** Lower bound of the column, as a number, or a string for a date or
+   * timestamp column; or null. */
+  public final Object lowerBound;
+  /** Upper bound of the column, as a number, or a string for a date or
+   * timestamp column; or null. */
+  public final Object upperBound;
+  /** Whether to return the rows of each partition before the rows of the
+   * next partition; if false, rows are returned as soon as they arrive. */
+  public final boolean ordered;
+  /** How long, in milliseconds, bounds read from the database remain valid;
+   * 0 means read them for every query. */
+  public final long boundsTtl;
+
+  /** Creates a JdbcPartitioning whose bounds, if read from the database,
+   * remain valid for {@link #DEFAULT_BOUNDS_TTL}. */
+  public JdbcPartitioning(String column, int partitionCount,
+      Object lowerBound, Object upperBound, boolean ordered) {
+    this(column, partitionCount, lowerBound, upperBound, ordered,
+        DEFAULT_BOUNDS_TTL);
+  }
+
+  /** Creates a JdbcPartitioning. */
+  public JdbcPartitioning(String column, int partitionCount,
+      Object lowerBound, Object upperBound, boolean ordered, long boundsTtl) {
+    Preconditions.checkArgument(partitionCount >= 1,
+        "partitionCount must be positive");
+    Preconditions.checkArgument(boundsTtl >= 0,
+        "boundsTtl must not be negative");
+    this.column = Objects.requireNonNull(column);
+    this.partitionCount = partitionCount;
+    this.lowerBound = lowerBound;
+    this.upperBound = upperBound;
+    this.ordered = ordered;
+    this.boundsTtl = boundsTtl;
+  }
+
+  /** Creates a JdbcPartitioning from a map of properties, such as an element
+   * of the "partitions" operand of {@link JdbcSchema.Factory}.
+   *
+   * <p>The properties are "column" (required), "partitionCount" (required),
+   * "lowerBound", "upperBound", "ordered" (default false) and "boundsTtl"
+   * (default {@link #DEFAULT_BOUNDS_TTL}). */
+  public static JdbcPartitioning of(Map<String, Object> map) {
+    final Object partitionCount =
+        Objects.requireNonNull(map.get("partitionCount"), "partitionCount");
+    final Object boundsTtl = map.get("boundsTtl");
+    return new JdbcPartitioning(
+        (String) Objects.requireNonNull(map.get("column"), "column"),
+        toNumber(partitionCount).intValue(),
+        map.get("lowerBound"), map.get("upperBound"),
+        Util.first((Boolean) map.get("ordered"), false),
+        boundsTtl == null
+            ? DEFAULT_BOUNDS_TTL
+            : toNumber(boundsTtl).longValue());
+  }
+
+  private static Number toNumber(Object o) {
+    return o instanceof Number
+        ? (Number) o
+        : Long.valueOf(o.toString());
+  }
+
+  /** Creates a map of partitionings from a map whose keys are table names
+   * and whose values are maps of properties as for {@link #of(Map)}. */
+  public static ImmutableMap<String, JdbcPartitioning> ofTables(
+      Map<String, ? extends Map<String, Object>> map) {
+    final ImmutableMap.Builder<String, JdbcPartitioning> builder =
+        ImmutableMap.builder();
+    for (Map.Entry<String, ? extends Map<String, Object>> e
+        : map.entrySet()) {
+      builder.put(e.getKey(), of(e.getValue()));
+    }
+    return builder.build();
+  }
+
+  @Override public String toString() {
+    return "JdbcPartitioning {column: " + column
+        + ", partitionCount: " + partitionCount
+        + ", lowerBound: " + lowerBound
+        + ", upperBound: " + upperBound
+        + ", ordered: " + ordered
+        + ", boundsTtl: " + boundsTtl + "}";
+  }
+}
+
+// End JdbcPartitioning.java
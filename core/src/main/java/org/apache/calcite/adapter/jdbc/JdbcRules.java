@@ -54,6 +54,8 @@
 import org.apache.calcite.rel.rel2sql.SqlImplementor;
 import org.apache.calcite.rel.type.RelDataType;
 import org.apache.calcite.rex.RexCall;
+import org.apache.calcite.rex.RexCorrelVariable;
+import org.apache.calcite.rex.RexFieldAccess;
 import org.apache.calcite.rex.RexInputRef;
 import org.apache.calcite.rex.RexLiteral;
 import org.apache.calcite.rex.RexMultisetUtil;
@@ -67,6 +69,7 @@
 import org.apache.calcite.sql.SqlDialect;
 import org.apache.calcite.sql.SqlFunction;
 import org.apache.calcite.sql.SqlOperator;
+import org.apache.calcite.sql.type.SqlTypeUtil;
 import org.apache.calcite.sql.validate.SqlValidatorUtil;
 import org.apache.calcite.tools.RelBuilder;
 import org.apache.calcite.tools.RelBuilderFactory;
@@ -598,7 +601,8 @@ public JdbcFilterRule(JdbcConvention out) {
     public JdbcFilterRule(JdbcConvention out,
         RelBuilderFactory relBuilderFactory) {
       super(Filter.class,
-          (Predicate<Filter>) r -> !userDefinedFunctionInFilter(r),
+          (Predicate<Filter>) r -> !userDefinedFunctionInFilter(r)
+              && !unbindableCorrelationInFilter(r),
           Convention.NONE, out, relBuilderFactory, "JdbcFilterRule");
     }
 
@@ -608,6 +612,12 @@ private static boolean userDefinedFunctionInFilter(Filter filter) {
       return visitor.containsUserDefinedFunction();
     }
 
+    private static boolean unbindableCorrelationInFilter(Filter filter) {
+      CheckingCorrelationVisitor visitor = new CheckingCorrelationVisitor();
+      filter.getCondition().accept(visitor);
+      return visitor.containsUnbindableCorrelation();
+    }
+
     public RelNode convert(RelNode rel) {
       final Filter filter = (Filter) rel;
 
@@ -1080,6 +1090,50 @@ public boolean containsUserDefinedFunction() {
 
   }
 
+  /**
+   * Visitor for checking whether an expression references a correlation
+   * variable whose value cannot be passed to the JDBC source as a statement
+   * parameter.
+   *
+   * <p>{@link JdbcToEnumerableConverter} binds references to fields of
+   * correlation variables (such as those created by
+   * {@link org.apache.calcite.adapter.enumerable.EnumerableBatchNestedLoopJoinRule})
+   * as dynamic parameters. It can only do so for fields of numeric, character
+   * and boolean types, whose Java representation is what JDBC expects.
+   */
+  private static class CheckingCorrelationVisitor extends RexVisitorImpl<Void> {
+
+    private boolean containsUnbindableCorrelation = false;
+
+    CheckingCorrelationVisitor() {
+      super(true);
+    }
+
+    public boolean containsUnbindableCorrelation() {
+      return containsUnbindableCorrelation;
+    }
+
+    @Override public Void visitCorrelVariable(RexCorrelVariable variable) {
+      // Reference to a whole row, not to a field
+      containsUnbindableCorrelation = true;
+      return null;
+    }
+
+    @Override public Void visitFieldAccess(RexFieldAccess fieldAccess) {
+      if (fieldAccess.getReferenceExpr() instanceof RexCorrelVariable) {
+        final RelDataType type = fieldAccess.getType();
+        if (!SqlTypeUtil.isNumeric(type)
+            && !SqlTypeUtil.isCharacter(type)
+            && !SqlTypeUtil.isBoolean(type)) {
+          containsUnbindableCorrelation = true;
+        }
+        return null;
+      }
+      return super.visitFieldAccess(fieldAccess);
+    }
+
+  }
+
 }
 
 // End JdbcRules.java
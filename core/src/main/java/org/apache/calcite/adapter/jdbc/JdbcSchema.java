@@ -78,6 +78,8 @@ public class JdbcSchema implements Schema {
   final JdbcConvention convention;
   private ImmutableMap<String, JdbcTable> tableMap;
   private final boolean snapshot;
+  /** How to read tables in partitions, by table name. */
+  private final ImmutableMap<String, JdbcPartitioning> partitionings;
 
   @Experimental
   public static final ThreadLocal<Foo> THREAD_METADATA = new ThreadLocal<>();
@@ -96,12 +98,14 @@ public class JdbcSchema implements Schema {
    */
   public JdbcSchema(DataSource dataSource, SqlDialect dialect,
       JdbcConvention convention, String catalog, String schema) {
-    this(dataSource, dialect, convention, catalog, schema, null);
+    this(dataSource, dialect, convention, catalog, schema, null,
+        ImmutableMap.of());
   }
 
   private JdbcSchema(DataSource dataSource, SqlDialect dialect,
       JdbcConvention convention, String catalog, String schema,
-      ImmutableMap<String, JdbcTable> tableMap) {
+      ImmutableMap<String, JdbcTable> tableMap,
+      ImmutableMap<String, JdbcPartitioning> partitionings) {
     this.dataSource = Objects.requireNonNull(dataSource);
     this.dialect = Objects.requireNonNull(dialect);
     this.convention = convention;
@@ -109,6 +113,18 @@ private JdbcSchema(DataSource dataSource, SqlDialect dialect,
     this.schema = schema;
     this.tableMap = tableMap;
     this.snapshot = tableMap != null;
+    this.partitionings = Objects.requireNonNull(partitionings);
+  }
+
+  /** Returns a copy of this schema that reads the given tables in
+   * partitions, in parallel.
+   *
+   * @param partitionings Map from table name to partitioning
+   */
+  public JdbcSchema withPartitionings(
+      Map<String, JdbcPartitioning> partitionings) {
+    return new JdbcSchema(dataSource, dialect, convention, catalog, schema,
+        null, ImmutableMap.copyOf(partitionings));
   }
 
   public static JdbcSchema create(
@@ -128,11 +144,50 @@ public static JdbcSchema create(
       SqlDialectFactory dialectFactory,
       String catalog,
       String schema) {
+    return create(parentSchema, name, dataSource, dialectFactory, catalog,
+        schema, 0, false, 0);
+  }
+
+  /**
+   * Creates a JdbcSchema with options that control how rows are fetched.
+   *
+   * <p>If {@code dataSource} is a {@link JdbcConnectionPool} that caches
+   * statements, every query is executed as a prepared statement, so that
+   * statements are reused.
+   *
+   * @param parentSchema Parent schema
+   * @param name Name
+   * @param dataSource Data source
+   * @param dialectFactory Dialect factory
+   * @param catalog Catalog name, or null
+   * @param schema Schema name pattern
+   * @param fetchSize Number of rows to fetch from the database at a time, or
+   *                  0 to use the JDBC driver's default
+   * @param streaming Whether to ask the JDBC driver to stream rows rather
+   *                  than reading the whole result into memory
+   * @param prefetchSize Number of rows to read ahead in a background thread,
+   *                     or 0 to not read ahead
+   * @return A JdbcSchema
+   */
+  public static JdbcSchema create(
+      SchemaPlus parentSchema,
+      String name,
+      DataSource dataSource,
+      SqlDialectFactory dialectFactory,
+      String catalog,
+      String schema,
+      int fetchSize,
+      boolean streaming,
+      int prefetchSize) {
     final Expression expression =
         Schemas.subSchemaExpression(parentSchema, name, JdbcSchema.class);
     final SqlDialect dialect = createDialect(dialectFactory, dataSource);
+    final boolean prepareStatements =
+        dataSource instanceof JdbcConnectionPool
+            && ((JdbcConnectionPool) dataSource).statementCacheSize > 0;
     final JdbcConvention convention =
-        JdbcConvention.of(dialect, expression, name);
+        JdbcConvention.of(dialect, expression, name, fetchSize, streaming,
+            prefetchSize, prepareStatements);
     return new JdbcSchema(dataSource, dialect, convention, catalog, schema);
   }
 
@@ -148,18 +203,24 @@ public static JdbcSchema create(
       SchemaPlus parentSchema,
       String name,
       Map<String, Object> operand) {
+    final int maxConnections = intOperand(operand, "maxConnections");
+    final int statementCacheSize = intOperand(operand, "statementCacheSize");
     DataSource dataSource;
     try {
       final String dataSourceName = (String) operand.get("dataSource");
-      if (dataSourceName != null) {
-        dataSource =
-            AvaticaUtils.instantiatePlugin(DataSource.class, dataSourceName);
-      } else {
+      if (dataSourceName == null) {
         final String jdbcUrl = (String) operand.get("jdbcUrl");
         final String jdbcDriver = (String) operand.get("jdbcDriver");
         final String jdbcUser = (String) operand.get("jdbcUser");
         final String jdbcPassword = (String) operand.get("jdbcPassword");
-        dataSource = dataSource(jdbcUrl, jdbcDriver, jdbcUser, jdbcPassword);
+        dataSource = dataSource(jdbcUrl, jdbcDriver, jdbcUser, jdbcPassword,
+            maxConnections, statementCacheSize);
+      } else {
+        dataSource =
+            JdbcConnectionPool.wrap(
+                AvaticaUtils.instantiatePlugin(DataSource.class,
+                    dataSourceName),
+                maxConnections, statementCacheSize);
       }
     } catch (Exception e) {
       throw new RuntimeException("Error while reading dataSource", e);
@@ -167,16 +228,40 @@ public static JdbcSchema create(
     String jdbcCatalog = (String) operand.get("jdbcCatalog");
     String jdbcSchema = (String) operand.get("jdbcSchema");
     String sqlDialectFactory = (String) operand.get("sqlDialectFactory");
+    final int fetchSize = intOperand(operand, "fetchSize");
+    final boolean streaming =
+        Boolean.parseBoolean(String.valueOf(operand.get("streaming")));
+    final int prefetchSize = intOperand(operand, "prefetchSize");
 
+    final SqlDialectFactory factory;
     if (sqlDialectFactory == null || sqlDialectFactory.isEmpty()) {
-      return JdbcSchema.create(
-          parentSchema, name, dataSource, jdbcCatalog, jdbcSchema);
+      factory = SqlDialectFactoryImpl.INSTANCE;
     } else {
-      SqlDialectFactory factory = AvaticaUtils.instantiatePlugin(
+      factory = AvaticaUtils.instantiatePlugin(
           SqlDialectFactory.class, sqlDialectFactory);
-      return JdbcSchema.create(
-          parentSchema, name, dataSource, factory, jdbcCatalog, jdbcSchema);
     }
+    final JdbcSchema schema =
+        JdbcSchema.create(parentSchema, name, dataSource, factory,
+            jdbcCatalog, jdbcSchema, fetchSize, streaming, prefetchSize);
+    @SuppressWarnings("unchecked")
+    final Map<String, Map<String, Object>> partitions =
+        (Map<String, Map<String, Object>>) operand.get("partitions");
+    if (partitions == null || partitions.isEmpty()) {
+      return schema;
+    }
+    return schema.withPartitionings(JdbcPartitioning.ofTables(partitions));
+  }
+
+  /** Returns the value of an integer operand, which may be a number or a
+   * string, or 0 if the operand is not present. */
+  private static int intOperand(Map<String, Object> operand, String name) {
+    final Object o = operand.get(name);
+    if (o == null) {
+      return 0;
+    }
+    return o instanceof Number
+        ? ((Number) o).intValue()
+        : Integer.parseInt(o.toString());
   }
 
   /**
@@ -200,12 +285,36 @@ public static SqlDialect createDialect(SqlDialectFactory dialectFactory,
   /** Creates a JDBC data source with the given specification. */
   public static DataSource dataSource(String url, String driverClassName,
       String username, String password) {
+    return dataSource(url, driverClassName, username, password, 0);
+  }
+
+  /** Creates a JDBC data source with the given specification that opens at
+   * most {@code maxConnections} connections, or the default number if
+   * {@code maxConnections} is 0. */
+  public static DataSource dataSource(String url, String driverClassName,
+      String username, String password, int maxConnections) {
+    if (url.startsWith("jdbc:hsqldb:")) {
+      // Prevent hsqldb from screwing up java.util.logging.
+      System.setProperty("hsqldb.reconfig_logging", "false");
+    }
+    return JdbcUtils.DataSourcePool.INSTANCE.get(url, driverClassName, username,
+        password, maxConnections);
+  }
+
+  /** Creates a JDBC data source with the given specification that opens at
+   * most {@code maxConnections} connections and caches up to
+   * {@code statementCacheSize} prepared statements per connection. If either
+   * is positive, the data source is a {@link JdbcConnectionPool} shared by
+   * all schemas with the same specification. */
+  public static DataSource dataSource(String url, String driverClassName,
+      String username, String password, int maxConnections,
+      int statementCacheSize) {
     if (url.startsWith("jdbc:hsqldb:")) {
       // Prevent hsqldb from screwing up java.util.logging.
       System.setProperty("hsqldb.reconfig_logging", "false");
     }
     return JdbcUtils.DataSourcePool.INSTANCE.get(url, driverClassName, username,
-        password);
+        password, maxConnections, statementCacheSize);
   }
 
   public boolean isMutable() {
@@ -214,10 +323,15 @@ public boolean isMutable() {
 
   public Schema snapshot(SchemaVersion version) {
     return new JdbcSchema(dataSource, dialect, convention, catalog, schema,
-        tableMap);
+        tableMap, partitionings);
   }
 
-  // Used by generated code.
+  /** Returns the data source. If the schema was created with the
+   * "maxConnections" or "statementCacheSize" option, it is a
+   * {@link JdbcConnectionPool}, whose {@link JdbcConnectionPool#metrics()}
+   * describe how connections and statements are being reused.
+   *
+   * <p>Used by generated code. */
   public DataSource getDataSource() {
     return dataSource;
   }
@@ -289,7 +403,8 @@ private ImmutableMap<String, JdbcTable> computeTables() {
         }
         final JdbcTable table =
             new JdbcTable(this, tableDef.tableCat, tableDef.tableSchem,
-                tableDef.tableName, tableType);
+                tableDef.tableName, tableType,
+                partitionings.get(tableDef.tableName));
         builder.put(tableDef.tableName, table);
       }
       return builder.build();
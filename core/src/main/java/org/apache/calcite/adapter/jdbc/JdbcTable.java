@@ -35,7 +35,10 @@
 import org.apache.calcite.rel.logical.LogicalTableModify;
 import org.apache.calcite.rel.type.RelDataType;
 import org.apache.calcite.rel.type.RelDataTypeFactory;
+import org.apache.calcite.rel.type.RelDataTypeField;
 import org.apache.calcite.rel.type.RelProtoDataType;
+import org.apache.calcite.rex.RexBuilder;
+import org.apache.calcite.rex.RexLiteral;
 import org.apache.calcite.rex.RexNode;
 import org.apache.calcite.runtime.ResultSetEnumerable;
 import org.apache.calcite.schema.ModifiableTable;
@@ -47,20 +50,32 @@
 import org.apache.calcite.sql.SqlIdentifier;
 import org.apache.calcite.sql.SqlNodeList;
 import org.apache.calcite.sql.SqlSelect;
+import org.apache.calcite.sql.fun.SqlStdOperatorTable;
 import org.apache.calcite.sql.parser.SqlParserPos;
 import org.apache.calcite.sql.pretty.SqlPrettyWriter;
+import org.apache.calcite.sql.type.SqlTypeName;
 import org.apache.calcite.sql.util.SqlString;
+import org.apache.calcite.util.DateString;
 import org.apache.calcite.util.Pair;
+import org.apache.calcite.util.TimestampString;
 import org.apache.calcite.util.Util;
 
 import com.google.common.collect.Lists;
 
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.Connection;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Queryable that gets its data from a table within a JDBC connection.
@@ -80,16 +95,33 @@ public class JdbcTable extends AbstractQueryableTable
   public final String jdbcSchemaName;
   public final String jdbcTableName;
   public final Schema.TableType jdbcTableType;
+  /** How to read this table as several partitions in parallel, or null. */
+  public final JdbcPartitioning partitioning;
+  /** Lower and upper bound of the partitioning column, as numbers; empty if
+   * they are not known (say if the table is empty); null if not computed
+   * yet or invalidated; guarded by this. */
+  private double[] partitionBounds;
+  /** Value of {@link System#nanoTime()} when {@link #partitionBounds} was
+   * computed; guarded by this. */
+  private long partitionBoundsTime;
 
   JdbcTable(JdbcSchema jdbcSchema, String jdbcCatalogName,
       String jdbcSchemaName, String jdbcTableName,
       Schema.TableType jdbcTableType) {
+    this(jdbcSchema, jdbcCatalogName, jdbcSchemaName, jdbcTableName,
+        jdbcTableType, null);
+  }
+
+  JdbcTable(JdbcSchema jdbcSchema, String jdbcCatalogName,
+      String jdbcSchemaName, String jdbcTableName,
+      Schema.TableType jdbcTableType, JdbcPartitioning partitioning) {
     super(Object[].class);
     this.jdbcSchema = Objects.requireNonNull(jdbcSchema);
     this.jdbcCatalogName = jdbcCatalogName;
     this.jdbcSchemaName = jdbcSchemaName;
     this.jdbcTableName = Objects.requireNonNull(jdbcTableName);
     this.jdbcTableType = Objects.requireNonNull(jdbcTableType);
+    this.partitioning = partitioning;
   }
 
   public String toString() {
@@ -157,6 +189,191 @@ public SqlIdentifier tableName() {
     return new SqlIdentifier(names, SqlParserPos.ZERO);
   }
 
+  /** Returns a condition for each partition of this table, or null if the
+   * table is not to be read in partitions.
+   *
+   * <p>Each row satisfies exactly one of the conditions.
+   *
+   * @param scan Scan of this table
+   */
+  List<RexNode> partitionConditions(RelNode scan) {
+    if (partitioning == null || partitioning.partitionCount < 2) {
+      return null;
+    }
+    final RelDataTypeField field =
+        scan.getRowType().getField(partitioning.column, true, false);
+    if (field == null) {
+      throw new IllegalArgumentException("Partitioning column '"
+          + partitioning.column + "' not found in table '" + jdbcTableName
+          + "'");
+    }
+    final RelDataType type =
+        scan.getCluster().getTypeFactory()
+            .createTypeWithNullability(field.getType(), false);
+    final double[] bounds = partitionBounds(type);
+    if (bounds.length == 0 || !(bounds[1] > bounds[0])) {
+      return null;
+    }
+
+    // Boundaries between partitions, ascending and distinct. There may be
+    // fewer than requested if the range of an integer column is small.
+    final RexBuilder rexBuilder = scan.getCluster().getRexBuilder();
+    final List<RexLiteral> boundaries = new ArrayList<>();
+    final int n = partitioning.partitionCount;
+    for (int i = 1; i < n; i++) {
+      final RexLiteral boundary =
+          partitionLiteral(rexBuilder, type,
+              bounds[0] + (bounds[1] - bounds[0]) * i / n);
+      if (boundaries.isEmpty() || !Util.last(boundaries).equals(boundary)) {
+        boundaries.add(boundary);
+      }
+    }
+
+    final RexNode ref = rexBuilder.makeInputRef(scan, field.getIndex());
+    final List<RexNode> conditions = new ArrayList<>();
+    conditions.add(
+        rexBuilder.makeCall(SqlStdOperatorTable.OR,
+            rexBuilder.makeCall(SqlStdOperatorTable.LESS_THAN, ref,
+                boundaries.get(0)),
+            rexBuilder.makeCall(SqlStdOperatorTable.IS_NULL, ref)));
+    for (int i = 1; i < boundaries.size(); i++) {
+      conditions.add(
+          rexBuilder.makeCall(SqlStdOperatorTable.AND,
+              rexBuilder.makeCall(SqlStdOperatorTable.GREATER_THAN_OR_EQUAL,
+                  ref, boundaries.get(i - 1)),
+              rexBuilder.makeCall(SqlStdOperatorTable.LESS_THAN, ref,
+                  boundaries.get(i))));
+    }
+    conditions.add(
+        rexBuilder.makeCall(SqlStdOperatorTable.GREATER_THAN_OR_EQUAL, ref,
+            Util.last(boundaries)));
+    return conditions;
+  }
+
+  /** Discards the bounds of the partitioning column that were read from the
+   * database, so that the next query reads them again; call this if the
+   * table's data has changed significantly. */
+  public synchronized void invalidatePartitionBounds() {
+    partitionBounds = null;
+  }
+
+  /** Returns the lower and upper bound of the partitioning column, reading
+   * them from the database if they are not specified and have not been read
+   * in the last {@link JdbcPartitioning#boundsTtl} milliseconds. */
+  private synchronized double[] partitionBounds(RelDataType type) {
+    if (partitionBounds != null
+        && (partitioning.lowerBound == null
+            || partitioning.upperBound == null)
+        && TimeUnit.NANOSECONDS.toMillis(
+            System.nanoTime() - partitionBoundsTime)
+            >= partitioning.boundsTtl) {
+      partitionBounds = null;
+    }
+    if (partitionBounds == null) {
+      final SqlTypeName typeName = type.getSqlTypeName();
+      // Validate the type before we run a query
+      partitionLiteral(null, type, 0d);
+      Double lower = toDouble(partitioning.lowerBound, typeName);
+      Double upper = toDouble(partitioning.upperBound, typeName);
+      if (lower == null || upper == null) {
+        final Pair<Object, Object> minMax = readColumnRange();
+        if (lower == null) {
+          lower = toDouble(minMax.left, typeName);
+        }
+        if (upper == null) {
+          upper = toDouble(minMax.right, typeName);
+        }
+      }
+      partitionBounds = lower == null || upper == null
+          ? new double[0]
+          : new double[] {lower, upper};
+      partitionBoundsTime = System.nanoTime();
+    }
+    return partitionBounds;
+  }
+
+  /** Reads the minimum and maximum values of the partitioning column. */
+  private Pair<Object, Object> readColumnRange() {
+    final String column =
+        jdbcSchema.dialect.quoteIdentifier(partitioning.column);
+    final String sql = "SELECT MIN(" + column + "), MAX(" + column + ")"
+        + " FROM " + tableName().toSqlString(jdbcSchema.dialect).getSql();
+    try (Connection connection = jdbcSchema.getDataSource().getConnection();
+         Statement statement = connection.createStatement();
+         ResultSet resultSet = statement.executeQuery(sql)) {
+      if (resultSet.next()) {
+        return Pair.of(resultSet.getObject(1), resultSet.getObject(2));
+      }
+      return Pair.of(null, null);
+    } catch (SQLException e) {
+      throw new RuntimeException("Exception while reading range of column '"
+          + partitioning.column + "' of table '" + jdbcTableName + "'", e);
+    }
+  }
+
+  /** Converts a bound or value of the partitioning column to a number: days
+   * since the epoch for a DATE column, milliseconds since the epoch for a
+   * TIMESTAMP column. */
+  private static Double toDouble(Object o, SqlTypeName typeName) {
+    if (o == null) {
+      return null;
+    } else if (o instanceof Number) {
+      return ((Number) o).doubleValue();
+    } else if (o instanceof Timestamp) {
+      return (double) ((Timestamp) o).toLocalDateTime()
+          .toInstant(ZoneOffset.UTC).toEpochMilli();
+    } else if (o instanceof java.sql.Date) {
+      return (double) ((java.sql.Date) o).toLocalDate().toEpochDay();
+    }
+    final String s = o.toString();
+    switch (typeName) {
+    case DATE:
+      return (double) new DateString(s).getDaysSinceEpoch();
+    case TIMESTAMP:
+      return (double) new TimestampString(s).getMillisSinceEpoch();
+    default:
+      return Double.parseDouble(s);
+    }
+  }
+
+  /** Creates a literal of the type of the partitioning column. If
+   * {@code rexBuilder} is null, just checks that the type is supported. */
+  private RexLiteral partitionLiteral(RexBuilder rexBuilder, RelDataType type,
+      double v) {
+    switch (type.getSqlTypeName()) {
+    case TINYINT:
+    case SMALLINT:
+    case INTEGER:
+    case BIGINT:
+      return rexBuilder == null ? null
+          : rexBuilder.makeExactLiteral(BigDecimal.valueOf(Math.round(v)),
+              type);
+    case DECIMAL:
+      return rexBuilder == null ? null
+          : rexBuilder.makeExactLiteral(
+              BigDecimal.valueOf(v).setScale(type.getScale(),
+                  RoundingMode.HALF_UP), type);
+    case FLOAT:
+    case REAL:
+    case DOUBLE:
+      return rexBuilder == null ? null
+          : rexBuilder.makeApproxLiteral(BigDecimal.valueOf(v), type);
+    case DATE:
+      return rexBuilder == null ? null
+          : rexBuilder.makeDateLiteral(
+              DateString.fromDaysSinceEpoch((int) Math.round(v)));
+    case TIMESTAMP:
+      return rexBuilder == null ? null
+          : rexBuilder.makeTimestampLiteral(
+              TimestampString.fromMillisSinceEpoch(Math.round(v)),
+              type.getPrecision());
+    default:
+      throw new IllegalArgumentException("Cannot partition table '"
+          + jdbcTableName + "' on column '" + partitioning.column
+          + "' of type " + type);
+    }
+  }
+
   public RelNode toRel(RelOptTable.ToRelContext context,
       RelOptTable relOptTable) {
     return new JdbcTableScan(context.getCluster(), relOptTable, this,
@@ -24,6 +24,7 @@
 import org.apache.calcite.adapter.enumerable.PhysTypeImpl;
 import org.apache.calcite.adapter.java.JavaTypeFactory;
 import org.apache.calcite.config.CalciteSystemProperty;
+import org.apache.calcite.linq4j.Enumerable;
 import org.apache.calcite.linq4j.tree.BlockBuilder;
 import org.apache.calcite.linq4j.tree.ConstantExpression;
 import org.apache.calcite.linq4j.tree.Expression;
@@ -38,16 +39,29 @@
 import org.apache.calcite.plan.RelTraitSet;
 import org.apache.calcite.rel.RelNode;
 import org.apache.calcite.rel.convert.ConverterImpl;
+import org.apache.calcite.rel.core.Filter;
+import org.apache.calcite.rel.core.Project;
 import org.apache.calcite.rel.metadata.RelMetadataQuery;
 import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rex.RexCorrelVariable;
+import org.apache.calcite.rex.RexDynamicParam;
+import org.apache.calcite.rex.RexFieldAccess;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.rex.RexOver;
+import org.apache.calcite.rex.RexShuttle;
 import org.apache.calcite.runtime.Hook;
 import org.apache.calcite.runtime.SqlFunctions;
 import org.apache.calcite.schema.Schemas;
 import org.apache.calcite.sql.SqlDialect;
+import org.apache.calcite.sql.dialect.MysqlSqlDialect;
 import org.apache.calcite.sql.type.SqlTypeName;
 import org.apache.calcite.sql.util.SqlString;
 import org.apache.calcite.util.BuiltInMethod;
 
+import org.apache.commons.dbcp2.BasicDataSource;
+
+import com.google.common.collect.ImmutableList;
+
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.sql.ResultSet;
@@ -65,6 +79,10 @@
 public class JdbcToEnumerableConverter
     extends ConverterImpl
     implements EnumerableRel {
+  /** Fetch size used when streaming is enabled but no fetch size is
+   * specified. */
+  private static final int STREAMING_FETCH_SIZE = 1000;
+
   protected JdbcToEnumerableConverter(
       RelOptCluster cluster,
       RelTraitSet traits,
@@ -93,14 +111,54 @@ public Result implement(EnumerableRelImplementor implementor, Prefer pref) {
             pref.prefer(JavaRowFormat.CUSTOM));
     final JdbcConvention jdbcConvention =
         (JdbcConvention) child.getConvention();
-    SqlString sqlString = generateSql(jdbcConvention.dialect);
-    String sql = sqlString.getSql();
-    if (CalciteSystemProperty.DEBUG.value()) {
-      System.out.println("[" + sql + "]");
+    // If the query references correlation variables, bound by an enclosing
+    // correlate or batch nested loop join, pass their values as parameters.
+    // They are numbered after the query's own dynamic parameters.
+    final int firstCorrelationParam = maxDynamicParam(getInput()) + 1;
+    final List<RexFieldAccess> correlations = new ArrayList<>();
+    final RelNode root =
+        transform(getInput(),
+            new CorrelationParameterShuttle(firstCorrelationParam,
+                correlations));
+    final List<Expression> correlationValues = new ArrayList<>();
+    for (RexFieldAccess correlation : correlations) {
+      final RexCorrelVariable variable =
+          (RexCorrelVariable) correlation.getReferenceExpr();
+      final Expression value =
+          implementor.getCorrelVariableGetter(variable.getName())
+              .field(builder0, correlation.getField().getIndex(), null);
+      correlationValues.add(
+          Primitive.is(value.getType()) ? Expressions.box(value) : value);
+    }
+
+    // If the query reads a partitioned table, generate a query per
+    // partition
+    final JdbcTableScan scan = partitionedScan(root);
+    final List<RexNode> conditions =
+        scan == null ? null : scan.jdbcTable.partitionConditions(scan);
+    final List<RelNode> inputs = new ArrayList<>();
+    if (conditions == null) {
+      inputs.add(root);
+    } else {
+      for (RexNode condition : conditions) {
+        inputs.add(
+            replaceScan(root,
+                new JdbcRules.JdbcFilter(scan.getCluster(),
+                    scan.getTraitSet(), scan, condition)));
+      }
+    }
+    final List<SqlString> sqlStrings = new ArrayList<>();
+    final List<Expression> sqls = new ArrayList<>();
+    for (RelNode input : inputs) {
+      final SqlString sqlString = generateSql(jdbcConvention.dialect, input);
+      final String sql = sqlString.getSql();
+      if (CalciteSystemProperty.DEBUG.value()) {
+        System.out.println("[" + sql + "]");
+      }
+      Hook.QUERY_PLAN.run(sql);
+      sqlStrings.add(sqlString);
+      sqls.add(builder0.append("sql", Expressions.constant(sql)));
     }
-    Hook.QUERY_PLAN.run(sql);
-    final Expression sql_ =
-        builder0.append("sql", Expressions.constant(sql));
     final int fieldCount = getRowType().getFieldCount();
     BlockBuilder builder = new BlockBuilder();
     final ParameterExpression resultSet_ =
@@ -158,16 +216,73 @@ public Result implement(EnumerableRelImplementor implementor, Prefer pref) {
                                                 e_)))))))),
                 resultSet_));
 
+    final List<Expression> enumerables = new ArrayList<>();
+    for (int i = 0; i < sqlStrings.size(); i++) {
+      enumerables.add(
+          enumerable(builder0, jdbcConvention, sqlStrings.get(i), sqls.get(i),
+              rowBuilderFactory_, firstCorrelationParam, correlationValues));
+    }
     final Expression enumerable;
+    if (enumerables.size() == 1) {
+      enumerable = enumerables.get(0);
+    } else {
+      enumerable = builder0.append("enumerable",
+          Expressions.call(BuiltInMethod.RESULT_SET_ENUMERABLE_UNION.method,
+              Expressions.newArrayInit(Enumerable.class, enumerables),
+              Expressions.constant(scan.jdbcTable.partitioning.ordered),
+              Expressions.constant(
+                  maxConcurrency(scan.jdbcTable.jdbcSchema.getDataSource()))));
+    }
+    builder0.add(
+        Expressions.return_(null, enumerable));
+    return implementor.result(physType, builder0.toBlock());
+  }
 
-    if (sqlString.getDynamicParameters() != null
-        && !sqlString.getDynamicParameters().isEmpty()) {
-      final Expression preparedStatementConsumer_ =
-          builder0.append("preparedStatementConsumer",
-              Expressions.call(BuiltInMethod.CREATE_ENRICHER.method,
-                  Expressions.newArrayInit(Integer.class, 1,
-                      toIndexesTableExpression(sqlString)),
-                  DataContext.ROOT));
+  /** Generates code that creates a {@code ResultSetEnumerable} for a SQL
+   * query, and sets its options. */
+  private Expression enumerable(BlockBuilder builder0,
+      JdbcConvention jdbcConvention, SqlString sqlString, Expression sql_,
+      Expression rowBuilderFactory_, int firstCorrelationParam,
+      List<Expression> correlationValues) {
+    final Expression enumerable;
+    final boolean hasDynamicParameters =
+        sqlString.getDynamicParameters() != null
+            && !sqlString.getDynamicParameters().isEmpty();
+    // If the data source caches prepared statements, prepare even queries
+    // without parameters, so that their statements are reused too
+    if (hasDynamicParameters || jdbcConvention.prepareStatements) {
+      final Expression preparedStatementConsumer_;
+      if (!hasDynamicParameters) {
+        preparedStatementConsumer_ =
+            builder0.append("preparedStatementConsumer",
+                Expressions.call(BuiltInMethod.CREATE_ENRICHER.method,
+                    Expressions.newArrayInit(Integer.class, 1,
+                        ImmutableList.of()),
+                    DataContext.ROOT));
+      } else if (correlationValues.isEmpty()) {
+        preparedStatementConsumer_ =
+            builder0.append("preparedStatementConsumer",
+                Expressions.call(BuiltInMethod.CREATE_ENRICHER.method,
+                    Expressions.newArrayInit(Integer.class, 1,
+                        toIndexesTableExpression(sqlString)),
+                    DataContext.ROOT));
+      } else {
+        // Evaluate the parameters now, while the correlation variables are
+        // in scope
+        final List<Expression> values = new ArrayList<>();
+        for (int index : sqlString.getDynamicParameters()) {
+          values.add(
+              index >= firstCorrelationParam
+                  ? correlationValues.get(index - firstCorrelationParam)
+                  : Expressions.call(DataContext.ROOT,
+                      BuiltInMethod.DATA_CONTEXT_GET.method,
+                      Expressions.constant("?" + index)));
+        }
+        preparedStatementConsumer_ =
+            builder0.append("preparedStatementConsumer",
+                Expressions.call(BuiltInMethod.CREATE_VALUES_ENRICHER.method,
+                    Expressions.newArrayInit(Object.class, values)));
+      }
 
       enumerable = builder0.append("enumerable",
           Expressions.call(
@@ -189,9 +304,147 @@ public Result implement(EnumerableRelImplementor implementor, Prefer pref) {
             Expressions.call(enumerable,
                 BuiltInMethod.RESULT_SET_ENUMERABLE_SET_TIMEOUT.method,
                 DataContext.ROOT)));
-    builder0.add(
-        Expressions.return_(null, enumerable));
-    return implementor.result(physType, builder0.toBlock());
+    final int fetchSize = fetchSize(jdbcConvention);
+    if (fetchSize != 0) {
+      builder0.add(
+          Expressions.statement(
+              Expressions.call(enumerable,
+                  BuiltInMethod.RESULT_SET_ENUMERABLE_SET_FETCH_SIZE.method,
+                  Expressions.constant(fetchSize))));
+    }
+    if (jdbcConvention.streaming
+        && !(jdbcConvention.dialect instanceof MysqlSqlDialect)) {
+      builder0.add(
+          Expressions.statement(
+              Expressions.call(enumerable,
+                  BuiltInMethod.RESULT_SET_ENUMERABLE_SET_STREAMING.method,
+                  Expressions.constant(true))));
+    }
+    if (jdbcConvention.prefetchSize > 0) {
+      builder0.add(
+          Expressions.statement(
+              Expressions.call(enumerable,
+                  BuiltInMethod.RESULT_SET_ENUMERABLE_SET_PREFETCH_SIZE.method,
+                  Expressions.constant(jdbcConvention.prefetchSize))));
+    }
+    return enumerable;
+  }
+
+  /** Returns the maximum number of connections that a data source will
+   * open at a time, or 0 if there is no known limit. Partitions beyond that
+   * number are not read until earlier partitions are finished, so that they
+   * do not time out waiting for a connection. */
+  private static int maxConcurrency(DataSource dataSource) {
+    if (dataSource instanceof JdbcConnectionPool) {
+      return ((JdbcConnectionPool) dataSource).maxConnections;
+    }
+    if (dataSource instanceof BasicDataSource) {
+      return Math.max(((BasicDataSource) dataSource).getMaxTotal(), 0);
+    }
+    return 0;
+  }
+
+  /** Returns the scan of a partitioned table that is the only leaf of a
+   * tree of filters and projects, or null.
+   *
+   * <p>We only read in partitions if each row of the output depends on just
+   * one row of the table; otherwise the union of the partitions' results
+   * would not be the result of the whole query. A project that contains a
+   * windowed aggregate, such as {@code ROW_NUMBER() OVER ()}, depends on
+   * other rows, so we stop there. */
+  private static JdbcTableScan partitionedScan(RelNode rel) {
+    for (;;) {
+      if (rel instanceof JdbcTableScan) {
+        final JdbcTableScan scan = (JdbcTableScan) rel;
+        return scan.jdbcTable.partitioning == null ? null : scan;
+      } else if (rel instanceof Filter
+          || rel instanceof Project
+          && !RexOver.containsOver(((Project) rel).getProjects(), null)) {
+        rel = rel.getInput(0);
+      } else {
+        return null;
+      }
+    }
+  }
+
+  /** Returns the highest index of a dynamic parameter in a tree, or -1. */
+  private static int maxDynamicParam(RelNode rel) {
+    final int[] max = {-1};
+    transform(rel, new RexShuttle() {
+      @Override public RexNode visitDynamicParam(RexDynamicParam param) {
+        max[0] = Math.max(max[0], param.getIndex());
+        return param;
+      }
+    });
+    return max[0];
+  }
+
+  /** Applies a shuttle to the expressions of every node in a tree; returns
+   * the tree unchanged if the shuttle changes nothing. */
+  private static RelNode transform(RelNode rel, RexShuttle shuttle) {
+    final List<RelNode> inputs = new ArrayList<>();
+    boolean changed = false;
+    for (RelNode input : rel.getInputs()) {
+      final RelNode newInput = transform(input, shuttle);
+      inputs.add(newInput);
+      changed |= newInput != input;
+    }
+    if (changed) {
+      rel = rel.copy(rel.getTraitSet(), inputs);
+    }
+    return rel.accept(shuttle);
+  }
+
+  /** Shuttle that replaces references to fields of correlation variables
+   * with dynamic parameters, and remembers the references so that code can
+   * be generated to evaluate them. */
+  private static class CorrelationParameterShuttle extends RexShuttle {
+    private final int firstParam;
+    private final List<RexFieldAccess> correlations;
+
+    CorrelationParameterShuttle(int firstParam,
+        List<RexFieldAccess> correlations) {
+      this.firstParam = firstParam;
+      this.correlations = correlations;
+    }
+
+    @Override public RexNode visitFieldAccess(RexFieldAccess fieldAccess) {
+      if (!(fieldAccess.getReferenceExpr() instanceof RexCorrelVariable)) {
+        return super.visitFieldAccess(fieldAccess);
+      }
+      int i = correlations.indexOf(fieldAccess);
+      if (i < 0) {
+        i = correlations.size();
+        correlations.add(fieldAccess);
+      }
+      return new RexDynamicParam(fieldAccess.getType(), firstParam + i);
+    }
+  }
+
+  /** Returns a copy of a tree of filters and projects with the scan at its
+   * leaf replaced. */
+  private static RelNode replaceScan(RelNode rel, RelNode newScan) {
+    if (rel instanceof JdbcTableScan) {
+      return newScan;
+    }
+    return rel.copy(rel.getTraitSet(),
+        ImmutableList.of(replaceScan(rel.getInput(0), newScan)));
+  }
+
+  /** Returns the fetch size for statements in a JDBC convention.
+   *
+   * <p>If streaming is requested, and no fetch size is specified, uses
+   * {@link Integer#MIN_VALUE} for MySQL (which tells its driver to stream
+   * rows) and {@link #STREAMING_FETCH_SIZE} for other databases (whose
+   * drivers, such as PostgreSQL's, stream if a fetch size is set and
+   * auto-commit is off). */
+  private static int fetchSize(JdbcConvention jdbcConvention) {
+    if (jdbcConvention.fetchSize != 0 || !jdbcConvention.streaming) {
+      return jdbcConvention.fetchSize;
+    }
+    return jdbcConvention.dialect instanceof MysqlSqlDialect
+        ? Integer.MIN_VALUE
+        : STREAMING_FETCH_SIZE;
   }
 
   private List<ConstantExpression> toIndexesTableExpression(SqlString sqlString) {
@@ -325,12 +578,12 @@ private String jdbcGetMethod(Primitive primitive) {
         : "get" + SqlFunctions.initcap(primitive.primitiveName);
   }
 
-  private SqlString generateSql(SqlDialect dialect) {
+  private SqlString generateSql(SqlDialect dialect, RelNode input) {
     final JdbcImplementor jdbcImplementor =
         new JdbcImplementor(dialect,
             (JavaTypeFactory) getCluster().getTypeFactory());
     final JdbcImplementor.Result result =
-        jdbcImplementor.visitChild(0, getInput());
+        jdbcImplementor.visitChild(0, input);
     return result.asStatement().toSqlString(dialect);
   }
 }
@@ -220,17 +220,72 @@ static class DataSourcePool {
       dataSource.setUsername(key.get(1));
       dataSource.setPassword(key.get(2));
       dataSource.setDriverClassName(key.get(3));
+      if (key.get(4) != null) {
+        dataSource.setMaxTotal(Integer.parseInt(key.get(4)));
+      }
       return dataSource;
     }
 
+    /** Connection pools, keyed by URL, user name, password, driver class,
+     * maximum number of connections and statement cache size. Unlike data
+     * sources, pools are strongly held: a pool that was garbage-collected
+     * would never return its idle connections. */
+    private final LoadingCache<List<String>, JdbcConnectionPool> poolCache =
+        CacheBuilder.newBuilder()
+            .build(CacheLoader.from(DataSourcePool::pool));
+
+    private static @Nonnull JdbcConnectionPool pool(
+        @Nonnull List<String> key) {
+      // The pool limits the number of connections, so its data source is
+      // not shared with other users, and does not limit them too
+      final BasicDataSource dataSource =
+          dataSource(
+              ImmutableNullableList.of(key.get(0), key.get(1), key.get(2),
+                  key.get(3), "-1"));
+      return new JdbcConnectionPool(dataSource, Integer.parseInt(key.get(4)),
+          Integer.parseInt(key.get(5)));
+    }
+
     public DataSource get(String url, String driverClassName,
         String username, String password) {
+      return get(url, driverClassName, username, password, 0);
+    }
+
+    /** Returns a data source that opens at most {@code maxTotal}
+     * connections, or dbcp's default if {@code maxTotal} is 0. */
+    public DataSource get(String url, String driverClassName,
+        String username, String password, int maxTotal) {
       // Get data source objects from a cache, so that we don't have to sniff
       // out what kind of database they are quite as often.
       final List<String> key =
-          ImmutableNullableList.of(url, username, password, driverClassName);
+          ImmutableNullableList.of(url, username, password, driverClassName,
+              maxTotal > 0 ? Integer.toString(maxTotal) : null);
       return cache.getUnchecked(key);
     }
+
+    /** Returns a data source that opens at most {@code maxConnections}
+     * connections and caches up to {@code statementCacheSize} prepared
+     * statements per connection, wrapped as by
+     * {@link JdbcConnectionPool#wrap}.
+     *
+     * <p>Schemas with the same specification share a pool. Otherwise each
+     * instance of a model would keep its own idle connections, and together
+     * they could exhaust the underlying data source. */
+    public DataSource get(String url, String driverClassName,
+        String username, String password, int maxConnections,
+        int statementCacheSize) {
+      if (maxConnections <= 0 && statementCacheSize <= 0) {
+        return get(url, driverClassName, username, password, 0);
+      }
+      final int poolSize = maxConnections > 0
+          ? maxConnections
+          : JdbcConnectionPool.DEFAULT_MAX_CONNECTIONS;
+      final List<String> key =
+          ImmutableNullableList.of(url, username, password, driverClassName,
+              Integer.toString(poolSize),
+              Integer.toString(Math.max(statementCacheSize, 0)));
+      return poolCache.getUnchecked(key);
+    }
   }
 }
 
@@ -76,6 +76,30 @@ public interface CalciteConnectionConfig extends ConnectionConfig {
   String locale();
   /** @see CalciteConnectionProperty#TYPE_COERCION */
   boolean typeCoercion();
+  /** @see CalciteConnectionProperty#HASH_JOIN_SPILL_THRESHOLD */
+  int hashJoinSpillThreshold();
+  /** @see CalciteConnectionProperty#SORT_SPILL_THRESHOLD */
+  int sortSpillThreshold();
+  /** @see CalciteConnectionProperty#PLAN_CACHE */
+  boolean planCache();
+  /** @see CalciteConnectionProperty#COLUMNAR */
+  boolean columnar();
+  /** @see CalciteConnectionProperty#PARALLELISM */
+  int parallelism();
+  /** @see CalciteConnectionProperty#PARALLELISM_THRESHOLD */
+  int parallelismThreshold();
+  /** @see CalciteConnectionProperty#AGGREGATE_SPILL_THRESHOLD */
+  int aggregateSpillThreshold();
+  /** @see CalciteConnectionProperty#PLANNER_TIME_LIMIT */
+  int plannerTimeLimit();
+  /** @see CalciteConnectionProperty#PLANNER_RULE_LIMIT */
+  int plannerRuleLimit();
+  /** @see CalciteConnectionProperty#PLANNER_SET_LIMIT */
+  int plannerSetLimit();
+  /** @see CalciteConnectionProperty#RULE_PROFILE */
+  boolean ruleProfile();
+  /** @see CalciteConnectionProperty#METADATA_CACHE */
+  boolean metadataCache();
 }
 
 // End CalciteConnectionConfig.java
@@ -27,7 +27,9 @@
 import org.apache.calcite.sql.validate.SqlConformance;
 import org.apache.calcite.sql.validate.SqlConformanceEnum;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
 /** Implementation of {@link CalciteConnectionConfig}. */
@@ -174,6 +176,87 @@ public boolean typeCoercion() {
     return CalciteConnectionProperty.TYPE_COERCION.wrap(properties)
         .getBoolean();
   }
+
+  public int hashJoinSpillThreshold() {
+    return CalciteConnectionProperty.HASH_JOIN_SPILL_THRESHOLD.wrap(properties)
+        .getInt();
+  }
+
+  public int sortSpillThreshold() {
+    return CalciteConnectionProperty.SORT_SPILL_THRESHOLD.wrap(properties)
+        .getInt();
+  }
+
+  public boolean planCache() {
+    return CalciteConnectionProperty.PLAN_CACHE.wrap(properties)
+        .getBoolean();
+  }
+
+  public boolean columnar() {
+    return CalciteConnectionProperty.COLUMNAR.wrap(properties)
+        .getBoolean();
+  }
+
+  public int parallelism() {
+    return CalciteConnectionProperty.PARALLELISM.wrap(properties)
+        .getInt();
+  }
+
+  public int parallelismThreshold() {
+    return CalciteConnectionProperty.PARALLELISM_THRESHOLD.wrap(properties)
+        .getInt();
+  }
+
+  public int aggregateSpillThreshold() {
+    return CalciteConnectionProperty.AGGREGATE_SPILL_THRESHOLD.wrap(properties)
+        .getInt();
+  }
+
+  public int plannerTimeLimit() {
+    return CalciteConnectionProperty.PLANNER_TIME_LIMIT.wrap(properties)
+        .getInt();
+  }
+
+  public int plannerRuleLimit() {
+    return CalciteConnectionProperty.PLANNER_RULE_LIMIT.wrap(properties)
+        .getInt();
+  }
+
+  public int plannerSetLimit() {
+    return CalciteConnectionProperty.PLANNER_SET_LIMIT.wrap(properties)
+        .getInt();
+  }
+
+  public boolean ruleProfile() {
+    return CalciteConnectionProperty.RULE_PROFILE.wrap(properties)
+        .getBoolean();
+  }
+
+  public boolean metadataCache() {
+    return CalciteConnectionProperty.METADATA_CACHE.wrap(properties)
+        .getBoolean();
+  }
+
+  /** Returns the effective value of each property, including values
+   * inherited from default properties. */
+  private Map<String, String> effectiveProperties() {
+    final Map<String, String> map = new HashMap<>();
+    for (String name : properties.stringPropertyNames()) {
+      map.put(name, properties.getProperty(name));
+    }
+    return map;
+  }
+
+  @Override public int hashCode() {
+    return effectiveProperties().hashCode();
+  }
+
+  @Override public boolean equals(Object obj) {
+    return obj == this
+        || obj instanceof CalciteConnectionConfigImpl
+        && effectiveProperties().equals(
+            ((CalciteConnectionConfigImpl) obj).effectiveProperties());
+  }
 }
 
 // End CalciteConnectionConfigImpl.java
@@ -155,7 +155,88 @@ public enum CalciteConnectionProperty implements ConnectionProperty {
 
   /** Whether to make implicit type coercion when type mismatch
    * for validation, default true. */
-  TYPE_COERCION("typeCoercion", Type.BOOLEAN, true, false);
+  TYPE_COERCION("typeCoercion", Type.BOOLEAN, true, false),
+
+  /** Maximum number of rows of the build (right) input that a hash join
+   * holds in memory. If the build input has more rows, both inputs are
+   * partitioned into temporary files and joined partition by partition;
+   * rows must then be serializable. The default, -1, means never spill. */
+  HASH_JOIN_SPILL_THRESHOLD("hashJoinSpillThreshold", Type.NUMBER, -1, false),
+
+  /** Maximum number of rows that a sort holds in memory. If the input has
+   * more rows, sorted runs are written to temporary files and merged;
+   * rows must then be serializable. The default, -1, means never spill. */
+  SORT_SPILL_THRESHOLD("sortSpillThreshold", Type.NUMBER, -1, false),
+
+  /** Whether to cache prepared plans. Literals in the WHERE and HAVING
+   * clauses are replaced by dynamic parameters before planning, so queries
+   * that differ only in those literals share a plan. Plans are reused only
+   * within the connection that prepared them. The total size of the cache,
+   * for all connections, is set by the system property
+   * {@link CalciteSystemProperty#PLAN_CACHE_MAX_SIZE}. */
+  PLAN_CACHE("planCache", Type.BOOLEAN, false, false),
+
+  /** Whether to consider executing queries in columnar convention, in which
+   * operators process batches of rows held as arrays of primitive values.
+   * Filters, projects, aggregates and joins that can be evaluated over
+   * batches are converted; other operators remain enumerable.
+   *
+   * @see org.apache.calcite.adapter.columnar.ColumnarConvention */
+  COLUMNAR("columnar", Type.BOOLEAN, false, false),
+
+  /** Number of threads used to execute a query. If greater than 1, the
+   * inputs of hash aggregates and hash joins whose estimated size is at least
+   * {@link #PARALLELISM_THRESHOLD} rows are hash-partitioned by an
+   * {@link org.apache.calcite.adapter.enumerable.EnumerableExchange}, and
+   * the partitions are processed in parallel, in a pool whose size is given
+   * by {@link org.apache.calcite.config.CalciteSystemProperty#PARALLEL_POOL_SIZE}.
+   * The default, 1, means execute on the calling thread. */
+  PARALLELISM("parallelism", Type.NUMBER, 1, false),
+
+  /** Minimum estimated number of rows in an input before it is partitioned
+   * for parallel execution.
+   *
+   * @see #PARALLELISM */
+  PARALLELISM_THRESHOLD("parallelismThreshold", Type.NUMBER, 10000, false),
+
+  /** Maximum number of groups that a hash aggregate holds in memory. Rows
+   * that belong to other groups are partitioned into temporary files and
+   * aggregated partition by partition; rows must then be serializable. The
+   * default, -1, means never spill. */
+  AGGREGATE_SPILL_THRESHOLD("aggregateSpillThreshold", Type.NUMBER, -1,
+      false),
+
+  /** Maximum number of milliseconds that the Volcano planner spends firing
+   * rules. When the limit is reached, the planner returns the cheapest plan
+   * found so far. The default, -1, means no limit. */
+  PLANNER_TIME_LIMIT("plannerTimeLimit", Type.NUMBER, -1, false),
+
+  /** Maximum number of rules that the Volcano planner fires. When the limit
+   * is reached, the planner returns the cheapest plan found so far. The
+   * default, -1, means no limit. */
+  PLANNER_RULE_LIMIT("plannerRuleLimit", Type.NUMBER, -1, false),
+
+  /** Maximum number of equivalence sets that the Volcano planner creates.
+   * When the limit is reached, the planner returns the cheapest plan found so
+   * far. The default, -1, means no limit. */
+  PLANNER_SET_LIMIT("plannerSetLimit", Type.NUMBER, -1, false),
+
+  /** Whether to profile the rules fired by the planner. If true, the text
+   * output of EXPLAIN PLAN is followed by the number of attempts, successful
+   * transformations and relational expressions produced, and the time spent,
+   * of each rule in each planner phase.
+   *
+   * @see org.apache.calcite.plan.RuleProfiler */
+  RULE_PROFILE("ruleProfile", Type.BOOLEAN, false, false),
+
+  /** Whether to share the row count, distinct row count, unique keys and
+   * column uniqueness of table scans, values, and expressions built on them,
+   * with other statements. The size of the cache (which is shared by all
+   * connections) is set by the system property
+   * {@link CalciteSystemProperty#METADATA_CACHE_MAX_SIZE}.
+   *
+   * @see org.apache.calcite.rel.metadata.MetadataCache */
+  METADATA_CACHE("metadataCache", Type.BOOLEAN, false, false);
 
   private final String camelName;
   private final Type type;
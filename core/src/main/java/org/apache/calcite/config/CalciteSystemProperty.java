@@ -88,6 +88,14 @@
   public static final CalciteSystemProperty<Boolean> STRICT =
       booleanProperty("calcite.strict.sql", false);
 
+  /**
+   * Whether the Volcano planner searches top-down, exploring sets on demand
+   * from the root and pruning alternatives by cost, rather than firing rule
+   * matches in order of importance.
+   */
+  public static final CalciteSystemProperty<Boolean> TOPDOWN_OPT =
+      booleanProperty("calcite.planner.topdown.opt", false);
+
   /**
    * Whether to include a GraphViz representation when dumping the state of the Volcano planner.
    */
@@ -278,6 +286,17 @@
   public static final CalciteSystemProperty<Integer> METADATA_HANDLER_CACHE_MAXIMUM_SIZE =
       intProperty("calcite.metadata.handler.cache.maximum.size", 1000);
 
+  /**
+   * Whether to generate and compile, using Janino, a class for each kind of
+   * metadata handler.
+   *
+   * <p>If false (the default), handlers dispatch to metadata providers via
+   * method handles, which are much cheaper to create; a class is compiled
+   * only if a provider's methods cannot be accessed that way.</p>
+   */
+  public static final CalciteSystemProperty<Boolean> METADATA_HANDLER_COMPILE =
+      booleanProperty("calcite.metadata.handler.compile", false);
+
   /**
    * The maximum size of the cache used for storing Bindable objects, instantiated via
    * dynamically generated Java classes.
@@ -312,6 +331,97 @@
       intProperty("calcite.bindable.cache.concurrencyLevel", 1,
           v -> v >= 1 && v <= Integer.MAX_VALUE);
 
+  /**
+   * The maximum total size, in bytes, of the objects in the cache used for
+   * storing Bindable objects. The size of each object is estimated from the
+   * length of the Java source code from which it was compiled.
+   *
+   * <p>The default value is 0, which means that the cache is limited by the
+   * number of objects ({@link #BINDABLE_CACHE_MAX_SIZE}). If this property is
+   * positive, {@link #BINDABLE_CACHE_MAX_SIZE} is ignored.</p>
+   */
+  public static final CalciteSystemProperty<Integer> BINDABLE_CACHE_MAX_WEIGHT =
+      intProperty("calcite.bindable.cache.maxWeight", 0, v -> v >= 0 && v <= Integer.MAX_VALUE);
+
+  /**
+   * Directory in which classes that Calcite generates and compiles, such as
+   * the classes that implement queries in the enumerable convention and
+   * metadata handlers, are stored so that they can be re-used after the JVM
+   * restarts.
+   *
+   * <p>The default value is null, which means that compiled classes are not
+   * stored.</p>
+   *
+   * @see org.apache.calcite.util.javac.CompiledClassCache
+   */
+  public static final CalciteSystemProperty<String> CLASS_CACHE_DIRECTORY =
+      stringProperty("calcite.class.cache.directory", null);
+
+  /**
+   * The maximum number of entries in the directory given by
+   * {@link #CLASS_CACHE_DIRECTORY}. When the directory is full, the entries
+   * that have not been used for longest are deleted.
+   *
+   * <p>The default value is 10,000. The value 0 means that the number of
+   * entries is not limited.</p>
+   */
+  public static final CalciteSystemProperty<Integer> CLASS_CACHE_MAX_ENTRIES =
+      intProperty("calcite.class.cache.maxEntries", 10_000,
+          v -> v >= 0 && v <= Integer.MAX_VALUE);
+
+  /**
+   * The maximum number of prepared plans held by the plan cache, which is
+   * used by connections that set the
+   * {@link CalciteConnectionProperty#PLAN_CACHE planCache} property.
+   *
+   * <p>The default value is 1000.</p>
+   *
+   * <p>The property can take any value between [0, {@link Integer#MAX_VALUE}] inclusive. If the
+   * value is not valid (or not specified) then the default value is used.</p>
+   *
+   * <p>Setting this property to 0 disables the cache.</p>
+   */
+  public static final CalciteSystemProperty<Integer> PLAN_CACHE_MAX_SIZE =
+      intProperty("calcite.plan.cache.maxSize", 1000, v -> v >= 0 && v <= Integer.MAX_VALUE);
+
+  /**
+   * The maximum number of values in the metadata cache that is shared by
+   * connections that set the {@code metadataCache} connection property.
+   *
+   * <p>The default value is 10,000.</p>
+   *
+   * <p>Setting this property to 0 disables the cache.</p>
+   */
+  public static final CalciteSystemProperty<Integer> METADATA_CACHE_MAX_SIZE =
+      intProperty("calcite.metadata.cache.maxSize", 10_000,
+          v -> v >= 0 && v <= Integer.MAX_VALUE);
+
+  /**
+   * The number of threads in the pool that runs the partitions of parallel
+   * Enumerable plans (see the {@code parallelism} connection property).
+   *
+   * <p>The default value is the number of available processors. The pool
+   * adds threads while its workers are blocked, so a query whose
+   * {@code parallelism} is greater than this value still runs, with less
+   * parallelism.</p>
+   */
+  public static final CalciteSystemProperty<Integer> PARALLEL_POOL_SIZE =
+      intProperty("calcite.parallel.poolSize",
+          Runtime.getRuntime().availableProcessors(),
+          v -> v > 0 && v <= Integer.MAX_VALUE);
+
+  /**
+   * Directory in which a
+   * {@link org.apache.calcite.statistic.PersistentSqlStatisticProvider}
+   * created by its no-argument constructor stores statistics.
+   *
+   * <p>The default value is null, which means the "calcite-statistics"
+   * sub-directory of the directory given by the "java.io.tmpdir" system
+   * property.</p>
+   */
+  public static final CalciteSystemProperty<String> STATISTICS_DIRECTORY =
+      stringProperty("calcite.statistics.directory", null);
+
   private static CalciteSystemProperty<Boolean> booleanProperty(String key,
       boolean defaultValue) {
     // Note that "" -> true (convenient for command-lines flags like '-Dflag')
@@ -49,6 +49,7 @@
 import java.util.NavigableSet;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.sql.DataSource;
 
 /**
@@ -71,6 +72,7 @@ public abstract class CalciteSchema {
   protected final NameMap<FunctionEntry> nullaryFunctionMap;
   protected final NameMap<CalciteSchema> subSchemaMap;
   private List<? extends List<String>> path;
+  private final AtomicLong modificationCount = new AtomicLong();
 
   protected CalciteSchema(CalciteSchema parent, Schema schema,
       String name, NameMap<CalciteSchema> subSchemaMap,
@@ -193,6 +195,7 @@ public TableEntry add(String tableName, Table table,
     final TableEntryImpl entry =
         new TableEntryImpl(this, tableName, table, sqls);
     tableMap.put(tableName, entry);
+    modified();
     return entry;
   }
 
@@ -201,6 +204,7 @@ public TypeEntry add(String name, RelProtoDataType type) {
     final TypeEntry entry =
         new TypeEntryImpl(this, name, type);
     typeMap.put(name, entry);
+    modified();
     return entry;
   }
 
@@ -212,6 +216,7 @@ private FunctionEntry add(String name, Function function) {
     if (function.getParameters().isEmpty()) {
       nullaryFunctionMap.put(name, entry);
     }
+    modified();
     return entry;
   }
 
@@ -221,9 +226,28 @@ private LatticeEntry add(String name, Lattice lattice) {
     }
     final LatticeEntryImpl entry = new LatticeEntryImpl(this, name, lattice);
     latticeMap.put(name, entry);
+    modified();
     return entry;
   }
 
+  /** Returns the number of times that this schema, or any schema beneath it,
+   * has been modified by adding or removing a table, sub-schema, function,
+   * type or lattice.
+   *
+   * <p>Callers that cache information derived from the schema, such as
+   * prepared plans, can compare counts to find out whether it is stale. */
+  public long getModificationCount() {
+    return modificationCount.get();
+  }
+
+  /** Records that this schema has been modified; increments the modification
+   * count of this schema and its ancestors. */
+  protected void modified() {
+    for (CalciteSchema s = this; s != null; s = s.parent) {
+      s.modificationCount.incrementAndGet();
+    }
+  }
+
   public CalciteSchema root() {
     for (CalciteSchema schema = this;;) {
       if (schema.parent == null) {
@@ -524,12 +548,12 @@ public static CalciteSchema createRootSchema(boolean addMetadataSchema,
 
   @Experimental
   public boolean removeSubSchema(String name) {
-    return subSchemaMap.remove(name) != null;
+    return removed(subSchemaMap.remove(name) != null);
   }
 
   @Experimental
   public boolean removeTable(String name) {
-    return tableMap.remove(name) != null;
+    return removed(tableMap.remove(name) != null);
   }
 
   @Experimental
@@ -539,12 +563,20 @@ public boolean removeFunction(String name) {
       return false;
     }
     functionMap.remove(name, remove);
+    modified();
     return true;
   }
 
   @Experimental
   public boolean removeType(String name) {
-    return typeMap.remove(name) != null;
+    return removed(typeMap.remove(name) != null);
+  }
+
+  private boolean removed(boolean removed) {
+    if (removed) {
+      modified();
+    }
+    return removed;
   }
 
   /**
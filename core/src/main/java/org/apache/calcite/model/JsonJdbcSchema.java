@@ -16,6 +16,8 @@
  */
 package org.apache.calcite.model;
 
+import java.util.Map;
+
 /**
  * JSON object representing a schema that maps to a JDBC database.
  *
@@ -69,6 +71,57 @@ public class JsonJdbcSchema extends JsonSchema {
    */
   public String jdbcSchema;
 
+  /** Number of rows to fetch from the database at a time.
+   *
+   * <p>Optional. If not specified, uses the JDBC driver's default.
+   */
+  public Integer fetchSize;
+
+  /** Whether to ask the JDBC driver to stream rows, rather than reading the
+   * whole result of a query into memory.
+   *
+   * <p>Optional. Default false.
+   */
+  public Boolean streaming;
+
+  /** Number of rows to read ahead, in a background thread, while rows are
+   * being processed.
+   *
+   * <p>Optional. If not specified, rows are not read ahead.
+   */
+  public Integer prefetchSize;
+
+  /** Tables to read as several partitions, each by a separate query, in
+   * parallel. The key is a table name; the value has the properties
+   * "column", "partitionCount", "lowerBound", "upperBound" and "ordered".
+   *
+   * <p>Optional. If not specified, each table is read by a single query.
+   *
+   * @see org.apache.calcite.adapter.jdbc.JdbcPartitioning
+   */
+  public Map<String, Map<String, Object>> partitions;
+
+  /** Maximum number of connections to the database in use at a time.
+   *
+   * <p>Optional. If this or {@link #statementCacheSize} is specified, the
+   * schema keeps a pool of connections, and a query that needs a connection
+   * while all are in use waits for one to be returned; if only
+   * {@code statementCacheSize} is specified, the limit is 8. If neither is
+   * specified, a connection is taken from the data source for each query.
+   *
+   * @see org.apache.calcite.adapter.jdbc.JdbcConnectionPool
+   */
+  public Integer maxConnections;
+
+  /** Maximum number of prepared statements to keep open for each pooled
+   * connection, keyed by SQL text.
+   *
+   * <p>Optional. If specified and greater than 0, every query is executed as
+   * a prepared statement, and a query that is executed again on the same
+   * connection reuses its statement.
+   */
+  public Integer statementCacheSize;
+
   @Override public void accept(ModelHandler handler) {
     handler.visit(this);
   }
@@ -16,6 +16,7 @@
  */
 package org.apache.calcite.model;
 
+import org.apache.calcite.adapter.jdbc.JdbcPartitioning;
 import org.apache.calcite.adapter.jdbc.JdbcSchema;
 import org.apache.calcite.avatica.AvaticaUtils;
 import org.apache.calcite.jdbc.CalciteConnection;
@@ -40,6 +41,7 @@
 import org.apache.calcite.schema.impl.TableMacroImpl;
 import org.apache.calcite.schema.impl.ViewTable;
 import org.apache.calcite.sql.SqlDialectFactory;
+import org.apache.calcite.sql.SqlDialectFactoryImpl;
 import org.apache.calcite.sql.type.SqlTypeName;
 import org.apache.calcite.util.Pair;
 import org.apache.calcite.util.Util;
@@ -332,18 +334,25 @@ public void visit(JsonJdbcSchema jsonSchema) {
         JdbcSchema.dataSource(jsonSchema.jdbcUrl,
             jsonSchema.jdbcDriver,
             jsonSchema.jdbcUser,
-            jsonSchema.jdbcPassword);
-    final JdbcSchema schema;
+            jsonSchema.jdbcPassword,
+            Util.first(jsonSchema.maxConnections, 0),
+            Util.first(jsonSchema.statementCacheSize, 0));
+    final SqlDialectFactory factory;
     if (jsonSchema.sqlDialectFactory == null || jsonSchema.sqlDialectFactory.isEmpty()) {
-      schema =
-          JdbcSchema.create(parentSchema, jsonSchema.name, dataSource,
-              jsonSchema.jdbcCatalog, jsonSchema.jdbcSchema);
+      factory = SqlDialectFactoryImpl.INSTANCE;
     } else {
-      SqlDialectFactory factory = AvaticaUtils.instantiatePlugin(
+      factory = AvaticaUtils.instantiatePlugin(
           SqlDialectFactory.class, jsonSchema.sqlDialectFactory);
-      schema =
-          JdbcSchema.create(parentSchema, jsonSchema.name, dataSource,
-              factory, jsonSchema.jdbcCatalog, jsonSchema.jdbcSchema);
+    }
+    JdbcSchema schema =
+        JdbcSchema.create(parentSchema, jsonSchema.name, dataSource,
+            factory, jsonSchema.jdbcCatalog, jsonSchema.jdbcSchema,
+            Util.first(jsonSchema.fetchSize, 0),
+            Util.first(jsonSchema.streaming, false),
+            Util.first(jsonSchema.prefetchSize, 0));
+    if (jsonSchema.partitions != null && !jsonSchema.partitions.isEmpty()) {
+      schema = schema.withPartitionings(
+          JdbcPartitioning.ofTables(jsonSchema.partitions));
     }
     final SchemaPlus schemaPlus = parentSchema.add(jsonSchema.name, schema);
     populateSchema(jsonSchema, schemaPlus);
@@ -0,0 +1,280 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.calcite.plan;
+
+import org.apache.calcite.rel.RelCollation;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.RelWriter;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.sql.SqlExplainLevel;
+import org.apache.calcite.util.ImmutableBitSet;
+import org.apache.calcite.util.Pair;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * Structural digest of a relational expression.
+ *
+ * <p>Two relational expressions are equivalent if and only if their digests
+ * are equal. Planners use digests as keys to detect equivalent expressions.
+ *
+ * <p>A digest is a snapshot of the expression's class, traits, row type and
+ * attributes, taken when the digest is computed. Inputs are compared by
+ * identity (on the assumption that children have already been normalized),
+ * row expressions structurally, and values of other types by their string
+ * representation. The hash code is computed
+ * once, when the digest is created, and the string representation (returned
+ * by {@link RelNode#getDigest()}) is only built if needed.
+ *
+ * <p>Digests computed from attributes are interned, so equivalent
+ * expressions share one digest, and comparing them usually succeeds on
+ * identity.
+ *
+ * @see RelNode#getRelDigest()
+ */
+public final class RelDigest {
+  private static final Interner<RelDigest> INTERNER =
+      Interners.newWeakInterner();
+
+  private final Class<?> relClass;
+  private final String relTypeName;
+  private final RelTraitSet traitSet;
+  private final RelDataType rowType;
+  private final String[] terms;
+  private final Object[] values;
+  private final int hash;
+  private String string;
+
+  private RelDigest(Class<?> relClass, String relTypeName,
+      RelTraitSet traitSet, RelDataType rowType, String[] terms,
+      Object[] values, String string) {
+    this.relClass = relClass;
+    this.relTypeName = relTypeName;
+    this.traitSet = traitSet;
+    this.rowType = rowType;
+    this.terms = terms;
+    this.values = values;
+    this.string = string;
+    this.hash = values == null
+        ? Objects.hash(relClass, rowType, string)
+        : Objects.hash(relClass, traitSet, rowType, Arrays.hashCode(terms),
+            Arrays.hashCode(values));
+  }
+
+  /** Creates a digest from the attributes of a relational expression, as
+   * written by its {@link RelNode#explain explain} method. */
+  public static RelDigest of(RelNode rel, List<Pair<String, Object>> items) {
+    final String[] terms = new String[items.size()];
+    final Object[] values = new Object[items.size()];
+    for (int i = 0; i < terms.length; i++) {
+      final Pair<String, Object> item = items.get(i);
+      terms[i] = item.left;
+      values[i] = item.right instanceof RelNode
+          ? item.right
+          : normalize(item.right);
+    }
+    return INTERNER.intern(
+        new RelDigest(rel.getClass(), rel.getRelTypeName(),
+            rel.getTraitSet(), rel.getRowType(), terms, values, null));
+  }
+
+  /** Computes the digest of a relational expression from its attributes, as
+   * written by its {@link RelNode#explain explain} method. Unlike
+   * {@link RelNode#recomputeRelDigest()}, does not assign the digest to the
+   * expression. */
+  public static RelDigest compute(RelNode rel) {
+    final DigestWriter writer = new DigestWriter();
+    rel.explain(writer);
+    return writer.digest;
+  }
+
+  /** Creates a digest that consists of a given string. Two such digests are
+   * equal if their relational expressions have the same class and row type
+   * and their strings are equal. */
+  public static RelDigest of(RelNode rel, String digest) {
+    return new RelDigest(rel.getClass(), null, null, rel.getRowType(), null,
+        null, Objects.requireNonNull(digest));
+  }
+
+  /** Creates the digest that a relational expression has before it first
+   * computes its digest; its string, the expression's type and id, makes it
+   * unique. Unlike {@link #of(RelNode, String)}, does not read the row type,
+   * which the expression may not be able to derive until it is fully
+   * constructed. */
+  public static RelDigest initial(RelNode rel, String desc) {
+    return new RelDigest(rel.getClass(), null, null, null, null, null,
+        Objects.requireNonNull(desc));
+  }
+
+  /** Returns a digest in which each input is replaced by the digest that
+   * {@code inputDigest} returns for it; or null if this digest consists of a
+   * string, or if {@code inputDigest} returns null for any input.
+   *
+   * <p>Unlike this digest, the result does not depend on the identity of the
+   * inputs, so it can be compared with the digests of expressions that
+   * belong to other planners or statements. */
+  public RelDigest deep(Function<RelNode, RelDigest> inputDigest) {
+    if (values == null) {
+      return null;
+    }
+    Object[] newValues = values;
+    for (int i = 0; i < values.length; i++) {
+      if (values[i] instanceof RelNode) {
+        final RelDigest digest = inputDigest.apply((RelNode) values[i]);
+        if (digest == null) {
+          return null;
+        }
+        if (newValues == values) {
+          newValues = values.clone();
+        }
+        newValues[i] = digest;
+      }
+    }
+    return new RelDigest(relClass, relTypeName, traitSet, rowType, terms,
+        newValues, null);
+  }
+
+  /** Converts a value into an object whose {@code equals} method is
+   * consistent with the value's string representation. */
+  private static Object normalize(Object value) {
+    if (value == null
+        || value instanceof RexNode
+        || value instanceof String
+        || value instanceof Number
+        || value instanceof Boolean
+        || value instanceof Enum
+        || value instanceof RelDataType
+        || value instanceof ImmutableBitSet
+        || value instanceof RelCollation) {
+      return value;
+    }
+    if (value instanceof List) {
+      final List<?> list = (List<?>) value;
+      final List<Object> normalizedList = new ArrayList<>(list.size());
+      for (Object o : list) {
+        normalizedList.add(normalize(o));
+      }
+      return normalizedList;
+    }
+    return value.toString();
+  }
+
+  @Override public int hashCode() {
+    return hash;
+  }
+
+  @Override public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof RelDigest)) {
+      return false;
+    }
+    final RelDigest that = (RelDigest) obj;
+    if (hash != that.hash || relClass != that.relClass) {
+      return false;
+    }
+    if (values == null || that.values == null) {
+      return values == that.values
+          && Objects.equals(rowType, that.rowType)
+          && string.equals(that.string);
+    }
+    return traitSet.equals(that.traitSet)
+        && rowType.equals(that.rowType)
+        && Arrays.equals(terms, that.terms)
+        && Arrays.equals(values, that.values);
+  }
+
+  /** Returns the digest as a string, for example
+   * "LogicalFilter.NONE.[](input=RelSubset#1,condition=>($0, 1))". */
+  @Override public String toString() {
+    String s = string;
+    if (s == null) {
+      string = s = computeString();
+    }
+    return s;
+  }
+
+  private String computeString() {
+    final StringBuilder sb = new StringBuilder(relTypeName);
+    for (RelTrait trait : traitSet) {
+      sb.append('.');
+      sb.append(trait.toString());
+    }
+    sb.append('(');
+    for (int i = 0; i < terms.length; i++) {
+      if (i > 0) {
+        sb.append(',');
+      }
+      sb.append(terms[i]);
+      sb.append('=');
+      if (values[i] instanceof RelNode) {
+        final RelNode input = (RelNode) values[i];
+        sb.append(input.getRelTypeName());
+        sb.append('#');
+        sb.append(input.getId());
+      } else {
+        sb.append(values[i]);
+      }
+    }
+    sb.append(')');
+    return sb.toString();
+  }
+
+  /**
+   * A writer object used exclusively for computing the digest of a RelNode.
+   *
+   * <p>The writer is meant to be used only for computing a single digest and then thrown away.
+   * After calling {@link #done(RelNode)} the writer should be used only to obtain the computed
+   * {@link #digest}. Any other action is prohibited.</p>
+   *
+   */
+  private static final class DigestWriter implements RelWriter {
+
+    private final List<Pair<String, Object>> values = new ArrayList<>();
+
+    RelDigest digest = null;
+
+    @Override public void explain(final RelNode rel, final List<Pair<String, Object>> valueList) {
+      throw new IllegalStateException("Should not be called for computing digest");
+    }
+
+    @Override public SqlExplainLevel getDetailLevel() {
+      return SqlExplainLevel.DIGEST_ATTRIBUTES;
+    }
+
+    @Override public RelWriter item(String term, Object value) {
+      values.add(Pair.of(term, value));
+      return this;
+    }
+
+    @Override public RelWriter done(RelNode node) {
+      digest = RelDigest.of(node, values);
+      return this;
+    }
+  }
+}
+
+// End RelDigest.java
@@ -19,6 +19,7 @@
 import org.apache.calcite.rel.RelNode;
 import org.apache.calcite.rel.core.CorrelationId;
 import org.apache.calcite.rel.metadata.DefaultRelMetadataProvider;
+import org.apache.calcite.rel.metadata.MetadataCache;
 import org.apache.calcite.rel.metadata.MetadataFactory;
 import org.apache.calcite.rel.metadata.MetadataFactoryImpl;
 import org.apache.calcite.rel.metadata.RelMetadataProvider;
@@ -49,6 +50,7 @@ public class RelOptCluster {
   private MetadataFactory metadataFactory;
   private final RelTraitSet emptyTraitSet;
   private RelMetadataQuery mq;
+  private MetadataCache metadataCache;
 
   //~ Constructors -----------------------------------------------------------
 
@@ -137,6 +139,21 @@ public void setMetadataProvider(RelMetadataProvider metadataProvider) {
     this.metadataFactory = new MetadataFactoryImpl(metadataProvider);
   }
 
+  public MetadataCache getMetadataCache() {
+    return metadataCache;
+  }
+
+  /**
+   * Sets a cache of metadata values to be shared with other clusters, or
+   * null to share nothing (the default).
+   *
+   * @param metadataCache Shared metadata cache, or null
+   */
+  public void setMetadataCache(MetadataCache metadataCache) {
+    this.metadataCache = metadataCache;
+    this.mq = null;
+  }
+
   public MetadataFactory getMetadataFactory() {
     return metadataFactory;
   }
@@ -150,6 +167,9 @@ public MetadataFactory getMetadataFactory() {
   public RelMetadataQuery getMetadataQuery() {
     if (mq == null) {
       mq = RelMetadataQuery.instance();
+      if (metadataCache != null) {
+        mq.setSharedCache(metadataCache);
+      }
     }
     return mq;
   }
@@ -0,0 +1,287 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.calcite.plan;
+
+import org.apache.calcite.plan.volcano.VolcanoPlanner;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Listener that records, for each rule and planner phase, how many times the
+ * rule was attempted, how many attempts transformed the expression, how many
+ * relational expressions it produced, and how long it spent in
+ * {@link RelOptRule#onMatch(RelOptRuleCall)}.
+ *
+ * <p>To use it, add it to a planner via
+ * {@link RelOptPlanner#addListener(RelOptListener)}, plan, and call
+ * {@link #snapshot()}. The phase of a {@link VolcanoPlanner} is its current
+ * {@link org.apache.calcite.plan.volcano.VolcanoPlannerPhase}; the phase of
+ * any other planner is the name of its class.
+ *
+ * <p>Events are recorded by the planning thread; {@link #snapshot()} and
+ * {@link #reset()} may be called from any thread.
+ */
+public class RuleProfiler implements RelOptListener {
+  /** Statistics for each (phase, rule description) pair, in order of first
+   * attempt. */
+  private final Map<Key, Counter> counters = new LinkedHashMap<>();
+
+  /** Attempts in progress; more than one if a rule fires while another is
+   * running. */
+  private final Deque<Attempt> attempts = new ArrayDeque<>();
+
+  /** Creates a RuleProfiler. */
+  public RuleProfiler() {
+  }
+
+  public void relEquivalenceFound(RelEquivalenceEvent event) {
+  }
+
+  public synchronized void ruleAttempted(RuleAttemptedEvent event) {
+    if (event.isBefore()) {
+      final Key key =
+          new Key(phase(event.getSource()),
+              event.getRuleCall().getRule().toString());
+      attempts.push(new Attempt(key, System.nanoTime()));
+      return;
+    }
+    final Attempt attempt = attempts.poll();
+    if (attempt == null) {
+      return;
+    }
+    final Counter counter =
+        counters.computeIfAbsent(attempt.key, k -> new Counter());
+    ++counter.attempts;
+    if (attempt.succeeded) {
+      ++counter.successes;
+    }
+    counter.relsProduced += attempt.relsProduced;
+    counter.nanos += System.nanoTime() - attempt.startNanos;
+  }
+
+  public synchronized void ruleProductionSucceeded(RuleProductionEvent event) {
+    final Attempt attempt = attempts.peek();
+    if (attempt == null) {
+      return;
+    }
+    if (event.isBefore()) {
+      ++attempt.relsProduced;
+    } else {
+      attempt.succeeded = true;
+    }
+  }
+
+  public void relDiscarded(RelDiscardedEvent event) {
+  }
+
+  public void relChosen(RelChosenEvent event) {
+  }
+
+  /** Returns the statistics recorded so far. */
+  public synchronized Snapshot snapshot() {
+    final ImmutableList.Builder<RuleStats> list = ImmutableList.builder();
+    for (Map.Entry<Key, Counter> entry : counters.entrySet()) {
+      final Counter counter = entry.getValue();
+      list.add(
+          new RuleStats(entry.getKey().phase, entry.getKey().rule,
+              counter.attempts, counter.successes, counter.relsProduced,
+              counter.nanos));
+    }
+    return new Snapshot(list.build());
+  }
+
+  /** Discards the statistics recorded so far. */
+  public synchronized void reset() {
+    counters.clear();
+    attempts.clear();
+  }
+
+  private static String phase(Object planner) {
+    if (planner instanceof VolcanoPlanner) {
+      final Object phase = ((VolcanoPlanner) planner).getPhase();
+      if (phase != null) {
+        return phase.toString();
+      }
+    }
+    return planner.getClass().getSimpleName();
+  }
+
+  /** Phase and rule. */
+  private static class Key {
+    final String phase;
+    final String rule;
+
+    Key(String phase, String rule) {
+      this.phase = phase;
+      this.rule = rule;
+    }
+
+    @Override public int hashCode() {
+      return Objects.hash(phase, rule);
+    }
+
+    @Override public boolean equals(Object obj) {
+      return obj == this
+          || obj instanceof Key
+          && phase.equals(((Key) obj).phase)
+          && rule.equals(((Key) obj).rule);
+    }
+  }
+
+  /** Mutable statistics for a phase and rule. */
+  private static class Counter {
+    int attempts;
+    int successes;
+    int relsProduced;
+    long nanos;
+  }
+
+  /** Rule call in progress. */
+  private static class Attempt {
+    final Key key;
+    final long startNanos;
+    int relsProduced;
+    boolean succeeded;
+
+    Attempt(Key key, long startNanos) {
+      this.key = key;
+      this.startNanos = startNanos;
+    }
+  }
+
+  /** Statistics of one rule in one planner phase. */
+  public static class RuleStats {
+    private final String phase;
+    private final String rule;
+    private final int attempts;
+    private final int successes;
+    private final int relsProduced;
+    private final long nanos;
+
+    RuleStats(String phase, String rule, int attempts, int successes,
+        int relsProduced, long nanos) {
+      this.phase = phase;
+      this.rule = rule;
+      this.attempts = attempts;
+      this.successes = successes;
+      this.relsProduced = relsProduced;
+      this.nanos = nanos;
+    }
+
+    /** Returns the planner phase. */
+    public String getPhase() {
+      return phase;
+    }
+
+    /** Returns the description of the rule. */
+    public String getRule() {
+      return rule;
+    }
+
+    /** Returns the number of times the rule was fired. */
+    public int getAttempts() {
+      return attempts;
+    }
+
+    /** Returns the number of times the rule produced at least one
+     * relational expression. */
+    public int getSuccesses() {
+      return successes;
+    }
+
+    /** Returns the number of relational expressions that the rule produced,
+     * including ones that were already registered. */
+    public int getRelsProduced() {
+      return relsProduced;
+    }
+
+    /** Returns the time spent in the rule's
+     * {@link RelOptRule#onMatch(RelOptRuleCall)} method, including the time
+     * to register the relational expressions it produced. */
+    public long getNanos() {
+      return nanos;
+    }
+  }
+
+  /** Immutable statistics of all rules, as of the time that
+   * {@link #snapshot()} was called. */
+  public static class Snapshot {
+    private final ImmutableList<RuleStats> rules;
+
+    Snapshot(ImmutableList<RuleStats> rules) {
+      this.rules = rules;
+    }
+
+    /** Returns the statistics of each rule in each phase, in order of first
+     * attempt. */
+    public List<RuleStats> getRules() {
+      return rules;
+    }
+
+    /** Returns the statistics of each rule in each phase, slowest first. */
+    public List<RuleStats> getRulesByTime() {
+      final List<RuleStats> list = new ArrayList<>(rules);
+      list.sort((s1, s2) -> Long.compare(s2.nanos, s1.nanos));
+      return list;
+    }
+
+    /** Returns the total number of rules fired. */
+    public int getAttempts() {
+      int n = 0;
+      for (RuleStats rule : rules) {
+        n += rule.attempts;
+      }
+      return n;
+    }
+
+    /** Returns the total time spent firing rules. */
+    public long getNanos() {
+      long n = 0;
+      for (RuleStats rule : rules) {
+        n += rule.nanos;
+      }
+      return n;
+    }
+
+    /** Returns the statistics as a table, one line per rule and phase,
+     * slowest first. */
+    @Override public String toString() {
+      final StringBuilder b = new StringBuilder();
+      b.append(
+          String.format(Locale.ROOT, "%-16s %8s %8s %8s %10s  %s\n",
+              "Phase", "Attempts", "Success", "Rels", "Millis", "Rule"));
+      for (RuleStats rule : getRulesByTime()) {
+        b.append(
+            String.format(Locale.ROOT, "%-16s %8d %8d %8d %10.3f  %s\n",
+                rule.phase, rule.attempts, rule.successes, rule.relsProduced,
+                rule.nanos / 1_000_000d, rule.rule));
+      }
+      return b.toString();
+    }
+  }
+}
+
+// End RuleProfiler.java
@@ -21,6 +21,7 @@
 import org.apache.calcite.plan.AbstractRelOptPlanner;
 import org.apache.calcite.plan.CommonRelSubExprRule;
 import org.apache.calcite.plan.Context;
+import org.apache.calcite.plan.RelDigest;
 import org.apache.calcite.plan.RelOptCost;
 import org.apache.calcite.plan.RelOptCostFactory;
 import org.apache.calcite.plan.RelOptCostImpl;
@@ -37,7 +38,6 @@
 import org.apache.calcite.rel.core.RelFactories;
 import org.apache.calcite.rel.metadata.RelMetadataProvider;
 import org.apache.calcite.rel.metadata.RelMetadataQuery;
-import org.apache.calcite.rel.type.RelDataType;
 import org.apache.calcite.util.Pair;
 import org.apache.calcite.util.Util;
 import org.apache.calcite.util.graph.BreadthFirstIterator;
@@ -45,15 +45,20 @@
 import org.apache.calcite.util.graph.DefaultDirectedGraph;
 import org.apache.calcite.util.graph.DefaultEdge;
 import org.apache.calcite.util.graph.DepthFirstIterator;
-import org.apache.calcite.util.graph.DirectedGraph;
 import org.apache.calcite.util.graph.Graphs;
 import org.apache.calcite.util.graph.TopologicalOrderIterator;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Multimap;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -77,7 +82,7 @@ public class HepPlanner extends AbstractRelOptPlanner {
 
   private RelTraitSet requestedRootTraits;
 
-  private final Map<Pair<String, RelDataType>, HepRelVertex> mapDigestToVertex = new HashMap<>();
+  private final Map<RelDigest, HepRelVertex> mapDigestToVertex = new HashMap<>();
 
   // NOTE jvs 24-Apr-2006:  We use LinkedHashSet
   // in order to provide deterministic behavior.
@@ -89,6 +94,13 @@ public class HepPlanner extends AbstractRelOptPlanner {
 
   private int nTransformationsLastGC;
 
+  /** Vertices that {@link #addRelToGraph} has created during the current
+   * transformation. */
+  private final List<HepRelVertex> addedVertices = new ArrayList<>();
+
+  /** Number of vertices that garbage collection has examined. */
+  private long gcVisitCount;
+
   private final boolean noDag;
 
   /**
@@ -96,9 +108,17 @@ public class HepPlanner extends AbstractRelOptPlanner {
    * single-rooted DAG, possibly with additional roots corresponding to
    * discarded plan fragments which remain to be garbage-collected.
    */
-  private final DirectedGraph<HepRelVertex, DefaultEdge> graph =
+  private final DefaultDirectedGraph<HepRelVertex, DefaultEdge> graph =
       DefaultDirectedGraph.create();
 
+  /**
+   * Parents of each vertex; the reverse of the edges of {@link #graph}, so
+   * that the planner can find the ancestors of a vertex without scanning
+   * every edge.
+   */
+  private final Multimap<HepRelVertex, HepRelVertex> parentMap =
+      LinkedHashMultimap.create();
+
   private final Function2<RelNode, RelNode, Void> onCopyHook;
 
   private final List<RelOptMaterialization> materializations =
@@ -151,6 +171,7 @@ public HepPlanner(
   // implement RelOptPlanner
   public void setRoot(RelNode rel) {
     root = addRelToGraph(rel);
+    addedVertices.clear();
     dumpGraph();
   }
 
@@ -365,32 +386,55 @@ void executeInstruction(
   }
 
   private int depthFirstApply(Iterator<HepRelVertex> iter,
-      Collection<RelOptRule> rules,
+      MatchState state,
       boolean forceConversions, int nMatches) {
     while (iter.hasNext()) {
       HepRelVertex vertex = iter.next();
-      for (RelOptRule rule : rules) {
-        HepRelVertex newVertex =
-            applyRule(rule, vertex, forceConversions);
-        if (newVertex == null || newVertex == vertex) {
-          continue;
-        }
-        ++nMatches;
-        if (nMatches >= currentProgram.matchLimit) {
-          return nMatches;
-        }
-        // To the extent possible, pick up where we left
-        // off; have to create a new iterator because old
-        // one was invalidated by transformation.
-        Iterator<HepRelVertex> depthIter = getGraphIterator(newVertex);
-        nMatches = depthFirstApply(depthIter, rules, forceConversions,
-            nMatches);
-        break;
+      HepRelVertex newVertex =
+          applyRules(state, vertex, forceConversions);
+      if (newVertex == null) {
+        continue;
+      }
+      state.markDirty(newVertex);
+      ++nMatches;
+      if (nMatches >= currentProgram.matchLimit) {
+        return nMatches;
       }
+      // To the extent possible, pick up where we left
+      // off; have to create a new iterator because old
+      // one was invalidated by transformation.
+      Iterator<HepRelVertex> depthIter = getGraphIterator(newVertex);
+      nMatches = depthFirstApply(depthIter, state, forceConversions,
+          nMatches);
     }
     return nMatches;
   }
 
+  /**
+   * Applies the first of a set of rules that transforms a vertex, and returns
+   * the new vertex, or null if no rule transforms it.
+   *
+   * <p>Only tries the rules whose root operand accepts the class of the
+   * vertex's relational expression. Does not try again the rules that
+   * previously failed on a vertex that has not changed since, unless they
+   * depend on the vertex's parents.
+   */
+  private HepRelVertex applyRules(MatchState state, HepRelVertex vertex,
+      boolean forceConversions) {
+    final RelNode rel = vertex.getCurrentRel();
+    final boolean clean = state.cleanVertices.contains(vertex);
+    for (RelOptRule rule : state.rules(rel.getClass(), clean)) {
+      HepRelVertex newVertex =
+          applyRule(rule, vertex, forceConversions);
+      if (newVertex == null || newVertex == vertex) {
+        continue;
+      }
+      return newVertex;
+    }
+    state.cleanVertices.add(vertex);
+    return null;
+  }
+
   private void applyRules(
       Collection<RelOptRule> rules,
       boolean forceConversions) {
@@ -407,6 +451,12 @@ private void applyRules(
         && currentProgram.matchOrder != HepMatchOrder.DEPTH_FIRST;
 
     int nMatches = 0;
+    final MatchState state = new MatchState(rules);
+    if (currentProgram.matchOrder != HepMatchOrder.DEPTH_FIRST
+        && !state.dependsOnParents()) {
+      applyRulesToDirtyVertices(state, forceConversions);
+      return;
+    }
 
     boolean fixedPoint;
     do {
@@ -414,40 +464,97 @@ private void applyRules(
       fixedPoint = true;
       while (iter.hasNext()) {
         HepRelVertex vertex = iter.next();
-        for (RelOptRule rule : rules) {
-          HepRelVertex newVertex =
-              applyRule(rule, vertex, forceConversions);
-          if (newVertex == null || newVertex == vertex) {
-            continue;
-          }
-          ++nMatches;
-          if (nMatches >= currentProgram.matchLimit) {
-            return;
-          }
-          if (fullRestartAfterTransformation) {
-            iter = getGraphIterator(root);
-          } else {
-            // To the extent possible, pick up where we left
-            // off; have to create a new iterator because old
-            // one was invalidated by transformation.
-            iter = getGraphIterator(newVertex);
-            if (currentProgram.matchOrder == HepMatchOrder.DEPTH_FIRST) {
-              nMatches =
-                  depthFirstApply(iter, rules, forceConversions, nMatches);
-              if (nMatches >= currentProgram.matchLimit) {
-                return;
-              }
+        HepRelVertex newVertex =
+            applyRules(state, vertex, forceConversions);
+        if (newVertex == null) {
+          continue;
+        }
+        state.markDirty(newVertex);
+        ++nMatches;
+        if (nMatches >= currentProgram.matchLimit) {
+          return;
+        }
+        if (fullRestartAfterTransformation) {
+          iter = getGraphIterator(root);
+        } else {
+          // To the extent possible, pick up where we left
+          // off; have to create a new iterator because old
+          // one was invalidated by transformation.
+          iter = getGraphIterator(newVertex);
+          if (currentProgram.matchOrder == HepMatchOrder.DEPTH_FIRST) {
+            nMatches =
+                depthFirstApply(iter, state, forceConversions, nMatches);
+            if (nMatches >= currentProgram.matchLimit) {
+              return;
             }
-            // Remember to go around again since we're
-            // skipping some stuff.
-            fixedPoint = false;
           }
-          break;
+          // Remember to go around again since we're
+          // skipping some stuff.
+          fixedPoint = false;
         }
       }
     } while (!fixedPoint);
   }
 
+  /**
+   * Applies rules until every vertex is clean, visiting only the vertices
+   * that are new or whose descendants have changed since rules last failed
+   * on them.
+   *
+   * <p>After a transformation, rather than walking the graph again from the
+   * root, pushes the vertices that it made dirty onto a work list: the new
+   * vertex and its dirty descendants, and the ancestors of the new vertex.
+   * For {@link HepMatchOrder#TOP_DOWN} the ancestors go to the front, as if
+   * the walk had restarted from the root; otherwise they go to the back,
+   * after the vertices that the walk has not reached yet.
+   *
+   * <p>Each transformation collects the garbage it creates (see
+   * {@link #collectGarbage(Collection)}), so a vertex that it discarded is no
+   * longer in the graph when it is popped.
+   *
+   * <p>Not valid if a rule depends on the parents of the vertex it matches,
+   * because then a transformation elsewhere may make it fire on a clean
+   * vertex.
+   */
+  private void applyRulesToDirtyVertices(MatchState state,
+      boolean forceConversions) {
+    final Deque<HepRelVertex> workList = new ArrayDeque<>();
+    Iterators.addAll(workList, getGraphIterator(root));
+    int nMatches = 0;
+    while (!workList.isEmpty()) {
+      final HepRelVertex vertex = workList.removeFirst();
+      if (state.cleanVertices.contains(vertex)
+          || !graph.vertexSet().contains(vertex)) {
+        // Already visited via another path, or discarded by a
+        // transformation and garbage-collected.
+        continue;
+      }
+      final HepRelVertex newVertex =
+          applyRules(state, vertex, forceConversions);
+      if (newVertex == null) {
+        continue;
+      }
+      final List<HepRelVertex> ancestors = state.markDirty(newVertex);
+      ++nMatches;
+      if (nMatches >= currentProgram.matchLimit) {
+        return;
+      }
+      final List<HepRelVertex> descendants =
+          state.dirtyDescendants(newVertex);
+      if (currentProgram.matchOrder == HepMatchOrder.BOTTOM_UP) {
+        Lists.reverse(descendants).forEach(workList::addFirst);
+      } else {
+        descendants.forEach(workList::addFirst);
+      }
+      if (currentProgram.matchOrder == HepMatchOrder.TOP_DOWN) {
+        Lists.reverse(ancestors).forEach(workList::addFirst);
+      } else {
+        Lists.reverse(ancestors).forEach(workList::addLast);
+      }
+    }
+    collectGarbage();
+  }
+
   private Iterator<HepRelVertex> getGraphIterator(HepRelVertex start) {
     // Make sure there's no garbage, because topological sort
     // doesn't start from a specific root, and rules can't
@@ -494,7 +601,7 @@ private Iterator<HepRelVertex> getGraphIterator(HepRelVertex start) {
 
   /** Returns whether the vertex is valid. */
   private boolean belongsToDag(HepRelVertex vertex) {
-    Pair<String, RelDataType> key = key(vertex.getCurrentRel());
+    RelDigest key = key(vertex.getCurrentRel());
     return mapDigestToVertex.get(key) != null;
   }
 
@@ -709,6 +816,9 @@ private HepRelVertex applyTransformationResults(
       }
     }
 
+    // If there was no garbage before the transformation, there will be none
+    // after it
+    final boolean noGarbage = nTransformations == nTransformationsLastGC;
     ++nTransformations;
     notifyTransformation(
         call,
@@ -742,6 +852,7 @@ private HepRelVertex applyTransformationResults(
       parents.add(parent);
     }
 
+    addedVertices.clear();
     HepRelVertex newVertex = addRelToGraph(bestRel);
 
     // There's a chance that newVertex is the same as one
@@ -756,9 +867,15 @@ private HepRelVertex applyTransformationResults(
       contractVertices(newVertex, vertex, parents);
     }
 
-    if (getListener() != null) {
-      // Assume listener doesn't want to see garbage.
-      collectGarbage();
+    // The only vertices that the transformation can have made unreachable
+    // are the one it replaced, the ones it created but did not use, and
+    // their descendants; collect them now, so that listeners and rules never
+    // see garbage, and a full collection is not needed.
+    addedVertices.add(vertex);
+    collectGarbage(addedVertices);
+    addedVertices.clear();
+    if (noGarbage) {
+      nTransformationsLastGC = nTransformations;
     }
 
     notifyTransformation(
@@ -818,14 +935,14 @@ private HepRelVertex addRelToGraph(
     }
     // Compute digest first time we add to DAG,
     // otherwise can't get equivVertex for common sub-expression
-    rel.recomputeDigest();
+    rel.recomputeRelDigest();
 
     // try to find equivalent rel only if DAG is allowed
     if (!noDag) {
       // Now, check if an equivalent vertex already exists in graph.
-      Pair<String, RelDataType> key = key(rel);
+      RelDigest key = key(rel);
       HepRelVertex equivVertex = mapDigestToVertex.get(key);
-      if (equivVertex != null) {
+      if (equivVertex != null && graph.vertexSet().contains(equivVertex)) {
         // Use existing vertex.
         return equivVertex;
       }
@@ -838,8 +955,10 @@ private HepRelVertex addRelToGraph(
 
     for (RelNode input : rel.getInputs()) {
       graph.addEdge(newVertex, (HepRelVertex) input);
+      parentMap.put((HepRelVertex) input, newVertex);
     }
 
+    addedVertices.add(newVertex);
     nTransformations++;
     return newVertex;
   }
@@ -869,6 +988,8 @@ private void contractVertices(
       }
       graph.removeEdge(parent, discardedVertex);
       graph.addEdge(parent, preservedVertex);
+      parentMap.remove(discardedVertex, parent);
+      parentMap.put(preservedVertex, parent);
       updateVertex(parent, parentRel);
     }
 
@@ -890,7 +1011,7 @@ private void updateVertex(HepRelVertex vertex, RelNode rel) {
       // reachable from here.
       notifyDiscard(vertex.getCurrentRel());
     }
-    Pair<String, RelDataType> oldKey = key(vertex.getCurrentRel());
+    RelDigest oldKey = key(vertex.getCurrentRel());
     if (mapDigestToVertex.get(oldKey) == vertex) {
       mapDigestToVertex.remove(oldKey);
     }
@@ -901,7 +1022,7 @@ private void updateVertex(HepRelVertex vertex, RelNode rel) {
     // otherwise the digest will be removed wrongly in the mapDigestToVertex
     //  when collectGC
     // so it must update the digest that map to vertex
-    Pair<String, RelDataType> newKey = key(rel);
+    RelDigest newKey = key(rel);
     mapDigestToVertex.put(newKey, vertex);
     if (rel != vertex.getCurrentRel()) {
       vertex.replaceRel(rel);
@@ -912,8 +1033,8 @@ private void updateVertex(HepRelVertex vertex, RelNode rel) {
         false);
   }
 
-  private static Pair<String, RelDataType> key(RelNode rel) {
-    return Pair.of(rel.getDigest(), rel.getRowType());
+  private static RelDigest key(RelNode rel) {
+    return rel.getRelDigest();
   }
 
   private RelNode buildFinalPlan(HepRelVertex vertex) {
@@ -932,7 +1053,7 @@ private RelNode buildFinalPlan(HepRelVertex vertex) {
       }
       child = buildFinalPlan((HepRelVertex) child);
       rel.replaceInput(i, child);
-      rel.recomputeDigest();
+      rel.recomputeRelDigest();
     }
 
     return rel;
@@ -953,6 +1074,7 @@ private void collectGarbage() {
     if (graph.vertexSet().contains(root)) {
       BreadthFirstIterator.reachable(rootSet, graph, root);
     }
+    gcVisitCount += rootSet.size();
 
     if (rootSet.size() == graph.vertexSet().size()) {
       // Everything is reachable:  no garbage to collect.
@@ -960,6 +1082,7 @@ private void collectGarbage() {
     }
     final Set<HepRelVertex> sweepSet = new HashSet<>();
     for (HepRelVertex vertex : graph.vertexSet()) {
+      ++gcVisitCount;
       if (!rootSet.contains(vertex)) {
         sweepSet.add(vertex);
         RelNode rel = vertex.getCurrentRel();
@@ -967,11 +1090,14 @@ private void collectGarbage() {
       }
     }
     assert !sweepSet.isEmpty();
+    for (HepRelVertex vertex : sweepSet) {
+      removeParents(vertex);
+    }
     graph.removeAllVertices(sweepSet);
     graphSizeLastGC = graph.vertexSet().size();
 
     // Clean up digest map too.
-    Iterator<Map.Entry<Pair<String, RelDataType>, HepRelVertex>> digestIter =
+    Iterator<Map.Entry<RelDigest, HepRelVertex>> digestIter =
         mapDigestToVertex.entrySet().iterator();
     while (digestIter.hasNext()) {
       HepRelVertex vertex = digestIter.next().getValue();
@@ -981,6 +1107,46 @@ private void collectGarbage() {
     }
   }
 
+  /**
+   * Removes the vertices among {@code candidates} that have no parents, and
+   * then, recursively, their inputs that are left with no parents.
+   *
+   * <p>If every vertex that is not reachable from the root either is a
+   * candidate or is reachable only from candidates, as is the case after a
+   * transformation, removes all garbage, and takes time proportional to the
+   * size of the garbage rather than the size of the graph.
+   */
+  private void collectGarbage(Collection<HepRelVertex> candidates) {
+    final Deque<HepRelVertex> queue = new ArrayDeque<>(candidates);
+    while (!queue.isEmpty()) {
+      final HepRelVertex vertex = queue.removeFirst();
+      ++gcVisitCount;
+      if (vertex == root
+          || !parentMap.get(vertex).isEmpty()
+          || !graph.vertexSet().contains(vertex)) {
+        continue;
+      }
+      notifyDiscard(vertex.getCurrentRel());
+      removeParents(vertex);
+      graph.removeSourceVertex(vertex);
+      // If the digest map has an out-of-date key for this vertex, that entry
+      // stays, but addRelToGraph ignores vertices that are not in the graph
+      mapDigestToVertex.remove(key(vertex.getCurrentRel()), vertex);
+      for (RelNode input : vertex.getCurrentRel().getInputs()) {
+        queue.addLast((HepRelVertex) input);
+      }
+    }
+  }
+
+  /** Removes a vertex that is about to be removed from the graph from the
+   * index of parents, both as a child and as the parent of its inputs. */
+  private void removeParents(HepRelVertex vertex) {
+    for (RelNode input : vertex.getCurrentRel().getInputs()) {
+      parentMap.remove(input, vertex);
+    }
+    parentMap.removeAll(vertex);
+  }
+
   private void assertNoCycles() {
     // Verify that the graph is acyclic.
     final CycleDetector<HepRelVertex, DefaultEdge> cycleDetector =
@@ -1025,6 +1191,12 @@ public void registerMetadataProviders(List<RelMetadataProvider> list) {
     list.add(0, new HepRelMetadataProvider());
   }
 
+  /** Returns the number of vertices that garbage collection has examined
+   * since this planner was created; a measure of the work it has done. */
+  public long getGarbageCollectionVisitCount() {
+    return gcVisitCount;
+  }
+
   // implement RelOptPlanner
   public long getRelMetadataTimestamp(RelNode rel) {
     // TODO jvs 20-Apr-2006: This is overly conservative.  Better would be
@@ -1040,6 +1212,111 @@ public long getRelMetadataTimestamp(RelNode rel) {
   @Override public void addMaterialization(RelOptMaterialization materialization) {
     materializations.add(materialization);
   }
+
+  /** State of one call to {@link #applyRules(Collection, boolean)}.
+   *
+   * <p>Indexes the rules by the class of relational expression that their
+   * root operand accepts, and remembers the vertices that no rule
+   * transformed. Whether a rule transforms a vertex depends only on the
+   * vertex and its descendants, so a vertex stays clean until a
+   * transformation changes it or one of its descendants. The exceptions are
+   * {@link ConverterRule} and {@link CommonRelSubExprRule}, which look at a
+   * vertex's parents, and are therefore tried on clean vertices too. */
+  private class MatchState {
+    private final Collection<RelOptRule> rules;
+    private final Map<Class<? extends RelNode>, List<RelOptRule>> rulesByClass =
+        new HashMap<>();
+    private final Map<Class<? extends RelNode>, List<RelOptRule>>
+        parentRulesByClass = new HashMap<>();
+    final Set<HepRelVertex> cleanVertices = new HashSet<>();
+
+    MatchState(Collection<RelOptRule> rules) {
+      this.rules = rules;
+    }
+
+    /** Returns the rules, in their original order, that may transform a
+     * relational expression of a given class; if the vertex is clean, only
+     * those that depend on the vertex's parents. */
+    List<RelOptRule> rules(Class<? extends RelNode> clazz, boolean clean) {
+      if (clean) {
+        return parentRulesByClass.computeIfAbsent(clazz, c -> {
+          final List<RelOptRule> list = new ArrayList<>();
+          for (RelOptRule rule : rules(c, false)) {
+            if (dependsOnParents(rule)) {
+              list.add(rule);
+            }
+          }
+          return list;
+        });
+      }
+      return rulesByClass.computeIfAbsent(clazz, c -> {
+        final List<RelOptRule> list = new ArrayList<>();
+        for (RelOptRule rule : rules) {
+          if (rule.getOperand().getMatchedClass().isAssignableFrom(c)) {
+            list.add(rule);
+          }
+        }
+        return list;
+      });
+    }
+
+    /** Returns whether a rule depends on the parents of the vertex it
+     * matches, and therefore may fire on a clean vertex. */
+    boolean dependsOnParents(RelOptRule rule) {
+      return rule instanceof ConverterRule
+          || rule instanceof CommonRelSubExprRule;
+    }
+
+    /** Returns whether any of the rules depends on the parents of the vertex
+     * it matches. */
+    boolean dependsOnParents() {
+      return rules.stream().anyMatch(this::dependsOnParents);
+    }
+
+    /** Marks the ancestors of the vertex that a transformation produced as
+     * not clean, and returns them, each after its own ancestors. The vertex
+     * itself is either new, or an existing vertex whose descendants have not
+     * changed. */
+    List<HepRelVertex> markDirty(HepRelVertex vertex) {
+      final List<HepRelVertex> ancestors = new ArrayList<>();
+      addAncestors(vertex, new HashSet<>(), ancestors);
+      return ancestors;
+    }
+
+    private void addAncestors(HepRelVertex vertex, Set<HepRelVertex> visited,
+        List<HepRelVertex> ancestors) {
+      for (HepRelVertex parent : parentMap.get(vertex)) {
+        if (visited.add(parent)) {
+          addAncestors(parent, visited, ancestors);
+          cleanVertices.remove(parent);
+          ancestors.add(parent);
+        }
+      }
+    }
+
+    /** Returns the vertex that a transformation produced, if it is not clean,
+     * and its descendants that are not clean, each after its own
+     * descendants. These are the vertices that the transformation created,
+     * and any that rules have not yet visited. */
+    List<HepRelVertex> dirtyDescendants(HepRelVertex vertex) {
+      final List<HepRelVertex> descendants = new ArrayList<>();
+      addDirtyDescendants(vertex, new HashSet<>(), descendants);
+      return descendants;
+    }
+
+    private void addDirtyDescendants(HepRelVertex vertex,
+        Set<HepRelVertex> visited, List<HepRelVertex> descendants) {
+      for (RelNode input : vertex.getCurrentRel().getInputs()) {
+        final HepRelVertex child = (HepRelVertex) input;
+        if (!cleanVertices.contains(child) && visited.add(child)) {
+          addDirtyDescendants(child, visited, descendants);
+        }
+      }
+      if (!cleanVertices.contains(vertex)) {
+        descendants.add(vertex);
+      }
+    }
+  }
 }
 
 // End HepPlanner.java
@@ -16,6 +16,7 @@
  */
 package org.apache.calcite.plan.hep;
 
+import org.apache.calcite.plan.RelDigest;
 import org.apache.calcite.plan.RelOptCost;
 import org.apache.calcite.plan.RelOptPlanner;
 import org.apache.calcite.plan.RelTraitSet;
@@ -24,6 +25,9 @@
 import org.apache.calcite.rel.RelWriter;
 import org.apache.calcite.rel.metadata.RelMetadataQuery;
 import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.util.Pair;
+
+import com.google.common.collect.ImmutableList;
 
 import java.util.List;
 
@@ -75,8 +79,11 @@ public class HepRelVertex extends AbstractRelNode {
     return currentRel.getRowType();
   }
 
-  @Override protected String computeDigest() {
-    return "HepRelVertex(" + currentRel + ")";
+  @Override protected RelDigest computeRelDigest() {
+    // Vertices are equivalent only if they wrap the same expression; the
+    // digest compares it by identity, and builds its string only if asked
+    return RelDigest.of(this,
+        ImmutableList.of(Pair.of("currentRel", (Object) currentRel)));
   }
 
   /**
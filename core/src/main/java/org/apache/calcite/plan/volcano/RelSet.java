@@ -311,6 +311,7 @@ void mergeWith(
     assert otherSet.equivalentSet == null;
     LOGGER.trace("Merge set#{} into set#{}", otherSet.id, id);
     otherSet.equivalentSet = this;
+    planner.ruleQueue.setsMerged(otherSet, this);
 
     // remove from table
     boolean existed = planner.allSets.remove(otherSet);
@@ -17,6 +17,7 @@
 package org.apache.calcite.plan.volcano;
 
 import org.apache.calcite.linq4j.Linq4j;
+import org.apache.calcite.plan.RelDigest;
 import org.apache.calcite.plan.RelOptCluster;
 import org.apache.calcite.plan.RelOptCost;
 import org.apache.calcite.plan.RelOptListener;
@@ -112,7 +113,7 @@ public class RelSubset extends AbstractRelNode {
     this.boosted = false;
     assert traits.allSimple();
     computeBestCost(cluster.getPlanner());
-    recomputeDigest();
+    recomputeRelDigest();
   }
 
   //~ Methods ----------------------------------------------------------------
@@ -187,13 +188,13 @@ public double estimateRowCount(RelMetadataQuery mq) {
     pw.done(input);
   }
 
-  @Override protected String computeDigest() {
+  @Override protected RelDigest computeRelDigest() {
     StringBuilder digest = new StringBuilder("Subset#");
     digest.append(set.id);
     for (RelTrait trait : traitSet) {
       digest.append('.').append(trait);
     }
-    return digest.toString();
+    return RelDigest.of(this, digest.toString());
   }
 
   @Override protected RelDataType deriveRowType() {
@@ -29,6 +29,7 @@
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Ordering;
+import com.google.common.collect.Sets;
 
 import org.slf4j.Logger;
 
@@ -151,6 +152,17 @@ public void clear() {
     }
   }
 
+  /**
+   * Moves the rule matches whose first operand belongs to {@code otherSet}
+   * to {@code set}, because {@code otherSet} has been merged into it.
+   */
+  void setsMerged(RelSet otherSet, RelSet set) {
+    for (PhaseMatchList matchList : matchListMap.values()) {
+      matchList.setMatchMap.putAll(set,
+          matchList.setMatchMap.removeAll(otherSet));
+    }
+  }
+
   /**
    * Removes the {@link PhaseMatchList rule-match list} for the given planner
    * phase.
@@ -326,7 +338,7 @@ void updateImportance(RelSubset subset, Double importance) {
    * the rule referenced by the match.
    */
   void addMatch(VolcanoRuleMatch match) {
-    final String matchName = match.toString();
+    final List<Object> matchName = match.getDigest();
     for (PhaseMatchList matchList : matchListMap.values()) {
       if (!matchList.names.add(matchName)) {
         // Identical match has already been added.
@@ -347,6 +359,7 @@ void addMatch(VolcanoRuleMatch match) {
 
       matchList.matchMap.put(
           planner.getSubset(match.rels[0]), match);
+      matchList.setMatchMap.put(canonicalSet(match.rels[0]), match);
     }
   }
 
@@ -442,6 +455,12 @@ VolcanoRuleMatch popMatch(VolcanoPlannerPhase phase) {
     }
 
     final List<VolcanoRuleMatch> matchList = phaseMatchList.list;
+    if (!phaseMatchList.poppedBySet.isEmpty()) {
+      // Matches popped by set are still in the list; remove them, in one
+      // pass, before scanning it
+      matchList.removeIf(phaseMatchList.poppedBySet::contains);
+      phaseMatchList.poppedBySet.clear();
+    }
     VolcanoRuleMatch match;
     for (;;) {
       if (matchList.isEmpty()) {
@@ -478,6 +497,7 @@ VolcanoRuleMatch popMatch(VolcanoPlannerPhase phase) {
         }
         match = matchList.remove(bestPos);
       }
+      phaseMatchList.setMatchMap.remove(canonicalSet(match.rels[0]), match);
 
       if (skipMatch(match)) {
         LOGGER.debug("Skip match: {}", match);
@@ -486,6 +506,64 @@ VolcanoRuleMatch popMatch(VolcanoPlannerPhase phase) {
       }
     }
 
+    return popped(phaseMatchList, match);
+  }
+
+  /**
+   * Removes the rule match with the highest importance among those whose
+   * first operand belongs to a given set, and returns it.
+   *
+   * <p>Returns {@code null} if there are no more such matches. Used by the
+   * planner's top-down search, which explores sets on demand.
+   *
+   * @param phase Planner phase
+   * @param set   Set whose matches to pop; must be canonical
+   */
+  VolcanoRuleMatch popMatch(VolcanoPlannerPhase phase, RelSet set) {
+    PhaseMatchList phaseMatchList = matchListMap.get(phase);
+    if (phaseMatchList == null) {
+      throw new AssertionError("Used match list for phase " + phase
+          + " after phase complete");
+    }
+
+    // Only the set's own matches are scanned. The match is not removed from
+    // the list now, which would take time proportional to the length of the
+    // list, but the next call to popMatch(VolcanoPlannerPhase) removes it.
+    final Collection<VolcanoRuleMatch> matches =
+        phaseMatchList.setMatchMap.get(set);
+    for (;;) {
+      VolcanoRuleMatch match = null;
+      for (VolcanoRuleMatch match2 : matches) {
+        if (match == null
+            || MATCH_COMPARATOR.compare(match2, match) < 0) {
+          match = match2;
+        }
+      }
+      if (match == null) {
+        return null;
+      }
+      matches.remove(match);
+      phaseMatchList.poppedBySet.add(match);
+      if (skipMatch(match)) {
+        LOGGER.debug("Skip match: {}", match);
+      } else {
+        return popped(phaseMatchList, match);
+      }
+    }
+  }
+
+  /** Returns the set that a relational expression belongs to, following
+   * merges. */
+  private RelSet canonicalSet(RelNode rel) {
+    RelSet set = planner.getSet(rel);
+    while (set != null && set.equivalentSet != null) {
+      set = set.equivalentSet;
+    }
+    return set;
+  }
+
+  private VolcanoRuleMatch popped(PhaseMatchList phaseMatchList,
+      VolcanoRuleMatch match) {
     // A rule match's digest is composed of the operand RelNodes' digests,
     // which may have changed if sets have merged since the rule match was
     // enqueued.
@@ -670,10 +748,10 @@ private static class PhaseMatchList {
     final List<VolcanoRuleMatch> list = new ChunkList<>();
 
     /**
-     * A set of rule-match names contained in {@link #list}. Allows fast
+     * A set of rule-match digests contained in {@link #list}. Allows fast
      * detection of duplicate rule-matches.
      */
-    final Set<String> names = new HashSet<>();
+    final Set<List<Object>> names = new HashSet<>();
 
     /**
      * Multi-map of RelSubset to VolcanoRuleMatches. Used to
@@ -685,6 +763,21 @@ private static class PhaseMatchList {
     final Multimap<RelSubset, VolcanoRuleMatch> matchMap =
         HashMultimap.create();
 
+    /**
+     * Multi-map of RelSet to the VolcanoRuleMatches whose first operand
+     * belongs to it. Allows the top-down search to pop the matches of a set
+     * without scanning {@link #list}. Keys are always live sets; when sets
+     * merge, their matches move to the surviving set.
+     */
+    final Multimap<RelSet, VolcanoRuleMatch> setMatchMap =
+        HashMultimap.create();
+
+    /**
+     * Rule-matches that have been popped via {@link #setMatchMap} but not yet
+     * removed from {@link #list}.
+     */
+    final Set<VolcanoRuleMatch> poppedBySet = Sets.newIdentityHashSet();
+
     PhaseMatchList(VolcanoPlannerPhase phase) {
       this.phase = phase;
     }
@@ -693,6 +786,8 @@ void clear() {
       list.clear();
       names.clear();
       matchMap.clear();
+      setMatchMap.clear();
+      poppedBySet.clear();
     }
   }
 }
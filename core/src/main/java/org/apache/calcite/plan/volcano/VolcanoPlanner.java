@@ -24,6 +24,7 @@
 import org.apache.calcite.plan.Context;
 import org.apache.calcite.plan.Convention;
 import org.apache.calcite.plan.ConventionTraitDef;
+import org.apache.calcite.plan.RelDigest;
 import org.apache.calcite.plan.RelOptCost;
 import org.apache.calcite.plan.RelOptCostFactory;
 import org.apache.calcite.plan.RelOptLattice;
@@ -48,7 +49,6 @@
 import org.apache.calcite.rel.metadata.JaninoRelMetadataProvider;
 import org.apache.calcite.rel.metadata.RelMetadataProvider;
 import org.apache.calcite.rel.metadata.RelMetadataQuery;
-import org.apache.calcite.rel.type.RelDataType;
 import org.apache.calcite.runtime.Hook;
 import org.apache.calcite.sql.SqlExplainLevel;
 import org.apache.calcite.util.Litmus;
@@ -118,6 +118,47 @@ public class VolcanoPlanner extends AbstractRelOptPlanner {
    */
   protected boolean impatient = false;
 
+  /**
+   * If true, {@link #findBestExp()} searches top-down: starting from the
+   * root, it explores each set when the set is first required, and does not
+   * explore the inputs of an alternative whose own cost already exceeds the
+   * best cost found so far. Rule matches on sets that are never reached are
+   * not fired. {@link #ambitious} and {@link #impatient} are ignored.
+   *
+   * <p>If false, the planner fires rule matches in order of importance.
+   */
+  private boolean topDownOpt = CalciteSystemProperty.TOPDOWN_OPT.value();
+
+  /** Maximum number of milliseconds that {@link #findBestExp()} spends
+   * firing rules, or -1 to use
+   * {@link CalciteConnectionConfig#plannerTimeLimit()}. */
+  private long timeLimitMillis = -1;
+
+  /** Maximum number of rules that {@link #findBestExp()} fires, or -1 to use
+   * {@link CalciteConnectionConfig#plannerRuleLimit()}. */
+  private int ruleLimit = -1;
+
+  /** Maximum number of sets, or -1 to use
+   * {@link CalciteConnectionConfig#plannerSetLimit()}. */
+  private int setLimit = -1;
+
+  /** Value of {@link System#nanoTime()} when {@link #findBestExp()} was
+   * called. */
+  private long startNanos;
+
+  /** Number of rules fired by {@link #findBestExp()}. */
+  private int ruleFireCount;
+
+  /** Number of times that the top-down search has pruned the inputs of a
+   * relational expression, in the last call to {@link #findBestExp()}. */
+  private int pruneCount;
+
+  /** The limit that stopped {@link #findBestExp()} firing rules, or null. */
+  private BudgetLimit budgetExhausted;
+
+  /** Phase that {@link #findBestExp()} is executing, or null. */
+  private VolcanoPlannerPhase phase;
+
   /**
    * Operands that apply to a given class of {@link RelNode}.
    *
@@ -142,8 +183,7 @@ public class VolcanoPlanner extends AbstractRelOptPlanner {
    * {@code Project(child=rel#1, a=null)} where a is a null INTEGER or a
    * null VARCHAR(10).
    */
-  private final Map<Pair<String, RelDataType>, RelNode> mapDigestToRel =
-      new HashMap<>();
+  private final Map<RelDigest, RelNode> mapDigestToRel = new HashMap<>();
 
   /**
    * Map each registered expression ({@link RelNode}) to its equivalence set
@@ -569,11 +609,22 @@ public RelOptPlanner chooseDelegate() {
    * query
    */
   public RelNode findBestExp() {
+    startBudget();
     ensureRootConverters();
     registerMaterializations();
     int cumulativeTicks = 0;
     for (VolcanoPlannerPhase phase : VolcanoPlannerPhase.values()) {
+      this.phase = phase;
       setInitialImportance();
+      if (topDownOpt) {
+        findBestExpTopDown(phase);
+        if (!root.bestCost.isInfinite()) {
+          ruleQueue.phaseCompleted(phase);
+          continue;
+        }
+        // The top-down search found no plan. Fall back to firing the
+        // remaining matches in order of importance.
+      }
 
       RelOptCost targetCost = costFactory.makeHugeCost();
       int tick = 0;
@@ -619,6 +670,10 @@ public RelNode findBestExp() {
           injectImportanceBoost();
         }
 
+        if (isBudgetExhausted()) {
+          break;
+        }
+
         LOGGER.debug("PLANNER = {}; TICK = {}/{}; PHASE = {}; COST = {}",
             this, cumulativeTicks, tick, phase.toString(), root.bestCost);
 
@@ -629,6 +684,7 @@ public RelNode findBestExp() {
 
         assert match.getRule().matches(match);
         match.onMatch();
+        ++ruleFireCount;
 
         // The root may have been merged with another
         // subset. Find the new root subset.
@@ -637,6 +693,7 @@ public RelNode findBestExp() {
 
       ruleQueue.phaseCompleted(phase);
     }
+    this.phase = null;
     if (LOGGER.isTraceEnabled()) {
       StringWriter sw = new StringWriter();
       final PrintWriter pw = new PrintWriter(sw);
@@ -656,6 +713,162 @@ public RelNode findBestExp() {
     return cheapest;
   }
 
+  /**
+   * Runs one phase of the top-down search.
+   *
+   * <p>Each pass optimizes the root subset with an infinite cost bound (see
+   * {@link #optimize(RelSubset, RelOptCost, TopDownPass)}). Firing a rule may
+   * create matches on sets that the pass has already explored, so passes are
+   * repeated until a pass fires no rules.
+   */
+  private void findBestExpTopDown(VolcanoPlannerPhase phase) {
+    for (int i = 0;; i++) {
+      final TopDownPass pass = new TopDownPass(phase);
+      optimize(root, costFactory.makeInfiniteCost(), pass);
+      root = canonize(root);
+      pruneCount += pass.pruneCount;
+      LOGGER.debug("PLANNER = {}; PHASE = {}; PASS = {}; FIRED = {}; "
+              + "PRUNED = {}; COST = {}",
+          this, phase, i, pass.fireCount, pass.pruneCount, root.bestCost);
+      if (pass.fireCount == 0 || isBudgetExhausted()) {
+        break;
+      }
+    }
+  }
+
+  /**
+   * Optimizes a subset, looking for plans cheaper than a given bound.
+   *
+   * <p>First explores the subset's set, by firing the pending rule matches
+   * whose first operand belongs to the set. Then optimizes the inputs of each
+   * relational expression in the subset. An implementable expression's inputs
+   * are optimized in order, each bounded by the cost that remains after
+   * subtracting the expression's own cost and the best costs of the inputs
+   * optimized so far from the lesser of {@code upperBound} and the subset's
+   * best cost. Once the expression's cost exceeds that bound, it cannot be
+   * part of a better plan, and its remaining inputs are not explored.
+   *
+   * <p>The inputs of an expression that is not implementable (say in
+   * {@link Convention#NONE}) are optimized with {@code upperBound}, so that
+   * rules can transform them.
+   */
+  private void optimize(RelSubset subset, RelOptCost upperBound,
+      TopDownPass pass) {
+    // A pass may compute many costs without firing a rule (and therefore
+    // without checking for cancel in VolcanoRuleCall), so check here too
+    checkCancel();
+    subset = canonize(subset);
+    final RelOptCost previousBound = pass.bounds.get(subset);
+    if (previousBound != null && !previousBound.isLt(upperBound)) {
+      // Already optimized in this pass with a bound at least as high, or
+      // on the current path, and therefore part of a cycle.
+      return;
+    }
+    pass.bounds.put(subset, upperBound);
+
+    if (pass.explored.add(subset.set)) {
+      for (;;) {
+        if (isBudgetExhausted()) {
+          break;
+        }
+        final VolcanoRuleMatch match =
+            ruleQueue.popMatch(pass.phase, subset.set);
+        if (match == null) {
+          break;
+        }
+        assert match.getRule().matches(match);
+        match.onMatch();
+        ++ruleFireCount;
+        ++pass.fireCount;
+
+        // The set may have been merged with another set.
+        subset = canonize(subset);
+        pass.explored.add(subset.set);
+      }
+    }
+
+    final RelMetadataQuery mq = subset.getCluster().getMetadataQuery();
+    for (RelNode rel : subset.getRelList()) {
+      final RelOptCost selfCost = noneConventionHasInfiniteCost
+          && rel.getConvention() == Convention.NONE
+          ? null
+          : mq.getNonCumulativeCost(rel);
+      if (selfCost == null || selfCost.isInfinite()) {
+        for (RelNode input : rel.getInputs()) {
+          optimize((RelSubset) input, upperBound, pass);
+        }
+        continue;
+      }
+      final RelOptCost bound = subset.bestCost.isLt(upperBound)
+          ? subset.bestCost
+          : upperBound;
+      RelOptCost cost = selfCost;
+      for (RelNode input : rel.getInputs()) {
+        if (bound.isLt(cost)) {
+          ++pass.pruneCount;
+          LOGGER.trace("Prune inputs of {}: cost {} exceeds bound {}",
+              rel, cost, bound);
+          break;
+        }
+        final RelSubset inputSubset = (RelSubset) input;
+        optimize(inputSubset, bound.minus(cost), pass);
+        cost = cost.plus(canonize(inputSubset).bestCost);
+      }
+    }
+  }
+
+  /** Resets the counters of the planning budget, and reads any limits that
+   * have not been set on this planner from the connection config. */
+  private void startBudget() {
+    startNanos = System.nanoTime();
+    ruleFireCount = 0;
+    pruneCount = 0;
+    budgetExhausted = null;
+    final CalciteConnectionConfig config =
+        context.unwrap(CalciteConnectionConfig.class);
+    if (config != null) {
+      if (timeLimitMillis < 0) {
+        timeLimitMillis = config.plannerTimeLimit();
+      }
+      if (ruleLimit < 0) {
+        ruleLimit = config.plannerRuleLimit();
+      }
+      if (setLimit < 0) {
+        setLimit = config.plannerSetLimit();
+      }
+    }
+  }
+
+  /**
+   * Returns whether the planner should stop firing rules because its budget
+   * is exhausted.
+   *
+   * <p>The first time that a limit is reached, records it (see
+   * {@link #getBudgetExhausted()}) and calls
+   * {@link Hook#PLANNER_BUDGET_EXHAUSTED}. The planner does not stop until
+   * the root has an implementable plan, because it has nothing to return.
+   */
+  private boolean isBudgetExhausted() {
+    if (budgetExhausted == null) {
+      if (ruleLimit >= 0 && ruleFireCount >= ruleLimit) {
+        budgetExhausted = BudgetLimit.RULES;
+      } else if (setLimit >= 0 && allSets.size() >= setLimit) {
+        budgetExhausted = BudgetLimit.SETS;
+      } else if (timeLimitMillis >= 0
+          && System.nanoTime() - startNanos >= timeLimitMillis * 1_000_000L) {
+        budgetExhausted = BudgetLimit.TIME;
+      } else {
+        return false;
+      }
+      LOGGER.debug("PLANNER = {}; budget exhausted: {}; RULES = {}; "
+              + "SETS = {}; MILLIS = {}",
+          this, budgetExhausted, ruleFireCount, allSets.size(),
+          (System.nanoTime() - startNanos) / 1_000_000L);
+      Hook.PLANNER_BUDGET_EXHAUSTED.run(this);
+    }
+    return !canonize(root).bestCost.isInfinite();
+  }
+
   /** Informs {@link JaninoRelMetadataProvider} about the different kinds of
    * {@link RelNode} that we will be dealing with. It will reduce the number
    * of times that we need to re-generate the provider. */
@@ -924,6 +1137,67 @@ public void setNoneConventionHasInfiniteCost(boolean infinite) {
     this.noneConventionHasInfiniteCost = infinite;
   }
 
+  /**
+   * Sets whether this planner searches top-down, exploring sets on demand
+   * from the root and pruning alternatives by cost. The default is the value
+   * of {@link CalciteSystemProperty#TOPDOWN_OPT}.
+   *
+   * @param topDownOpt Whether to search top-down
+   */
+  public void setTopDownOpt(boolean topDownOpt) {
+    this.topDownOpt = topDownOpt;
+  }
+
+  /**
+   * Sets the budget of {@link #findBestExp()}. When a limit is reached, the
+   * planner stops firing rules and returns the cheapest plan found so far.
+   *
+   * <p>A limit of -1 means use the value from the connection config, if the
+   * planner's context has one, otherwise no limit.
+   *
+   * @param timeLimitMillis Maximum number of milliseconds to spend firing
+   *                        rules
+   * @param ruleLimit       Maximum number of rules to fire
+   * @param setLimit        Maximum number of sets
+   */
+  public void setBudget(long timeLimitMillis, int ruleLimit, int setLimit) {
+    this.timeLimitMillis = timeLimitMillis;
+    this.ruleLimit = ruleLimit;
+    this.setLimit = setLimit;
+  }
+
+  /** Returns the number of rules fired by the last call to
+   * {@link #findBestExp()}. */
+  public int getRuleFireCount() {
+    return ruleFireCount;
+  }
+
+  /** Returns the number of times that the
+   * {@link #setTopDownOpt(boolean) top-down search} pruned the inputs of a
+   * relational expression, because its cost exceeded the bound, in the last
+   * call to {@link #findBestExp()}. Always 0 if the search is not
+   * top-down. */
+  public int getPruneCount() {
+    return pruneCount;
+  }
+
+  /** Returns the phase that {@link #findBestExp()} is executing, or null if
+   * it is not executing. */
+  public VolcanoPlannerPhase getPhase() {
+    return phase;
+  }
+
+  /** Returns the number of sets that the planner has created. */
+  public int getSetCount() {
+    return allSets.size();
+  }
+
+  /** Returns the limit that stopped the last call to {@link #findBestExp()}
+   * firing rules, or null if it stopped for another reason. */
+  public BudgetLimit getBudgetExhausted() {
+    return budgetExhausted;
+  }
+
   public RelOptCost getCost(RelNode rel, RelMetadataQuery mq) {
     assert rel != null : "pre-condition: rel != null";
     if (rel instanceof RelSubset) {
@@ -1167,8 +1441,8 @@ public void dump(PrintWriter pw) {
   }
 
   /** Computes the key for {@link #mapDigestToRel}. */
-  private static Pair<String, RelDataType> key(RelNode rel) {
-    return Pair.of(rel.getDigest(), rel.getRowType());
+  private static RelDigest key(RelNode rel) {
+    return rel.getRelDigest();
   }
 
   public String toDot() {
@@ -1411,15 +1685,13 @@ private void dumpGraphviz(PrintWriter pw) {
    * @param rel Relational expression
    */
   void rename(RelNode rel) {
-    final String oldDigest = rel.getDigest();
+    final RelDigest oldKey = key(rel);
     if (fixUpInputs(rel)) {
-      final Pair<String, RelDataType> oldKey =
-          Pair.of(oldDigest, rel.getRowType());
       final RelNode removed = mapDigestToRel.remove(oldKey);
       assert removed == rel;
-      final String newDigest = rel.recomputeDigest();
-      LOGGER.trace("Rename #{} from '{}' to '{}'", rel.getId(), oldDigest, newDigest);
-      final Pair<String, RelDataType> key = key(rel);
+      rel.recomputeRelDigest();
+      final RelDigest key = key(rel);
+      LOGGER.trace("Rename #{} from '{}' to '{}'", rel.getId(), oldKey, key);
       final RelNode equivRel = mapDigestToRel.put(key, rel);
       if (equivRel != null) {
         assert equivRel != rel;
@@ -1477,7 +1749,7 @@ void reregister(
     // Is there an equivalent relational expression? (This might have
     // just occurred because the relational expression's child was just
     // found to be equivalent to another set.)
-    final Pair<String, RelDataType> key = key(rel);
+    final RelDigest key = key(rel);
     RelNode equivRel = mapDigestToRel.get(key);
     if (equivRel != null && equivRel != rel) {
       assert equivRel.getClass() == rel.getClass();
@@ -1682,7 +1954,7 @@ private RelSubset registerImpl(
 
     // If it is equivalent to an existing expression, return the set that
     // the equivalent expression belongs to.
-    Pair<String, RelDataType> key = key(rel);
+    RelDigest key = key(rel);
     RelNode equivExp = mapDigestToRel.get(key);
     if (equivExp == null) {
       // do nothing
@@ -1696,7 +1968,7 @@ private RelSubset registerImpl(
       RelSet equivSet = getSet(equivExp);
       if (equivSet != null) {
         LOGGER.trace(
-            "Register: rel#{} is equivalent to {}", rel.getId(), equivExp.getDescription());
+            "Register: rel#{} is equivalent to {}", rel.getId(), equivExp);
         return registerSubset(set, getSubset(equivExp));
       }
     }
@@ -1710,7 +1982,7 @@ private RelSubset registerImpl(
           && (set.equivalentSet == null)) {
         LOGGER.trace(
             "Register #{} {} (and merge sets, because it is a conversion)",
-            rel.getId(), rel.getDigest());
+            rel.getId(), key);
         merge(set, childSet);
         registerCount++;
 
@@ -1719,7 +1991,7 @@ private RelSubset registerImpl(
         // check whether we are now equivalent to an existing
         // expression.
         if (fixUpInputs(rel)) {
-          rel.recomputeDigest();
+          rel.recomputeRelDigest();
           key = key(rel);
           RelNode equivRel = mapDigestToRel.get(key);
           if ((equivRel != rel) && (equivRel != null)) {
@@ -1766,7 +2038,7 @@ private RelSubset registerImpl(
     final RelNode xx = mapDigestToRel.put(key, rel);
     assert xx == null || xx == rel : rel.getDigest();
 
-    LOGGER.trace("Register {} in {}", rel.getDescription(), subset.getDescription());
+    LOGGER.trace("Register {} in {}", rel, subset);
 
     // This relational expression may have been registered while we
     // recursively registered its children. If this is the case, we're done.
@@ -2007,6 +2279,36 @@ static class RuleProvenance extends Provenance {
       this.callId = callId;
     }
   }
+
+  /** Limit of a planner's budget.
+   *
+   * @see #setBudget(long, int, int) */
+  public enum BudgetLimit {
+    /** Time spent firing rules. */
+    TIME,
+    /** Number of rules fired. */
+    RULES,
+    /** Number of sets. */
+    SETS
+  }
+
+  /** State of one pass of the top-down search. */
+  private static class TopDownPass {
+    final VolcanoPlannerPhase phase;
+
+    /** Highest bound with which each subset has been optimized. */
+    final Map<RelSubset, RelOptCost> bounds = new HashMap<>();
+
+    /** Sets whose pending rule matches have been fired. */
+    final Set<RelSet> explored = new HashSet<>();
+
+    int fireCount;
+    int pruneCount;
+
+    TopDownPass(VolcanoPlannerPhase phase) {
+      this.phase = phase;
+    }
+  }
 }
 
 // End VolcanoPlanner.java
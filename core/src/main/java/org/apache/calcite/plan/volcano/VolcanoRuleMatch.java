@@ -22,6 +22,7 @@
 import org.apache.calcite.rel.RelNode;
 import org.apache.calcite.util.Litmus;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -34,7 +35,7 @@ class VolcanoRuleMatch extends VolcanoRuleCall {
 
   private final RelSet targetSet;
   private RelSubset targetSubset;
-  private String digest;
+  private List<Object> digest;
   private double cachedImportance = Double.NaN;
 
   //~ Constructors -----------------------------------------------------------
@@ -62,6 +63,23 @@ class VolcanoRuleMatch extends VolcanoRuleCall {
   //~ Methods ----------------------------------------------------------------
 
   public String toString() {
+    StringBuilder buf =
+        new StringBuilder("rule [" + getRule() + "] rels [");
+    for (int i = 0; i < rels.length; i++) {
+      if (i > 0) {
+        buf.append(", ");
+      }
+      buf.append(rels[i].toString());
+    }
+    buf.append("]");
+    return buf.toString();
+  }
+
+  /**
+   * Returns the digest of this rule match. Two rule matches are equivalent if
+   * and only if their digests are equal.
+   */
+  List<Object> getDigest() {
     return digest;
   }
 
@@ -132,22 +150,19 @@ void clearCachedImportance() {
   }
 
   /**
-   * Computes a string describing this rule match. Two rule matches are
-   * equivalent if and only if their digests are the same.
+   * Computes the digest of this rule match: the rule, and each relational
+   * expression with its digest.
    *
-   * @return description of this rule match
+   * @return digest of this rule match
    */
-  private String computeDigest() {
-    StringBuilder buf =
-        new StringBuilder("rule [" + getRule() + "] rels [");
-    for (int i = 0; i < rels.length; i++) {
-      if (i > 0) {
-        buf.append(", ");
-      }
-      buf.append(rels[i].toString());
+  private List<Object> computeDigest() {
+    final List<Object> list = new ArrayList<>(1 + 2 * rels.length);
+    list.add(getRule());
+    for (RelNode rel : rels) {
+      list.add(rel);
+      list.add(rel.getRelDigest());
     }
-    buf.append("]");
-    return buf.toString();
+    return list;
   }
 
   /**
@@ -16,6 +16,7 @@
  */
 package org.apache.calcite.prepare;
 
+import org.apache.calcite.adapter.columnar.ColumnarRules;
 import org.apache.calcite.adapter.enumerable.EnumerableCalc;
 import org.apache.calcite.adapter.enumerable.EnumerableConvention;
 import org.apache.calcite.adapter.enumerable.EnumerableInterpretable;
@@ -57,6 +58,7 @@
 import org.apache.calcite.plan.RelOptRule;
 import org.apache.calcite.plan.RelOptTable;
 import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.plan.RuleProfiler;
 import org.apache.calcite.plan.hep.HepPlanner;
 import org.apache.calcite.plan.hep.HepProgramBuilder;
 import org.apache.calcite.plan.volcano.VolcanoPlanner;
@@ -69,6 +71,7 @@
 import org.apache.calcite.rel.core.Project;
 import org.apache.calcite.rel.core.Sort;
 import org.apache.calcite.rel.core.TableScan;
+import org.apache.calcite.rel.metadata.MetadataCache;
 import org.apache.calcite.rel.type.RelDataType;
 import org.apache.calcite.rel.type.RelDataTypeFactory;
 import org.apache.calcite.rel.type.RelDataTypeField;
@@ -77,6 +80,7 @@
 import org.apache.calcite.rex.RexNode;
 import org.apache.calcite.rex.RexProgram;
 import org.apache.calcite.runtime.Bindable;
+import org.apache.calcite.runtime.CalciteContextException;
 import org.apache.calcite.runtime.Hook;
 import org.apache.calcite.runtime.Typed;
 import org.apache.calcite.schema.Schemas;
@@ -393,7 +397,15 @@ protected SqlRexConvertletTable createConvertletTable() {
   /** Factory method for cluster. */
   protected RelOptCluster createCluster(RelOptPlanner planner,
       RexBuilder rexBuilder) {
-    return RelOptCluster.create(planner, rexBuilder);
+    final RelOptCluster cluster = RelOptCluster.create(planner, rexBuilder);
+    final CalciteConnectionConfig config =
+        planner.getContext().unwrap(CalciteConnectionConfig.class);
+    if (config != null
+        && config.metadataCache()
+        && MetadataCache.isEnabled()) {
+      cluster.setMetadataCache(MetadataCache.instance());
+    }
+    return cluster;
   }
 
   /** Creates a collection of planner factories.
@@ -429,8 +441,20 @@ protected RelOptPlanner createPlanner(
     if (externalContext == null) {
       externalContext = Contexts.of(prepareContext.config());
     }
+    final RuleProfiler profiler;
+    if (prepareContext.config().ruleProfile()) {
+      // Put the profiler in the context, so that EXPLAIN PLAN can find it
+      profiler = new RuleProfiler();
+      externalContext =
+          Contexts.chain(externalContext, Contexts.of(profiler));
+    } else {
+      profiler = null;
+    }
     final VolcanoPlanner planner =
         new VolcanoPlanner(costFactory, externalContext);
+    if (profiler != null) {
+      planner.addListener(profiler);
+    }
     planner.addRelTraitDef(ConventionTraitDef.INSTANCE);
     if (CalciteSystemProperty.ENABLE_COLLATION_TRAIT.value()) {
       planner.addRelTraitDef(RelCollationTraitDef.INSTANCE);
@@ -438,6 +462,10 @@ protected RelOptPlanner createPlanner(
     RelOptUtil.registerDefaultRules(planner,
         prepareContext.config().materializationsEnabled(),
         enableBindable);
+    if (prepareContext.config().columnar()
+        && CalciteSystemProperty.ENABLE_ENUMERABLE.value()) {
+      ColumnarRules.RULES.forEach(planner::addRule);
+    }
 
     final CalcitePrepare.SparkHandler spark = prepareContext.spark();
     if (spark.enabled()) {
@@ -576,6 +604,21 @@ <T> CalciteSignature<T> prepare2_(
       long maxRowCount,
       CalciteCatalogReader catalogReader,
       RelOptPlanner planner) {
+    return prepare2_(context, query, elementType, maxRowCount, catalogReader,
+        planner, query.sql != null
+            && context.config().planCache()
+            && PlanCache.isEnabled());
+  }
+
+  /** Prepares a statement, optionally using the {@link PlanCache}. */
+  private <T> CalciteSignature<T> prepare2_(
+      Context context,
+      Query<T> query,
+      Type elementType,
+      long maxRowCount,
+      CalciteCatalogReader catalogReader,
+      RelOptPlanner planner,
+      boolean useCache) {
     final JavaTypeFactory typeFactory = context.getTypeFactory();
     final EnumerableRel.Prefer prefer;
     if (elementType == Object[].class) {
@@ -594,6 +637,8 @@ <T> CalciteSignature<T> prepare2_(
     final RelDataType x;
     final Prepare.PreparedResult preparedResult;
     final Meta.StatementType statementType;
+    PlanCache.Key cacheKey = null;
+    List<Object> literalValues = null;
     if (query.sql != null) {
       final CalciteConnectionConfig config = context.config();
       final SqlParser.ConfigBuilder parserConfig = createParserConfig()
@@ -630,13 +675,38 @@ <T> CalciteSignature<T> prepare2_(
             Meta.StatementType.OTHER_DDL);
       }
 
+      if (useCache) {
+        literalValues = PlanCache.normalize(sqlNode, typeFactory);
+        if (literalValues != null) {
+          cacheKey = new PlanCache.Key(this, context, sqlNode, prefer,
+              resultConvention);
+          final PlanCache.Entry entry = PlanCache.get(cacheKey);
+          if (entry != null) {
+            return entry.toSignature(query.sql, literalValues,
+                context.getRootSchema(), maxRowCount);
+          }
+        }
+      }
+
       final SqlValidator validator =
           createSqlValidator(context, catalogReader);
       validator.setIdentifierExpansion(true);
       validator.setDefaultNullCollation(config.defaultNullCollation());
 
-      preparedResult = preparingStmt.prepareSql(
-          sqlNode, Object.class, validator, true);
+      try {
+        preparedResult = preparingStmt.prepareSql(
+            sqlNode, Object.class, validator, true);
+      } catch (CalciteContextException e) {
+        if (cacheKey == null) {
+          throw e;
+        }
+        // The query is not valid after its literals were replaced by
+        // parameters; for example, a literal in HAVING may need to match an
+        // expression in GROUP BY. Validation failed before anything was
+        // registered in the planner, so prepare the original query.
+        return prepare2_(context, query, elementType, maxRowCount,
+            catalogReader, planner, false);
+      }
       switch (sqlNode.getKind()) {
       case INSERT:
       case DELETE:
@@ -689,6 +759,18 @@ <T> CalciteSignature<T> prepare2_(
             : Meta.CursorFactory.deduce(columns, resultClazz);
     //noinspection unchecked
     final Bindable<T> bindable = preparedResult.getBindable(cursorFactory);
+    final List<RelCollation> collations =
+        preparedResult instanceof Prepare.PreparedResultImpl
+            ? ((Prepare.PreparedResultImpl) preparedResult).collations
+            : ImmutableList.of();
+    if (cacheKey != null) {
+      final PlanCache.Entry entry =
+          new PlanCache.Entry(preparingStmt.internalParameters, jdbcType,
+              columns, cursorFactory, collations, bindable, statementType);
+      PlanCache.put(cacheKey, entry);
+      return entry.toSignature(query.sql, literalValues,
+          context.getRootSchema(), maxRowCount);
+    }
     return new CalciteSignature<>(
         query.sql,
         parameters,
@@ -697,9 +779,7 @@ <T> CalciteSignature<T> prepare2_(
         columns,
         cursorFactory,
         context.getRootSchema(),
-        preparedResult instanceof Prepare.PreparedResultImpl
-            ? ((Prepare.PreparedResultImpl) preparedResult).collations
-            : ImmutableList.of(),
+        collations,
         maxRowCount,
         bindable,
         statementType);
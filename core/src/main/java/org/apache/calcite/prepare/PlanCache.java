@@ -0,0 +1,399 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.calcite.prepare;
+
+import org.apache.calcite.adapter.enumerable.EnumerableRel;
+import org.apache.calcite.avatica.ColumnMetaData;
+import org.apache.calcite.avatica.Meta;
+import org.apache.calcite.config.CalciteConnectionConfig;
+import org.apache.calcite.config.CalciteSystemProperty;
+import org.apache.calcite.jdbc.CalcitePrepare;
+import org.apache.calcite.jdbc.CalciteSchema;
+import org.apache.calcite.plan.Convention;
+import org.apache.calcite.rel.RelCollation;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeFactory;
+import org.apache.calcite.runtime.Bindable;
+import org.apache.calcite.sql.SqlCall;
+import org.apache.calcite.sql.SqlDynamicParam;
+import org.apache.calcite.sql.SqlKind;
+import org.apache.calcite.sql.SqlLiteral;
+import org.apache.calcite.sql.SqlNode;
+import org.apache.calcite.sql.SqlNodeList;
+import org.apache.calcite.sql.SqlSelect;
+import org.apache.calcite.sql.dialect.CalciteSqlDialect;
+import org.apache.calcite.sql.fun.SqlStdOperatorTable;
+import org.apache.calcite.sql.type.SqlTypeUtil;
+import org.apache.calcite.sql.util.SqlBasicVisitor;
+import org.apache.calcite.util.DateString;
+import org.apache.calcite.util.TimeString;
+import org.apache.calcite.util.TimestampString;
+import org.apache.calcite.util.Util;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Cache of prepared plans, for connections that set the
+ * {@link org.apache.calcite.config.CalciteConnectionProperty#PLAN_CACHE}
+ * property.
+ *
+ * <p>The cache has one bounded store for the whole JVM, but a plan is only
+ * reused by the connection that prepared it, because the key includes the
+ * identity of the connection's root schema. Plans cannot be shared between
+ * connections: a compiled plan holds objects from the schemas of the
+ * connection that prepared it (tables, data sources, and other values passed
+ * to the generated code as internal parameters), and each connection builds
+ * its own schemas, even from the same model.
+ *
+ * <p>Before a query is validated, {@link #normalize} replaces literals that
+ * are operands of comparisons in the {@code WHERE}, {@code HAVING} and
+ * {@code ON} clauses by dynamic parameters, each cast to the type of the
+ * literal it replaces. Queries that differ only in those literals therefore
+ * have the same normalized SQL, and can share a plan. The values of the
+ * literals are passed to the plan as internal parameters.
+ *
+ * <p>The key of the cache is the normalized SQL plus everything else that
+ * affects the plan: the identity of the root schema and its
+ * {@link CalciteSchema#getModificationCount() modification count}, the
+ * default schema path, the connection configuration, and the kind of result
+ * required. A cached entry holds the {@link Bindable} (which, for the
+ * enumerable convention, is the compiled physical plan) and the metadata
+ * needed to create a {@link CalcitePrepare.CalciteSignature}.
+ *
+ * <p>The key holds the root schema by a weak reference, so that the cache
+ * does not keep the schemas of closed connections alive. An entry whose root
+ * schema has been garbage-collected can never be found; the reference is
+ * enqueued when the schema is collected, and the entry is removed the next
+ * time an entry is added.
+ *
+ * <p>Statements that are not queries, and queries that already contain
+ * dynamic parameters, are not cached.
+ */
+public class PlanCache {
+  private static final Cache<Key, Entry> CACHE =
+      CacheBuilder.newBuilder()
+          .maximumSize(CalciteSystemProperty.PLAN_CACHE_MAX_SIZE.value())
+          .recordStats()
+          .build();
+
+  /** Queue of references to root schemas that have been garbage-collected;
+   * each is a {@link SchemaRef} whose key should be removed. */
+  private static final ReferenceQueue<CalciteSchema> COLLECTED =
+      new ReferenceQueue<>();
+
+  private PlanCache() {}
+
+  /** Returns whether the cache is enabled; it is disabled if
+   * {@link CalciteSystemProperty#PLAN_CACHE_MAX_SIZE} is 0. */
+  public static boolean isEnabled() {
+    return CalciteSystemProperty.PLAN_CACHE_MAX_SIZE.value() > 0;
+  }
+
+  /** Returns statistics about the cache, including the number of hits,
+   * misses and evictions. */
+  public static CacheStats stats() {
+    return CACHE.stats();
+  }
+
+  /** Returns the number of entries in the cache. */
+  public static long size() {
+    return CACHE.size();
+  }
+
+  /** Removes all entries from the cache. */
+  public static void invalidateAll() {
+    CACHE.invalidateAll();
+  }
+
+  static Entry get(Key key) {
+    return CACHE.getIfPresent(key);
+  }
+
+  static void put(Key key, Entry entry) {
+    Reference<? extends CalciteSchema> ref;
+    while ((ref = COLLECTED.poll()) != null) {
+      CACHE.invalidate(((SchemaRef) ref).key);
+    }
+    CACHE.put(key, entry);
+  }
+
+  /** Replaces literals in a parse tree by dynamic parameters.
+   *
+   * <p>The tree is modified in place. Returns the values of the replaced
+   * literals, in parameter order, or null if the statement cannot be cached,
+   * in which case the tree is unchanged.
+   *
+   * @param node Parse tree of a statement
+   * @param typeFactory Type factory
+   * @return Values of the literals, or null if the statement cannot be cached
+   */
+  static List<Object> normalize(SqlNode node, RelDataTypeFactory typeFactory) {
+    if (!node.isA(SqlKind.QUERY)) {
+      return null;
+    }
+    try {
+      node.accept(new SqlBasicVisitor<Void>() {
+        @Override public Void visit(SqlDynamicParam param) {
+          throw Util.FoundOne.NULL;
+        }
+      });
+    } catch (Util.FoundOne e) {
+      return null;
+    }
+    final LiteralNormalizer normalizer = new LiteralNormalizer(typeFactory);
+    node.accept(normalizer);
+    return normalizer.values;
+  }
+
+  /** Key of the cache. */
+  static class Key {
+    final String sql;
+    final SchemaRef rootSchema;
+    /** Identity hash code of the root schema; remembered because the
+     * schema may be garbage-collected while the key is in the cache. */
+    final int rootSchemaHash;
+    final long modificationCount;
+    final List<String> defaultSchemaPath;
+    final CalciteConnectionConfig config;
+    final EnumerableRel.Prefer prefer;
+    final Convention resultConvention;
+    final Class<? extends CalcitePrepareImpl> prepareClass;
+
+    /** Creates a Key. The node must have been normalized and not yet
+     * validated. */
+    Key(CalcitePrepareImpl prepare, CalcitePrepare.Context context,
+        SqlNode node, EnumerableRel.Prefer prefer,
+        Convention resultConvention) {
+      this.sql = node.toSqlString(CalciteSqlDialect.DEFAULT).getSql();
+      final CalciteSchema rootSchema = context.getMutableRootSchema();
+      this.rootSchema = new SchemaRef(rootSchema, this);
+      this.rootSchemaHash = System.identityHashCode(rootSchema);
+      this.modificationCount = rootSchema.getModificationCount();
+      this.defaultSchemaPath = context.getDefaultSchemaPath() == null
+          ? ImmutableList.of()
+          : ImmutableList.copyOf(context.getDefaultSchemaPath());
+      this.config = context.config();
+      this.prefer = prefer;
+      this.resultConvention = resultConvention;
+      this.prepareClass = prepare.getClass();
+    }
+
+    @Override public int hashCode() {
+      return Objects.hash(sql, rootSchemaHash, modificationCount,
+          defaultSchemaPath, config, prefer, resultConvention, prepareClass);
+    }
+
+    @Override public boolean equals(Object obj) {
+      return obj == this
+          || obj instanceof Key
+          && sql.equals(((Key) obj).sql)
+          && sameRootSchema((Key) obj)
+          && modificationCount == ((Key) obj).modificationCount
+          && defaultSchemaPath.equals(((Key) obj).defaultSchemaPath)
+          && config.equals(((Key) obj).config)
+          && prefer == ((Key) obj).prefer
+          && resultConvention == ((Key) obj).resultConvention
+          && prepareClass == ((Key) obj).prepareClass;
+    }
+
+    /** Returns whether two keys have the same root schema, and it has not
+     * been garbage-collected. */
+    private boolean sameRootSchema(Key key) {
+      final CalciteSchema schema = rootSchema.get();
+      return schema != null && schema == key.rootSchema.get();
+    }
+  }
+
+  /** Weak reference from a key to its root schema. When the schema is
+   * garbage-collected, the reference is enqueued, so that the key can be
+   * removed from the cache. */
+  private static class SchemaRef extends WeakReference<CalciteSchema> {
+    final Key key;
+
+    SchemaRef(CalciteSchema schema, Key key) {
+      super(schema, COLLECTED);
+      this.key = key;
+    }
+  }
+
+  /** Entry in the cache: a prepared plan, less its parameter values. */
+  static class Entry {
+    final Map<String, Object> internalParameters;
+    final RelDataType rowType;
+    final List<ColumnMetaData> columns;
+    final Meta.CursorFactory cursorFactory;
+    final List<RelCollation> collations;
+    final Bindable bindable;
+    final Meta.StatementType statementType;
+
+    Entry(Map<String, Object> internalParameters, RelDataType rowType,
+        List<ColumnMetaData> columns, Meta.CursorFactory cursorFactory,
+        List<RelCollation> collations, Bindable bindable,
+        Meta.StatementType statementType) {
+      this.internalParameters =
+          Collections.unmodifiableMap(new LinkedHashMap<>(internalParameters));
+      this.rowType = rowType;
+      this.columns = ImmutableList.copyOf(columns);
+      this.cursorFactory = cursorFactory;
+      this.collations = ImmutableList.copyOf(collations);
+      this.bindable = bindable;
+      this.statementType = statementType;
+    }
+
+    /** Creates a signature that executes this plan with given values of
+     * the literals that were replaced by parameters. */
+    <T> CalcitePrepare.CalciteSignature<T> toSignature(String sql,
+        List<Object> values, CalciteSchema rootSchema, long maxRowCount) {
+      final Map<String, Object> map = new LinkedHashMap<>(internalParameters);
+      for (int i = 0; i < values.size(); i++) {
+        map.put("?" + i, values.get(i));
+      }
+      //noinspection unchecked
+      return new CalcitePrepare.CalciteSignature<T>(sql, ImmutableList.of(),
+          map, rowType, columns, cursorFactory, rootSchema, collations,
+          maxRowCount, (Bindable<T>) bindable, statementType);
+    }
+  }
+
+  /** Visitor that replaces literals by dynamic parameters, and remembers
+   * their values.
+   *
+   * <p>It only visits the {@code FROM}, {@code WHERE} and {@code HAVING}
+   * clauses of a {@code SELECT}, and only replaces literals that are
+   * operands of comparisons; literals elsewhere, such as in the
+   * {@code SELECT} clause or in a list of {@code IN} values, may determine the
+   * type or shape of the plan. */
+  private static class LiteralNormalizer extends SqlBasicVisitor<Void> {
+    private final RelDataTypeFactory typeFactory;
+    final List<Object> values = new ArrayList<>();
+
+    LiteralNormalizer(RelDataTypeFactory typeFactory) {
+      this.typeFactory = typeFactory;
+    }
+
+    @Override public Void visit(SqlCall call) {
+      switch (call.getKind()) {
+      case SELECT:
+        final SqlSelect select = (SqlSelect) call;
+        visitChild(select.getFrom());
+        visitChild(select.getWhere());
+        visitChild(select.getHaving());
+        return null;
+      case IN:
+      case NOT_IN:
+        visitChild(call.operand(0));
+        if (!(call.operand(1) instanceof SqlNodeList)) {
+          // Sub-query
+          visitChild(call.operand(1));
+        }
+        return null;
+      case EQUALS:
+      case NOT_EQUALS:
+      case LESS_THAN:
+      case LESS_THAN_OR_EQUAL:
+      case GREATER_THAN:
+      case GREATER_THAN_OR_EQUAL:
+      case BETWEEN:
+        return visitComparison(call, call.operandCount());
+      case LIKE:
+      case SIMILAR:
+        // Do not visit the ESCAPE operand
+        return visitComparison(call, 2);
+      default:
+        return super.visit(call);
+      }
+    }
+
+    private void visitChild(SqlNode node) {
+      if (node != null) {
+        node.accept(this);
+      }
+    }
+
+    private Void visitComparison(SqlCall call, int operandCount) {
+      for (int i = 0; i < operandCount; i++) {
+        final SqlNode operand = call.operand(i);
+        if (operand instanceof SqlLiteral) {
+          final SqlNode param = toParam((SqlLiteral) operand);
+          if (param != null) {
+            call.setOperand(i, param);
+          }
+        } else {
+          visitChild(operand);
+        }
+      }
+      return null;
+    }
+
+    /** Converts a literal to a parameter cast to the literal's type, or
+     * returns null if the literal is of a type that is not normalized. */
+    private SqlNode toParam(SqlLiteral literal) {
+      final RelDataType type = literal.createSqlType(typeFactory);
+      final Object value;
+      switch (type.getSqlTypeName()) {
+      case INTEGER:
+        value = literal.getValueAs(Integer.class);
+        break;
+      case BIGINT:
+        value = literal.getValueAs(Long.class);
+        break;
+      case DECIMAL:
+        value = literal.getValueAs(BigDecimal.class);
+        break;
+      case DOUBLE:
+        value = literal.getValueAs(Double.class);
+        break;
+      case CHAR:
+        value = literal.getValueAs(String.class);
+        break;
+      case DATE:
+        value = literal.getValueAs(DateString.class).getDaysSinceEpoch();
+        break;
+      case TIME:
+        value = literal.getValueAs(TimeString.class).getMillisOfDay();
+        break;
+      case TIMESTAMP:
+        value = literal.getValueAs(TimestampString.class).getMillisSinceEpoch();
+        break;
+      default:
+        // NULL, BOOLEAN, SYMBOL, intervals, binary strings
+        return null;
+      }
+      final SqlDynamicParam param =
+          new SqlDynamicParam(values.size(), literal.getParserPosition());
+      values.add(value);
+      return SqlStdOperatorTable.CAST.createCall(literal.getParserPosition(),
+          param, SqlTypeUtil.convertTypeToSpec(type));
+    }
+  }
+}
+
+// End PlanCache.java
@@ -31,6 +31,7 @@
 import org.apache.calcite.plan.RelOptTable;
 import org.apache.calcite.plan.RelOptUtil;
 import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.plan.RuleProfiler;
 import org.apache.calcite.plan.ViewExpanders;
 import org.apache.calcite.rel.RelCollation;
 import org.apache.calcite.rel.RelNode;
@@ -510,7 +511,19 @@ public String getCode() {
       if (root == null) {
         return RelOptUtil.dumpType(rowType);
       } else {
-        return RelOptUtil.dumpPlan("", root.rel, format, detailLevel);
+        final String plan =
+            RelOptUtil.dumpPlan("", root.rel, format, detailLevel);
+        final RuleProfiler profiler = root.rel.getCluster().getPlanner()
+            .getContext().unwrap(RuleProfiler.class);
+        if (profiler == null || format != SqlExplainFormat.TEXT) {
+          return plan;
+        }
+        final RuleProfiler.Snapshot snapshot = profiler.snapshot();
+        if (snapshot.getRules().isEmpty()) {
+          return plan;
+        }
+        return plan + "\n"
+            + snapshot;
       }
     }
 
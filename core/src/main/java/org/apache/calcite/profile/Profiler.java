@@ -17,6 +17,8 @@
 package org.apache.calcite.profile;
 
 import org.apache.calcite.materialize.Lattice;
+import org.apache.calcite.schema.ColumnStatistic;
+import org.apache.calcite.schema.Statistics;
 import org.apache.calcite.util.ImmutableBitSet;
 import org.apache.calcite.util.JsonBuilder;
 import org.apache.calcite.util.Util;
@@ -30,6 +32,7 @@
 import java.math.RoundingMode;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.NavigableSet;
@@ -242,11 +245,23 @@ class Profile {
 
     private final Map<ImmutableBitSet, Distribution> distributionMap;
     private final List<Distribution> singletonDistributionList;
+    private final List<ColumnStatistic> columnStatisticList;
 
     Profile(List<Column> columns, RowCount rowCount,
         Iterable<FunctionalDependency> functionalDependencyList,
         Iterable<Distribution> distributionList, Iterable<Unique> uniqueList) {
+      this(columns, rowCount, functionalDependencyList, distributionList,
+          uniqueList, ImmutableList.of());
+    }
+
+    Profile(List<Column> columns, RowCount rowCount,
+        Iterable<FunctionalDependency> functionalDependencyList,
+        Iterable<Distribution> distributionList, Iterable<Unique> uniqueList,
+        List<ColumnStatistic> columnStatisticList) {
       this.rowCount = rowCount;
+      // May contain nulls, so cannot use ImmutableList
+      this.columnStatisticList =
+          Collections.unmodifiableList(new ArrayList<>(columnStatisticList));
       this.functionalDependencyList =
           ImmutableList.copyOf(functionalDependencyList);
       this.distributionList = ImmutableList.copyOf(distributionList);
@@ -275,6 +290,26 @@ public List<Statistic> statistics() {
           .build();
     }
 
+    /** Returns statistics about a column, or null if the profiler did not
+     * collect them. */
+    public ColumnStatistic columnStatistic(int ordinal) {
+      return ordinal < columnStatisticList.size()
+          ? columnStatisticList.get(ordinal)
+          : null;
+    }
+
+    /** Converts this profile into a
+     * {@link org.apache.calcite.schema.Statistic}, suitable to be returned
+     * from {@link org.apache.calcite.schema.Table#getStatistic()}. */
+    public org.apache.calcite.schema.Statistic toStatistic() {
+      final List<ImmutableBitSet> keys = new ArrayList<>();
+      for (Unique unique : uniqueList) {
+        keys.add(Column.toOrdinals(unique.columns));
+      }
+      return Statistics.of((double) rowCount.rowCount, keys,
+          ImmutableList.of(), ImmutableList.of(), columnStatisticList);
+    }
+
     public double cardinality(ImmutableBitSet columnOrdinals) {
       final ImmutableBitSet originalOrdinals = columnOrdinals;
       for (;;) {
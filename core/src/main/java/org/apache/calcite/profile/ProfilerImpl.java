@@ -22,6 +22,7 @@
 import org.apache.calcite.materialize.Lattice;
 import org.apache.calcite.rel.metadata.NullSentinel;
 import org.apache.calcite.runtime.FlatLists;
+import org.apache.calcite.schema.ColumnStatistic;
 import org.apache.calcite.util.ImmutableBitSet;
 import org.apache.calcite.util.Pair;
 import org.apache.calcite.util.PartiallyOrderedSet;
@@ -29,6 +30,7 @@
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Ordering;
@@ -45,13 +47,16 @@
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.PriorityQueue;
 import java.util.Queue;
+import java.util.Random;
 import java.util.Set;
 import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.TreeMap;
 import java.util.function.Predicate;
 
 import static org.apache.calcite.profile.ProfilerImpl.CompositeCollector.OF;
@@ -61,6 +66,16 @@
  * combinations of columns.
  */
 public class ProfilerImpl implements Profiler {
+  /** Maximum number of buckets in the histogram of a column. */
+  private static final int HISTOGRAM_BUCKETS = 100;
+
+  /** Maximum number of most common values of a column. */
+  private static final int MOST_COMMON_VALUES = 10;
+
+  /** Number of values sampled to build the histogram of a column that has
+   * too many distinct values to count each one. */
+  private static final int SAMPLE_SIZE = 10_000;
+
   /** The number of combinations to consider per pass.
    * The number is determined by memory, but a value of 1,000 is typical.
    * You need 2KB memory per sketch, and one sketch for each combination. */
@@ -182,9 +197,12 @@ class Run {
         }
       }
       // The surprise queue must have enough room for all singleton groups
-      // plus all initial groups.
-      surprises = new SurpriseQueue(1 + columns.size() + initialGroups.size(),
-          interestingCount);
+      // plus all initial groups, and its warm-up period must be at least 4
+      // even if there are only one or two columns.
+      surprises =
+          new SurpriseQueue(
+              Math.max(4, 1 + columns.size() + initialGroups.size()),
+              interestingCount);
     }
 
     Profile profile(Iterable<List<Comparable>> rows) {
@@ -204,8 +222,13 @@ Profile profile(Iterable<List<Comparable>> rows) {
                   Iterables.getOnlyElement(s.columns)));
         }
       }
+      final List<ColumnStatistic> columnStatistics = new ArrayList<>();
+      for (Space s : singletonSpaces) {
+        columnStatistics.add(s.columnStatistic);
+      }
       return new Profile(columns, new RowCount(rowCount),
-          functionalDependencies, distributions.values(), uniques);
+          functionalDependencies, distributions.values(), uniques,
+          columnStatistics);
     }
 
     /** Populates {@code spaces} with the next batch.
@@ -300,6 +323,7 @@ void pass(int pass, List<Space> spaces, Iterable<List<Comparable>> rows) {
       // and [x, y, z] is not an interesting distribution.
       for (Space space : spaces) {
         space.collector.finish();
+        space.columnStatistic = space.collector.columnStatistic(rowCount);
         space.collector = null;
 //        results.add(space);
 
@@ -454,6 +478,9 @@ static class Space {
     int cardinality;
     /** Assigned by {@link Collector#finish()}. */
     SortedSet<Comparable> valueSet;
+    /** Statistics of the column, if this space has one column; assigned
+     * after {@link Collector#finish()}. */
+    ColumnStatistic columnStatistic;
 
     Space(Run run, ImmutableBitSet columnOrdinals, Iterable<Column> columns) {
       this.run = run;
@@ -517,6 +544,15 @@ abstract static class Collector {
     abstract void add(List<Comparable> row);
     abstract void finish();
 
+    /** Returns statistics of the column, or null if this collector collects
+     * more than one column. Called after {@link #finish()}.
+     *
+     * @param rowCount Number of rows in the data set
+     */
+    ColumnStatistic columnStatistic(int rowCount) {
+      return null;
+    }
+
     /** Creates an initial collector of the appropriate kind. */
     public static Collector create(Space space, int sketchThreshold) {
       final List<Integer> columnOrdinalList = space.columnOrdinals.asList();
@@ -532,7 +568,8 @@ public static Collector create(Space space, int sketchThreshold) {
 
   /** Collector that collects values of a single column. */
   static class SingletonCollector extends Collector {
-    final SortedSet<Comparable> values = new TreeSet<>();
+    /** Number of occurrences of each value. */
+    final NavigableMap<Comparable, Integer> counts = new TreeMap<>();
     final int columnOrdinal;
     final int sketchThreshold;
     int nullCount = 0;
@@ -548,12 +585,16 @@ public void add(List<Comparable> row) {
       if (v == NullSentinel.INSTANCE) {
         nullCount++;
       } else {
-        if (values.add(v) && values.size() == sketchThreshold) {
+        if (counts.merge(v, 1, Integer::sum) == 1
+            && counts.size() == sketchThreshold) {
           // Too many values. Switch to a sketch collector.
           final HllSingletonCollector collector =
               new HllSingletonCollector(space, columnOrdinal);
-          for (Comparable value : values) {
-            collector.add(value);
+          for (Map.Entry<Comparable, Integer> e : counts.entrySet()) {
+            collector.add(e.getKey());
+            for (int i = 0; i < e.getValue(); i++) {
+              collector.reservoir.add(e.getKey());
+            }
           }
           space.collector = collector;
         }
@@ -562,8 +603,13 @@ public void add(List<Comparable> row) {
 
     public void finish() {
       space.nullCount = nullCount;
-      space.cardinality = values.size() + (nullCount > 0 ? 1 : 0);
-      space.valueSet = values.size() < 20 ? values : null;
+      space.cardinality = counts.size() + (nullCount > 0 ? 1 : 0);
+      space.valueSet = counts.size() < 20 ? counts.navigableKeySet() : null;
+    }
+
+    @Override ColumnStatistic columnStatistic(int rowCount) {
+      return ProfilerImpl.columnStatistic(counts, space.cardinality,
+          rowCount - nullCount, rowCount);
     }
   }
 
@@ -670,6 +716,9 @@ public void finish() {
   /** Collector that collects one column value into a HyperLogLog sketch. */
   static class HllSingletonCollector extends HllCollector {
     final int columnOrdinal;
+    /** Sample of the non-null values, from which the histogram and most
+     * common values are estimated. */
+    final Reservoir reservoir = new Reservoir(SAMPLE_SIZE);
 
     HllSingletonCollector(Space space, int columnOrdinal) {
       super(space);
@@ -683,8 +732,14 @@ public void add(List<Comparable> row) {
         sketch.update(NULL_BITS);
       } else {
         add(value);
+        reservoir.add(value);
       }
     }
+
+    @Override ColumnStatistic columnStatistic(int rowCount) {
+      return ProfilerImpl.columnStatistic(reservoir.counts(),
+          space.cardinality, reservoir.count, rowCount);
+    }
   }
 
   /** Collector that collects two or more column values into a HyperLogLog
@@ -733,6 +788,100 @@ public void add(List<Comparable> row) {
     }
   }
 
+  /** Creates statistics of a column from the number of occurrences of each
+   * of its non-null values, or of each value in a sample of them.
+   *
+   * @param counts Number of occurrences of each value, sorted by value
+   * @param cardinality Number of distinct values, counting null as a value
+   * @param nonNullCount Number of rows whose value is not null
+   * @param rowCount Number of rows
+   */
+  static ColumnStatistic columnStatistic(
+      NavigableMap<Comparable, Integer> counts, double cardinality,
+      long nonNullCount, int rowCount) {
+    if (rowCount == 0 || counts.isEmpty()) {
+      return new ColumnStatistic(cardinality,
+          rowCount == 0 ? null : 1D, null, ImmutableMap.of());
+    }
+    final double nonNullFraction = (double) nonNullCount / rowCount;
+    long total = 0;
+    for (int count : counts.values()) {
+      total += count;
+    }
+
+    // Most common values are those that occur more than once, and
+    // significantly more often than the average value.
+    final double average = (double) total / counts.size();
+    final List<Map.Entry<Comparable, Integer>> entries =
+        new ArrayList<>(counts.entrySet());
+    entries.sort((e0, e1) -> Integer.compare(e1.getValue(), e0.getValue()));
+    final Map<Comparable, Double> mostCommonValues = new HashMap<>();
+    for (Map.Entry<Comparable, Integer> e
+        : entries.subList(0, Math.min(MOST_COMMON_VALUES, entries.size()))) {
+      if (e.getValue() > 1 && e.getValue() > average * 1.25D) {
+        mostCommonValues.put(e.getKey(),
+            nonNullFraction * e.getValue() / total);
+      }
+    }
+
+    // Equi-depth histogram. The first bound is the smallest value; bound k
+    // is the first value at which the cumulative count reaches k / n of the
+    // total.
+    final int bucketCount = Math.min(HISTOGRAM_BUCKETS, counts.size());
+    final List<Comparable> bounds = new ArrayList<>();
+    bounds.add(counts.firstKey());
+    final Iterator<Map.Entry<Comparable, Integer>> iterator =
+        counts.entrySet().iterator();
+    long cumulative = 0;
+    Comparable value = null;
+    for (int k = 1; k <= bucketCount; k++) {
+      final double target = (double) k * total / bucketCount;
+      while (cumulative < target && iterator.hasNext()) {
+        final Map.Entry<Comparable, Integer> e = iterator.next();
+        cumulative += e.getValue();
+        value = e.getKey();
+      }
+      bounds.add(value);
+    }
+    return new ColumnStatistic(cardinality,
+        (double) (rowCount - nonNullCount) / rowCount,
+        ColumnStatistic.Histogram.of(bounds), mostCommonValues);
+  }
+
+  /** Uniform random sample of a stream of values, maintained by reservoir
+   * sampling. The random seed is fixed, so that a profile is repeatable. */
+  static class Reservoir {
+    final Comparable[] values;
+    final Random random = new Random(0);
+    /** Number of values offered to the reservoir. */
+    long count;
+
+    Reservoir(int size) {
+      this.values = new Comparable[size];
+    }
+
+    void add(Comparable value) {
+      if (count < values.length) {
+        values[(int) count] = value;
+      } else {
+        final long i = (long) (random.nextDouble() * (count + 1));
+        if (i < values.length) {
+          values[(int) i] = value;
+        }
+      }
+      ++count;
+    }
+
+    /** Returns the number of occurrences of each value in the sample. */
+    NavigableMap<Comparable, Integer> counts() {
+      final NavigableMap<Comparable, Integer> counts = new TreeMap<>();
+      for (int i = 0; i < Math.min(count, values.length); i++) {
+        counts.merge(values[i], 1, Integer::sum);
+      }
+      return counts;
+    }
+  }
+
   /** A priority queue of the last N surprise values. Accepts a new value if
    * the queue is not yet full, or if its value is greater than the median value
    * over the last N. */
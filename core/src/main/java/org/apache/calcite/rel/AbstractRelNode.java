@@ -18,13 +18,13 @@
 
 import org.apache.calcite.plan.Convention;
 import org.apache.calcite.plan.ConventionTraitDef;
+import org.apache.calcite.plan.RelDigest;
 import org.apache.calcite.plan.RelOptCluster;
 import org.apache.calcite.plan.RelOptCost;
 import org.apache.calcite.plan.RelOptPlanner;
 import org.apache.calcite.plan.RelOptQuery;
 import org.apache.calcite.plan.RelOptTable;
 import org.apache.calcite.plan.RelOptUtil;
-import org.apache.calcite.plan.RelTrait;
 import org.apache.calcite.plan.RelTraitSet;
 import org.apache.calcite.rel.core.CorrelationId;
 import org.apache.calcite.rel.metadata.Metadata;
@@ -33,10 +33,8 @@
 import org.apache.calcite.rel.type.RelDataType;
 import org.apache.calcite.rex.RexNode;
 import org.apache.calcite.rex.RexShuttle;
-import org.apache.calcite.sql.SqlExplainLevel;
 import org.apache.calcite.util.ImmutableBitSet;
 import org.apache.calcite.util.Litmus;
-import org.apache.calcite.util.Pair;
 import org.apache.calcite.util.Util;
 import org.apache.calcite.util.trace.CalciteTrace;
 
@@ -62,6 +60,23 @@ public abstract class AbstractRelNode implements RelNode {
 
   private static final Logger LOGGER = CalciteTrace.getPlannerTracer();
 
+  /** Whether a class overrides the deprecated {@link #computeDigest()}. */
+  private static final ClassValue<Boolean> OVERRIDES_COMPUTE_DIGEST =
+      new ClassValue<Boolean>() {
+        @Override protected Boolean computeValue(Class<?> type) {
+          for (Class<?> c = type; c != AbstractRelNode.class;
+               c = c.getSuperclass()) {
+            try {
+              c.getDeclaredMethod("computeDigest");
+              return true;
+            } catch (NoSuchMethodException e) {
+              // try the superclass
+            }
+          }
+          return false;
+        }
+      };
+
   //~ Instance fields --------------------------------------------------------
 
   /**
@@ -75,14 +90,28 @@ public abstract class AbstractRelNode implements RelNode {
   protected RelDataType rowType;
 
   /**
-   * A short description of this relational expression's type, inputs, and
-   * other properties. The string uniquely identifies the node; another node
-   * is equivalent if and only if it has the same value. Computed by
-   * {@link #computeDigest}, assigned by {@link #onRegister}, returned by
-   * {@link #getDigest()}.
+   * Digest of this relational expression's type, inputs, and other
+   * properties; another node is equivalent if and only if it has an equal
+   * digest. Computed by {@link #computeRelDigest}, assigned by
+   * {@link #recomputeRelDigest}, returned by {@link #getRelDigest()}.
    *
    * @see #desc
    */
+  private RelDigest relDigest;
+
+  /**
+   * The digest as a string; the same as {@link #getDigest()}.
+   *
+   * <p>Building the string is expensive, so for most classes it is assigned
+   * only when {@link #getDigest()} is first called after the digest is
+   * recomputed, and is null until then. If a class overrides the deprecated
+   * {@link #computeDigest()}, its digest is a string anyway, and this field
+   * is assigned whenever the digest is recomputed, as it was before digests
+   * became structural.
+   *
+   * @deprecated Use {@link #getDigest()} or {@link #getRelDigest()}
+   */
+  @Deprecated // to be removed before 2.0
   protected String digest;
 
   private final RelOptCluster cluster;
@@ -108,9 +137,10 @@ public AbstractRelNode(RelOptCluster cluster, RelTraitSet traitSet) {
     this.cluster = cluster;
     this.traitSet = traitSet;
     this.id = NEXT_ID.getAndIncrement();
-    this.digest = getRelTypeName() + "#" + id;
-    this.desc = digest;
-    LOGGER.trace("new {}", digest);
+    this.desc = getRelTypeName() + "#" + id;
+    this.digest = desc;
+    this.relDigest = RelDigest.initial(this, desc);
+    LOGGER.trace("new {}", desc);
   }
 
   //~ Methods ----------------------------------------------------------------
@@ -342,18 +372,29 @@ public RelNode onRegister(RelOptPlanner planner) {
     if (!Util.equalShallow(oldInputs, inputs)) {
       r = copy(getTraitSet(), inputs);
     }
-    r.recomputeDigest();
+    r.recomputeRelDigest();
     assert r.isValid(Litmus.THROW, null);
     return r;
   }
 
+  @Deprecated // to be removed before 2.0
   public String recomputeDigest() {
-    String tempDigest = computeDigest();
-    assert tempDigest != null : "computeDigest() should be non-null";
+    recomputeRelDigest();
+    return getDigest();
+  }
+
+  public void recomputeRelDigest() {
+    final RelDigest tempDigest = computeRelDigest();
+    assert tempDigest != null : "computeRelDigest() should be non-null";
 
-    this.desc = "rel#" + id + ":" + tempDigest;
-    this.digest = tempDigest;
-    return this.digest;
+    this.relDigest = tempDigest;
+    // The string and the description are computed from the digest when they
+    // are next needed; sub-classes that compute a string digest may read the
+    // deprecated field, and it costs nothing to keep it current for them
+    this.digest = OVERRIDES_COMPUTE_DIGEST.get(getClass())
+        ? tempDigest.toString()
+        : null;
+    this.desc = null;
   }
 
   public void replaceInput(
@@ -363,15 +404,27 @@ public void replaceInput(
   }
 
   public String toString() {
-    return desc;
+    return getDescription();
   }
 
   public final String getDescription() {
-    return desc;
+    String s = desc;
+    if (s == null) {
+      desc = s = "rel#" + id + ":" + getDigest();
+    }
+    return s;
   }
 
   public final String getDigest() {
-    return digest;
+    String s = digest;
+    if (s == null) {
+      digest = s = relDigest.toString();
+    }
+    return s;
+  }
+
+  public final RelDigest getRelDigest() {
+    return relDigest;
   }
 
   public RelOptTable getTable() {
@@ -381,12 +434,28 @@ public RelOptTable getTable() {
   /**
    * Computes the digest. Does not modify this object.
    *
+   * <p>If a subclass overrides the deprecated {@link #computeDigest()}, the
+   * digest consists of the string that method returns.
+   *
    * @return Digest
    */
+  protected RelDigest computeRelDigest() {
+    if (OVERRIDES_COMPUTE_DIGEST.get(getClass())) {
+      return RelDigest.of(this, computeDigest());
+    }
+    return RelDigest.compute(this);
+  }
+
+  /**
+   * Computes the digest string. Does not modify this object.
+   *
+   * @return Digest string
+   *
+   * @deprecated Override {@link #computeRelDigest()}
+   */
+  @Deprecated // to be removed before 2.0
   protected String computeDigest() {
-    RelDigestWriter rdw = new RelDigestWriter();
-    explain(rdw);
-    return rdw.digest;
+    return RelDigest.compute(this).toString();
   }
 
   /**
@@ -410,65 +479,6 @@ protected String computeDigest() {
   @Override public final int hashCode() {
     return super.hashCode();
   }
-
-  /**
-   * A writer object used exclusively for computing the digest of a RelNode.
-   *
-   * <p>The writer is meant to be used only for computing a single digest and then thrown away.
-   * After calling {@link #done(RelNode)} the writer should be used only to obtain the computed
-   * {@link #digest}. Any other action is prohibited.</p>
-   *
-   */
-  private static final class RelDigestWriter implements RelWriter {
-
-    private final List<Pair<String, Object>> values = new ArrayList<>();
-
-    String digest = null;
-
-    @Override public void explain(final RelNode rel, final List<Pair<String, Object>> valueList) {
-      throw new IllegalStateException("Should not be called for computing digest");
-    }
-
-    @Override public SqlExplainLevel getDetailLevel() {
-      return SqlExplainLevel.DIGEST_ATTRIBUTES;
-    }
-
-    @Override public RelWriter item(String term, Object value) {
-      values.add(Pair.of(term, value));
-      return this;
-    }
-
-    @Override public RelWriter done(RelNode node) {
-      StringBuilder sb = new StringBuilder();
-      sb.append(node.getRelTypeName());
-
-      for (RelTrait trait : node.getTraitSet()) {
-        sb.append('.');
-        sb.append(trait.toString());
-      }
-
-      sb.append('(');
-      int j = 0;
-      for (Pair<String, Object> value : values) {
-        if (j++ > 0) {
-          sb.append(',');
-        }
-        sb.append(value.left);
-        sb.append('=');
-        if (value.right instanceof RelNode) {
-          RelNode input = (RelNode) value.right;
-          sb.append(input.getRelTypeName());
-          sb.append('#');
-          sb.append(input.getId());
-        } else {
-          sb.append(value.right);
-        }
-      }
-      sb.append(')');
-      digest = sb.toString();
-      return this;
-    }
-  }
 }
 
 // End AbstractRelNode.java
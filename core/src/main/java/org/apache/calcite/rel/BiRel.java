@@ -71,7 +71,7 @@ public void replaceInput(
     default:
       throw new IndexOutOfBoundsException("Input " + ordinalInParent);
     }
-    recomputeDigest();
+    recomputeRelDigest();
   }
 
   @Override public RelWriter explainTerms(RelWriter pw) {
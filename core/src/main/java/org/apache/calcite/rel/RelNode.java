@@ -17,6 +17,7 @@
 package org.apache.calcite.rel;
 
 import org.apache.calcite.plan.Convention;
+import org.apache.calcite.plan.RelDigest;
 import org.apache.calcite.plan.RelOptCost;
 import org.apache.calcite.plan.RelOptNode;
 import org.apache.calcite.plan.RelOptPlanner;
@@ -307,9 +308,28 @@ public interface RelNode extends RelOptNode, Cloneable {
    * Computes the digest, assigns it, and returns it. For planner use only.
    *
    * @return Digest of this relational expression
+   *
+   * @deprecated Use {@link #recomputeRelDigest()}, which does not build the
+   * digest string
    */
+  @Deprecated // to be removed before 2.0
   String recomputeDigest();
 
+  /**
+   * Computes the digest and assigns it. For planner use only.
+   */
+  void recomputeRelDigest();
+
+  /**
+   * Returns the structural digest of this relational expression, as of the
+   * last call to {@link #recomputeRelDigest()}. Two relational expressions are
+   * equivalent if and only if their digests are equal; the string form of
+   * the digest is {@link #getDigest()}. For planner use only.
+   *
+   * @return Digest of this relational expression
+   */
+  RelDigest getRelDigest();
+
   /**
    * Replaces the <code>ordinalInParent</code><sup>th</sup> input. You must
    * override this method if you override {@link #getInputs}.
@@ -85,7 +85,7 @@ public abstract SetOp copy(
     final List<RelNode> newInputs = new ArrayList<>(inputs);
     newInputs.set(ordinalInParent, p);
     inputs = ImmutableList.copyOf(newInputs);
-    recomputeDigest();
+    recomputeRelDigest();
   }
 
   @Override public List<RelNode> getInputs() {
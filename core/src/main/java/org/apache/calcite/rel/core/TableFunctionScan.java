@@ -150,7 +150,7 @@ public RelNode accept(RexShuttle shuttle) {
     final List<RelNode> newInputs = new ArrayList<>(inputs);
     newInputs.set(ordinalInParent, p);
     inputs = ImmutableList.copyOf(newInputs);
-    recomputeDigest();
+    recomputeRelDigest();
   }
 
   @Override public double estimateRowCount(RelMetadataQuery mq) {
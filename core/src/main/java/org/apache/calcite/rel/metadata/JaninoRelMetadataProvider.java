@@ -53,6 +53,7 @@
 import org.apache.calcite.util.ControlFlowException;
 import org.apache.calcite.util.Pair;
 import org.apache.calcite.util.Util;
+import org.apache.calcite.util.javac.CompiledClassCache;
 
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
@@ -83,8 +84,15 @@
 import java.util.concurrent.ExecutionException;
 
 /**
- * Implementation of the {@link RelMetadataProvider} interface that generates
- * a class that dispatches to the underlying providers.
+ * Implementation of the {@link RelMetadataProvider} interface that creates,
+ * for each kind of metadata, a handler that dispatches to the underlying
+ * providers.
+ *
+ * <p>By default the handler is a {@link MethodHandleMetadataHandler}, which
+ * dispatches via method handles and is cheap to create. If
+ * {@link CalciteSystemProperty#METADATA_HANDLER_COMPILE} is set, or if the
+ * providers' methods cannot be accessed via method handles, it generates
+ * a class and compiles it using Janino.
  */
 public class JaninoRelMetadataProvider implements RelMetadataProvider {
   private final RelMetadataProvider provider;
@@ -106,7 +114,7 @@ public class JaninoRelMetadataProvider implements RelMetadataProvider {
           CalciteSystemProperty.METADATA_HANDLER_CACHE_MAXIMUM_SIZE.value())
           .build(
               CacheLoader.from(key ->
-                  load3(key.def, key.provider.handlers(key.def),
+                  load(key.def, key.provider.handlers(key.def),
                       key.relClasses)));
 
   // Pre-register the most common relational operators, to reduce the number of
@@ -191,6 +199,19 @@ public <M extends Metadata> UnboundMetadata<M> apply(
     return provider.handlers(def);
   }
 
+  private static <M extends Metadata> MetadataHandler<M> load(
+      MetadataDef<M> def, Multimap<Method, MetadataHandler<M>> map,
+      ImmutableList<Class<? extends RelNode>> relClasses) {
+    if (!CalciteSystemProperty.METADATA_HANDLER_COMPILE.value()) {
+      final MetadataHandler<M> handler =
+          MethodHandleMetadataHandler.create(def, map);
+      if (handler != null) {
+        return handler;
+      }
+    }
+    return load3(def, map, relClasses);
+  }
+
   private static <M extends Metadata> MetadataHandler<M> load3(
       MetadataDef<M> def, Multimap<Method, MetadataHandler<M>> map,
       ImmutableList<Class<? extends RelNode>> relClasses) {
@@ -436,7 +457,9 @@ static <M extends Metadata> MetadataHandler<M> compile(String className,
     }
 
     final ISimpleCompiler compiler = compilerFactory.newSimpleCompiler();
-    compiler.setParentClassLoader(JaninoRexCompiler.class.getClassLoader());
+    final ClassLoader parentClassLoader =
+        JaninoRexCompiler.class.getClassLoader();
+    compiler.setParentClassLoader(parentClassLoader);
 
     final String s = "public final class " + className
         + " implements " + def.handlerClass.getCanonicalName() + " {\n"
@@ -450,12 +473,18 @@ static <M extends Metadata> MetadataHandler<M> compile(String className,
       System.out.println(s);
     }
 
-    compiler.cook(s);
+    final CompiledClassCache classCache = CompiledClassCache.instance();
     final Constructor constructor;
     final Object o;
     try {
-      constructor = compiler.getClassLoader().loadClass(className)
-              .getDeclaredConstructors()[0];
+      final Class<?> clazz;
+      if (classCache != null) {
+        clazz = classCache.loadClass(className, s, parentClassLoader);
+      } else {
+        compiler.cook(s);
+        clazz = compiler.getClassLoader().loadClass(className);
+      }
+      constructor = clazz.getDeclaredConstructors()[0];
       o = constructor.newInstance(argList.toArray());
     } catch (InstantiationException
         | IllegalAccessException
@@ -0,0 +1,258 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.calcite.rel.metadata;
+
+import org.apache.calcite.config.CalciteSystemProperty;
+import org.apache.calcite.jdbc.CalciteSchema;
+import org.apache.calcite.plan.RelDigest;
+import org.apache.calcite.plan.hep.HepRelVertex;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.TableScan;
+import org.apache.calcite.rel.core.Values;
+import org.apache.calcite.schema.Table;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Cache of metadata values that is shared by {@link RelMetadataQuery}
+ * instances, and therefore by planner invocations and statements, possibly
+ * in several threads.
+ *
+ * <p>Only metadata that is stable for a given subtree is cached: row count,
+ * distinct row count, unique keys and column uniqueness. And only for
+ * relational expressions whose subtree is immutable, that is, whose leaves
+ * are {@link TableScan} or {@link Values}, and which contains no planner
+ * sets such as {@link org.apache.calcite.plan.volcano.RelSubset}.
+ * (A {@link HepRelVertex} is replaced by its current expression.)
+ *
+ * <p>The key of an entry is the structural digest of the subtree (see
+ * {@link RelDigest#deep}), the identity of each {@link Table} in it and the
+ * {@link CalciteSchema#getModificationCount() modification count} of its
+ * schema, the metadata provider, and the arguments of the metadata method.
+ * Two expressions therefore share values only if they read the same table
+ * objects, not merely tables with the same names; a schema that creates a
+ * new table object each time it is asked for a table shares nothing. If the
+ * statistics of a table change without its schema changing, call
+ * {@link #invalidateAll()}.
+ *
+ * <p>Enable the cache for a connection by setting
+ * {@link org.apache.calcite.config.CalciteConnectionProperty#METADATA_CACHE},
+ * or for a cluster by calling
+ * {@link org.apache.calcite.plan.RelOptCluster#setMetadataCache}.
+ */
+public class MetadataCache {
+  private static final MetadataCache INSTANCE =
+      new MetadataCache(CalciteSystemProperty.METADATA_CACHE_MAX_SIZE.value());
+
+  private final Cache<List<Object>, Object> cache;
+
+  /** Creates a MetadataCache that holds at most {@code maximumSize}
+   * values. */
+  public MetadataCache(long maximumSize) {
+    this.cache = CacheBuilder.newBuilder()
+        .maximumSize(maximumSize)
+        .recordStats()
+        .build();
+  }
+
+  /** Returns the cache shared by all connections. Its size is set by
+   * {@link CalciteSystemProperty#METADATA_CACHE_MAX_SIZE}. */
+  public static MetadataCache instance() {
+    return INSTANCE;
+  }
+
+  /** Returns whether the shared cache is enabled; it is disabled if
+   * {@link CalciteSystemProperty#METADATA_CACHE_MAX_SIZE} is 0. */
+  public static boolean isEnabled() {
+    return CalciteSystemProperty.METADATA_CACHE_MAX_SIZE.value() > 0;
+  }
+
+  /** Returns statistics about the cache, including the number of hits,
+   * misses and evictions. */
+  public CacheStats stats() {
+    return cache.stats();
+  }
+
+  /** Returns the number of values in the cache. */
+  public long size() {
+    return cache.size();
+  }
+
+  /** Removes all values from the cache. */
+  public void invalidateAll() {
+    cache.invalidateAll();
+  }
+
+  /** Creates a scope for use by one {@link RelMetadataQuery}. */
+  Scope scope(JaninoRelMetadataProvider provider) {
+    return new Scope(provider);
+  }
+
+  /** Structural key of an immutable subtree. */
+  private static class SubtreeKey {
+    final RelDigest digest;
+    final ImmutableList<TableKey> tables;
+
+    SubtreeKey(RelDigest digest, ImmutableList<TableKey> tables) {
+      this.digest = digest;
+      this.tables = tables;
+    }
+  }
+
+  /** Identity of a table read by a subtree, and the version of its
+   * schema.
+   *
+   * <p>Holds the table weakly, so that the cache does not prevent a schema
+   * from being garbage-collected; a key whose table has been collected is
+   * equal to no other key. */
+  private static class TableKey {
+    final WeakReference<Table> table;
+    /** Identity hash code of the table; remembered because the table may be
+     * garbage-collected while the key is in the cache. */
+    final int tableHash;
+    final long modificationCount;
+
+    TableKey(Table table, long modificationCount) {
+      this.table = new WeakReference<>(table);
+      this.tableHash = System.identityHashCode(table);
+      this.modificationCount = modificationCount;
+    }
+
+    @Override public int hashCode() {
+      return Objects.hash(tableHash, modificationCount);
+    }
+
+    @Override public boolean equals(Object obj) {
+      if (obj == this) {
+        return true;
+      }
+      if (!(obj instanceof TableKey)) {
+        return false;
+      }
+      final Table t = table.get();
+      return t != null
+          && t == ((TableKey) obj).table.get()
+          && modificationCount == ((TableKey) obj).modificationCount;
+    }
+  }
+
+  /** Access to the cache on behalf of one {@link RelMetadataQuery}.
+   *
+   * <p>Remembers the key of each relational expression it has seen; like
+   * the query's own map of values, it becomes invalid when the query does.
+   * Not thread-safe. */
+  class Scope {
+    private final JaninoRelMetadataProvider provider;
+    private final Map<RelNode, Object> subtreeKeys = new HashMap<>();
+
+    Scope(JaninoRelMetadataProvider provider) {
+      this.provider = provider;
+    }
+
+    /** Returns the key of a metadata value, or null if the value cannot be
+     * cached. */
+    List<Object> key(MetadataDef<?> def, RelNode rel, Object... args) {
+      final SubtreeKey subtreeKey = subtreeKey(rel);
+      if (subtreeKey == null) {
+        return null;
+      }
+      return Arrays.asList(provider, def, subtreeKey.digest,
+          subtreeKey.tables, Arrays.asList(args));
+    }
+
+    /** Returns a cached value, {@link NullSentinel#INSTANCE} if the cached
+     * value is null, or null if there is no value. */
+    Object get(List<Object> key) {
+      return cache.getIfPresent(key);
+    }
+
+    /** Caches a value, and returns the value to be returned to the caller.
+     * Sets are copied, because the cache shares values between threads. */
+    @SuppressWarnings("unchecked")
+    <T> T put(List<Object> key, T value) {
+      if (value instanceof Set) {
+        value = (T) ImmutableSet.copyOf((Set) value);
+      }
+      cache.put(key, NullSentinel.mask(value));
+      return value;
+    }
+
+    private SubtreeKey subtreeKey(RelNode rel) {
+      if (rel instanceof HepRelVertex) {
+        return subtreeKey(((HepRelVertex) rel).getCurrentRel());
+      }
+      final Object o = subtreeKeys.get(rel);
+      if (o != null) {
+        return o == NullSentinel.INSTANCE ? null : (SubtreeKey) o;
+      }
+      final SubtreeKey subtreeKey = computeSubtreeKey(rel);
+      subtreeKeys.put(rel, NullSentinel.mask(subtreeKey));
+      return subtreeKey;
+    }
+
+    private SubtreeKey computeSubtreeKey(RelNode rel) {
+      final List<TableKey> tables = new ArrayList<>();
+      if (rel.getInputs().isEmpty()) {
+        if (rel instanceof TableScan) {
+          final Table table = rel.getTable().unwrap(Table.class);
+          if (table == null) {
+            return null;
+          }
+          final CalciteSchema schema =
+              rel.getTable().unwrap(CalciteSchema.class);
+          tables.add(
+              new TableKey(table,
+                  schema == null ? -1L : schema.getModificationCount()));
+        } else if (!(rel instanceof Values)) {
+          return null;
+        }
+      }
+      for (RelNode input : rel.getInputs()) {
+        final SubtreeKey inputKey = subtreeKey(input);
+        if (inputKey == null) {
+          return null;
+        }
+        tables.addAll(inputKey.tables);
+      }
+      // Compute the digest rather than use the one the expression holds,
+      // which is a placeholder if no planner has registered the expression
+      final RelDigest digest = RelDigest.compute(rel).deep(input -> {
+        final SubtreeKey inputKey = subtreeKey(input);
+        return inputKey == null ? null : inputKey.digest;
+      });
+      if (digest == null) {
+        return null;
+      }
+      return new SubtreeKey(digest, ImmutableList.copyOf(tables));
+    }
+  }
+}
+
+// End MetadataCache.java
@@ -0,0 +1,231 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.calcite.rel.metadata;
+
+import org.apache.calcite.plan.hep.HepRelVertex;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.runtime.FlatLists;
+import org.apache.calcite.util.Util;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Multimap;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Implementation of a {@link MetadataHandler} that dispatches to the
+ * underlying providers via method handles.
+ *
+ * <p>It behaves the same as the class that {@link JaninoRelMetadataProvider}
+ * would generate and compile: it caches values in
+ * {@link RelMetadataQuery#map}, under the same keys, and detects cycles. But
+ * it is much cheaper to create, because it does not compile any code, and it
+ * finds the handler for each class of relational expression when it first
+ * sees that class, so does not need to be re-created when new classes are
+ * registered.
+ *
+ * @param <M> Kind of metadata
+ */
+final class MethodHandleMetadataHandler<M extends Metadata>
+    implements InvocationHandler {
+  private final MetadataDef<M> def;
+  /** Ordinal in {@link MetadataDef#methods} of each method of the handler
+   * interface. */
+  private final Map<Method, Integer> ordinals = new HashMap<>();
+  /** Method handle for each handler method, bound to its provider and
+   * adapted to type {@code (Object[])Object}. */
+  private final Map<Method, MethodHandle> handles = new HashMap<>();
+  /** Per method of the metadata interface, the method handle for each class
+   * of relational expression. (Not a {@link ClassValue}; each handler would
+   * need its own, and a class holds on to the values of every
+   * {@code ClassValue} that has seen it, so handlers would never be
+   * garbage-collected.) */
+  private final List<Map<Class<?>, MethodHandle>> dispatchers =
+      new ArrayList<>();
+  private final ReflectiveRelMetadataProvider.Space space;
+
+  private MethodHandleMetadataHandler(MetadataDef<M> def,
+      ReflectiveRelMetadataProvider.Space space) throws IllegalAccessException {
+    this.def = def;
+    this.space = space;
+    for (Method method : def.handlerClass.getDeclaredMethods()) {
+      for (int i = 0; i < def.methods.size(); i++) {
+        if (def.methods.get(i).getName().equals(method.getName())) {
+          ordinals.put(method, i);
+        }
+      }
+    }
+    for (Map.Entry<Method, MetadataHandler> entry
+        : space.providerMap.entries()) {
+      final MetadataHandler provider = entry.getValue();
+      for (Method handler : space.handlerMap.values()) {
+        if (handler.getDeclaringClass().isInstance(provider)
+            && !handles.containsKey(handler)) {
+          handles.put(handler, bind(handler, provider));
+        }
+      }
+    }
+    for (int i = 0; i < def.methods.size(); i++) {
+      dispatchers.add(new ConcurrentHashMap<>());
+    }
+  }
+
+  /** Returns the method handle that implements the {@code i}th method of the
+   * metadata interface for a class of relational expression. */
+  private MethodHandle handle(int i, Class<? extends RelNode> relClass) {
+    return dispatchers.get(i).computeIfAbsent(relClass, c ->
+        handles.get(space.find(relClass, def.methods.get(i))));
+  }
+
+  /** Creates a handler, or returns null if the methods of the providers
+   * cannot be accessed via method handles. */
+  static <M extends Metadata> MetadataHandler<M> create(MetadataDef<M> def,
+      Multimap<Method, MetadataHandler<M>> map) {
+    //noinspection unchecked
+    final ReflectiveRelMetadataProvider.Space space =
+        new ReflectiveRelMetadataProvider.Space((Multimap) map);
+    // Like generated code, fail early if there is no catch-all handler
+    for (Method method : def.methods) {
+      space.find(RelNode.class, method);
+    }
+    final MethodHandleMetadataHandler<M> handler;
+    try {
+      handler = new MethodHandleMetadataHandler<>(def, space);
+    } catch (IllegalAccessException | RuntimeException e) {
+      // For example, a provider class is not public, and we are not allowed
+      // to make it accessible
+      return null;
+    }
+    return def.handlerClass.cast(
+        Proxy.newProxyInstance(def.handlerClass.getClassLoader(),
+            new Class[] {def.handlerClass}, handler));
+  }
+
+  private static MethodHandle bind(Method handler, MetadataHandler provider)
+      throws IllegalAccessException {
+    if (!Modifier.isPublic(handler.getModifiers())
+        || !Modifier.isPublic(handler.getDeclaringClass().getModifiers())) {
+      handler.setAccessible(true);
+    }
+    final MethodHandle handle = MethodHandles.lookup().unreflect(handler);
+    final int argCount = handler.getParameterCount();
+    return handle.bindTo(provider)
+        .asType(MethodType.genericMethodType(argCount))
+        .asSpreader(Object[].class, argCount);
+  }
+
+  public Object invoke(Object proxy, Method method, Object[] args) {
+    if (method.getDeclaringClass() == Object.class) {
+      switch (method.getName()) {
+      case "equals":
+        return proxy == args[0];
+      case "hashCode":
+        return System.identityHashCode(proxy);
+      default:
+        return "MethodHandleMetadataHandler("
+            + def.metadataClass.getSimpleName() + ")";
+      }
+    }
+    if (method.getDeclaringClass() == MetadataHandler.class) {
+      return def; // getDef()
+    }
+    final int i = ordinals.get(method);
+    final RelNode r = (RelNode) args[0];
+    final RelMetadataQuery mq = (RelMetadataQuery) args[1];
+    final List key = key(i, args);
+    final Object v = mq.map.get(key);
+    if (v != null) {
+      if (v == NullSentinel.ACTIVE) {
+        throw CyclicMetadataException.INSTANCE;
+      }
+      if (v == NullSentinel.INSTANCE) {
+        return null;
+      }
+      return v;
+    }
+    mq.map.put(key, NullSentinel.ACTIVE);
+    try {
+      final Object x;
+      if (r.getClass() == HepRelVertex.class) {
+        final Object[] args2 = args.clone();
+        args2[0] = ((HepRelVertex) r).getCurrentRel();
+        x = invoke(proxy, method, args2);
+      } else {
+        x = dispatch(handle(i, r.getClass()), args);
+      }
+      mq.map.put(key, NullSentinel.mask(x));
+      return x;
+    } catch (Exception e) {
+      mq.map.remove(key);
+      throw e;
+    }
+  }
+
+  /** Creates the key under which a value is cached in
+   * {@link RelMetadataQuery#map}; the same key as generated code uses. */
+  private List key(int i, Object[] args) {
+    final Object[] values = new Object[args.length];
+    values[0] = i == 0 ? def : def.methods.get(i);
+    values[1] = args[0];
+    final Class<?>[] types = def.methods.get(i).getParameterTypes();
+    for (int j = 2; j < args.length; j++) {
+      final Object arg = args[j];
+      if (RexNode.class.isAssignableFrom(types[j - 2])) {
+        // For RexNode, convert to string, because equals does not look deep.
+        values[j] = arg == null ? "" : arg.toString();
+      } else {
+        values[j] = NullSentinel.mask(arg);
+      }
+    }
+    switch (values.length) {
+    case 2:
+      return FlatLists.of(values[0], values[1]);
+    case 3:
+      return FlatLists.of(values[0], values[1], values[2]);
+    case 4:
+      return FlatLists.of(values[0], values[1], values[2], values[3]);
+    case 5:
+      return FlatLists.of(values[0], values[1], values[2], values[3],
+          values[4]);
+    default:
+      return ImmutableList.copyOf(values);
+    }
+  }
+
+  private static Object dispatch(MethodHandle handle, Object[] args) {
+    try {
+      return handle.invokeExact(args);
+    } catch (Throwable e) {
+      Util.throwIfUnchecked(e);
+      throw new RuntimeException(e);
+    }
+  }
+}
+
+// End MethodHandleMetadataHandler.java
@@ -144,7 +144,8 @@ public ImmutableList<RelCollation> collations(EnumerableMergeJoin join,
     // order of the left and right sides.
     return ImmutableList.copyOf(
         RelMdCollation.mergeJoin(mq, join.getLeft(), join.getRight(),
-            join.analyzeCondition().leftKeys, join.analyzeCondition().rightKeys));
+            join.analyzeCondition().leftKeys, join.analyzeCondition().rightKeys,
+            join.getJoinType()));
   }
 
   public ImmutableList<RelCollation> collations(EnumerableHashJoin join,
@@ -441,6 +442,32 @@ public static List<RelCollation> mergeJoin(RelMetadataQuery mq,
     return builder.build();
   }
 
+  /** Helper method to determine a {@link Join}'s collation assuming that it
+   * uses a merge-join algorithm, given the join type.
+   *
+   * <p>An inner join preserves the collations of both inputs. Left, semi-
+   * and anti-joins preserve the collations of the left input; right and
+   * full joins emit rows that have no match, with null values on the other
+   * side, in the middle of the output, and so are not sorted. */
+  public static List<RelCollation> mergeJoin(RelMetadataQuery mq,
+      RelNode left, RelNode right,
+      ImmutableIntList leftKeys, ImmutableIntList rightKeys,
+      JoinRelType joinType) {
+    switch (joinType) {
+    case INNER:
+      return mergeJoin(mq, left, right, leftKeys, rightKeys);
+    case LEFT:
+    case SEMI:
+    case ANTI:
+      final ImmutableList<RelCollation> leftCollations = mq.collations(left);
+      assert RelCollations.contains(leftCollations, leftKeys)
+          : "cannot merge join: left input is not sorted on left keys";
+      return leftCollations;
+    default:
+      return ImmutableList.of();
+    }
+  }
+
   /**
    * Returns the collation of {@link EnumerableHashJoin} based on its inputs and the join type.
    */
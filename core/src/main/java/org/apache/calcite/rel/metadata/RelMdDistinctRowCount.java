@@ -25,11 +25,13 @@
 import org.apache.calcite.rel.core.Join;
 import org.apache.calcite.rel.core.Project;
 import org.apache.calcite.rel.core.Sort;
+import org.apache.calcite.rel.core.TableScan;
 import org.apache.calcite.rel.core.Union;
 import org.apache.calcite.rel.core.Values;
 import org.apache.calcite.rex.RexBuilder;
 import org.apache.calcite.rex.RexNode;
 import org.apache.calcite.rex.RexUtil;
+import org.apache.calcite.schema.ColumnStatistic;
 import org.apache.calcite.util.Bug;
 import org.apache.calcite.util.BuiltInMethod;
 import org.apache.calcite.util.ImmutableBitSet;
@@ -179,6 +181,36 @@ public Double getDistinctRowCount(Aggregate rel, RelMetadataQuery mq,
     }
   }
 
+  /** Estimates the number of distinct values of columns of a table scan
+   * using the statistics of the table's columns, if available. */
+  public Double getDistinctRowCount(TableScan rel, RelMetadataQuery mq,
+      ImmutableBitSet groupKey, RexNode predicate) {
+    final Double d =
+        getDistinctRowCount((RelNode) rel, mq, groupKey, predicate);
+    if (d != null || groupKey.isEmpty()) {
+      return d;
+    }
+    double distinctCount = 1D;
+    for (int column : groupKey) {
+      final ColumnStatistic columnStatistic =
+          RelMdUtil.getColumnStatistic(rel, column);
+      if (columnStatistic == null
+          || columnStatistic.getDistinctCount() == null) {
+        return null;
+      }
+      distinctCount *= columnStatistic.getDistinctCount();
+    }
+    final Double rowCount = mq.getRowCount(rel);
+    if (rowCount != null) {
+      distinctCount = Math.min(distinctCount, rowCount);
+    }
+    if (predicate == null || predicate.isAlwaysTrue()) {
+      return distinctCount;
+    }
+    return RelMdUtil.numDistinctVals(distinctCount,
+        NumberUtil.multiply(rowCount, mq.getSelectivity(rel, predicate)));
+  }
+
   public Double getDistinctRowCount(Values rel, RelMetadataQuery mq,
       ImmutableBitSet groupKey, RexNode predicate) {
     if (predicate == null || predicate.isAlwaysTrue()) {
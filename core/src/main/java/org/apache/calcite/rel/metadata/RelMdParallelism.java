@@ -16,6 +16,7 @@
  */
 package org.apache.calcite.rel.metadata;
 
+import org.apache.calcite.adapter.enumerable.EnumerableExchange;
 import org.apache.calcite.rel.RelNode;
 import org.apache.calcite.rel.core.Exchange;
 import org.apache.calcite.rel.core.TableScan;
@@ -80,6 +81,10 @@ public Boolean isPhaseTransition(Exchange rel, RelMetadataQuery mq) {
   public Integer splitCount(RelNode rel, RelMetadataQuery mq) {
     return 1;
   }
+
+  public Integer splitCount(EnumerableExchange rel, RelMetadataQuery mq) {
+    return rel.partitionCount;
+  }
 }
 
 // End RelMdParallelism.java
@@ -17,19 +17,27 @@
 package org.apache.calcite.rel.metadata;
 
 import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.plan.volcano.RelSubset;
 import org.apache.calcite.rel.RelNode;
 import org.apache.calcite.rel.core.Aggregate;
 import org.apache.calcite.rel.core.Filter;
 import org.apache.calcite.rel.core.Join;
 import org.apache.calcite.rel.core.Project;
 import org.apache.calcite.rel.core.Sort;
+import org.apache.calcite.rel.core.TableScan;
 import org.apache.calcite.rel.core.Union;
 import org.apache.calcite.rex.RexBuilder;
+import org.apache.calcite.rex.RexCall;
+import org.apache.calcite.rex.RexInputRef;
+import org.apache.calcite.rex.RexLiteral;
 import org.apache.calcite.rex.RexNode;
 import org.apache.calcite.rex.RexUtil;
+import org.apache.calcite.schema.ColumnStatistic;
+import org.apache.calcite.sql.SqlKind;
 import org.apache.calcite.sql.fun.SqlStdOperatorTable;
 import org.apache.calcite.util.BuiltInMethod;
 import org.apache.calcite.util.ImmutableBitSet;
+import org.apache.calcite.util.Util;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -184,6 +192,111 @@ public Double getSelectivity(Project rel, RelMetadataQuery mq,
     }
   }
 
+  /** Estimates the selectivity of a predicate on a table scan using the
+   * statistics of the table's columns, if available.
+   *
+   * <p>Comparisons between a column and a literal, and {@code IS NULL} and
+   * {@code IS NOT NULL}, are estimated from the column's histogram, most
+   * common values, number of distinct values, and fraction of nulls. Other
+   * conjunctions, and those on columns without statistics, are guessed. */
+  public Double getSelectivity(TableScan rel, RelMetadataQuery mq,
+      RexNode predicate) {
+    if (predicate == null || predicate.isAlwaysTrue()) {
+      return 1d;
+    }
+    double selectivity = 1d;
+    final List<RexNode> guessed = new ArrayList<>();
+    for (RexNode pred : RelOptUtil.conjunctions(predicate)) {
+      final Double s = columnSelectivity(rel, pred);
+      if (s == null) {
+        guessed.add(pred);
+      } else {
+        selectivity *= s;
+      }
+    }
+    final RexBuilder rexBuilder = rel.getCluster().getRexBuilder();
+    return selectivity * RelMdUtil.guessSelectivity(
+        RexUtil.composeConjunction(rexBuilder, guessed, true));
+  }
+
+  public Double getSelectivity(RelSubset rel, RelMetadataQuery mq,
+      RexNode predicate) {
+    // Look through to a table scan, so that a filter can use the statistics
+    // of the table's columns; guess for any other expression, as the
+    // catch-all does.
+    final RelNode rel2 = Util.first(rel.getBest(), rel.getOriginal());
+    if (rel2 instanceof TableScan) {
+      return mq.getSelectivity(rel2, predicate);
+    }
+    return RelMdUtil.guessSelectivity(predicate);
+  }
+
+  /** Returns the selectivity of a predicate that is not an AND, estimated
+   * from column statistics, or null if there are no suitable statistics. */
+  private static Double columnSelectivity(TableScan rel, RexNode pred) {
+    switch (pred.getKind()) {
+    case IS_NULL:
+    case IS_NOT_NULL:
+      final RexNode operand = ((RexCall) pred).getOperands().get(0);
+      if (!(operand instanceof RexInputRef)) {
+        return null;
+      }
+      final ColumnStatistic columnStatistic =
+          RelMdUtil.getColumnStatistic(rel, ((RexInputRef) operand).getIndex());
+      if (columnStatistic == null
+          || columnStatistic.getNullFraction() == null) {
+        return null;
+      }
+      final double nullFraction = columnStatistic.getNullFraction();
+      return pred.getKind() == SqlKind.IS_NULL
+          ? nullFraction
+          : 1d - nullFraction;
+
+    case EQUALS:
+    case NOT_EQUALS:
+    case LESS_THAN:
+    case LESS_THAN_OR_EQUAL:
+    case GREATER_THAN:
+    case GREATER_THAN_OR_EQUAL:
+      final List<RexNode> operands = ((RexCall) pred).getOperands();
+      SqlKind kind = pred.getKind();
+      RexNode ref = operands.get(0);
+      RexNode literal = operands.get(1);
+      if (ref instanceof RexLiteral) {
+        ref = operands.get(1);
+        literal = operands.get(0);
+        kind = kind.reverse();
+      }
+      if (!(ref instanceof RexInputRef)
+          || !(literal instanceof RexLiteral)
+          || ((RexLiteral) literal).getValue() == null) {
+        return null;
+      }
+      final ColumnStatistic stat =
+          RelMdUtil.getColumnStatistic(rel, ((RexInputRef) ref).getIndex());
+      if (stat == null) {
+        return null;
+      }
+      final Comparable value = ((RexLiteral) literal).getValue();
+      switch (kind) {
+      case EQUALS:
+        return stat.equalSelectivity(value);
+      case NOT_EQUALS:
+        final Double equal = stat.equalSelectivity(value);
+        if (equal == null) {
+          return null;
+        }
+        final double nulls = Util.first(stat.getNullFraction(), 0d);
+        return Math.max(1d - nulls - equal, 0d);
+      default:
+        return stat.rangeSelectivity(kind, value);
+      }
+
+    default:
+      return null;
+    }
+  }
+
   // Catch-all rule when none of the others apply.
   public Double getSelectivity(RelNode rel, RelMetadataQuery mq,
       RexNode predicate) {
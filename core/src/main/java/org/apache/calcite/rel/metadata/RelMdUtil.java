@@ -16,6 +16,7 @@
  */
 package org.apache.calcite.rel.metadata;
 
+import org.apache.calcite.plan.RelOptTable;
 import org.apache.calcite.plan.RelOptUtil;
 import org.apache.calcite.rel.RelCollation;
 import org.apache.calcite.rel.RelNode;
@@ -25,6 +26,7 @@
 import org.apache.calcite.rel.core.JoinRelType;
 import org.apache.calcite.rel.core.Minus;
 import org.apache.calcite.rel.core.Project;
+import org.apache.calcite.rel.core.TableScan;
 import org.apache.calcite.rel.core.Union;
 import org.apache.calcite.rex.RexBuilder;
 import org.apache.calcite.rex.RexCall;
@@ -35,6 +37,8 @@
 import org.apache.calcite.rex.RexProgram;
 import org.apache.calcite.rex.RexUtil;
 import org.apache.calcite.rex.RexVisitorImpl;
+import org.apache.calcite.schema.ColumnStatistic;
+import org.apache.calcite.schema.Table;
 import org.apache.calcite.sql.SqlFunction;
 import org.apache.calcite.sql.SqlFunctionCategory;
 import org.apache.calcite.sql.SqlKind;
@@ -751,6 +755,27 @@ public static double estimateFilteredRows(RelNode child, RexNode condition,
         * mq.getSelectivity(child, condition);
   }
 
+  /** Returns the statistics of a column of the table read by a table scan,
+   * or null if not known.
+   *
+   * @see org.apache.calcite.schema.Statistic#getColumnStatistic(int)
+   */
+  public static ColumnStatistic getColumnStatistic(TableScan scan,
+      int column) {
+    final RelOptTable table = scan.getTable();
+    if (scan.getRowType().getFieldCount()
+        != table.getRowType().getFieldCount()) {
+      // Scan does not return all columns of the table (for example, it has
+      // pushed down a projection), so column ordinals would not match
+      return null;
+    }
+    final Table t = table.unwrap(Table.class);
+    if (t == null || t.getStatistic() == null) {
+      return null;
+    }
+    return t.getStatistic().getColumnStatistic(column);
+  }
+
   /** Returns a point on a line.
    *
    * <p>The result is always a value between {@code minY} and {@code maxY},
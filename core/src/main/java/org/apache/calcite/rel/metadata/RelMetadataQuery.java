@@ -38,6 +38,7 @@
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
+import java.util.function.Supplier;
 
 
 /**
@@ -90,6 +91,9 @@ public class RelMetadataQuery {
 
   public final JaninoRelMetadataProvider metadataProvider;
 
+  /** Access to a metadata cache shared with other queries, or null. */
+  private MetadataCache.Scope sharedScope;
+
   protected static final RelMetadataQuery EMPTY = new RelMetadataQuery(false);
 
   private BuiltInMetadata.Collation.Handler collationHandler;
@@ -166,6 +170,32 @@ public static RelMetadataQuery instance() {
     return new RelMetadataQuery(THREAD_PROVIDERS.get(), EMPTY);
   }
 
+  /** Sets a cache in which this query looks up, and stores, values of
+   * metadata that are stable across statements.
+   *
+   * @see MetadataCache */
+  public void setSharedCache(MetadataCache cache) {
+    sharedScope = cache == null ? null : cache.scope(metadataProvider);
+  }
+
+  /** Returns a metadata value from the shared cache, if there is one and it
+   * holds the value; otherwise computes the value, and stores it in the
+   * shared cache if the expression is eligible. */
+  private <T> T shared(MetadataDef<?> def, RelNode rel, Supplier<T> supplier,
+      Object... args) {
+    final MetadataCache.Scope scope = sharedScope;
+    final List<Object> key = scope == null ? null : scope.key(def, rel, args);
+    if (key == null) {
+      return supplier.get();
+    }
+    final Object v = scope.get(key);
+    if (v != null) {
+      //noinspection unchecked
+      return v == NullSentinel.INSTANCE ? null : (T) v;
+    }
+    return scope.put(key, supplier.get());
+  }
+
   /** Creates and initializes the instance that will serve as a prototype for
    * all other instances. */
   private RelMetadataQuery(boolean dummy) {
@@ -230,14 +260,16 @@ public Multimap<Class<? extends RelNode>, RelNode> getNodeTypes(RelNode rel) {
    * determined
    */
   public Double getRowCount(RelNode rel) {
-    for (;;) {
-      try {
-        Double result = rowCountHandler.getRowCount(rel, this);
-        return validateResult(result);
-      } catch (JaninoRelMetadataProvider.NoHandler e) {
-        rowCountHandler = revise(e.relClass, BuiltInMetadata.RowCount.DEF);
+    return shared(BuiltInMetadata.RowCount.DEF, rel, () -> {
+      for (;;) {
+        try {
+          Double result = rowCountHandler.getRowCount(rel, this);
+          return validateResult(result);
+        } catch (JaninoRelMetadataProvider.NoHandler e) {
+          rowCountHandler = revise(e.relClass, BuiltInMetadata.RowCount.DEF);
+        }
       }
-    }
+    });
   }
 
   /**
@@ -482,14 +514,16 @@ public Set<ImmutableBitSet> getUniqueKeys(RelNode rel) {
    */
   public Set<ImmutableBitSet> getUniqueKeys(RelNode rel,
       boolean ignoreNulls) {
-    for (;;) {
-      try {
-        return uniqueKeysHandler.getUniqueKeys(rel, this, ignoreNulls);
-      } catch (JaninoRelMetadataProvider.NoHandler e) {
-        uniqueKeysHandler =
-            revise(e.relClass, BuiltInMetadata.UniqueKeys.DEF);
+    return shared(BuiltInMetadata.UniqueKeys.DEF, rel, () -> {
+      for (;;) {
+        try {
+          return uniqueKeysHandler.getUniqueKeys(rel, this, ignoreNulls);
+        } catch (JaninoRelMetadataProvider.NoHandler e) {
+          uniqueKeysHandler =
+              revise(e.relClass, BuiltInMetadata.UniqueKeys.DEF);
+        }
       }
-    }
+    }, ignoreNulls);
   }
 
   /**
@@ -540,15 +574,17 @@ public Boolean areColumnsUnique(RelNode rel, ImmutableBitSet columns) {
    */
   public Boolean areColumnsUnique(RelNode rel, ImmutableBitSet columns,
       boolean ignoreNulls) {
-    for (;;) {
-      try {
-        return columnUniquenessHandler.areColumnsUnique(rel, this, columns,
-            ignoreNulls);
-      } catch (JaninoRelMetadataProvider.NoHandler e) {
-        columnUniquenessHandler =
-            revise(e.relClass, BuiltInMetadata.ColumnUniqueness.DEF);
+    return shared(BuiltInMetadata.ColumnUniqueness.DEF, rel, () -> {
+      for (;;) {
+        try {
+          return columnUniquenessHandler.areColumnsUnique(rel, this, columns,
+              ignoreNulls);
+        } catch (JaninoRelMetadataProvider.NoHandler e) {
+          columnUniquenessHandler =
+              revise(e.relClass, BuiltInMetadata.ColumnUniqueness.DEF);
+        }
       }
-    }
+    }, columns, ignoreNulls);
   }
 
   /**
@@ -778,17 +814,19 @@ public Double getDistinctRowCount(
       RelNode rel,
       ImmutableBitSet groupKey,
       RexNode predicate) {
-    for (;;) {
-      try {
-        Double result =
-            distinctRowCountHandler.getDistinctRowCount(rel, this, groupKey,
-                predicate);
-        return validateResult(result);
-      } catch (JaninoRelMetadataProvider.NoHandler e) {
-        distinctRowCountHandler =
-            revise(e.relClass, BuiltInMetadata.DistinctRowCount.DEF);
+    return shared(BuiltInMetadata.DistinctRowCount.DEF, rel, () -> {
+      for (;;) {
+        try {
+          Double result =
+              distinctRowCountHandler.getDistinctRowCount(rel, this, groupKey,
+                  predicate);
+          return validateResult(result);
+        } catch (JaninoRelMetadataProvider.NoHandler e) {
+          distinctRowCountHandler =
+              revise(e.relClass, BuiltInMetadata.DistinctRowCount.DEF);
+        }
       }
-    }
+    }, groupKey, predicate);
   }
 
   /**
@@ -329,7 +329,10 @@ protected void validateJoinFilters(List<RexNode> aboveFilters,
     final Iterator<RexNode> filterIter = joinFilters.iterator();
     while (filterIter.hasNext()) {
       RexNode exp = filterIter.next();
-      if (!predicate.apply(join, joinType, exp)) {
+      // A semi- or anti-join does not output the fields of its right input,
+      // so its conditions cannot be evaluated above it
+      if (joinType.projectsRight()
+          && !predicate.apply(join, joinType, exp)) {
         aboveFilters.add(exp);
         filterIter.remove();
       }
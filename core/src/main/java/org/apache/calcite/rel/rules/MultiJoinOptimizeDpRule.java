@@ -0,0 +1,496 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.calcite.rel.rules;
+
+import org.apache.calcite.plan.RelOptRule;
+import org.apache.calcite.plan.RelOptRuleCall;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.JoinRelType;
+import org.apache.calcite.rel.core.RelFactories;
+import org.apache.calcite.rel.metadata.RelMdUtil;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.rex.RexBuilder;
+import org.apache.calcite.rex.RexCall;
+import org.apache.calcite.rex.RexInputRef;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.rex.RexPermuteInputsShuttle;
+import org.apache.calcite.rex.RexUtil;
+import org.apache.calcite.rex.RexVisitor;
+import org.apache.calcite.sql.SqlKind;
+import org.apache.calcite.tools.RelBuilder;
+import org.apache.calcite.tools.RelBuilderFactory;
+import org.apache.calcite.util.ImmutableBitSet;
+import org.apache.calcite.util.Pair;
+import org.apache.calcite.util.mapping.Mappings;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.apache.calcite.rel.rules.LoptMultiJoin.Edge;
+
+/**
+ * Planner rule that finds an optimal ordering for join operators by
+ * enumerating connected sub-graphs of the join graph using dynamic
+ * programming.
+ *
+ * <p>It is triggered by the pattern {@link MultiJoin}, and is an alternative
+ * to {@link LoptOptimizeJoinRule} and {@link MultiJoinOptimizeBushyRule}.
+ *
+ * <p>The enumeration follows the "DPhyp" algorithm of Moerkotte and Neumann,
+ * "Dynamic Programming Strikes Back" (SIGMOD 2008). It considers each pair
+ * of disjoint connected sub-graphs (a "csg-cmp pair") exactly once, and so
+ * never generates a cross product. Join conditions that reference more than
+ * two factors are treated as hyperedges.
+ *
+ * <p>Each sub-plan is costed by the number of rows it produces, summed over
+ * its joins (the "C_out" cost function). Row counts of factors come from
+ * {@link RelMetadataQuery#getRowCount}; the selectivity of an equi-join
+ * condition is the reciprocal of the larger number of distinct values of its
+ * keys (the row count of a key's factor if its number of distinct values is
+ * not known), and of other conditions is
+ * {@link RelMdUtil#guessSelectivity}. The
+ * larger input of each join is placed on the left, so that the smaller input
+ * is the build side of a hash join.
+ *
+ * <p>The number of sub-plans is exponential in the number of factors. If the
+ * {@code MultiJoin} has more than {@code maxFactors} inputs, contains an outer
+ * join, or its join graph is not connected, the rule falls back to the
+ * greedy algorithm of {@link LoptOptimizeJoinRule}.
+ */
+public class MultiJoinOptimizeDpRule extends RelOptRule {
+  /** Default value of the maximum number of factors that are ordered by
+   * dynamic programming. */
+  public static final int DEFAULT_MAX_FACTORS = 15;
+
+  /** Largest value allowed for {@code maxFactors}; the table of sub-plans
+   * has {@code 2 ^ maxFactors} entries. */
+  private static final int MAX_MAX_FACTORS = 20;
+
+  public static final MultiJoinOptimizeDpRule INSTANCE =
+      new MultiJoinOptimizeDpRule(RelFactories.LOGICAL_BUILDER,
+          DEFAULT_MAX_FACTORS);
+
+  private final int maxFactors;
+  private final LoptOptimizeJoinRule greedyRule;
+
+  /** Creates a MultiJoinOptimizeDpRule. */
+  public MultiJoinOptimizeDpRule(RelBuilderFactory relBuilderFactory,
+      int maxFactors) {
+    super(operand(MultiJoin.class, any()), relBuilderFactory, null);
+    if (maxFactors < 0 || maxFactors > MAX_MAX_FACTORS) {
+      throw new IllegalArgumentException("maxFactors must be between 0 and "
+          + MAX_MAX_FACTORS + ": " + maxFactors);
+    }
+    this.maxFactors = maxFactors;
+    this.greedyRule = new LoptOptimizeJoinRule(relBuilderFactory);
+  }
+
+  @Override public void onMatch(RelOptRuleCall call) {
+    final MultiJoin multiJoinRel = call.rel(0);
+    if (multiJoinRel.getInputs().size() > maxFactors
+        || !isInner(multiJoinRel)) {
+      greedyRule.onMatch(call);
+      return;
+    }
+
+    final LoptMultiJoin multiJoin = new LoptMultiJoin(multiJoinRel);
+    final Enumerator enumerator =
+        new Enumerator(multiJoin, call.getMetadataQuery());
+    final Plan plan = enumerator.solve();
+    if (plan == null) {
+      // Join graph is not connected
+      greedyRule.onMatch(call);
+      return;
+    }
+
+    final RexBuilder rexBuilder = multiJoinRel.getCluster().getRexBuilder();
+    final RelBuilder relBuilder = call.builder();
+    final Pair<RelNode, Mappings.TargetMapping> top =
+        build(plan, enumerator, multiJoin, relBuilder);
+    relBuilder.push(top.left)
+        .project(relBuilder.fields(top.right));
+
+    final List<RexNode> topConditions =
+        new ArrayList<>(enumerator.topConditions);
+    if (multiJoinRel.getPostJoinFilter() != null) {
+      topConditions.add(multiJoinRel.getPostJoinFilter());
+    }
+    if (!topConditions.isEmpty()) {
+      relBuilder.filter(
+          RexUtil.composeConjunction(rexBuilder, topConditions));
+    }
+    call.transformTo(relBuilder.build());
+  }
+
+  private static boolean isInner(MultiJoin multiJoinRel) {
+    if (multiJoinRel.isFullOuterJoin()) {
+      return false;
+    }
+    for (JoinRelType joinType : multiJoinRel.getJoinTypes()) {
+      if (joinType != JoinRelType.INNER) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Converts a plan into a tree of relational expressions, returning the
+   * root and a mapping from the fields of the {@code MultiJoin} to its
+   * fields. */
+  private Pair<RelNode, Mappings.TargetMapping> build(Plan plan,
+      Enumerator enumerator, LoptMultiJoin multiJoin, RelBuilder relBuilder) {
+    final RexBuilder rexBuilder = relBuilder.getRexBuilder();
+    if (plan.left == null) {
+      final RelNode rel = multiJoin.getJoinFactor(plan.factor);
+      final Mappings.TargetMapping mapping =
+          Mappings.offsetSource(
+              Mappings.createIdentity(rel.getRowType().getFieldCount()),
+              multiJoin.getJoinStart(plan.factor),
+              multiJoin.getNumTotalFields());
+      final List<RexNode> conditions =
+          enumerator.leafConditions.get(plan.factor);
+      if (conditions.isEmpty()) {
+        return Pair.of(rel, mapping);
+      }
+      final RexVisitor<RexNode> shuttle =
+          new RexPermuteInputsShuttle(mapping, rel);
+      final RelNode filter = relBuilder.push(rel)
+          .filter(
+              RexUtil.composeConjunction(rexBuilder, conditions)
+                  .accept(shuttle))
+          .build();
+      return Pair.of(filter, mapping);
+    }
+
+    final Pair<RelNode, Mappings.TargetMapping> leftPair =
+        build(plan.left, enumerator, multiJoin, relBuilder);
+    final Pair<RelNode, Mappings.TargetMapping> rightPair =
+        build(plan.right, enumerator, multiJoin, relBuilder);
+    final RelNode left = leftPair.left;
+    final RelNode right = rightPair.left;
+    final Mappings.TargetMapping mapping =
+        Mappings.merge(leftPair.right,
+            Mappings.offsetTarget(rightPair.right,
+                left.getRowType().getFieldCount()));
+    final List<RexNode> conditions = new ArrayList<>();
+    for (HyperEdge edge
+        : enumerator.joinEdges(plan.left.factors, plan.right.factors)) {
+      conditions.add(edge.condition);
+    }
+    final RexVisitor<RexNode> shuttle =
+        new RexPermuteInputsShuttle(mapping, left, right);
+    final RelNode join = relBuilder.push(left)
+        .push(right)
+        .join(JoinRelType.INNER,
+            RexUtil.composeConjunction(rexBuilder, conditions)
+                .accept(shuttle))
+        .build();
+    return Pair.of(join, mapping);
+  }
+
+  /** Join condition that references two or more factors.
+   *
+   * <p>The condition connects the factors in {@link #u} to the factors in
+   * {@link #v}; a condition can be applied only when all of its factors are
+   * present. */
+  private static class HyperEdge {
+    final RexNode condition;
+    final long factors;
+    final long u;
+    final long v;
+    final double selectivity;
+
+    HyperEdge(RexNode condition, long u, long v, double selectivity) {
+      this.condition = condition;
+      this.factors = u | v;
+      this.u = u;
+      this.v = v;
+      this.selectivity = selectivity;
+    }
+
+    @Override public String toString() {
+      return "HyperEdge(condition: " + condition
+          + ", u: " + Long.toBinaryString(u)
+          + ", v: " + Long.toBinaryString(v)
+          + ", selectivity: " + selectivity + ")";
+    }
+  }
+
+  /** Join tree over a set of factors, with its estimated row count and
+   * cost. A leaf has null {@link #left} and {@link #right}. */
+  private static class Plan {
+    final long factors;
+    final int factor;
+    final Plan left;
+    final Plan right;
+    final double rowCount;
+    final double cost;
+
+    /** Creates a leaf. */
+    Plan(int factor, double rowCount) {
+      this.factors = 1L << factor;
+      this.factor = factor;
+      this.left = null;
+      this.right = null;
+      this.rowCount = rowCount;
+      this.cost = 0d;
+    }
+
+    /** Creates a join. */
+    Plan(Plan left, Plan right, double rowCount) {
+      this.factors = left.factors | right.factors;
+      this.factor = -1;
+      this.left = left;
+      this.right = right;
+      this.rowCount = rowCount;
+      this.cost = rowCount + left.cost + right.cost;
+    }
+  }
+
+  /** Enumerates csg-cmp pairs of a join graph, and keeps the cheapest plan
+   * for each connected set of factors.
+   *
+   * <p>Sets of factors are represented as bit masks; bit {@code i} is
+   * factor {@code i}. */
+  private static class Enumerator {
+    final int factorCount;
+    final List<HyperEdge> edges = new ArrayList<>();
+    final List<List<RexNode>> leafConditions = new ArrayList<>();
+    final List<RexNode> topConditions = new ArrayList<>();
+    final Plan[] plans;
+
+    Enumerator(LoptMultiJoin multiJoin, RelMetadataQuery mq) {
+      this.factorCount = multiJoin.getNumJoinFactors();
+      this.plans = new Plan[1 << factorCount];
+      final double[] rowCounts = new double[factorCount];
+      for (int i = 0; i < factorCount; i++) {
+        final Double rowCount = mq.getRowCount(multiJoin.getJoinFactor(i));
+        rowCounts[i] = rowCount == null ? 1d : rowCount;
+        leafConditions.add(new ArrayList<>());
+      }
+      for (RexNode condition : multiJoin.getJoinFilters()) {
+        final Edge edge = multiJoin.createEdge(condition);
+        switch (edge.factors.cardinality()) {
+        case 0:
+          topConditions.add(condition);
+          break;
+        case 1:
+          final int factor = edge.factors.nextSetBit(0);
+          leafConditions.get(factor).add(condition);
+          rowCounts[factor] *= RelMdUtil.guessSelectivity(condition);
+          break;
+        default:
+          edges.add(hyperEdge(multiJoin, mq, edge));
+        }
+      }
+      for (int i = 0; i < factorCount; i++) {
+        plans[1 << i] = new Plan(i, rowCounts[i]);
+      }
+    }
+
+    /** Creates a hyperedge for a condition. If the condition is a comparison
+     * whose operands reference disjoint sets of factors, those sets are the
+     * two sides of the edge; otherwise the lowest factor is one side and the
+     * remaining factors are the other. */
+    private static HyperEdge hyperEdge(LoptMultiJoin multiJoin,
+        RelMetadataQuery mq, Edge edge) {
+      final RexNode condition = edge.condition;
+      long u = 0;
+      long v = 0;
+      if (condition instanceof RexCall
+          && condition.isA(SqlKind.COMPARISON)
+          && ((RexCall) condition).getOperands().size() == 2) {
+        final List<RexNode> operands = ((RexCall) condition).getOperands();
+        final ImmutableBitSet f0 =
+            multiJoin.createEdge(operands.get(0)).factors;
+        final ImmutableBitSet f1 =
+            multiJoin.createEdge(operands.get(1)).factors;
+        if (!f0.isEmpty() && !f1.isEmpty() && !f0.intersects(f1)) {
+          u = bits(f0);
+          v = bits(f1);
+        }
+      }
+      if (u == 0) {
+        u = 1L << edge.factors.nextSetBit(0);
+        v = bits(edge.factors) & ~u;
+      }
+      return new HyperEdge(condition, u, v,
+          selectivity(multiJoin, mq, condition));
+    }
+
+    private static double selectivity(LoptMultiJoin multiJoin,
+        RelMetadataQuery mq, RexNode condition) {
+      if (condition.isA(SqlKind.EQUALS)) {
+        final List<RexNode> operands = ((RexCall) condition).getOperands();
+        if (operands.get(0) instanceof RexInputRef
+            && operands.get(1) instanceof RexInputRef) {
+          final Double ndv0 =
+              distinctRowCount(multiJoin, mq, (RexInputRef) operands.get(0));
+          final Double ndv1 =
+              distinctRowCount(multiJoin, mq, (RexInputRef) operands.get(1));
+          if (ndv0 != null && ndv1 != null) {
+            return 1d / Math.max(Math.max(ndv0, ndv1), 1d);
+          }
+        }
+      }
+      return RelMdUtil.guessSelectivity(condition);
+    }
+
+    /** Returns the number of distinct values of a column, or if that is
+     * not known, the number of rows in its factor, which is an upper bound;
+     * returns null if neither is known. */
+    private static Double distinctRowCount(LoptMultiJoin multiJoin,
+        RelMetadataQuery mq, RexInputRef ref) {
+      final int factor =
+          multiJoin.createEdge(ref).factors.nextSetBit(0);
+      final RelNode rel = multiJoin.getJoinFactor(factor);
+      final int column = ref.getIndex() - multiJoin.getJoinStart(factor);
+      final Double ndv =
+          mq.getDistinctRowCount(rel, ImmutableBitSet.of(column), null);
+      return ndv != null ? ndv : mq.getRowCount(rel);
+    }
+
+    private static long bits(ImmutableBitSet bitSet) {
+      long bits = 0;
+      for (int i : bitSet) {
+        bits |= 1L << i;
+      }
+      return bits;
+    }
+
+    /** Returns the best plan that joins all factors, or null if the join
+     * graph is not connected. */
+    Plan solve() {
+      for (int i = factorCount - 1; i >= 0; i--) {
+        final long s = 1L << i;
+        final long b = (s << 1) - 1;
+        emitCsg(s);
+        enumerateCsgRec(s, b);
+      }
+      return plans[plans.length - 1];
+    }
+
+    /** Returns the neighborhood of {@code s}, excluding {@code x}: the
+     * lowest factor of the far side of each edge that leads from {@code s}
+     * to factors outside {@code s} and {@code x}. */
+    private long neighborhood(long s, long x) {
+      final long sx = s | x;
+      long n = 0;
+      for (HyperEdge edge : edges) {
+        if ((edge.u & ~s) == 0 && (edge.v & sx) == 0) {
+          n |= Long.lowestOneBit(edge.v);
+        } else if ((edge.v & ~s) == 0 && (edge.u & sx) == 0) {
+          n |= Long.lowestOneBit(edge.u);
+        }
+      }
+      return n;
+    }
+
+    /** Returns whether there is an edge between disjoint sets {@code s1}
+     * and {@code s2}. */
+    private boolean connected(long s1, long s2) {
+      for (HyperEdge edge : edges) {
+        if ((edge.u & ~s1) == 0 && (edge.v & ~s2) == 0
+            || (edge.u & ~s2) == 0 && (edge.v & ~s1) == 0) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /** Returns the edges that become applicable when joining disjoint sets
+     * {@code s1} and {@code s2}. */
+    List<HyperEdge> joinEdges(long s1, long s2) {
+      final long s = s1 | s2;
+      final List<HyperEdge> list = new ArrayList<>();
+      for (HyperEdge edge : edges) {
+        if ((edge.factors & ~s) == 0
+            && (edge.factors & ~s1) != 0
+            && (edge.factors & ~s2) != 0) {
+          list.add(edge);
+        }
+      }
+      return list;
+    }
+
+    private void enumerateCsgRec(long s1, long x) {
+      final long n = neighborhood(s1, x);
+      for (long sub = nextSubset(0, n); sub != 0; sub = nextSubset(sub, n)) {
+        if (plans[(int) (s1 | sub)] != null) {
+          emitCsg(s1 | sub);
+        }
+      }
+      for (long sub = nextSubset(0, n); sub != 0; sub = nextSubset(sub, n)) {
+        enumerateCsgRec(s1 | sub, x | n);
+      }
+    }
+
+    private void emitCsg(long s1) {
+      final long lowest = Long.lowestOneBit(s1);
+      final long x = s1 | (lowest - 1);
+      final long n = neighborhood(s1, x);
+      for (long rest = n; rest != 0;) {
+        final long v = Long.highestOneBit(rest);
+        rest &= ~v;
+        if (connected(s1, v)) {
+          emitCsgCmp(s1, v);
+        }
+        // Factors of the neighborhood below v are excluded; the complement
+        // that contains them is found when starting from them.
+        enumerateCmpRec(s1, v, x | (n & (v - 1)));
+      }
+    }
+
+    private void enumerateCmpRec(long s1, long s2, long x) {
+      final long n = neighborhood(s2, x);
+      for (long sub = nextSubset(0, n); sub != 0; sub = nextSubset(sub, n)) {
+        if (plans[(int) (s2 | sub)] != null && connected(s1, s2 | sub)) {
+          emitCsgCmp(s1, s2 | sub);
+        }
+      }
+      for (long sub = nextSubset(0, n); sub != 0; sub = nextSubset(sub, n)) {
+        enumerateCmpRec(s1, s2 | sub, x | n);
+      }
+    }
+
+    private void emitCsgCmp(long s1, long s2) {
+      final Plan p1 = plans[(int) s1];
+      final Plan p2 = plans[(int) s2];
+      double rowCount = p1.rowCount * p2.rowCount;
+      for (HyperEdge edge : joinEdges(s1, s2)) {
+        rowCount *= edge.selectivity;
+      }
+      // The larger input goes on the left; the right input is the one that
+      // is built into a hash table
+      final Plan plan = p1.rowCount >= p2.rowCount
+          ? new Plan(p1, p2, rowCount)
+          : new Plan(p2, p1, rowCount);
+      final int s = (int) (s1 | s2);
+      if (plans[s] == null || plan.cost < plans[s].cost) {
+        plans[s] = plan;
+      }
+    }
+
+    /** Returns the next non-empty subset of {@code set} after {@code sub},
+     * in increasing numeric order, or 0 if there are no more. */
+    private static long nextSubset(long sub, long set) {
+      return (sub - set) & set;
+    }
+  }
+}
+
+// End MultiJoinOptimizeDpRule.java
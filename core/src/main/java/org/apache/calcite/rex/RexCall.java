@@ -57,6 +57,9 @@ public class RexCall extends RexNode {
   public final ImmutableList<RexNode> operands;
   public final RelDataType type;
 
+  /** Cached hash code; zero if it has not been computed yet. */
+  private int hash;
+
   /**
    * Simple binary operators are those operators which expects operands from the same Domain.
    *
@@ -180,8 +183,7 @@ private static boolean equalSansNullability(RelDataType a, RelDataType b) {
     // This data race is intentional
     String localDigest = digest;
     if (localDigest == null) {
-      localDigest = computeDigest(
-          isA(SqlKind.CAST) || isA(SqlKind.NEW_SPECIFICATION));
+      localDigest = computeDigest(digestWithType());
       digest = Objects.requireNonNull(localDigest);
     }
     return localDigest;
@@ -258,14 +260,44 @@ public RexCall clone(RelDataType type, List<RexNode> operands) {
     return new RexCall(type, op, operands);
   }
 
+  /** Returns whether the digest of this call includes its type. */
+  private boolean digestWithType() {
+    return isA(SqlKind.CAST) || isA(SqlKind.NEW_SPECIFICATION);
+  }
+
+  /** {@inheritDoc}
+   *
+   * <p>Two calls are equal if they have the same class, their operators and
+   * operands are equal, and, if their digests include the type (for example,
+   * {@code CAST}), their types are equal. Equal calls have equal digests, but
+   * this method does not need to build the digests. */
   @Override public boolean equals(Object obj) {
-    return obj == this
-        || obj instanceof RexCall
-        && toString().equals(obj.toString());
+    if (obj == this) {
+      return true;
+    }
+    if (obj == null || obj.getClass() != getClass()) {
+      return false;
+    }
+    final RexCall that = (RexCall) obj;
+    return hashCode() == that.hashCode()
+        && op.equals(that.op)
+        && operands.equals(that.operands)
+        && (!digestWithType() || type.equals(that.type));
   }
 
   @Override public int hashCode() {
-    return toString().hashCode();
+    int h = hash;
+    if (h == 0) {
+      h = 31 * op.hashCode() + operands.hashCode();
+      if (digestWithType()) {
+        h = 31 * h + type.hashCode();
+      }
+      if (h == 0) {
+        h = 1;
+      }
+      hash = h;
+    }
+    return h;
   }
 }
 
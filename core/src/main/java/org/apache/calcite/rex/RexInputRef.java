@@ -70,7 +70,8 @@ public RexInputRef(int index, RelDataType type) {
 
   @Override public boolean equals(Object obj) {
     return this == obj
-        || obj instanceof RexInputRef
+        || obj != null
+        && obj.getClass() == getClass()
         && index == ((RexInputRef) obj).index;
   }
 
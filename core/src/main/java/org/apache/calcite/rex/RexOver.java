@@ -117,6 +117,17 @@ public boolean ignoreNulls() {
     return sb.toString();
   }
 
+  @Override public boolean equals(Object obj) {
+    return super.equals(obj)
+        && window.equals(((RexOver) obj).window)
+        && distinct == ((RexOver) obj).distinct
+        && ignoreNulls == ((RexOver) obj).ignoreNulls;
+  }
+
+  @Override public int hashCode() {
+    return Objects.hash(super.hashCode(), window, distinct, ignoreNulls);
+  }
+
   public <R> R accept(RexVisitor<R> visitor) {
     return visitor.visitOver(this);
   }
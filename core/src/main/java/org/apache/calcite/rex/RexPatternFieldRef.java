@@ -43,6 +43,15 @@ public static RexPatternFieldRef of(String alpha, RexInputRef ref) {
     return new RexPatternFieldRef(alpha, ref.getIndex(), ref.getType());
   }
 
+  @Override public boolean equals(Object obj) {
+    return super.equals(obj)
+        && alpha.equals(((RexPatternFieldRef) obj).alpha);
+  }
+
+  @Override public int hashCode() {
+    return 31 * super.hashCode() + alpha.hashCode();
+  }
+
   @Override public <R> R accept(RexVisitor<R> visitor) {
     return visitor.visitPatternFieldRef(this);
   }
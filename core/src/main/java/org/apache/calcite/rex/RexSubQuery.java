@@ -127,6 +127,21 @@ public <R, P> R accept(RexBiVisitor<R, P> visitor, P arg) {
     return sb.toString();
   }
 
+  /** {@inheritDoc}
+   *
+   * <p>Compares digests, because the digest includes the plan of the
+   * sub-query, and relational expressions are not structurally comparable.
+   */
+  @Override public boolean equals(Object obj) {
+    return obj == this
+        || obj instanceof RexSubQuery
+        && toString().equals(obj.toString());
+  }
+
+  @Override public int hashCode() {
+    return toString().hashCode();
+  }
+
   @Override public RexSubQuery clone(RelDataType type, List<RexNode> operands) {
     return new RexSubQuery(type, getOperator(),
         ImmutableList.copyOf(operands), rel);
@@ -16,6 +16,7 @@
  */
 package org.apache.calcite.runtime;
 
+import org.apache.calcite.config.CalciteSystemProperty;
 import org.apache.calcite.interpreter.Row;
 import org.apache.calcite.linq4j.AbstractEnumerable;
 import org.apache.calcite.linq4j.Enumerable;
@@ -28,6 +29,9 @@
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
@@ -43,6 +47,17 @@ public class Enumerables {
 
   private Enumerables() {}
 
+  /** Returns the pool in which the partitions of parallel plans run.
+   *
+   * <p>The pool is created on first use, with
+   * {@link CalciteSystemProperty#PARALLEL_POOL_SIZE} threads, which are
+   * daemon threads. Query work blocks (on input, and while waiting for other
+   * partitions), so it does not run in
+   * {@link ForkJoinPool#commonPool()}. */
+  public static Executor parallelExecutor() {
+    return ParallelExecutorHolder.EXECUTOR;
+  }
+
   /** Converts an enumerable over singleton arrays into the enumerable of their
    * first elements. */
   public static <E> Enumerable<E> slice0(Enumerable<E[]> enumerable) {
@@ -191,6 +206,21 @@ public void close() {
     void emit(List<E> rows, List<Integer> rowStates, List<String> rowSymbols, int match,
         Consumer<TResult> consumer);
   }
+
+  /** Holds the pool returned by {@link #parallelExecutor()}, so that it is
+   * not created until needed. */
+  private static class ParallelExecutorHolder {
+    static final ForkJoinPool EXECUTOR =
+        new ForkJoinPool(CalciteSystemProperty.PARALLEL_POOL_SIZE.value(),
+            pool -> {
+              final ForkJoinWorkerThread thread =
+                  ForkJoinPool.defaultForkJoinWorkerThreadFactory
+                      .newThread(pool);
+              thread.setName("calcite-parallel-" + thread.getPoolIndex());
+              thread.setDaemon(true);
+              return thread;
+            }, null, false);
+  }
 }
 
 // End Enumerables.java
@@ -80,6 +80,10 @@ public enum Hook {
   /** Called with the created planner. */
   PLANNER,
 
+  /** Called by the Volcano planner, with the planner, when it stops firing
+   * rules because its budget is exhausted. */
+  PLANNER_BUDGET_EXHAUSTED,
+
   /** Called after de-correlation and field trimming, but before
    * optimization. */
   TRIMMED,
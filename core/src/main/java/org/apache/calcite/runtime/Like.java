@@ -16,11 +16,32 @@
  */
 package org.apache.calcite.runtime;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
 /**
  * Utilities for converting SQL {@code LIKE} and {@code SIMILAR} operators
- * to regular expressions.
+ * to regular expressions, and for matching strings against them.
  */
 public class Like {
+  /** Maximum number of patterns in the cache of each thread. */
+  private static final int CACHE_SIZE = 100;
+
+  /** Cache of compiled patterns, per thread, least recently used first. */
+  private static final ThreadLocal<Map<List<Object>, Object>> CACHE =
+      ThreadLocal.withInitial(() ->
+          new LinkedHashMap<List<Object>, Object>(16, 0.75f, true) {
+            @Override protected boolean removeEldestEntry(
+                Map.Entry<List<Object>, Object> eldest) {
+              return size() > CACHE_SIZE;
+            }
+          });
+
   private static final String JAVA_REGEX_SPECIALS = "[]()|^-+*?{}$\\.";
   private static final String SQL_SIMILAR_SPECIALS = "[]()|^-+*_%?{}";
   private static final String [] REG_CHAR_CLASSES = {
@@ -43,6 +64,124 @@ public class Like {
   private Like() {
   }
 
+  /**
+   * Creates a matcher for a SQL LIKE pattern, with optional escape string.
+   *
+   * <p>Patterns that consist of a literal string with {@code %} at the start,
+   * end or both, such as {@code 'abc%'}, {@code '%abc'}, {@code '%abc%'} and
+   * {@code 'abc'}, are matched using {@link String} methods; other patterns
+   * are translated to a regular expression.
+   */
+  static Matcher likeMatcher(String sqlPattern, CharSequence escapeStr) {
+    final char escapeChar = escapeChar(escapeStr);
+    final Matcher matcher = likeLiteralMatcher(sqlPattern, escapeChar);
+    if (matcher != null) {
+      return matcher;
+    }
+    final Pattern pattern =
+        Pattern.compile(sqlToRegexLike(sqlPattern, escapeChar));
+    return s -> pattern.matcher(s).matches();
+  }
+
+  /**
+   * Creates a matcher for a SQL SIMILAR pattern, with optional escape
+   * string.
+   */
+  static Matcher similarMatcher(String sqlPattern, CharSequence escapeStr) {
+    final Pattern pattern =
+        Pattern.compile(sqlToRegexSimilar(sqlPattern, escapeStr));
+    return s -> pattern.matcher(s).matches();
+  }
+
+  /** Returns the value that {@code factory} creates for a given pattern and
+   * argument, creating it only if it is not in the cache of the current
+   * thread. The {@code kind} distinguishes values created by different
+   * factories for the same pattern. */
+  @SuppressWarnings("unchecked")
+  static <T> T cached(String kind, String pattern, Object arg,
+      Function<List<Object>, T> factory) {
+    return (T) CACHE.get()
+        .computeIfAbsent(Arrays.asList(kind, pattern, arg), factory::apply);
+  }
+
+  /** Creates a matcher for a LIKE pattern that has no {@code _} and has
+   * {@code %} only at its start and end; returns null for other patterns. */
+  private static Matcher likeLiteralMatcher(String sqlPattern,
+      char escapeChar) {
+    if (escapeChar == '%' || escapeChar == '_') {
+      return null;
+    }
+    // Split the pattern into literal segments, separated by '%'
+    final List<String> segments = new ArrayList<>();
+    final StringBuilder b = new StringBuilder();
+    final int len = sqlPattern.length();
+    for (int i = 0; i < len; i++) {
+      final char c = sqlPattern.charAt(i);
+      if (c == escapeChar) {
+        if (i == len - 1) {
+          return null; // invalid; the regex translator reports the error
+        }
+        final char nextChar = sqlPattern.charAt(++i);
+        if (nextChar != '_' && nextChar != '%' && nextChar != escapeChar) {
+          return null;
+        }
+        b.append(nextChar);
+      } else if (c == '_') {
+        return null;
+      } else if (c == '%') {
+        segments.add(b.toString());
+        b.setLength(0);
+      } else {
+        b.append(c);
+      }
+    }
+    segments.add(b.toString());
+
+    final String first = segments.get(0);
+    if (segments.size() == 1) {
+      return first::equals;
+    }
+    final String last = segments.get(segments.size() - 1);
+    String middle = "";
+    for (String segment : segments.subList(1, segments.size() - 1)) {
+      if (!segment.isEmpty()) {
+        if (!middle.isEmpty()) {
+          return null;
+        }
+        middle = segment;
+      }
+    }
+    if (middle.isEmpty()) {
+      if (first.isEmpty() && last.isEmpty()) {
+        return s -> true;
+      } else if (last.isEmpty()) {
+        return s -> s.startsWith(first);
+      } else if (first.isEmpty()) {
+        return s -> s.endsWith(last);
+      } else {
+        final int minLength = first.length() + last.length();
+        return s -> s.length() >= minLength
+            && s.startsWith(first)
+            && s.endsWith(last);
+      }
+    }
+    if (first.isEmpty() && last.isEmpty()) {
+      final String infix = middle;
+      return s -> s.contains(infix);
+    }
+    return null;
+  }
+
+  private static char escapeChar(CharSequence escapeStr) {
+    if (escapeStr == null) {
+      return 0;
+    }
+    if (escapeStr.length() != 1) {
+      throw invalidEscapeCharacter(escapeStr.toString());
+    }
+    return escapeStr.charAt(0);
+  }
+
   /**
    * Translates a SQL LIKE pattern to Java regex pattern, with optional
    * escape string.
@@ -50,16 +189,7 @@ private Like() {
   static String sqlToRegexLike(
       String sqlPattern,
       CharSequence escapeStr) {
-    final char escapeChar;
-    if (escapeStr != null) {
-      if (escapeStr.length() != 1) {
-        throw invalidEscapeCharacter(escapeStr.toString());
-      }
-      escapeChar = escapeStr.charAt(0);
-    } else {
-      escapeChar = 0;
-    }
-    return sqlToRegexLike(sqlPattern, escapeChar);
+    return sqlToRegexLike(sqlPattern, escapeChar(escapeStr));
   }
 
   /**
@@ -210,16 +340,7 @@ private static int sqlSimilarRewriteCharEnumeration(
   static String sqlToRegexSimilar(
       String sqlPattern,
       CharSequence escapeStr) {
-    final char escapeChar;
-    if (escapeStr != null) {
-      if (escapeStr.length() != 1) {
-        throw invalidEscapeCharacter(escapeStr.toString());
-      }
-      escapeChar = escapeStr.charAt(0);
-    } else {
-      escapeChar = 0;
-    }
-    return sqlToRegexSimilar(sqlPattern, escapeChar);
+    return sqlToRegexSimilar(sqlPattern, escapeChar(escapeStr));
   }
 
   /**
@@ -301,6 +422,12 @@ static String sqlToRegexSimilar(
 
     return javaPattern.toString();
   }
+
+  /** Tests whether strings match a pattern. */
+  public interface Matcher {
+    /** Returns whether a string matches the pattern. */
+    boolean matches(String s);
+  }
 }
 
 // End Like.java
@@ -27,6 +27,9 @@
 import org.apache.calcite.linq4j.tree.Primitive;
 import org.apache.calcite.util.Static;
 
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -51,7 +54,17 @@
 import java.sql.Types;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 import javax.sql.DataSource;
 
 /**
@@ -68,9 +81,24 @@
   private static final Logger LOGGER = LoggerFactory.getLogger(
       ResultSetEnumerable.class);
 
+  /** Executor for threads that prefetch rows. Its threads are daemon
+   * threads, and are discarded after a minute without work. */
+  private static final ExecutorService PREFETCH_EXECUTOR =
+      Executors.newCachedThreadPool(
+          new ThreadFactoryBuilder()
+              .setDaemon(true)
+              .setNameFormat("calcite-jdbc-prefetch-%d")
+              .build());
+
+  /** Number of rows buffered per input by {@link #union}. */
+  private static final int UNION_BUFFER_SIZE = 1024;
+
   private Long queryStart;
   private long timeout;
   private boolean timeoutSetFailed;
+  private int fetchSize;
+  private boolean streaming;
+  private int prefetchSize;
 
   private static final Function1<ResultSet, Function0<Object>> AUTO_ROW_BUILDER_FACTORY =
       resultSet -> {
@@ -167,6 +195,50 @@ public static <T> ResultSetEnumerable<T> of(
     return new ResultSetEnumerable<>(dataSource, sql, rowBuilderFactory, consumer);
   }
 
+  /** Returns the union of several enumerables, reading from each in its own
+   * background thread, so that queries against different partitions of a
+   * table execute concurrently. Called from generated code.
+   *
+   * @param inputs Inputs, typically {@code ResultSetEnumerable}s
+   * @param ordered Whether to return all rows of the first input, then all
+   *                rows of the second, and so forth; if false, rows are
+   *                returned in the order they arrive
+   * @param maxConcurrency Maximum number of inputs to read at a time, or 0
+   *                       to read all inputs at once; typically the number
+   *                       of connections in the data source's pool, so that
+   *                       an input does not wait for a connection while
+   *                       earlier inputs are being consumed
+   */
+  public static <T> Enumerable<T> union(Enumerable<T>[] inputs,
+      boolean ordered, int maxConcurrency) {
+    final int concurrency = maxConcurrency > 0
+        ? Math.min(maxConcurrency, inputs.length)
+        : inputs.length;
+    return new AbstractEnumerable<T>() {
+      public Enumerator<T> enumerator() {
+        final List<Supplier<Enumerator<T>>> suppliers = new ArrayList<>();
+        for (Enumerable<T> input : inputs) {
+          suppliers.add(input::enumerator);
+        }
+        if (!ordered) {
+          return new PrefetchEnumerator<>(suppliers,
+              UNION_BUFFER_SIZE * inputs.length, concurrency);
+        }
+        // Start the first inputs now, so that their queries run while we
+        // consume the first; start each further input when an earlier one
+        // is finished
+        final List<Supplier<Enumerator<T>>> prefetchSuppliers =
+            new ArrayList<>();
+        for (Supplier<Enumerator<T>> supplier : suppliers) {
+          prefetchSuppliers.add(() ->
+              new PrefetchEnumerator<>(Collections.singletonList(supplier),
+                  UNION_BUFFER_SIZE));
+        }
+        return new ConcatEnumerator<>(prefetchSuppliers, concurrency);
+      }
+    };
+  }
+
   public void setTimeout(DataContext context) {
     this.queryStart = (Long) context.get(DataContext.Variable.UTC_TIMESTAMP.camelName);
     Object timeout = context.get(DataContext.Variable.TIMEOUT.camelName);
@@ -180,6 +252,28 @@ public void setTimeout(DataContext context) {
     }
   }
 
+  /** Sets the number of rows that the JDBC driver should fetch from the
+   * database at a time; see {@link Statement#setFetchSize(int)}. Zero, the
+   * default, means use the driver's default. Called from generated code. */
+  public void setFetchSize(int fetchSize) {
+    this.fetchSize = fetchSize;
+  }
+
+  /** Sets whether to execute queries in a transaction, so that drivers such
+   * as PostgreSQL's use a cursor and stream rows rather than reading the
+   * whole result into memory. Called from generated code. */
+  public void setStreaming(boolean streaming) {
+    this.streaming = streaming;
+  }
+
+  /** Sets the number of rows that a background thread reads ahead of the
+   * consumer, so that reading from the database overlaps with processing
+   * rows. Zero, the default, means rows are read in the consumer's thread.
+   * Called from generated code. */
+  public void setPrefetchSize(int prefetchSize) {
+    this.prefetchSize = prefetchSize;
+  }
+
   /** Called from generated code that proposes to create a
    * {@code ResultSetEnumerable} over a prepared statement. */
   public static PreparedStatementEnricher createEnricher(Integer[] indexes,
@@ -193,6 +287,18 @@ public static PreparedStatementEnricher createEnricher(Integer[] indexes,
     };
   }
 
+  /** Called from generated code that proposes to create a
+   * {@code ResultSetEnumerable} over a prepared statement whose parameter
+   * values have already been evaluated; for example, values of correlation
+   * variables that are bound once per batch of rows by a nested loop join. */
+  public static PreparedStatementEnricher createEnricher(Object[] values) {
+    return preparedStatement -> {
+      for (int i = 0; i < values.length; i++) {
+        setDynamicParam(preparedStatement, i + 1, values[i]);
+      }
+    };
+  }
+
   /** Assigns a value to a dynamic parameter in a prepared statement, calling
    * the appropriate {@code setXxx} method based on the type of the value. */
   private static void setDynamicParam(PreparedStatement preparedStatement,
@@ -247,6 +353,16 @@ private static void setDynamicParam(PreparedStatement preparedStatement,
   }
 
   public Enumerator<T> enumerator() {
+    if (prefetchSize > 0) {
+      // The background thread executes the query, and executes it again if
+      // the enumerator is reset
+      return new PrefetchEnumerator<>(
+          Collections.singletonList(this::resultSetEnumerator), prefetchSize);
+    }
+    return resultSetEnumerator();
+  }
+
+  private Enumerator<T> resultSetEnumerator() {
     if (preparedStatementEnricher == null) {
       return enumeratorBasedOnStatement();
     } else {
@@ -257,15 +373,19 @@ public Enumerator<T> enumerator() {
   private Enumerator<T> enumeratorBasedOnStatement() {
     Connection connection = null;
     Statement statement = null;
+    boolean restoreAutoCommit = false;
     try {
       connection = dataSource.getConnection();
+      restoreAutoCommit = beginStreaming(connection);
       statement = connection.createStatement();
       setTimeoutIfPossible(statement);
+      setFetchSizeIfNecessary(statement);
       if (statement.execute(sql)) {
         final ResultSet resultSet = statement.getResultSet();
         statement = null;
         connection = null;
-        return new ResultSetEnumerator<>(resultSet, rowBuilderFactory);
+        return new ResultSetEnumerator<>(resultSet, rowBuilderFactory,
+            restoreAutoCommit);
       } else {
         Integer updateCount = statement.getUpdateCount();
         return Linq4j.singletonEnumerator((T) updateCount);
@@ -274,23 +394,27 @@ private Enumerator<T> enumeratorBasedOnStatement() {
       throw Static.RESOURCE.exceptionWhilePerformingQueryOnJdbcSubSchema(sql)
           .ex(e);
     } finally {
-      closeIfPossible(connection, statement);
+      closeIfPossible(connection, statement, restoreAutoCommit);
     }
   }
 
   private Enumerator<T> enumeratorBasedOnPreparedStatement() {
     Connection connection = null;
     PreparedStatement preparedStatement = null;
+    boolean restoreAutoCommit = false;
     try {
       connection = dataSource.getConnection();
+      restoreAutoCommit = beginStreaming(connection);
       preparedStatement = connection.prepareStatement(sql);
       setTimeoutIfPossible(preparedStatement);
+      setFetchSizeIfNecessary(preparedStatement);
       preparedStatementEnricher.enrich(preparedStatement);
       if (preparedStatement.execute()) {
         final ResultSet resultSet = preparedStatement.getResultSet();
         preparedStatement = null;
         connection = null;
-        return new ResultSetEnumerator<>(resultSet, rowBuilderFactory);
+        return new ResultSetEnumerator<>(resultSet, rowBuilderFactory,
+            restoreAutoCommit);
       } else {
         Integer updateCount = preparedStatement.getUpdateCount();
         return Linq4j.singletonEnumerator((T) updateCount);
@@ -299,7 +423,7 @@ private Enumerator<T> enumeratorBasedOnPreparedStatement() {
       throw Static.RESOURCE.exceptionWhilePerformingQueryOnJdbcSubSchema(sql)
           .ex(e);
     } finally {
-      closeIfPossible(connection, preparedStatement);
+      closeIfPossible(connection, preparedStatement, restoreAutoCommit);
     }
   }
 
@@ -329,7 +453,30 @@ private void setTimeoutIfPossible(Statement statement) throws SQLException {
     }
   }
 
-  private void closeIfPossible(Connection connection, Statement statement) {
+  /** If streaming, switches off auto-commit, and returns whether it was on
+   * (and therefore needs to be switched back on when the statement is
+   * closed). */
+  private boolean beginStreaming(Connection connection) throws SQLException {
+    if (streaming && connection.getAutoCommit()) {
+      connection.setAutoCommit(false);
+      return true;
+    }
+    return false;
+  }
+
+  private void setFetchSizeIfNecessary(Statement statement)
+      throws SQLException {
+    if (fetchSize != 0) {
+      statement.setFetchSize(fetchSize);
+    }
+  }
+
+  /** Closes a statement and connection that have not been handed over to a
+   * {@link ResultSetEnumerator}; if {@code restoreAutoCommit}, first switches
+   * auto-commit back on (which commits the statement), so that the
+   * connection is not returned to its pool in a transaction. */
+  private void closeIfPossible(Connection connection, Statement statement,
+      boolean restoreAutoCommit) {
     if (statement != null) {
       try {
         statement.close();
@@ -338,6 +485,13 @@ private void closeIfPossible(Connection connection, Statement statement) {
       }
     }
     if (connection != null) {
+      if (restoreAutoCommit) {
+        try {
+          connection.setAutoCommit(true);
+        } catch (SQLException e) {
+          // ignore
+        }
+      }
       try {
         connection.close();
       } catch (SQLException e) {
@@ -352,13 +506,16 @@ private void closeIfPossible(Connection connection, Statement statement) {
    * @param <T> element type */
   private static class ResultSetEnumerator<T> implements Enumerator<T> {
     private final Function0<T> rowBuilder;
+    private final boolean restoreAutoCommit;
     private ResultSet resultSet;
 
     ResultSetEnumerator(
         ResultSet resultSet,
-        Function1<ResultSet, Function0<T>> rowBuilderFactory) {
+        Function1<ResultSet, Function0<T>> rowBuilderFactory,
+        boolean restoreAutoCommit) {
       this.resultSet = resultSet;
       this.rowBuilder = rowBuilderFactory.apply(resultSet);
+      this.restoreAutoCommit = restoreAutoCommit;
     }
 
     public T current() {
@@ -392,6 +549,9 @@ public void close() {
             final Connection connection = statement.getConnection();
             statement.close();
             if (connection != null) {
+              if (restoreAutoCommit) {
+                connection.setAutoCommit(true);
+              }
               connection.close();
             }
           }
@@ -402,6 +562,217 @@ public void close() {
     }
   }
 
+  /** Enumerator that reads rows from one or more enumerators in background
+   * threads, by default one thread per enumerator, and hands them over via a
+   * bounded queue.
+   *
+   * <p>Each background thread creates an enumerator, is the only thread
+   * that calls it, and closes it when done before moving on to the next
+   * enumerator that no thread has started; {@link #close()} tells the
+   * threads to stop and waits for them. {@link #reset()} stops the threads
+   * and starts them again, creating each enumerator afresh.
+   *
+   * @param <T> element type */
+  private static class PrefetchEnumerator<T> implements Enumerator<T> {
+    /** Marks the end of the rows of one input. */
+    private static final Object END = new Object();
+    /** Represents a null row (queues do not allow null elements). */
+    private static final Object NULL = new Object();
+
+    private final List<Supplier<Enumerator<T>>> suppliers;
+    private final int threadCount;
+    private final BlockingQueue<Object> queue;
+    private final List<Future<?>> futures = new ArrayList<>();
+    private volatile boolean closed;
+    private int remaining;
+    private T current;
+
+    PrefetchEnumerator(List<Supplier<Enumerator<T>>> suppliers,
+        int prefetchSize) {
+      this(suppliers, prefetchSize, suppliers.size());
+    }
+
+    PrefetchEnumerator(List<Supplier<Enumerator<T>>> suppliers,
+        int prefetchSize, int threadCount) {
+      this.suppliers = suppliers;
+      this.threadCount = threadCount;
+      this.queue = new ArrayBlockingQueue<>(prefetchSize);
+      start();
+    }
+
+    /** Starts the background threads. */
+    private void start() {
+      remaining = suppliers.size();
+      final AtomicInteger next = new AtomicInteger();
+      for (int i = 0; i < Math.min(threadCount, suppliers.size()); i++) {
+        futures.add(
+            PREFETCH_EXECUTOR.submit(() -> {
+              for (;;) {
+                final int j = next.getAndIncrement();
+                if (closed || j >= suppliers.size()) {
+                  return;
+                }
+                fill(suppliers.get(j));
+              }
+            }));
+      }
+    }
+
+    /** Reads rows into the queue; runs in a background thread. */
+    private void fill(Supplier<Enumerator<T>> supplier) {
+      try (Enumerator<T> enumerator = supplier.get()) {
+        while (!closed && enumerator.moveNext()) {
+          final T row = enumerator.current();
+          put(row == null ? NULL : row);
+        }
+        put(END);
+      } catch (RuntimeException | Error e) {
+        put(new Failure(e));
+      }
+    }
+
+    private void put(Object o) {
+      try {
+        while (!closed) {
+          if (queue.offer(o, 100, TimeUnit.MILLISECONDS)) {
+            return;
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    public T current() {
+      return current;
+    }
+
+    public boolean moveNext() {
+      for (;;) {
+        if (remaining == 0) {
+          current = null;
+          return false;
+        }
+        final Object o;
+        try {
+          o = queue.take();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new RuntimeException(e);
+        }
+        if (o == END) {
+          --remaining;
+          continue;
+        }
+        if (o instanceof Failure) {
+          remaining = 0;
+          current = null;
+          final Throwable e = ((Failure) o).e;
+          if (e instanceof Error) {
+            throw (Error) e;
+          }
+          throw (RuntimeException) e;
+        }
+        //noinspection unchecked
+        current = o == NULL ? null : (T) o;
+        return true;
+      }
+    }
+
+    public void reset() {
+      close();
+      futures.clear();
+      queue.clear();
+      current = null;
+      closed = false;
+      start();
+    }
+
+    public void close() {
+      closed = true;
+      queue.clear();
+      for (Future<?> future : futures) {
+        try {
+          future.get();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+          // ignore; fill() does not throw
+        }
+      }
+    }
+
+    /** Error thrown while reading rows. */
+    private static class Failure {
+      final Throwable e;
+
+      Failure(Throwable e) {
+        this.e = e;
+      }
+    }
+  }
+
+  /** Enumerator that returns the rows of several enumerators, one after
+   * another, and closes them all when it is closed.
+   *
+   * <p>It creates the first {@code window} enumerators at once, and closes
+   * each enumerator when it is exhausted and creates the next, so that at
+   * most {@code window} enumerators are open at a time.
+   *
+   * @param <T> element type */
+  private static class ConcatEnumerator<T> implements Enumerator<T> {
+    private final List<Supplier<Enumerator<T>>> suppliers;
+    private final int window;
+    /** Enumerators created so far; element {@code j} is from supplier
+     * {@code j}. */
+    private final List<Enumerator<T>> enumerators = new ArrayList<>();
+    private int i;
+
+    ConcatEnumerator(List<Supplier<Enumerator<T>>> suppliers, int window) {
+      Preconditions.checkArgument(window > 0, "window must be positive");
+      this.suppliers = suppliers;
+      this.window = window;
+      start(window);
+    }
+
+    /** Creates enumerators until there are {@code n}, or one per
+     * supplier. */
+    private void start(int n) {
+      while (enumerators.size() < Math.min(n, suppliers.size())) {
+        enumerators.add(suppliers.get(enumerators.size()).get());
+      }
+    }
+
+    public T current() {
+      return enumerators.get(i).current();
+    }
+
+    public boolean moveNext() {
+      for (; i < suppliers.size(); i++) {
+        start(i + window);
+        if (enumerators.get(i).moveNext()) {
+          return true;
+        }
+        enumerators.get(i).close();
+      }
+      i = suppliers.size() - 1;
+      return false;
+    }
+
+    public void reset() {
+      close();
+      enumerators.clear();
+      i = 0;
+      start(window);
+    }
+
+    public void close() {
+      for (Enumerator<T> enumerator : enumerators) {
+        enumerator.close();
+      }
+    }
+  }
+
   private static Function1<ResultSet, Function0<Object>>
       primitiveRowBuilderFactory(final Primitive[] primitives) {
     return resultSet -> {
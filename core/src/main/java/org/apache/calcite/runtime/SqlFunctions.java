@@ -215,16 +215,26 @@ public static String regexpReplace(String s, String regex, String replacement,
   /** SQL {@code REGEXP_REPLACE} function with 6 arguments. */
   public static String regexpReplace(String s, String regex, String replacement,
       int pos, int occurrence, String matchType) {
+    final Pattern pattern =
+        Like.cached("regexpReplace", regex, matchType,
+            k -> regexpPattern(regex, matchType));
+    return regexpReplace(s, pattern, replacement, pos, occurrence);
+  }
+
+  /** SQL {@code REGEXP_REPLACE} function with a compiled pattern. */
+  public static String regexpReplace(String s, Pattern pattern,
+      String replacement, int pos, int occurrence) {
     if (pos < 1 || pos > s.length()) {
       throw RESOURCE.invalidInputForRegexpReplace(Integer.toString(pos)).ex();
     }
-
-    final int flags = makeRegexpFlags(matchType);
-    final Pattern pattern = Pattern.compile(regex, flags);
-
     return Unsafe.regexpReplace(s, pattern, replacement, pos, occurrence);
   }
 
+  /** Compiles the pattern of a {@code REGEXP_REPLACE} function. */
+  public static Pattern regexpPattern(String regex, String matchType) {
+    return Pattern.compile(regex, makeRegexpFlags(matchType));
+  }
+
   private static int makeRegexpFlags(String stringFlags) {
     int flags = 0;
     if (stringFlags != null) {
@@ -569,31 +579,68 @@ public static ByteString overlay(ByteString s, ByteString r, int start,
         .concat(s.substring(start - 1 + length));
   }
 
-  /** SQL {@code LIKE} function. */
+  /** SQL {@code LIKE} function.
+   *
+   * <p>Patterns are cached per thread; if the pattern is a literal, the
+   * generated code instead calls {@link #likeMatcher(String)} once. */
   public static boolean like(String s, String pattern) {
-    final String regex = Like.sqlToRegexLike(pattern, null);
-    return Pattern.matches(regex, s);
+    return like(s, pattern, null);
   }
 
   /** SQL {@code LIKE} function with escape. */
   public static boolean like(String s, String pattern, String escape) {
-    final String regex = Like.sqlToRegexLike(pattern, escape);
-    return Pattern.matches(regex, s);
+    final Like.Matcher matcher =
+        Like.cached("like", pattern, escape, k -> likeMatcher(pattern, escape));
+    return matcher.matches(s);
+  }
+
+  /** Creates a matcher for the pattern of a {@code LIKE} function. */
+  public static Like.Matcher likeMatcher(String pattern) {
+    return Like.likeMatcher(pattern, null);
+  }
+
+  /** Creates a matcher for the pattern of a {@code LIKE} function with
+   * escape. */
+  public static Like.Matcher likeMatcher(String pattern, String escape) {
+    return Like.likeMatcher(pattern, escape);
   }
 
   /** SQL {@code SIMILAR} function. */
   public static boolean similar(String s, String pattern) {
-    final String regex = Like.sqlToRegexSimilar(pattern, null);
-    return Pattern.matches(regex, s);
+    return similar(s, pattern, null);
   }
 
   /** SQL {@code SIMILAR} function with escape. */
   public static boolean similar(String s, String pattern, String escape) {
-    final String regex = Like.sqlToRegexSimilar(pattern, escape);
-    return Pattern.matches(regex, s);
+    final Like.Matcher matcher =
+        Like.cached("similar", pattern, escape,
+            k -> similarMatcher(pattern, escape));
+    return matcher.matches(s);
   }
 
+  /** Creates a matcher for the pattern of a {@code SIMILAR} function. */
+  public static Like.Matcher similarMatcher(String pattern) {
+    return Like.similarMatcher(pattern, null);
+  }
+
+  /** Creates a matcher for the pattern of a {@code SIMILAR} function with
+   * escape. */
+  public static Like.Matcher similarMatcher(String pattern, String escape) {
+    return Like.similarMatcher(pattern, escape);
+  }
+
+  /** SQL POSIX regular expression operator ({@code ~}, {@code ~*}). */
   public static boolean posixRegex(String s, String regex, Boolean caseSensitive) {
+    final Like.Matcher matcher =
+        Like.cached("posixRegex", regex, caseSensitive,
+            k -> posixRegexMatcher(regex, caseSensitive));
+    return matcher.matches(s);
+  }
+
+  /** Creates a matcher for the pattern of a POSIX regular expression
+   * operator. */
+  public static Like.Matcher posixRegexMatcher(String regex,
+      Boolean caseSensitive) {
     // Replace existing character classes with java equivalent ones
     String originalRegex = regex;
     String[] existingExpressions = Arrays.stream(POSIX_CHARACTER_CLASSES)
@@ -603,7 +650,8 @@ public static boolean posixRegex(String s, String regex, Boolean caseSensitive)
     }
 
     int flags = caseSensitive ? 0 : Pattern.CASE_INSENSITIVE;
-    return Pattern.compile(regex, flags).matcher(s).find();
+    final Pattern pattern = Pattern.compile(regex, flags);
+    return s -> pattern.matcher(s).find();
   }
 
   // =
@@ -0,0 +1,275 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.calcite.schema;
+
+import org.apache.calcite.sql.SqlKind;
+import org.apache.calcite.util.NlsString;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Statistics about a column of a {@link Table}.
+ *
+ * <p>Each of the statistics may be null, meaning "not known".
+ *
+ * <p>Values (in histogram bounds, most common values, and the arguments to
+ * the selectivity methods) are compared after conversion to a common type:
+ * numbers as {@link Double}, and character strings as {@link String}. Values
+ * of other types are not supported, and selectivity methods return null for
+ * them.
+ *
+ * @see Statistic#getColumnStatistic(int)
+ */
+public class ColumnStatistic {
+  private final Double distinctCount;
+  private final Double nullFraction;
+  private final Histogram histogram;
+  private final ImmutableMap<Comparable, Double> mostCommonValues;
+
+  /** Creates a ColumnStatistic.
+   *
+   * @param distinctCount Number of distinct values, counting null as a value
+   *   if the column contains nulls; or null
+   * @param nullFraction Fraction of rows whose value is null; or null
+   * @param histogram Histogram of non-null values; or null
+   * @param mostCommonValues Map from each of the most common values to the
+   *   fraction of rows that have that value; may be empty
+   */
+  public ColumnStatistic(Double distinctCount, Double nullFraction,
+      Histogram histogram, Map<? extends Comparable, Double> mostCommonValues) {
+    this.distinctCount = distinctCount;
+    this.nullFraction = nullFraction;
+    this.histogram = histogram;
+    final ImmutableMap.Builder<Comparable, Double> b = ImmutableMap.builder();
+    for (Map.Entry<? extends Comparable, Double> e
+        : mostCommonValues.entrySet()) {
+      final Comparable value = normalize(e.getKey());
+      if (value != null) {
+        b.put(value, e.getValue());
+      }
+    }
+    this.mostCommonValues = b.build();
+  }
+
+  /** Returns the number of distinct values, counting null as a value if the
+   * column contains nulls. */
+  public Double getDistinctCount() {
+    return distinctCount;
+  }
+
+  /** Returns the fraction of rows whose value is null. */
+  public Double getNullFraction() {
+    return nullFraction;
+  }
+
+  /** Returns a histogram of the non-null values. */
+  public Histogram getHistogram() {
+    return histogram;
+  }
+
+  /** Returns the most common values, each with the fraction of rows that
+   * have that value. */
+  public Map<Comparable, Double> getMostCommonValues() {
+    return mostCommonValues;
+  }
+
+  /** Returns the fraction of rows whose value is equal to a given value, or
+   * null if not known. */
+  public Double equalSelectivity(Comparable value) {
+    value = normalize(value);
+    if (value == null) {
+      return null;
+    }
+    final Double fraction = mostCommonValues.get(value);
+    if (fraction != null) {
+      return fraction;
+    }
+    if (histogram != null
+        && value.getClass() == histogram.min().getClass()
+        && (compare(value, histogram.min()) < 0
+            || compare(value, histogram.max()) > 0)) {
+      // Value is outside the range of the column
+      return 0d;
+    }
+    if (distinctCount == null) {
+      return null;
+    }
+    final double nulls = nullFraction == null ? 0d : nullFraction;
+    double rest = 1d - nulls;
+    for (double f : mostCommonValues.values()) {
+      rest -= f;
+    }
+    final double restDistinct = distinctCount - (nulls > 0d ? 1 : 0)
+        - mostCommonValues.size();
+    if (restDistinct < 1d) {
+      return 0d;
+    }
+    return Math.max(rest, 0d) / restDistinct;
+  }
+
+  /** Returns the fraction of rows whose value satisfies a comparison
+   * ({@code <}, {@code <=}, {@code >} or {@code >=}) with a given value, or
+   * null if not known. */
+  public Double rangeSelectivity(SqlKind kind, Comparable value) {
+    value = normalize(value);
+    if (value == null || histogram == null) {
+      return null;
+    }
+    final double nonNull = 1d - (nullFraction == null ? 0d : nullFraction);
+    final Double below = histogram.fractionBelow(value);
+    if (below == null) {
+      return null;
+    }
+    switch (kind) {
+    case LESS_THAN:
+    case LESS_THAN_OR_EQUAL:
+      return nonNull * below;
+    case GREATER_THAN:
+    case GREATER_THAN_OR_EQUAL:
+      return nonNull * (1d - below);
+    default:
+      return null;
+    }
+  }
+
+  /** Converts a value to the type used for comparisons, or returns null if
+   * the type is not supported. */
+  public static Comparable normalize(Object value) {
+    if (value instanceof Double) {
+      return (Double) value;
+    }
+    if (value instanceof Number) {
+      return ((Number) value).doubleValue();
+    }
+    if (value instanceof String) {
+      return (String) value;
+    }
+    if (value instanceof NlsString) {
+      return ((NlsString) value).getValue();
+    }
+    if (value instanceof Character) {
+      return value.toString();
+    }
+    return null;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static int compare(Comparable c0, Comparable c1) {
+    return c0.compareTo(c1);
+  }
+
+  @Override public String toString() {
+    return "ColumnStatistic(distinctCount: " + distinctCount
+        + ", nullFraction: " + nullFraction
+        + ", histogram: " + histogram
+        + ", mostCommonValues: " + mostCommonValues + ")";
+  }
+
+  /** Equi-depth histogram.
+   *
+   * <p>The values of a column are divided into buckets that each contain the
+   * same number of rows. A histogram with {@code n} buckets has {@code n + 1}
+   * bounds: the minimum value, the upper bound of each bucket but the last,
+   * and the maximum value. */
+  public static class Histogram {
+    private final ImmutableList<Comparable> bounds;
+
+    private Histogram(ImmutableList<Comparable> bounds) {
+      this.bounds = bounds;
+    }
+
+    /** Creates a histogram with given bounds, or returns null if there are
+     * fewer than two bounds, if a bound has a type that is not supported, or
+     * if the bounds are not all of the same type. */
+    public static Histogram of(List<? extends Comparable> bounds) {
+      if (bounds.size() < 2) {
+        return null;
+      }
+      final ImmutableList.Builder<Comparable> b = ImmutableList.builder();
+      Class<?> clazz = null;
+      for (Comparable bound : bounds) {
+        final Comparable value = normalize(bound);
+        if (value == null
+            || clazz != null && value.getClass() != clazz) {
+          return null;
+        }
+        clazz = value.getClass();
+        b.add(value);
+      }
+      return new Histogram(b.build());
+    }
+
+    /** Returns the bounds of the buckets. */
+    public List<Comparable> getBounds() {
+      return Collections.unmodifiableList(bounds);
+    }
+
+    Comparable min() {
+      return bounds.get(0);
+    }
+
+    Comparable max() {
+      return bounds.get(bounds.size() - 1);
+    }
+
+    /** Returns the estimated fraction of values that are less than a given
+     * value, or null if the value cannot be compared to the bounds.
+     *
+     * <p>Within a bucket, values are assumed to be evenly distributed. For
+     * numeric values the position within the bucket is interpolated; for
+     * other values, it is assumed to be the middle of the bucket. */
+    public Double fractionBelow(Comparable value) {
+      value = normalize(value);
+      if (value == null || value.getClass() != min().getClass()) {
+        return null;
+      }
+      if (compare(value, min()) <= 0) {
+        return 0d;
+      }
+      if (compare(value, max()) > 0) {
+        return 1d;
+      }
+      final int bucketCount = bounds.size() - 1;
+      // Find the first bucket whose upper bound is not less than the value
+      int i = 0;
+      while (compare(bounds.get(i + 1), value) < 0) {
+        ++i;
+      }
+      final Comparable lower = bounds.get(i);
+      final Comparable upper = bounds.get(i + 1);
+      double position = 0.5d;
+      if (value instanceof Double) {
+        final double width = (Double) upper - (Double) lower;
+        if (width > 0d) {
+          position = ((Double) value - (Double) lower) / width;
+        }
+      }
+      return (i + position) / bucketCount;
+    }
+
+    @Override public String toString() {
+      return bounds.toString();
+    }
+  }
+}
+
+// End ColumnStatistic.java
@@ -84,6 +84,20 @@ public static Statistic of(final Double rowCount,
       final List<ImmutableBitSet> keys,
       final List<RelReferentialConstraint> referentialConstraints,
       final List<RelCollation> collations) {
+    return of(rowCount, keys, referentialConstraints, collations,
+        ImmutableList.of());
+  }
+
+  /** Returns a statistic with a given row count, set of unique keys,
+   * referential constraints, collations, and statistics for each column.
+   *
+   * <p>{@code columnStatistics} may be shorter than the number of columns,
+   * and may contain nulls; the statistics of those columns are not known. */
+  public static Statistic of(final Double rowCount,
+      final List<ImmutableBitSet> keys,
+      final List<RelReferentialConstraint> referentialConstraints,
+      final List<RelCollation> collations,
+      final List<ColumnStatistic> columnStatistics) {
     return new Statistic() {
       public Double getRowCount() {
         return rowCount;
@@ -109,6 +123,12 @@ public List<RelCollation> getCollations() {
       public RelDistribution getDistribution() {
         return RelDistributionTraitDef.INSTANCE.getDefault();
       }
+
+      public ColumnStatistic getColumnStatistic(int column) {
+        return column < columnStatistics.size()
+            ? columnStatistics.get(column)
+            : null;
+      }
     };
   }
 }
@@ -0,0 +1,492 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.calcite.statistic;
+
+import org.apache.calcite.config.CalciteSystemProperty;
+import org.apache.calcite.materialize.SqlStatisticProvider;
+import org.apache.calcite.plan.RelOptTable;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Implementation of {@link SqlStatisticProvider} that stores statistics in
+ * files, and refreshes them in the background.
+ *
+ * <p>Statistics of each table are stored in a JSON file in a directory, so
+ * they survive restarts and can be shared by several processes. Each file
+ * has a version number that increases each time the file is written.
+ *
+ * <p>A request for a statistic never waits for the underlying provider
+ * (typically a {@link QuerySqlStatisticProvider}, which executes a query).
+ * If the stored value is older than {@code refreshAfterMillis}, a refresh is
+ * submitted to the executor. If there is no stored value, or it is older than
+ * {@code maxStalenessMillis}, the request is answered by a fallback provider.
+ * An executor that runs tasks in the calling thread makes this provider
+ * behave like a blocking, persistent cache.
+ *
+ * <p>{@link #schedule} periodically refreshes, in the background, statistics
+ * that have been requested and are due for a refresh, so that requests
+ * rarely see stale values. This provider does not hold on to the tables it
+ * is asked about, because they may belong to a catalog that is no longer in
+ * use; it remembers their qualified names, and a background refresh looks
+ * them up again using a table resolver.
+ *
+ * <p>A process that writes a file first locks it, then reads it again and
+ * merges its contents, keeping the more recent value of each statistic, so
+ * that processes that share a directory do not overwrite each other's
+ * statistics.
+ *
+ * <p>The no-argument constructor allows the provider to be named wherever a
+ * provider is instantiated as a plugin, by class name.
+ */
+public class PersistentSqlStatisticProvider implements SqlStatisticProvider {
+  private static final Logger LOGGER =
+      LoggerFactory.getLogger(PersistentSqlStatisticProvider.class);
+
+  /** Version of the file format. Files in a different format are ignored. */
+  private static final int FORMAT_VERSION = 1;
+
+  /** Provider that returns default estimates, without executing queries.
+   * Assumes that a table has 100 rows, which is what Calcite assumes for a
+   * table whose row count is not known, and that columns are not keys. */
+  public static final SqlStatisticProvider GUESS =
+      new SqlStatisticProvider() {
+        public double tableCardinality(RelOptTable table) {
+          return 100d;
+        }
+
+        public boolean isForeignKey(RelOptTable fromTable,
+            List<Integer> fromColumns, RelOptTable toTable,
+            List<Integer> toColumns) {
+          return false;
+        }
+
+        public boolean isKey(RelOptTable table, List<Integer> columns) {
+          return false;
+        }
+      };
+
+  /** Executor used by the no-argument constructor. Its single thread is a
+   * daemon thread, so that refreshes neither block planning nor keep the JVM
+   * alive. */
+  private static final ExecutorService DEFAULT_EXECUTOR =
+      Executors.newSingleThreadExecutor(
+          new ThreadFactoryBuilder()
+              .setDaemon(true)
+              .setNameFormat("calcite-statistics-refresh-%d")
+              .build());
+
+  private final SqlStatisticProvider provider;
+  private final SqlStatisticProvider fallback;
+  private final File directory;
+  private final Executor executor;
+  private final long refreshAfterMillis;
+  private final long maxStalenessMillis;
+  private final Function<List<String>, RelOptTable> tableResolver;
+  private final ObjectMapper mapper = new ObjectMapper();
+  private final Map<List<String>, TableStatistics> tables =
+      new ConcurrentHashMap<>();
+
+  /** Monitor for each lock file. A process can hold only one lock on a
+   * file, so threads of this process, even if they use different providers,
+   * must take turns to lock it. */
+  private static final ConcurrentMap<File, Object> LOCK_MONITORS =
+      new ConcurrentHashMap<>();
+
+  /** Creates a PersistentSqlStatisticProvider.
+   *
+   * @param provider Provider that computes statistics
+   * @param fallback Provider that is used while a statistic is not available
+   * @param directory Directory in which to store statistics
+   * @param executor Executor that runs refreshes
+   * @param refreshAfterMillis Age after which a statistic is refreshed
+   * @param maxStalenessMillis Age after which a statistic is no longer used
+   * @param tableResolver Function that looks up a table by its qualified
+   *   name, for refreshes by {@link #refreshStale()}; or null, in which case
+   *   statistics are refreshed only when they are requested
+   */
+  public PersistentSqlStatisticProvider(SqlStatisticProvider provider,
+      SqlStatisticProvider fallback, File directory, Executor executor,
+      long refreshAfterMillis, long maxStalenessMillis,
+      Function<List<String>, RelOptTable> tableResolver) {
+    this.provider = Objects.requireNonNull(provider);
+    this.fallback = Objects.requireNonNull(fallback);
+    this.directory = Objects.requireNonNull(directory);
+    this.executor = Objects.requireNonNull(executor);
+    this.refreshAfterMillis = refreshAfterMillis;
+    this.maxStalenessMillis = maxStalenessMillis;
+    this.tableResolver = tableResolver;
+  }
+
+  /** Creates a PersistentSqlStatisticProvider that stores statistics in the
+   * directory given by {@link CalciteSystemProperty#STATISTICS_DIRECTORY},
+   * and computes them using
+   * {@link QuerySqlStatisticProvider#SILENT_CACHING_INSTANCE} in a background
+   * thread, refreshing each statistic once a day. Until a statistic has been
+   * computed, {@link #GUESS} is used. */
+  public PersistentSqlStatisticProvider() {
+    this(QuerySqlStatisticProvider.SILENT_CACHING_INSTANCE,
+        defaultDirectory(), DEFAULT_EXECUTOR, TimeUnit.DAYS.toMillis(1),
+        Long.MAX_VALUE);
+  }
+
+  /** Creates a PersistentSqlStatisticProvider that uses {@link #GUESS}
+   * while a statistic is not available, and refreshes statistics only when
+   * they are requested. */
+  public PersistentSqlStatisticProvider(SqlStatisticProvider provider,
+      File directory, Executor executor, long refreshAfterMillis,
+      long maxStalenessMillis) {
+    this(provider, GUESS, directory, executor, refreshAfterMillis,
+        maxStalenessMillis, null);
+  }
+
+  private static File defaultDirectory() {
+    final String directory = CalciteSystemProperty.STATISTICS_DIRECTORY.value();
+    return directory != null
+        ? new File(directory)
+        : new File(System.getProperty("java.io.tmpdir"), "calcite-statistics");
+  }
+
+  public double tableCardinality(RelOptTable table) {
+    final List<String> name = ImmutableList.copyOf(table.getQualifiedName());
+    final Object value = get(name, "tableCardinality",
+        resolver -> provider.tableCardinality(resolver.apply(name)),
+        resolver(table));
+    return value == null
+        ? fallback.tableCardinality(table)
+        : ((Number) value).doubleValue();
+  }
+
+  public boolean isForeignKey(RelOptTable fromTable, List<Integer> fromColumns,
+      RelOptTable toTable, List<Integer> toColumns) {
+    final List<String> fromName =
+        ImmutableList.copyOf(fromTable.getQualifiedName());
+    final List<String> toName =
+        ImmutableList.copyOf(toTable.getQualifiedName());
+    final List<Integer> fromColumns2 = ImmutableList.copyOf(fromColumns);
+    final List<Integer> toColumns2 = ImmutableList.copyOf(toColumns);
+    final String key = "isForeignKey" + fromColumns2 + "->"
+        + String.join(".", toName) + toColumns2;
+    final Object value = get(fromName, key,
+        resolver -> provider.isForeignKey(resolver.apply(fromName),
+            fromColumns2, resolver.apply(toName), toColumns2),
+        resolver(fromTable, toTable));
+    return value == null
+        ? fallback.isForeignKey(fromTable, fromColumns, toTable, toColumns)
+        : (Boolean) value;
+  }
+
+  public boolean isKey(RelOptTable table, List<Integer> columns) {
+    final List<String> name = ImmutableList.copyOf(table.getQualifiedName());
+    final List<Integer> columns2 = ImmutableList.copyOf(columns);
+    final Object value = get(name, "isKey" + columns2,
+        resolver -> provider.isKey(resolver.apply(name), columns2),
+        resolver(table));
+    return value == null
+        ? fallback.isKey(table, columns)
+        : (Boolean) value;
+  }
+
+  /** Returns a function that looks up the given tables by qualified name. */
+  private static Function<List<String>, RelOptTable> resolver(
+      RelOptTable... tables) {
+    return name -> {
+      for (RelOptTable table : tables) {
+        if (table.getQualifiedName().equals(name)) {
+          return table;
+        }
+      }
+      throw new IllegalArgumentException("unknown table " + name);
+    };
+  }
+
+  /** Returns the value of a statistic, or null if there is no value that is
+   * fresh enough. Submits a refresh if the value is due for one.
+   *
+   * @param name Qualified name of the table
+   * @param key Key of the statistic
+   * @param request Computes the statistic
+   * @param resolver Looks up the tables of the current request */
+  private Object get(List<String> name, String key, Request request,
+      Function<List<String>, RelOptTable> resolver) {
+    final TableStatistics t = tables.computeIfAbsent(name, this::load);
+    t.requests.put(key, request);
+    final long now = System.currentTimeMillis();
+    Entry entry = t.entries.get(key);
+    if (entry == null || now - entry.time > refreshAfterMillis) {
+      refresh(t, key, request, resolver);
+      // If the executor ran the refresh in this thread, the value is now
+      // available
+      entry = t.entries.get(key);
+    }
+    if (entry == null || now - entry.time > maxStalenessMillis) {
+      return null;
+    }
+    return entry.value;
+  }
+
+  /** Refreshes each statistic that has been requested since this provider
+   * was created and is due for a refresh, looking up its tables using the
+   * table resolver. Does nothing if this provider has no table resolver. */
+  public void refreshStale() {
+    if (tableResolver == null) {
+      return;
+    }
+    final long now = System.currentTimeMillis();
+    for (TableStatistics t : tables.values()) {
+      for (Map.Entry<String, Request> e : t.requests.entrySet()) {
+        final Entry entry = t.entries.get(e.getKey());
+        if (entry == null || now - entry.time > refreshAfterMillis) {
+          refresh(t, e.getKey(), e.getValue(), tableResolver);
+        }
+      }
+    }
+  }
+
+  /** Schedules {@link #refreshStale()} to run periodically. */
+  public ScheduledFuture<?> schedule(ScheduledExecutorService scheduler,
+      long period, TimeUnit unit) {
+    return scheduler.scheduleWithFixedDelay(this::refreshStale, period,
+        period, unit);
+  }
+
+  /** Submits a task that computes a statistic and writes it to the table's
+   * file, unless such a task is already pending. */
+  private void refresh(TableStatistics t, String key, Request request,
+      Function<List<String>, RelOptTable> resolver) {
+    if (!t.pending.add(key)) {
+      return;
+    }
+    final Runnable task = () -> {
+      try {
+        final Object value = request.compute(resolver);
+        t.entries.put(key, new Entry(value, System.currentTimeMillis()));
+        save(t);
+      } catch (RuntimeException e) {
+        LOGGER.warn("Error computing statistic " + key + " of table "
+            + t.name, e);
+      } finally {
+        t.pending.remove(key);
+      }
+    };
+    try {
+      executor.execute(task);
+    } catch (RejectedExecutionException e) {
+      t.pending.remove(key);
+      LOGGER.warn("Could not refresh statistic " + key + " of table "
+          + t.name, e);
+    }
+  }
+
+  /** Creates the statistics of a table, reading its file if it exists. */
+  private TableStatistics load(List<String> name) {
+    final TableStatistics t =
+        new TableStatistics(name, new File(directory, fileName(name)));
+    t.version = read(t, t.entries);
+    return t;
+  }
+
+  /** Reads the file of a table into a map of entries, and returns the
+   * version of the file; or returns 0 if the file does not exist or is not
+   * valid. */
+  private int read(TableStatistics t, Map<String, Entry> entries) {
+    if (!t.file.exists()) {
+      return 0;
+    }
+    final Map<String, Entry> fileEntries = new HashMap<>();
+    final int version;
+    try {
+      @SuppressWarnings("unchecked")
+      final Map<String, Object> map = mapper.readValue(t.file, Map.class);
+      if (!Objects.equals(map.get("formatVersion"), FORMAT_VERSION)
+          || !t.name.equals(map.get("table"))) {
+        LOGGER.warn("Ignoring statistics file " + t.file
+            + "; it has a different format or table");
+        return 0;
+      }
+      version = ((Number) map.get("version")).intValue();
+      @SuppressWarnings("unchecked")
+      final Map<String, Map<String, Object>> statistics =
+          (Map<String, Map<String, Object>>) map.get("statistics");
+      for (Map.Entry<String, Map<String, Object>> e
+          : statistics.entrySet()) {
+        fileEntries.put(e.getKey(),
+            new Entry(e.getValue().get("value"),
+                ((Number) e.getValue().get("time")).longValue()));
+      }
+    } catch (IOException | RuntimeException e) {
+      LOGGER.warn("Ignoring statistics file " + t.file, e);
+      return 0;
+    }
+    entries.putAll(fileEntries);
+    return version;
+  }
+
+  /** Writes the statistics of a table to its file, incrementing its
+   * version.
+   *
+   * <p>Locks the file, so that other processes do not write it at the same
+   * time; reads it again, and merges the statistics that other processes have
+   * written since this provider last read it, keeping the more recent value
+   * of each statistic; and writes to a temporary file and renames it, so
+   * that readers, which do not lock, never see a partially written file. */
+  private void save(TableStatistics t) {
+    final File lockFile = new File(directory, t.file.getName() + ".lock");
+    synchronized (LOCK_MONITORS.computeIfAbsent(
+        lockFile.getAbsoluteFile(), f -> new Object())) {
+      try {
+        Files.createDirectories(directory.toPath());
+        try (FileChannel channel =
+                 FileChannel.open(lockFile.toPath(),
+                     StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+          // Closing the channel releases the lock
+          channel.lock();
+          write(t);
+        }
+      } catch (IOException e) {
+        LOGGER.warn("Error writing statistics file " + t.file, e);
+      }
+    }
+  }
+
+  /** Merges the statistics in a table's file into the statistics of the
+   * table, and writes them back. The caller must hold the file's lock. */
+  private void write(TableStatistics t) throws IOException {
+    final Map<String, Entry> fileEntries = new HashMap<>();
+    final int fileVersion = read(t, fileEntries);
+    for (Map.Entry<String, Entry> e : fileEntries.entrySet()) {
+      t.entries.merge(e.getKey(), e.getValue(),
+          (e0, e1) -> e1.time > e0.time ? e1 : e0);
+    }
+    final int version = Math.max(t.version, fileVersion) + 1;
+    final Map<String, Object> map = new LinkedHashMap<>();
+    map.put("formatVersion", FORMAT_VERSION);
+    map.put("table", t.name);
+    map.put("version", version);
+    final Map<String, Object> statistics = new TreeMap<>();
+    for (Map.Entry<String, Entry> e : t.entries.entrySet()) {
+      statistics.put(e.getKey(),
+          ImmutableMap.of("value", e.getValue().value,
+              "time", e.getValue().time));
+    }
+    map.put("statistics", statistics);
+    final File tmp = File.createTempFile("statistics", ".tmp", directory);
+    try {
+      mapper.writerWithDefaultPrettyPrinter().writeValue(tmp, map);
+      try {
+        Files.move(tmp.toPath(), t.file.toPath(),
+            StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(tmp.toPath(), t.file.toPath(),
+            StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(tmp.toPath());
+    }
+    t.version = version;
+  }
+
+  /** Returns the name of the file that holds the statistics of a table;
+   * for example, "foodmart.product.json". */
+  static String fileName(List<String> name) {
+    return name.stream()
+        .map(PersistentSqlStatisticProvider::encode)
+        .collect(Collectors.joining(".", "", ".json"));
+  }
+
+  private static String encode(String s) {
+    try {
+      return URLEncoder.encode(s, "UTF-8").replace(".", "%2E")
+          .replace("*", "%2A");
+    } catch (UnsupportedEncodingException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  /** Computes a statistic, given a function that looks up tables by
+   * qualified name. Holds the names of the tables, not the tables. */
+  private interface Request {
+    Object compute(Function<List<String>, RelOptTable> resolver);
+  }
+
+  /** Value of a statistic, and the time at which it was computed. */
+  private static class Entry {
+    final Object value;
+    final long time;
+
+    Entry(Object value, long time) {
+      this.value = value;
+      this.time = time;
+    }
+  }
+
+  /** Statistics of a table. */
+  private static class TableStatistics {
+    final List<String> name;
+    final File file;
+    final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    /** Functions that compute each statistic that has been requested. */
+    final Map<String, Request> requests = new ConcurrentHashMap<>();
+    /** Statistics whose refresh has been submitted but not completed. */
+    final Set<String> pending = ConcurrentHashMap.newKeySet();
+    /** Version of the file when this provider last read or wrote it.
+     * Accessed only while holding the file's lock, or while loading. */
+    volatile int version;
+
+    TableStatistics(List<String> name, File file) {
+      this.name = name;
+      this.file = file;
+    }
+  }
+}
+
+// End PersistentSqlStatisticProvider.java
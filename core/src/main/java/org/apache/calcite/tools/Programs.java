@@ -16,6 +16,7 @@
  */
 package org.apache.calcite.tools;
 
+import org.apache.calcite.adapter.enumerable.EnumerablePartitionRule;
 import org.apache.calcite.adapter.enumerable.EnumerableRules;
 import org.apache.calcite.config.CalciteConnectionConfig;
 import org.apache.calcite.config.CalciteSystemProperty;
@@ -51,6 +52,7 @@
 import org.apache.calcite.rel.rules.LoptOptimizeJoinRule;
 import org.apache.calcite.rel.rules.MatchRule;
 import org.apache.calcite.rel.rules.MultiJoinOptimizeBushyRule;
+import org.apache.calcite.rel.rules.MultiJoinOptimizeDpRule;
 import org.apache.calcite.rel.rules.ProjectMergeRule;
 import org.apache.calcite.rel.rules.SemiJoinRule;
 import org.apache.calcite.rel.rules.SortProjectTransposeRule;
@@ -198,6 +200,31 @@ public static Program of(final HepProgram hepProgram, final boolean noDag,
   public static Program heuristicJoinOrder(
       final Iterable<? extends RelOptRule> rules,
       final boolean bushy, final int minJoinCount) {
+    return joinOrder(rules,
+        bushy
+            ? MultiJoinOptimizeBushyRule.INSTANCE
+            : LoptOptimizeJoinRule.INSTANCE,
+        minJoinCount);
+  }
+
+  /** Creates a program that invokes cost-based join-order optimization
+   * (via {@link org.apache.calcite.rel.rules.JoinToMultiJoinRule},
+   * {@link org.apache.calcite.rel.rules.MultiJoin} and
+   * {@link org.apache.calcite.rel.rules.MultiJoinOptimizeDpRule})
+   * if there are {@code minJoinCount} or more joins.
+   *
+   * <p>Joins of up to {@code maxFactors} relations are ordered by dynamic
+   * programming; larger joins are ordered heuristically. */
+  public static Program dpJoinOrder(
+      final Iterable<? extends RelOptRule> rules, final int minJoinCount,
+      final int maxFactors) {
+    return joinOrder(rules,
+        new MultiJoinOptimizeDpRule(RelFactories.LOGICAL_BUILDER, maxFactors),
+        minJoinCount);
+  }
+
+  private static Program joinOrder(final Iterable<? extends RelOptRule> rules,
+      final RelOptRule multiJoinRule, final int minJoinCount) {
     return (planner, rel, requiredOutputTraits, materializations, lattices) -> {
       final int joinCount = RelOptUtil.countJoins(rel);
       final Program program;
@@ -214,7 +241,7 @@ public static Program heuristicJoinOrder(
             of(hep, false, DefaultRelMetadataProvider.INSTANCE);
 
         // Create a program that contains a rule to expand a MultiJoin
-        // into heuristically ordered joins.
+        // into ordered joins.
         // We use the rule set passed in, but remove JoinCommuteRule and
         // JoinPushThroughJoinRule, because they cause exhaustive search.
         final List<RelOptRule> list = Lists.newArrayList(rules);
@@ -223,9 +250,7 @@ public static Program heuristicJoinOrder(
                 JoinAssociateRule.INSTANCE,
                 JoinPushThroughJoinRule.LEFT,
                 JoinPushThroughJoinRule.RIGHT));
-        list.add(bushy
-            ? MultiJoinOptimizeBushyRule.INSTANCE
-            : LoptOptimizeJoinRule.INSTANCE);
+        list.add(multiJoinRule);
         final Program program2 = ofRules(list);
 
         program = sequence(program1, program2);
@@ -295,7 +320,11 @@ public static Program standard(RelMetadataProvider metadataProvider) {
 
         // Second planner pass to do physical "tweaks". This the first time
         // that EnumerableCalcRel is introduced.
-        calc(metadataProvider));
+        calc(metadataProvider),
+
+        // Partition the inputs of large aggregates and joins, if parallel
+        // execution is enabled.
+        new PartitionProgram(metadataProvider));
   }
 
   /** Program backed by a {@link RuleSet}. */
@@ -373,6 +402,42 @@ public RelNode run(RelOptPlanner planner, RelNode rel,
     }
   }
 
+  /** Program that places exchanges on the inputs of large aggregates and
+   * hash joins, so that they are executed in parallel, if
+   * {@link CalciteConnectionConfig#parallelism()} is greater than 1.
+   *
+   * @see EnumerablePartitionRule */
+  private static class PartitionProgram implements Program {
+    private final RelMetadataProvider metadataProvider;
+
+    PartitionProgram(RelMetadataProvider metadataProvider) {
+      this.metadataProvider = metadataProvider;
+    }
+
+    public RelNode run(RelOptPlanner planner, RelNode rel,
+        RelTraitSet requiredOutputTraits,
+        List<RelOptMaterialization> materializations,
+        List<RelOptLattice> lattices) {
+      final CalciteConnectionConfig config =
+          planner.getContext().unwrap(CalciteConnectionConfig.class);
+      if (config == null || config.parallelism() <= 1) {
+        return rel;
+      }
+      final int partitionCount = config.parallelism();
+      final double minRowCount = config.parallelismThreshold();
+      final Program program =
+          hep(
+              ImmutableList.of(
+                  new EnumerablePartitionRule.AggregateRule(partitionCount,
+                      minRowCount),
+                  new EnumerablePartitionRule.HashJoinRule(partitionCount,
+                      minRowCount)),
+              true, metadataProvider);
+      return program.run(planner, rel, requiredOutputTraits,
+          materializations, lattices);
+    }
+  }
+
   /** Program that trims fields. */
   private static class TrimFieldsProgram implements Program {
     public RelNode run(RelOptPlanner planner, RelNode rel,
@@ -17,6 +17,8 @@
 package org.apache.calcite.util;
 
 import org.apache.calcite.DataContext;
+import org.apache.calcite.adapter.columnar.ColumnBatch;
+import org.apache.calcite.adapter.columnar.ColumnarRel;
 import org.apache.calcite.adapter.enumerable.AggregateLambdaFactory;
 import org.apache.calcite.adapter.enumerable.BasicAggregateLambdaFactory;
 import org.apache.calcite.adapter.enumerable.BasicLazyAccumulator;
@@ -37,13 +39,16 @@
 import org.apache.calcite.linq4j.JoinType;
 import org.apache.calcite.linq4j.Linq4j;
 import org.apache.calcite.linq4j.MemoryFactory;
+import org.apache.calcite.linq4j.PrimitiveHashAggregate;
 import org.apache.calcite.linq4j.QueryProvider;
 import org.apache.calcite.linq4j.Queryable;
+import org.apache.calcite.linq4j.function.DoubleFunction1;
 import org.apache.calcite.linq4j.function.EqualityComparer;
 import org.apache.calcite.linq4j.function.Function0;
 import org.apache.calcite.linq4j.function.Function1;
 import org.apache.calcite.linq4j.function.Function2;
 import org.apache.calcite.linq4j.function.Functions;
+import org.apache.calcite.linq4j.function.LongFunction1;
 import org.apache.calcite.linq4j.function.Predicate1;
 import org.apache.calcite.linq4j.function.Predicate2;
 import org.apache.calcite.linq4j.tree.FunctionExpression;
@@ -81,6 +86,7 @@
 import org.apache.calcite.runtime.Enumerables;
 import org.apache.calcite.runtime.FlatLists;
 import org.apache.calcite.runtime.JsonFunctions;
+import org.apache.calcite.runtime.Like;
 import org.apache.calcite.runtime.Matcher;
 import org.apache.calcite.runtime.Pattern;
 import org.apache.calcite.runtime.RandomFunction;
@@ -122,6 +128,7 @@
 import java.util.Map;
 import java.util.Objects;
 import java.util.TimeZone;
+import java.util.concurrent.Executor;
 import java.util.function.BiPredicate;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
@@ -158,6 +165,14 @@ public enum BuiltInMethod {
   ROW_AS_COPY(Row.class, "asCopy", Object[].class),
   RESULT_SET_ENUMERABLE_SET_TIMEOUT(ResultSetEnumerable.class, "setTimeout",
       DataContext.class),
+  RESULT_SET_ENUMERABLE_SET_FETCH_SIZE(ResultSetEnumerable.class,
+      "setFetchSize", int.class),
+  RESULT_SET_ENUMERABLE_SET_STREAMING(ResultSetEnumerable.class,
+      "setStreaming", boolean.class),
+  RESULT_SET_ENUMERABLE_SET_PREFETCH_SIZE(ResultSetEnumerable.class,
+      "setPrefetchSize", int.class),
+  RESULT_SET_ENUMERABLE_UNION(ResultSetEnumerable.class, "union",
+      Enumerable[].class, boolean.class, int.class),
   RESULT_SET_ENUMERABLE_OF(ResultSetEnumerable.class, "of", DataSource.class,
       String.class, Function1.class),
   RESULT_SET_ENUMERABLE_OF_PREPARED(ResultSetEnumerable.class, "of",
@@ -165,10 +180,23 @@ public enum BuiltInMethod {
       ResultSetEnumerable.PreparedStatementEnricher.class),
   CREATE_ENRICHER(ResultSetEnumerable.class, "createEnricher", Integer[].class,
       DataContext.class),
+  CREATE_VALUES_ENRICHER(ResultSetEnumerable.class, "createEnricher",
+      Object[].class),
   HASH_JOIN(ExtendedEnumerable.class, "hashJoin", Enumerable.class,
       Function1.class,
       Function1.class, Function2.class, EqualityComparer.class,
       boolean.class, boolean.class, Predicate2.class),
+  SPILLING_HASH_JOIN(EnumerableDefaults.class, "hashJoin", Enumerable.class,
+      Enumerable.class, Function1.class, Function1.class, Function2.class,
+      EqualityComparer.class, boolean.class, boolean.class, Predicate2.class,
+      int.class),
+  PARTITIONED_HASH_JOIN(EnumerableDefaults.class, "partitionedHashJoin",
+      Enumerable.class, Enumerable.class, Function1.class, Function1.class,
+      Function2.class, EqualityComparer.class, boolean.class, boolean.class,
+      Predicate2.class, Executor.class, int.class),
+  PARALLEL_EXECUTOR(Enumerables.class, "parallelExecutor"),
+  EXCHANGE(EnumerableDefaults.class, "exchange", Enumerable.class,
+      Function1.class, int.class),
   MATCH(Enumerables.class, "match", Enumerable.class, Function1.class,
       Matcher.class, Enumerables.Emitter.class, int.class, int.class),
   PATTERN_BUILDER(Utilities.class, "patternBuilder"),
@@ -183,15 +211,21 @@ public enum BuiltInMethod {
   EMITTER_EMIT(Enumerables.Emitter.class, "emit", List.class, List.class,
       List.class, int.class, Consumer.class),
   MERGE_JOIN(EnumerableDefaults.class, "mergeJoin", Enumerable.class,
-      Enumerable.class, Function1.class, Function1.class, Function2.class,
-      boolean.class, boolean.class),
+      Enumerable.class, Function1.class, Function1.class, Predicate2.class,
+      Function2.class, JoinType.class),
   SLICE0(Enumerables.class, "slice0", Enumerable.class),
+  COLUMNAR_BATCHES(ColumnarRel.BatchSource.class, "batches",
+      DataContext.class),
+  COLUMN_BATCH_TO_ROWS(ColumnBatch.class, "toRows", Enumerable.class),
   SEMI_JOIN(EnumerableDefaults.class, "semiJoin", Enumerable.class,
       Enumerable.class, Function1.class, Function1.class,
       EqualityComparer.class, Predicate2.class),
   ANTI_JOIN(EnumerableDefaults.class, "antiJoin", Enumerable.class,
       Enumerable.class, Function1.class, Function1.class,
       EqualityComparer.class, Predicate2.class),
+  SPILLING_SEMI_JOIN(EnumerableDefaults.class, "semiJoin", Enumerable.class,
+      Enumerable.class, Function1.class, Function1.class,
+      EqualityComparer.class, boolean.class, Predicate2.class, int.class),
   NESTED_LOOP_JOIN(EnumerableDefaults.class, "nestedLoopJoin", Enumerable.class,
       Enumerable.class, Predicate2.class, Function2.class, JoinType.class),
   CORRELATE_JOIN(ExtendedEnumerable.class, "correlateJoin",
@@ -209,13 +243,42 @@ public enum BuiltInMethod {
   GROUP_BY(ExtendedEnumerable.class, "groupBy", Function1.class),
   GROUP_BY2(ExtendedEnumerable.class, "groupBy", Function1.class,
       Function0.class, Function2.class, Function2.class),
+  PARTITIONED_GROUP_BY(EnumerableDefaults.class, "partitionedGroupBy",
+      Enumerable.class, Function1.class, Function0.class, Function2.class,
+      Function2.class, EqualityComparer.class, Executor.class, int.class),
+  PRIMITIVE_HASH_AGGREGATE(PrimitiveHashAggregate.class, Predicate1.class,
+      LongFunction1.class, Primitive.class),
+  PRIMITIVE_AGGREGATE_COUNT(PrimitiveHashAggregate.class, "count",
+      Predicate1.class),
+  PRIMITIVE_AGGREGATE_SUM_LONG(PrimitiveHashAggregate.class, "sumLong",
+      Predicate1.class, LongFunction1.class, Primitive.class, boolean.class),
+  PRIMITIVE_AGGREGATE_SUM_DOUBLE(PrimitiveHashAggregate.class, "sumDouble",
+      Predicate1.class, DoubleFunction1.class, Primitive.class, boolean.class),
+  PRIMITIVE_AGGREGATE_MIN_MAX_LONG(PrimitiveHashAggregate.class, "minMaxLong",
+      Predicate1.class, LongFunction1.class, Primitive.class, boolean.class),
+  PRIMITIVE_AGGREGATE_MIN_MAX_DOUBLE(PrimitiveHashAggregate.class,
+      "minMaxDouble", Predicate1.class, DoubleFunction1.class, Primitive.class,
+      boolean.class),
+  PRIMITIVE_AGGREGATE(PrimitiveHashAggregate.class, "aggregate",
+      Enumerable.class),
   GROUP_BY_MULTIPLE(EnumerableDefaults.class, "groupByMultiple",
       Enumerable.class, List.class, Function0.class, Function2.class,
       Function2.class),
+  SPILLING_GROUP_BY(EnumerableDefaults.class, "groupBy", Enumerable.class,
+      Function1.class, Function0.class, Function2.class, Function2.class,
+      EqualityComparer.class, int.class),
+  SPILLING_GROUP_BY_MULTIPLE(EnumerableDefaults.class, "groupByMultiple",
+      Enumerable.class, List.class, Function0.class, Function2.class,
+      Function2.class, EqualityComparer.class, int.class),
   AGGREGATE(ExtendedEnumerable.class, "aggregate", Object.class,
       Function2.class, Function1.class),
   ORDER_BY(ExtendedEnumerable.class, "orderBy", Function1.class,
       Comparator.class),
+  ORDER_BY_SPILLING(EnumerableDefaults.class, "orderBy", Enumerable.class,
+      Function1.class, Comparator.class, int.class),
+  ORDER_BY_WITH_FETCH_AND_OFFSET(EnumerableDefaults.class, "orderBy",
+      Enumerable.class, Function1.class, Comparator.class, int.class,
+      int.class),
   UNION(ExtendedEnumerable.class, "union", Enumerable.class),
   CONCAT(ExtendedEnumerable.class, "concat", Enumerable.class),
   REPEAT_UNION_ALL(EnumerableDefaults.class, "repeatUnionAll", Enumerable.class,
@@ -387,6 +450,19 @@ public enum BuiltInMethod {
   LIKE(SqlFunctions.class, "like", String.class, String.class),
   SIMILAR(SqlFunctions.class, "similar", String.class, String.class),
   POSIX_REGEX(SqlFunctions.class, "posixRegex", String.class, String.class, Boolean.class),
+  LIKE_MATCHER(SqlFunctions.class, "likeMatcher", String.class),
+  LIKE_ESCAPE_MATCHER(SqlFunctions.class, "likeMatcher", String.class,
+      String.class),
+  SIMILAR_MATCHER(SqlFunctions.class, "similarMatcher", String.class),
+  SIMILAR_ESCAPE_MATCHER(SqlFunctions.class, "similarMatcher", String.class,
+      String.class),
+  POSIX_REGEX_MATCHER(SqlFunctions.class, "posixRegexMatcher", String.class,
+      Boolean.class),
+  MATCHER_MATCHES(Like.Matcher.class, "matches", String.class),
+  REGEXP_PATTERN(SqlFunctions.class, "regexpPattern", String.class,
+      String.class),
+  REGEXP_REPLACE_PATTERN(SqlFunctions.class, "regexpReplace", String.class,
+      java.util.regex.Pattern.class, String.class, int.class, int.class),
   REGEXP_REPLACE3(SqlFunctions.class, "regexpReplace", String.class,
       String.class, String.class),
   REGEXP_REPLACE4(SqlFunctions.class, "regexpReplace", String.class,
@@ -137,6 +137,26 @@ public Set<V> vertexSet() {
     return vertexMap.keySet();
   }
 
+  /** Removes a vertex that is not the target of any edge, and the edges
+   * that leave it.
+   *
+   * <p>Unlike {@link #removeAllVertices(Collection)}, does not look for
+   * edges that enter the vertex, so takes time proportional to the number of
+   * edges that leave it.
+   *
+   * @return whether the vertex was in the graph
+   */
+  public boolean removeSourceVertex(V vertex) {
+    final VertexInfo<V, E> info = vertexMap.remove(vertex);
+    if (info == null) {
+      return false;
+    }
+    for (E edge : info.outEdges) {
+      edges.remove(edge);
+    }
+    return true;
+  }
+
   public void removeAllVertices(Collection<V> collection) {
     vertexMap.keySet().removeAll(collection);
     for (VertexInfo<V, E> info : vertexMap.values()) {
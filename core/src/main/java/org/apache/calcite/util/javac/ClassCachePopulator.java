@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.calcite.util.javac;
+
+import org.apache.calcite.util.Util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Command-line tool that populates a {@link CompiledClassCache} by preparing
+ * each query in a query log.
+ *
+ * <p>Usage:
+ *
+ * <blockquote><code>java -Dcalcite.class.cache.directory=<i>dir</i>
+ * org.apache.calcite.util.javac.ClassCachePopulator <i>jdbcUrl</i>
+ * <i>queryLog</i></code></blockquote>
+ *
+ * <p>Each query in the log is terminated by a semicolon at the end of a
+ * line. Lines that start with "--" are ignored. Queries are prepared but not
+ * executed; preparing a query generates and compiles its classes. Run the
+ * tool with the same version of Calcite and the same schema as the service
+ * whose cache is being populated.
+ */
+public class ClassCachePopulator {
+  private ClassCachePopulator() {}
+
+  /** Populates the class cache configured by
+   * {@link org.apache.calcite.config.CalciteSystemProperty#CLASS_CACHE_DIRECTORY}
+   * from a query log. */
+  public static void main(String[] args) throws IOException, SQLException {
+    final PrintWriter out = Util.printWriter(System.out);
+    try {
+      if (args.length != 2) {
+        out.println("Usage: ClassCachePopulator jdbcUrl queryLog");
+        return;
+      }
+      final CompiledClassCache cache = CompiledClassCache.instance();
+      if (cache == null) {
+        out.println("System property calcite.class.cache.directory is not set");
+        return;
+      }
+      final List<String> queries;
+      try (BufferedReader reader = Util.reader(new File(args[1]))) {
+        queries = parse(reader);
+      }
+      try (Connection connection = DriverManager.getConnection(args[0])) {
+        final int failed = prepareAll(connection, queries, out);
+        out.println("Prepared " + (queries.size() - failed) + " of "
+            + queries.size() + " queries; " + cache.getMissCount()
+            + " classes compiled, " + cache.getHitCount()
+            + " already in cache");
+      }
+    } finally {
+      out.flush();
+    }
+  }
+
+  /** Splits a query log into queries. */
+  static List<String> parse(BufferedReader reader) throws IOException {
+    final List<String> queries = new ArrayList<>();
+    final StringBuilder buf = new StringBuilder();
+    for (String line; (line = reader.readLine()) != null;) {
+      final String trimmed = line.trim();
+      if (trimmed.startsWith("--")) {
+        continue;
+      }
+      if (trimmed.endsWith(";")) {
+        buf.append(trimmed, 0, trimmed.length() - 1);
+        if (buf.toString().trim().length() > 0) {
+          queries.add(buf.toString().trim());
+        }
+        buf.setLength(0);
+      } else {
+        buf.append(line).append('\n');
+      }
+    }
+    if (buf.toString().trim().length() > 0) {
+      queries.add(buf.toString().trim());
+    }
+    return queries;
+  }
+
+  /** Prepares each query, and returns the number of queries that could not
+   * be prepared. */
+  static int prepareAll(Connection connection, List<String> queries,
+      PrintWriter out) {
+    int failed = 0;
+    for (String query : queries) {
+      try (PreparedStatement statement = connection.prepareStatement(query)) {
+        // Preparing the statement compiles its classes
+      } catch (SQLException | RuntimeException e) {
+        ++failed;
+        out.println("Error while preparing query: " + query);
+        out.println(e.getMessage());
+      }
+    }
+    return failed;
+  }
+}
+
+// End ClassCachePopulator.java
@@ -0,0 +1,407 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.calcite.util.javac;
+
+import org.apache.calcite.config.CalciteSystemProperty;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import org.codehaus.janino.JavaSourceClassLoader;
+import org.codehaus.janino.util.ClassFile;
+import org.codehaus.janino.util.resource.MapResourceFinder;
+import org.codehaus.janino.util.resource.ResourceFinder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Cache of classes compiled by Janino, stored in a directory so that they
+ * can be re-used after the JVM restarts.
+ *
+ * <p>Each entry is a sub-directory whose name is a digest of the source code
+ * and the Calcite version, and which contains a {@code .class} file for each
+ * class (including inner classes) declared in the source. An entry is
+ * written to a temporary directory and then renamed, so that concurrent
+ * processes sharing the directory never see a partial entry.
+ *
+ * <p>Each entry also contains a checksum of its key and its classes. An
+ * entry whose checksum does not match, say because a file was truncated or
+ * replaced, is deleted and its classes are compiled again. The checksum
+ * detects corruption, not tampering by someone who can write to the
+ * directory, so the directory should be writable only by trusted users.
+ *
+ * <p>The cache holds at most {@link #maxEntries} entries. When a write takes
+ * it over the limit, the entries that have not been used for longest are
+ * deleted; using an entry updates its modification time. Eviction frees a
+ * tenth of the entries, so that the directory is not listed on every
+ * subsequent write.
+ *
+ * <p>Between evictions, the number of entries is counted as they are written,
+ * so the directory is listed only when the count exceeds the limit. Entries
+ * written by other processes that share the directory are not counted until
+ * then.
+ *
+ * <p>Classes are loaded, whether just compiled or read from disk, by a
+ * class loader dedicated to the entry.
+ *
+ * <p>The cache is enabled by setting the system property
+ * {@link CalciteSystemProperty#CLASS_CACHE_DIRECTORY}. It can be populated
+ * in advance by running {@link ClassCachePopulator}.
+ */
+public class CompiledClassCache {
+  private static final CompiledClassCache INSTANCE = create();
+
+  /** Name of the file, in each entry, that holds the entry's checksum. */
+  private static final String CHECKSUM_FILE = "checksum";
+
+  private final File directory;
+  private final String version;
+  /** Maximum number of entries in the directory, or 0 if unbounded. */
+  public final int maxEntries;
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+  private final AtomicLong evictionCount = new AtomicLong();
+  private final AtomicLong invalidCount = new AtomicLong();
+  /** Number of entries when the directory was last listed, plus the number
+   * written since; -1 until the directory is first listed. */
+  private final AtomicInteger entryCount = new AtomicInteger(-1);
+
+  /** Creates a CompiledClassCache with the maximum number of entries given
+   * by {@link CalciteSystemProperty#CLASS_CACHE_MAX_ENTRIES}. */
+  public CompiledClassCache(File directory, String version) {
+    this(directory, version,
+        CalciteSystemProperty.CLASS_CACHE_MAX_ENTRIES.value());
+  }
+
+  /** Creates a CompiledClassCache that holds at most {@code maxEntries}
+   * entries, or any number if {@code maxEntries} is 0. */
+  public CompiledClassCache(File directory, String version, int maxEntries) {
+    this.directory = directory;
+    this.version = version;
+    this.maxEntries = maxEntries;
+  }
+
+  private static CompiledClassCache create() {
+    final String directory = CalciteSystemProperty.CLASS_CACHE_DIRECTORY.value();
+    if (directory == null || directory.isEmpty()) {
+      return null;
+    }
+    return new CompiledClassCache(new File(directory), calciteVersion());
+  }
+
+  /** Returns the cache configured by
+   * {@link CalciteSystemProperty#CLASS_CACHE_DIRECTORY}, or null if the
+   * property is not set. */
+  public static CompiledClassCache instance() {
+    return INSTANCE;
+  }
+
+  /** Returns the version of Calcite, including the build time-stamp, so that
+   * classes compiled by one build are not used by another. */
+  private static String calciteVersion() {
+    final Properties properties = new Properties();
+    try (InputStream stream = CompiledClassCache.class.getClassLoader()
+        .getResourceAsStream("org-apache-calcite-jdbc.properties")) {
+      if (stream != null) {
+        properties.load(stream);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return properties.getProperty("driver.version", "unknown version")
+        + " " + properties.getProperty("build.timestamp", "");
+  }
+
+  /** Returns the number of classes that were found in the cache. */
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  /** Returns the number of classes that were compiled because they were not
+   * in the cache. */
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  /** Returns the number of entries that were deleted to keep the cache
+   * within {@link #maxEntries}. */
+  public long getEvictionCount() {
+    return evictionCount.get();
+  }
+
+  /** Returns the number of entries that were deleted because their checksum
+   * did not match. */
+  public long getInvalidCount() {
+    return invalidCount.get();
+  }
+
+  /** Returns a class compiled from a compilation unit, reading it from the
+   * cache if present, otherwise compiling it and storing it in the cache.
+   *
+   * @param className Name of the class to return
+   * @param source Source code of a compilation unit that declares the class
+   * @param parentClassLoader Class loader that can load the classes that the
+   *                          source code references
+   * @return Class
+   * @throws ClassNotFoundException if the source cannot be compiled
+   */
+  public Class<?> loadClass(String className, String source,
+      ClassLoader parentClassLoader) throws ClassNotFoundException {
+    final String digest = Hashing.sha256().newHasher()
+        .putString(version, StandardCharsets.UTF_8)
+        .putString(className, StandardCharsets.UTF_8)
+        .putString(source, StandardCharsets.UTF_8)
+        .hash()
+        .toString();
+    final Path entryDir = directory.toPath().resolve(digest);
+    Map<String, byte[]> bytecodes = read(entryDir, digest);
+    if (bytecodes != null) {
+      hitCount.incrementAndGet();
+      touch(entryDir);
+    } else {
+      missCount.incrementAndGet();
+      bytecodes = compile(className, source, parentClassLoader);
+      if (write(entryDir, digest, bytecodes)) {
+        evict(entryDir);
+      }
+    }
+    return new BytecodeClassLoader(parentClassLoader, bytecodes)
+        .loadClass(className);
+  }
+
+  /** Compiles a compilation unit using Janino, and returns the bytecode of
+   * each class that it declares. */
+  private static Map<String, byte[]> compile(String className, String source,
+      ClassLoader parentClassLoader) throws ClassNotFoundException {
+    final Map<String, byte[]> sourceMap = new HashMap<>();
+    sourceMap.put(ClassFile.getSourceResourceName(className),
+        source.getBytes(StandardCharsets.UTF_8));
+    final BytecodeGenerator generator =
+        new BytecodeGenerator(parentClassLoader,
+            new MapResourceFinder(sourceMap), StandardCharsets.UTF_8.name());
+    if (CalciteSystemProperty.DEBUG.value()) {
+      // Add line numbers to the generated janino class
+      generator.setDebuggingInfo(true, true, true);
+    }
+    final Map<String, byte[]> bytecodes = generator.generate(className);
+    if (bytecodes == null) {
+      throw new ClassNotFoundException(className);
+    }
+    return bytecodes;
+  }
+
+  /** Computes the checksum of an entry, from its key and the name and
+   * bytecode of each of its classes. */
+  static String checksum(String digest, Map<String, byte[]> bytecodes) {
+    final Hasher hasher = Hashing.sha256().newHasher()
+        .putString(digest, StandardCharsets.UTF_8);
+    for (Map.Entry<String, byte[]> entry : new TreeMap<>(bytecodes).entrySet()) {
+      hasher.putInt(entry.getKey().length())
+          .putString(entry.getKey(), StandardCharsets.UTF_8)
+          .putInt(entry.getValue().length)
+          .putBytes(entry.getValue());
+    }
+    return hasher.hash().toString();
+  }
+
+  /** Reads the classes in an entry, or returns null if there is no valid
+   * entry. Deletes the entry if its checksum does not match. */
+  private Map<String, byte[]> read(Path entryDir, String digest) {
+    if (!Files.isDirectory(entryDir)) {
+      return null;
+    }
+    final Map<String, byte[]> bytecodes = new HashMap<>();
+    final byte[] checksum;
+    try (Stream<Path> files = Files.list(entryDir)) {
+      for (Path file : (Iterable<Path>) files::iterator) {
+        final String fileName = file.getFileName().toString();
+        if (fileName.endsWith(".class")) {
+          bytecodes.put(
+              fileName.substring(0, fileName.length() - ".class".length()),
+              Files.readAllBytes(file));
+        }
+      }
+      final Path checksumFile = entryDir.resolve(CHECKSUM_FILE);
+      checksum = Files.exists(checksumFile)
+          ? Files.readAllBytes(checksumFile)
+          : new byte[0];
+    } catch (IOException e) {
+      // Treat an unreadable entry as missing; it will be compiled again
+      return null;
+    }
+    if (bytecodes.isEmpty()
+        || !Arrays.equals(checksum,
+            checksum(digest, bytecodes).getBytes(StandardCharsets.UTF_8))) {
+      invalidCount.incrementAndGet();
+      deleteQuietly(entryDir);
+      entryCount.updateAndGet(n -> n > 0 ? n - 1 : n);
+      return null;
+    }
+    return bytecodes;
+  }
+
+  /** Writes the classes of an entry, and returns whether the entry was
+   * created. Errors are ignored, because the cache is an optimization. */
+  private static boolean write(Path entryDir, String digest,
+      Map<String, byte[]> bytecodes) {
+    Path tmpDir = null;
+    try {
+      Files.createDirectories(entryDir.getParent());
+      tmpDir = Files.createTempDirectory(entryDir.getParent(),
+          entryDir.getFileName() + ".tmp");
+      for (Map.Entry<String, byte[]> entry : bytecodes.entrySet()) {
+        Files.write(tmpDir.resolve(entry.getKey() + ".class"),
+            entry.getValue());
+      }
+      Files.write(tmpDir.resolve(CHECKSUM_FILE),
+          checksum(digest, bytecodes).getBytes(StandardCharsets.UTF_8));
+      try {
+        Files.move(tmpDir, entryDir, StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(tmpDir, entryDir);
+      }
+      tmpDir = null;
+      return true;
+    } catch (FileAlreadyExistsException e) {
+      // Another thread or process wrote the same entry
+      return false;
+    } catch (IOException e) {
+      // Ignore; the class will be compiled again next time
+      return false;
+    } finally {
+      if (tmpDir != null) {
+        deleteQuietly(tmpDir);
+      }
+    }
+  }
+
+  /** Marks an entry as recently used. */
+  private static void touch(Path entryDir) {
+    try {
+      Files.setLastModifiedTime(entryDir,
+          FileTime.fromMillis(System.currentTimeMillis()));
+    } catch (IOException e) {
+      // ignore
+    }
+  }
+
+  /** Counts an entry that has just been written, and if the cache has more
+   * than {@link #maxEntries} entries, deletes the least recently used
+   * entries, other than the one just written. */
+  private void evict(Path newEntryDir) {
+    if (maxEntries <= 0) {
+      return;
+    }
+    final int count = entryCount.updateAndGet(n -> n < 0 ? n : n + 1);
+    if (count >= 0 && count <= maxEntries) {
+      return;
+    }
+    final List<Path> entries;
+    try (Stream<Path> files = Files.list(directory.toPath())) {
+      entries = files
+          .filter(path -> Files.isDirectory(path)
+              && !path.getFileName().toString().contains(".tmp")
+              && !path.equals(newEntryDir))
+          .collect(Collectors.toCollection(ArrayList::new));
+    } catch (IOException e) {
+      return;
+    }
+    if (entries.size() + 1 <= maxEntries) {
+      entryCount.set(entries.size() + 1);
+      return;
+    }
+    final int excess = entries.size() + 1 - (maxEntries - maxEntries / 10);
+    final Map<Path, Long> times = new HashMap<>();
+    for (Path entry : entries) {
+      times.put(entry, entry.toFile().lastModified());
+    }
+    entries.sort(Comparator.comparing(times::get));
+    for (Path entry : entries.subList(0, excess)) {
+      deleteQuietly(entry);
+      evictionCount.incrementAndGet();
+    }
+    entryCount.set(entries.size() + 1 - excess);
+  }
+
+  private static void deleteQuietly(Path dir) {
+    try (Stream<Path> files = Files.list(dir)) {
+      for (Path file : (Iterable<Path>) files::iterator) {
+        Files.deleteIfExists(file);
+      }
+      Files.deleteIfExists(dir);
+    } catch (IOException e) {
+      // ignore
+    }
+  }
+
+  /** Janino class loader that compiles source code and returns the bytecode
+   * of the classes, rather than defining them. */
+  private static class BytecodeGenerator extends JavaSourceClassLoader {
+    BytecodeGenerator(ClassLoader parentClassLoader,
+        ResourceFinder sourceFinder, String characterEncoding) {
+      super(parentClassLoader, sourceFinder, characterEncoding);
+    }
+
+    Map<String, byte[]> generate(String className)
+        throws ClassNotFoundException {
+      return generateBytecodes(className);
+    }
+  }
+
+  /** Class loader that defines classes from bytecode held in memory. */
+  private static class BytecodeClassLoader extends ClassLoader {
+    private final Map<String, byte[]> bytecodes;
+
+    BytecodeClassLoader(ClassLoader parent, Map<String, byte[]> bytecodes) {
+      super(parent);
+      this.bytecodes = bytecodes;
+    }
+
+    @Override protected Class<?> findClass(String name)
+        throws ClassNotFoundException {
+      final byte[] bytes = bytecodes.get(name);
+      if (bytes == null) {
+        throw new ClassNotFoundException(name);
+      }
+      return defineClass(name, bytes, 0, bytes.length);
+    }
+  }
+}
+
+// End CompiledClassCache.java
@@ -26,6 +26,7 @@
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
 /**
  * Test for {@link org.apache.calcite.adapter.enumerable.PhysTypeImpl}.
@@ -67,6 +68,34 @@ public final class PhysTypeTest {
     assertEquals(Object[].class, rowPhysType.fieldClass(0));
   }
 
+  /** Tests that an operator that may spill holds rows of every format other
+   * than arrays and scalars as arrays; lists, {@code Row}s and custom classes
+   * need not be serializable. */
+  @Test public void testSpillPhysType() {
+    final RelDataType rowType = TYPE_FACTORY.createStructType(
+        ImmutableList.of(TYPE_FACTORY.createSqlType(SqlTypeName.INTEGER),
+            TYPE_FACTORY.createSqlType(SqlTypeName.VARCHAR)),
+        ImmutableList.of("i", "s"));
+    for (JavaRowFormat format
+        : new JavaRowFormat[] {JavaRowFormat.ARRAY, JavaRowFormat.LIST,
+            JavaRowFormat.ROW}) {
+      final PhysType physType =
+          PhysTypeImpl.of(TYPE_FACTORY, rowType, format, false);
+      assertSame(physType, EnumUtils.spillPhysType(TYPE_FACTORY, physType, 0));
+      final PhysType spillPhysType =
+          EnumUtils.spillPhysType(TYPE_FACTORY, physType, 100);
+      assertEquals(JavaRowFormat.ARRAY, spillPhysType.getFormat());
+      assertEquals(format == JavaRowFormat.ARRAY, spillPhysType == physType);
+    }
+
+    final RelDataType scalarRowType = TYPE_FACTORY.createStructType(
+        ImmutableList.of(TYPE_FACTORY.createSqlType(SqlTypeName.INTEGER)),
+        ImmutableList.of("i"));
+    final PhysType scalarPhysType =
+        PhysTypeImpl.of(TYPE_FACTORY, scalarRowType, JavaRowFormat.SCALAR);
+    assertSame(scalarPhysType,
+        EnumUtils.spillPhysType(TYPE_FACTORY, scalarPhysType, 100));
+  }
 }
 
 // End PhysTypeTest.java
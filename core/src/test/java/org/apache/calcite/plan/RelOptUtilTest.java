@@ -16,6 +16,7 @@
  */
 package org.apache.calcite.plan;
 
+import org.apache.calcite.rel.AbstractRelNode;
 import org.apache.calcite.rel.RelCollation;
 import org.apache.calcite.rel.RelCollationTraitDef;
 import org.apache.calcite.rel.RelCollations;
@@ -53,11 +54,15 @@
 import org.junit.Test;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
+import static org.hamcrest.CoreMatchers.endsWith;
 import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.CoreMatchers.startsWith;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
@@ -221,6 +226,89 @@ public RelOptUtilTest() {
     }
   }
 
+  /** Tests {@link RelDigest}: relational expressions of the same type with
+   * the same attributes and inputs have equal digests, without comparing
+   * strings. */
+  @Test public void testRelDigest() {
+    final RelNode filter1 = filter(empScan, 10);
+    final RelNode filter2 = filter(empScan, 10);
+    final RelNode filter3 = filter(empScan, 20);
+    final RelNode filter4 = filter(relBuilder.scan("EMP").build(), 10);
+    for (RelNode filter : Arrays.asList(filter1, filter2, filter3, filter4)) {
+      filter.recomputeRelDigest();
+    }
+    assertThat(filter1.getRelDigest(), sameInstance(filter2.getRelDigest()));
+    assertThat(filter1.getRelDigest().hashCode(),
+        is(filter2.getRelDigest().hashCode()));
+    assertThat(filter1.getDigest(), is(filter2.getDigest()));
+    assertThat(filter1.getDigest(), startsWith("LogicalFilter.NONE"));
+    assertThat(filter1.getDigest(),
+        endsWith("(input=LogicalTableScan#" + empScan.getId()
+            + ",condition==($7, 10))"));
+
+    // Different condition
+    assertThat(filter1.getRelDigest().equals(filter3.getRelDigest()),
+        is(false));
+    // Equivalent but distinct input
+    assertThat(filter1.getRelDigest().equals(filter4.getRelDigest()),
+        is(false));
+  }
+
+  /** Tests that the deprecated digest methods still work: a subclass that
+   * overrides {@code computeDigest()} determines its digest, and can read
+   * it from the deprecated {@code digest} field. */
+  @SuppressWarnings("deprecation")
+  @Test public void testComputeDigestOverride() {
+    /** Relational expression that overrides {@code computeDigest()}. */
+    class LegacyRel extends AbstractRelNode {
+      private final RelDataType type;
+
+      LegacyRel(RelDataType type) {
+        super(empScan.getCluster(), empScan.getTraitSet());
+        this.type = type;
+      }
+
+      @Override protected RelDataType deriveRowType() {
+        return type;
+      }
+
+      @Override protected String computeDigest() {
+        return "Custom(x=1)";
+      }
+
+      String digestField() {
+        return digest;
+      }
+    }
+    final LegacyRel rel = new LegacyRel(empScan.getRowType());
+    assertThat(rel.digestField(), endsWith("#" + rel.getId()));
+    assertThat(rel.recomputeDigest(), is("Custom(x=1)"));
+    assertThat(rel.digestField(), is("Custom(x=1)"));
+    assertThat(rel.getDigest(), is("Custom(x=1)"));
+    assertThat(rel.getDescription(), is("rel#" + rel.getId() + ":Custom(x=1)"));
+
+    // String digests are equal only if the row types are equal too
+    final LegacyRel rel2 = new LegacyRel(empScan.getRowType());
+    rel2.recomputeDigest();
+    assertThat(rel2.getRelDigest(), is(rel.getRelDigest()));
+    final LegacyRel rel3 = new LegacyRel(deptScan.getRowType());
+    rel3.recomputeDigest();
+    assertThat(rel3.getDigest(), is(rel.getDigest()));
+    assertThat(rel3.getRelDigest().equals(rel.getRelDigest()), is(false));
+
+    final RelNode filter = filter(empScan, 10);
+    assertThat(filter.recomputeDigest(),
+        is(filter.getRelDigest().toString()));
+  }
+
+  private RelNode filter(RelNode input, int deptno) {
+    return relBuilder.push(input)
+        .filter(
+            relBuilder.equals(relBuilder.field("DEPTNO"),
+                relBuilder.literal(deptno)))
+        .build();
+  }
+
   /**
    * Test {@link RelOptUtil#splitJoinCondition(RelNode, RelNode, RexNode, List, List, List)}
    * where the join condition contains just one which is a EQUAL operator.
@@ -22,11 +22,14 @@
 import org.apache.calcite.plan.Convention;
 import org.apache.calcite.plan.ConventionTraitDef;
 import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelOptCost;
 import org.apache.calcite.plan.RelOptListener;
+import org.apache.calcite.plan.RelOptPlanner;
 import org.apache.calcite.plan.RelOptRule;
 import org.apache.calcite.plan.RelOptRuleCall;
 import org.apache.calcite.plan.RelOptUtil;
 import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.plan.RuleProfiler;
 import org.apache.calcite.rel.RelCollationTraitDef;
 import org.apache.calcite.rel.RelNode;
 import org.apache.calcite.rel.convert.ConverterImpl;
@@ -34,7 +37,10 @@
 import org.apache.calcite.rel.core.JoinRelType;
 import org.apache.calcite.rel.core.RelFactories;
 import org.apache.calcite.rel.logical.LogicalProject;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.rel.rules.FilterJoinRule;
 import org.apache.calcite.rel.rules.ProjectRemoveRule;
+import org.apache.calcite.runtime.Hook;
 import org.apache.calcite.tools.RelBuilder;
 
 import org.junit.Ignore;
@@ -44,6 +50,7 @@
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.function.Consumer;
 
 import static org.apache.calcite.plan.volcano.PlannerTests.AssertOperandsDifferentRule;
 import static org.apache.calcite.plan.volcano.PlannerTests.GoodSingleRule;
@@ -60,6 +67,7 @@
 import static org.apache.calcite.test.Matchers.isLinux;
 
 import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
@@ -250,6 +258,185 @@ private static <E extends Comparable> List<E> sort(E... es) {
     return sort(Arrays.asList(es));
   }
 
+  /**
+   * Tests {@link VolcanoPlanner#setTopDownOpt(boolean) top-down search} of a
+   * single+leaf from NONE to PHYS.
+   */
+  @Test public void testTopDownTransformSingleGood() {
+    VolcanoPlanner planner = new VolcanoPlanner();
+    planner.setTopDownOpt(true);
+    planner.addRelTraitDef(ConventionTraitDef.INSTANCE);
+
+    planner.addRule(new PhysLeafRule());
+    planner.addRule(new GoodSingleRule());
+
+    RelOptCluster cluster = newCluster(planner);
+    NoneLeafRel leafRel =
+        new NoneLeafRel(
+            cluster,
+            "a");
+    NoneSingleRel singleRel =
+        new NoneSingleRel(
+            cluster,
+            leafRel);
+    RelNode convertedRel =
+        planner.changeTraits(
+            singleRel,
+            cluster.traitSetOf(PHYS_CALLING_CONVENTION));
+    planner.setRoot(convertedRel);
+    RelNode result = planner.chooseDelegate().findBestExp();
+    assertTrue(result instanceof PhysSingleRel);
+    assertTrue(result.getInput(0) instanceof PhysLeafRel);
+    assertThat(planner.getPruneCount(), equalTo(0));
+  }
+
+  /**
+   * Tests that {@link VolcanoPlanner#setTopDownOpt(boolean) top-down search}
+   * prunes an alternative whose own cost exceeds the best plan found so far,
+   * and does not fire the rules of its inputs, whereas the default search
+   * fires every rule.
+   */
+  @Test public void testTopDownPrunes() {
+    final VolcanoPlanner defaultPlanner = new VolcanoPlanner();
+    final RelNode defaultResult = expensiveAlternativePlan(defaultPlanner);
+    final VolcanoPlanner planner = new VolcanoPlanner();
+    planner.setTopDownOpt(true);
+    final RelNode result = expensiveAlternativePlan(planner);
+
+    assertThat(RelOptUtil.toString(result),
+        equalTo(RelOptUtil.toString(defaultResult)));
+    assertTrue(result instanceof PhysSingleRel);
+    assertThat(defaultPlanner.getPruneCount(), equalTo(0));
+    assertTrue(planner.getPruneCount() > 0);
+    // The default search fires PhysLeafRule on leaf "b", the input of the
+    // expensive alternative; the top-down search never explores it
+    assertThat(defaultPlanner.getRuleFireCount(), equalTo(4));
+    assertThat(planner.getRuleFireCount(), equalTo(3));
+  }
+
+  private RelNode expensiveAlternativePlan(VolcanoPlanner planner) {
+    planner.addRelTraitDef(ConventionTraitDef.INSTANCE);
+    planner.addRule(new PhysLeafRule());
+    planner.addRule(new GoodSingleRule());
+    planner.addRule(new ExpensiveAlternativeRule());
+
+    RelOptCluster cluster = newCluster(planner);
+    NoneSingleRel singleRel =
+        new NoneSingleRel(cluster, new NoneLeafRel(cluster, "a"));
+    RelNode convertedRel =
+        planner.changeTraits(singleRel,
+            cluster.traitSetOf(PHYS_CALLING_CONVENTION));
+    planner.setRoot(convertedRel);
+    return planner.findBestExp();
+  }
+
+  /**
+   * Tests that {@link VolcanoPlanner#setTopDownOpt(boolean) top-down search}
+   * finds the same plan as the default search, including when a rule
+   * matches relational expressions in two sets.
+   */
+  @Test public void testTopDownSamePlan() {
+    final String plan = filterJoinPlan(new VolcanoPlanner());
+    final VolcanoPlanner planner = new VolcanoPlanner();
+    planner.setTopDownOpt(true);
+    assertThat(filterJoinPlan(planner), equalTo(plan));
+    assertTrue(plan, plan.contains("EnumerableHashJoin"));
+    // The top-down search fires only rules on sets that it reaches, each at
+    // most once, so never more rules than the default search
+    final VolcanoPlanner defaultPlanner = new VolcanoPlanner();
+    filterJoinPlan(defaultPlanner);
+    assertTrue(planner.getRuleFireCount()
+        <= defaultPlanner.getRuleFireCount());
+  }
+
+  /**
+   * Tests that a planner whose
+   * {@link VolcanoPlanner#setBudget(long, int, int) budget} is exhausted
+   * stops firing rules, calls a hook, and returns an implementable plan.
+   */
+  @Test public void testBudgetExhausted() {
+    final VolcanoPlanner unlimitedPlanner = new VolcanoPlanner();
+    filterJoinPlan(unlimitedPlanner);
+    assertThat(unlimitedPlanner.getBudgetExhausted(), nullValue());
+
+    final List<RelOptPlanner> planners = new ArrayList<>();
+    final VolcanoPlanner planner = new VolcanoPlanner();
+    planner.setBudget(-1, 1, -1);
+    try (Hook.Closeable ignored =
+             Hook.PLANNER_BUDGET_EXHAUSTED.addThread(
+                 (Consumer<RelOptPlanner>) planners::add)) {
+      final String plan = filterJoinPlan(planner);
+      assertTrue(plan, plan.startsWith("Enumerable"));
+    }
+    assertThat(planner.getBudgetExhausted(),
+        equalTo(VolcanoPlanner.BudgetLimit.RULES));
+    assertThat(planners.size(), equalTo(1));
+    assertSame(planner, planners.get(0));
+    assertTrue(planner.getRuleFireCount()
+        <= unlimitedPlanner.getRuleFireCount());
+  }
+
+  /**
+   * Tests that {@link RuleProfiler} records the rules fired in each phase.
+   */
+  @Test public void testRuleProfiler() {
+    final VolcanoPlanner planner = new VolcanoPlanner();
+    final RuleProfiler profiler = new RuleProfiler();
+    planner.addListener(profiler);
+    filterJoinPlan(planner);
+    assertThat(planner.getPhase(), nullValue());
+
+    final RuleProfiler.Snapshot snapshot = profiler.snapshot();
+    assertThat(snapshot.getAttempts(), equalTo(planner.getRuleFireCount()));
+    RuleProfiler.RuleStats filterJoin = null;
+    for (RuleProfiler.RuleStats stats : snapshot.getRules()) {
+      assertThat(VolcanoPlannerPhase.valueOf(stats.getPhase()).name(),
+          equalTo(stats.getPhase()));
+      assertTrue(stats.getSuccesses() <= stats.getAttempts());
+      assertTrue(stats.getNanos() >= 0);
+      if (stats.getRule().equals(FilterJoinRule.FILTER_ON_JOIN.toString())) {
+        filterJoin = stats;
+      }
+    }
+    assertThat(filterJoin == null, equalTo(false));
+    assertTrue(filterJoin.getSuccesses() >= 1);
+    assertTrue(filterJoin.getRelsProduced() >= 1);
+    assertTrue(snapshot.toString(),
+        snapshot.toString().contains(FilterJoinRule.FILTER_ON_JOIN.toString()));
+
+    profiler.reset();
+    assertTrue(profiler.snapshot().getRules().isEmpty());
+  }
+
+  private String filterJoinPlan(VolcanoPlanner planner) {
+    planner.addRelTraitDef(ConventionTraitDef.INSTANCE);
+
+    planner.addRule(FilterJoinRule.FILTER_ON_JOIN);
+    planner.addRule(EnumerableRules.ENUMERABLE_JOIN_RULE);
+    planner.addRule(EnumerableRules.ENUMERABLE_FILTER_RULE);
+    planner.addRule(EnumerableRules.ENUMERABLE_PROJECT_RULE);
+    planner.addRule(EnumerableRules.ENUMERABLE_VALUES_RULE);
+
+    RelOptCluster cluster = newCluster(planner);
+
+    RelBuilder relBuilder = RelFactories.LOGICAL_BUILDER.create(cluster, null);
+    RelNode logicalPlan = relBuilder
+        .values(new String[]{"id", "name"}, "2", "a", "1", "b")
+        .values(new String[]{"id", "name"}, "1", "x", "2", "y")
+        .join(JoinRelType.INNER, "id")
+        .filter(
+            relBuilder.equals(relBuilder.field(1),
+                relBuilder.literal("a")))
+        .project(relBuilder.field(1), relBuilder.field(3))
+        .build();
+
+    RelTraitSet desiredTraits =
+        cluster.traitSet().replace(EnumerableConvention.INSTANCE);
+    final RelNode newRoot = planner.changeTraits(logicalPlan, desiredTraits);
+    planner.setRoot(newRoot);
+    return RelOptUtil.toString(planner.findBestExp());
+  }
+
   /**
    * Tests transformation of a single+leaf from NONE to PHYS. In the past,
    * this one didn't work due to the definition of ReformedSingleRule.
@@ -701,6 +888,49 @@ public void onMatch(RelOptRuleCall call) {
     }
   }
 
+  /** Relational expression with two inputs, convention PHYS, and a huge
+   * cost. */
+  private static class ExpensiveBiRel extends PhysBiRel {
+    ExpensiveBiRel(RelOptCluster cluster, RelTraitSet traitSet, RelNode left,
+        RelNode right) {
+      super(cluster, traitSet, left, right);
+    }
+
+    @Override public RelOptCost computeSelfCost(RelOptPlanner planner,
+        RelMetadataQuery mq) {
+      return planner.getCostFactory().makeHugeCost();
+    }
+
+    @Override public RelNode copy(RelTraitSet traitSet, List<RelNode> inputs) {
+      assert inputs.size() == 2;
+      return new ExpensiveBiRel(getCluster(), traitSet, inputs.get(0),
+          inputs.get(1));
+    }
+  }
+
+  /** Planner rule that adds an {@link ExpensiveBiRel} alternative to a
+   * {@link PhysSingleRel}; its second input is a new leaf, "b". */
+  private static class ExpensiveAlternativeRule extends RelOptRule {
+    ExpensiveAlternativeRule() {
+      super(operand(PhysSingleRel.class, any()));
+    }
+
+    @Override public Convention getOutConvention() {
+      return PHYS_CALLING_CONVENTION;
+    }
+
+    public void onMatch(RelOptRuleCall call) {
+      final PhysSingleRel singleRel = call.rel(0);
+      final RelOptCluster cluster = singleRel.getCluster();
+      final RelNode right =
+          convert(new NoneLeafRel(cluster, "b"),
+              cluster.traitSetOf(PHYS_CALLING_CONVENTION));
+      call.transformTo(
+          new ExpensiveBiRel(cluster, singleRel.getTraitSet(),
+              singleRel.getInput(), right));
+    }
+  }
+
   /** Planner rule that removes a {@link NoneSingleRel}. */
   private static class ReformedRemoveSingleRule extends RelOptRule {
     ReformedRemoveSingleRule() {
@@ -20,6 +20,9 @@
 import org.apache.calcite.linq4j.Enumerable;
 import org.apache.calcite.linq4j.Enumerator;
 import org.apache.calcite.rel.metadata.NullSentinel;
+import org.apache.calcite.schema.ColumnStatistic;
+import org.apache.calcite.schema.Statistic;
+import org.apache.calcite.sql.SqlKind;
 import org.apache.calcite.test.CalciteAssert;
 import org.apache.calcite.test.Matchers;
 import org.apache.calcite.test.SlowTests;
@@ -54,6 +57,9 @@
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
+import static org.apache.calcite.test.Matchers.within;
+
+import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertThat;
 
@@ -321,6 +327,48 @@ public class ProfilerTest {
         "{type:distribution,columns:[],cardinality:1,expectedCardinality:1.0,surprise:0}");
   }
 
+  /** Tests the {@link ColumnStatistic} that {@link ProfilerImpl} computes
+   * for each column. */
+  @Test public void testColumnStatistic() {
+    // Column 0 is unique; column 1 has three values and a null
+    final List<List<Comparable>> rows = new ArrayList<>();
+    int i = 0;
+    for (int[] valueCount : new int[][] {{10, 3}, {20, 5}, {30, 6}}) {
+      for (int j = 0; j < valueCount[1]; j++) {
+        rows.add(ImmutableList.of(i++, valueCount[0]));
+      }
+    }
+    rows.add(ImmutableList.of(i, NullSentinel.INSTANCE));
+    final List<Profiler.Column> columns =
+        ImmutableList.of(new Profiler.Column(0, "EMPNO"),
+            new Profiler.Column(1, "DEPTNO"));
+    final Profiler.Profile profile =
+        ProfilerImpl.builder().build()
+            .profile(rows, columns, ImmutableList.of());
+
+    final ColumnStatistic deptno = profile.columnStatistic(1);
+    assertThat(deptno.getDistinctCount(), is(4d));
+    assertThat(deptno.getNullFraction(), within(1d / 15d, 1e-6));
+    assertThat(deptno.getMostCommonValues().size(), is(1));
+    assertThat(deptno.getMostCommonValues().get(30d), within(0.4d, 1e-6));
+    assertThat(deptno.getHistogram().getBounds().toString(),
+        is("[10.0, 20.0, 30.0, 30.0]"));
+    // 20 is not a most common value, so shares the remaining rows with 10
+    assertThat(deptno.equalSelectivity(20), within(4d / 15d, 1e-6));
+    assertThat(deptno.rangeSelectivity(SqlKind.LESS_THAN, 20),
+        within(14d / 45d, 1e-6));
+
+    final ColumnStatistic empno = profile.columnStatistic(0);
+    assertThat(empno.getDistinctCount(), is(15d));
+    assertThat(empno.getNullFraction(), is(0d));
+    assertThat(empno.getMostCommonValues().isEmpty(), is(true));
+
+    final Statistic statistic = profile.toStatistic();
+    assertThat(statistic.getRowCount(), is(15d));
+    assertThat(statistic.isKey(ImmutableBitSet.of(0)), is(true));
+    assertThat(statistic.getColumnStatistic(1), sameInstance(deptno));
+  }
+
   /** Tests
    * {@link org.apache.calcite.profile.ProfilerImpl.SurpriseQueue}. */
   @Test public void testSurpriseQueue() {
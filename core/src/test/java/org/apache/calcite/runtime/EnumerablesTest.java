@@ -55,6 +55,12 @@ public class EnumerablesTest {
           new Dept(20, "Sales"),
           new Dept(15, "Marketing")));
 
+  private static final Enumerable<Dept> SORTED_DEPTS = Linq4j.asEnumerable(
+      Arrays.asList(
+          new Dept(15, "Marketing"),
+          new Dept(20, "Sales"),
+          new Dept(30, "Research")));
+
   private static final Function2<Emp, Dept, String> EMP_DEPT_TO_STRING =
       (v0, v1) -> "{" + (v0 == null ? null : v0.name)
           + ", " + (v0 == null ? null : v0.deptno)
@@ -65,6 +71,9 @@ public class EnumerablesTest {
   private static final Predicate2<Emp, Dept> EQUAL_DEPTNO =
       (e, d) -> e.deptno == d.deptno;
 
+  private static final Predicate2<Emp, Dept> NOT_JOE =
+      (e, d) -> !e.name.equals("Joe");
+
   @Test public void testSemiJoin() {
     assertThat(
         EnumerableDefaults.semiJoin(EMPS, DEPTS, e -> e.deptno, d -> d.deptno,
@@ -145,6 +154,51 @@ public class EnumerablesTest {
         equalTo("[]"));
   }
 
+  @Test public void testMergeLeftJoinWithPredicate() {
+    assertThat(
+        EnumerableDefaults.mergeJoin(EMPS, SORTED_DEPTS, e -> e.deptno,
+            d -> d.deptno, NOT_JOE, EMP_DEPT_TO_STRING, JoinType.LEFT)
+            .toList().toString(),
+        equalTo("[{Fred, 10, null, null}, {Theodore, 20, 20, Sales}, "
+            + "{Sebastian, 20, 20, Sales}, {Joe, 30, null, null}]"));
+  }
+
+  @Test public void testMergeFullJoinWithPredicate() {
+    assertThat(
+        EnumerableDefaults.mergeJoin(EMPS, SORTED_DEPTS, e -> e.deptno,
+            d -> d.deptno, NOT_JOE, EMP_DEPT_TO_STRING, JoinType.FULL)
+            .toList().toString(),
+        equalTo("[{Fred, 10, null, null}, {null, null, 15, Marketing}, "
+            + "{Theodore, 20, 20, Sales}, {Sebastian, 20, 20, Sales}, "
+            + "{Joe, 30, null, null}, {null, null, 30, Research}]"));
+  }
+
+  @Test public void testMergeSemiAndAntiJoin() {
+    assertThat(
+        EnumerableDefaults.mergeJoin(EMPS, SORTED_DEPTS, e -> e.deptno,
+            d -> d.deptno, NOT_JOE, EMP_DEPT_TO_STRING, JoinType.SEMI)
+            .toList().toString(),
+        equalTo("[{Theodore, 20, null, null}, {Sebastian, 20, null, null}]"));
+    assertThat(
+        EnumerableDefaults.mergeJoin(EMPS, SORTED_DEPTS, e -> e.deptno,
+            d -> d.deptno, NOT_JOE, EMP_DEPT_TO_STRING, JoinType.ANTI)
+            .toList().toString(),
+        equalTo("[{Fred, 10, null, null}, {Joe, 30, null, null}]"));
+  }
+
+  /** Null keys never match, and may occur anywhere in an input. */
+  @Test public void testMergeJoinNullKeys() {
+    assertThat(
+        EnumerableDefaults.mergeJoin(
+            Linq4j.asEnumerable(Arrays.asList(1, null, 2, 3)),
+            Linq4j.asEnumerable(Arrays.asList(2, 3, null)),
+            Functions.<Integer>identitySelector(),
+            Functions.<Integer>identitySelector(), null,
+            (Integer v0, Integer v1) -> v0 + "-" + v1, JoinType.FULL)
+            .toList().toString(),
+        equalTo("[1-null, null-null, 2-2, 3-3, null-null]"));
+  }
+
   private static <T extends Comparable<T>> Enumerable<T> intersect(
       List<T> list0, List<T> list1) {
     return EnumerableDefaults.mergeJoin(
@@ -59,7 +59,10 @@
 import org.apache.calcite.sql.validate.LexCaseSensitiveTest;
 import org.apache.calcite.sql.validate.LexEscapeTest;
 import org.apache.calcite.sql.validate.SqlValidatorUtilTest;
+import org.apache.calcite.test.enumerable.EnumerableAggregateTest;
 import org.apache.calcite.test.enumerable.EnumerableCorrelateTest;
+import org.apache.calcite.test.enumerable.EnumerableExchangeTest;
+import org.apache.calcite.test.enumerable.EnumerableMergeJoinTest;
 import org.apache.calcite.test.enumerable.EnumerableRepeatUnionHierarchyTest;
 import org.apache.calcite.test.enumerable.EnumerableRepeatUnionTest;
 import org.apache.calcite.test.fuzzer.RexProgramFuzzyTest;
@@ -76,6 +79,7 @@
 import org.apache.calcite.util.TestUtilTest;
 import org.apache.calcite.util.UtilTest;
 import org.apache.calcite.util.graph.DirectedGraphTest;
+import org.apache.calcite.util.javac.CompiledClassCacheTest;
 import org.apache.calcite.util.mapping.MappingTest;
 
 import org.junit.runner.RunWith;
@@ -102,6 +106,7 @@
     RelOptUtilTest.class,
     RelCollationTest.class,
     UtilTest.class,
+    CompiledClassCacheTest.class,
     PrecedenceClimbingParserTest.class,
     SourceTest.class,
     MappingTest.class,
@@ -154,6 +159,7 @@
     RelMetadataTest.class,
     DateRangeRulesTest.class,
     ScannableTableTest.class,
+    ColumnarTest.class,
     RexExecutorTest.class,
     SqlLimitsTest.class,
     JdbcFrontLinqBackTest.class,
@@ -162,7 +168,10 @@
     SqlOperatorTest.class,
     ChunkListTest.class,
     FrameworksTest.class,
+    EnumerableAggregateTest.class,
     EnumerableCorrelateTest.class,
+    EnumerableExchangeTest.class,
+    EnumerableMergeJoinTest.class,
     LookupOperatorOverloadsTest.class,
     LexCaseSensitiveTest.class,
     LexEscapeTest.class,
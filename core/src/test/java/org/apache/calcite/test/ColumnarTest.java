@@ -0,0 +1,197 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.calcite.test;
+
+import org.apache.calcite.DataContext;
+import org.apache.calcite.config.CalciteConnectionProperty;
+import org.apache.calcite.config.Lex;
+import org.apache.calcite.linq4j.Enumerable;
+import org.apache.calcite.linq4j.Linq4j;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeFactory;
+import org.apache.calcite.schema.ScannableTable;
+import org.apache.calcite.schema.Table;
+import org.apache.calcite.schema.impl.AbstractSchema;
+import org.apache.calcite.schema.impl.AbstractTable;
+import org.apache.calcite.schemas.HrClusteredSchema;
+
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Unit test for relational expressions in
+ * {@link org.apache.calcite.adapter.columnar.ColumnarConvention}.
+ */
+public class ColumnarTest {
+  @Test public void filterAggregate() {
+    tester()
+        .query("select deptno, count(*) as c, sum(salary) as s\n"
+            + "from s.emps\n"
+            + "where empid > 100\n"
+            + "group by deptno")
+        .explainContains("ColumnarAggregate")
+        .returnsUnordered("deptno=10; c=2; s=18500",
+            "deptno=20; c=1; s=8000");
+  }
+
+  @Test public void aggregateNulls() {
+    tester()
+        .query("select deptno, count(commission) as c,\n"
+            + " sum(commission) as s, min(commission) as m\n"
+            + "from s.emps\n"
+            + "group by deptno")
+        .returnsUnordered("deptno=10; c=2; s=1250; m=250",
+            "deptno=20; c=1; s=500; m=500");
+  }
+
+  @Test public void filterIsNull() {
+    tester()
+        .query("select name, salary * 2 as s2\n"
+            + "from s.emps\n"
+            + "where commission is null or salary < 8000")
+        .explainContains("ColumnarFilter")
+        .returnsUnordered("name=Sebastian; s2=14000");
+  }
+
+  /** Tests that the operands of AND are only evaluated for rows that the
+   * previous operands have not already rejected; otherwise the division
+   * would fail for employees in department 10. */
+  @Test public void filterShortCircuit() {
+    tester()
+        .query("select name\n"
+            + "from s.emps\n"
+            + "where deptno <> 10 and empid / (deptno - 10) > 1")
+        .explainContains("ColumnarFilter")
+        .returnsUnordered("name=Eric");
+  }
+
+  @Test public void hashJoin() {
+    tester()
+        .query("select e.empid, d.name\n"
+            + "from s.emps as e\n"
+            + "join s.depts as d on e.deptno = d.deptno")
+        .explainContains("ColumnarHashJoin")
+        .returnsUnordered("empid=100; name=Sales",
+            "empid=110; name=Sales",
+            "empid=150; name=Sales");
+  }
+
+  /** Tests a filter whose input has several batches. */
+  @Test public void filterMultiBatch() {
+    tester()
+        .query("select count(*) as c, sum(n) as s\n"
+            + "from n.nums\n"
+            + "where k = 3 and n >= 1000")
+        .explainContains("ColumnarFilter")
+        .returns("c=200; s=399600\n");
+  }
+
+  /** Tests an aggregate whose input has several batches, and one that has
+   * more groups than fit in a batch. */
+  @Test public void aggregateMultiBatch() {
+    tester()
+        .query("select k, count(*) as c, sum(n) as s, min(d) as m\n"
+            + "from n.nums\n"
+            + "group by k")
+        .explainContains("ColumnarAggregate")
+        .returnsUnordered("k=0; c=300; s=448500; m=0.0",
+            "k=1; c=300; s=448800; m=0.5",
+            "k=2; c=300; s=449100; m=1.0",
+            "k=3; c=300; s=449400; m=1.5",
+            "k=4; c=300; s=449700; m=2.0",
+            "k=5; c=300; s=450000; m=2.5",
+            "k=6; c=300; s=450300; m=3.0",
+            "k=7; c=300; s=450600; m=3.5",
+            "k=8; c=300; s=450900; m=4.0",
+            "k=9; c=300; s=451200; m=4.5");
+    tester()
+        .query("select count(*) as c, sum(c) as s\n"
+            + "from (select g, count(*) as c from n.nums group by g)")
+        .explainContains("ColumnarAggregate")
+        .returns("c=1500; s=3000\n");
+  }
+
+  /** Tests a hash join both of whose inputs have several batches, on a key
+   * of a floating-point and a string column. */
+  @Test public void hashJoinMultiBatch() {
+    tester()
+        .query("select count(*) as c, sum(b.n) as s\n"
+            + "from n.nums as a\n"
+            + "join n.nums as b on a.d = b.d and a.name = b.name")
+        .explainContains("ColumnarHashJoin")
+        .returns("c=3000; s=4498500\n");
+  }
+
+  /** Tests a hash join where each row has 300 matches, so that output
+   * batches end part way through the matches of a row. */
+  @Test public void hashJoinManyMatches() {
+    tester()
+        .query("select count(*) as c, sum(b.k) as s\n"
+            + "from n.nums as a\n"
+            + "join n.nums as b on a.k = b.k")
+        .explainContains("ColumnarHashJoin")
+        .returns("c=900000; s=4050000\n");
+  }
+
+  private CalciteAssert.AssertThat tester() {
+    return CalciteAssert.that()
+        .with(CalciteConnectionProperty.LEX, Lex.JAVA)
+        .with(CalciteConnectionProperty.COLUMNAR, true)
+        .withSchema("s", new HrClusteredSchema())
+        .withSchema("n", new AbstractSchema() {
+          @Override protected Map<String, Table> getTableMap() {
+            return ImmutableMap.of("nums", new NumbersTable(3000));
+          }
+        });
+  }
+
+  /** Table whose rows are the numbers from 0 to a given limit, with values
+   * derived from each number, so that results are easy to compute. */
+  private static class NumbersTable extends AbstractTable
+      implements ScannableTable {
+    private final int count;
+
+    NumbersTable(int count) {
+      this.count = count;
+    }
+
+    public RelDataType getRowType(RelDataTypeFactory typeFactory) {
+      return new RelDataTypeFactory.Builder(typeFactory)
+          .add("n", typeFactory.createJavaType(int.class))
+          .add("k", typeFactory.createJavaType(int.class))
+          .add("g", typeFactory.createJavaType(int.class))
+          .add("d", typeFactory.createJavaType(double.class))
+          .add("name", typeFactory.createJavaType(String.class))
+          .build();
+    }
+
+    public Enumerable<Object[]> scan(DataContext root) {
+      final List<Object[]> rows = new ArrayList<>();
+      for (int n = 0; n < count; n++) {
+        rows.add(new Object[] {n, n % 10, n / 2, n * 0.5, "n" + n % 7});
+      }
+      return Linq4j.asEnumerable(rows);
+    }
+  }
+}
+
+// End ColumnarTest.java
@@ -18,6 +18,8 @@
 
 import org.apache.calcite.plan.RelOptListener;
 import org.apache.calcite.plan.RelOptMaterialization;
+import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.plan.RuleProfiler;
 import org.apache.calcite.plan.hep.HepMatchOrder;
 import org.apache.calcite.plan.hep.HepPlanner;
 import org.apache.calcite.plan.hep.HepProgram;
@@ -29,17 +31,22 @@
 import org.apache.calcite.rel.logical.LogicalUnion;
 import org.apache.calcite.rel.rules.CalcMergeRule;
 import org.apache.calcite.rel.rules.CoerceInputsRule;
+import org.apache.calcite.rel.rules.FilterMergeRule;
 import org.apache.calcite.rel.rules.FilterToCalcRule;
 import org.apache.calcite.rel.rules.ProjectRemoveRule;
 import org.apache.calcite.rel.rules.ProjectToCalcRule;
 import org.apache.calcite.rel.rules.ReduceExpressionsRule;
 import org.apache.calcite.rel.rules.UnionToDistinctRule;
+import org.apache.calcite.sql.fun.SqlStdOperatorTable;
+import org.apache.calcite.tools.RelBuilder;
 
 import com.google.common.collect.ImmutableList;
 
 import org.junit.Test;
 
+import static org.hamcrest.CoreMatchers.endsWith;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.startsWith;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
 
@@ -308,11 +315,82 @@ private void assertIncludesExactlyOnce(String message, String digest, String sub
   }
 
   @Test public void testRuleApplyCount() {
+    // Before the planner stopped re-trying rules on unchanged vertices,
+    // the counts were 316 and 87.
     final long applyTimes1 = checkRuleApplyCount(HepMatchOrder.ARBITRARY);
-    assertThat(applyTimes1, is(316L));
+    assertThat(applyTimes1, is(66L));
 
     final long applyTimes2 = checkRuleApplyCount(HepMatchOrder.DEPTH_FIRST);
-    assertThat(applyTimes2, is(87L));
+    assertThat(applyTimes2, is(66L));
+  }
+
+  /** Tests that the planner does not fire a rule again on a vertex that has
+   * not changed since the rule last failed on it. */
+  @Test public void testNoRefireOnUnchangedVertex() {
+    final RelBuilder b = RelBuilder.create(RelBuilderTest.config().build());
+    final RelNode rel = b.scan("DEPT")
+        .filter(
+            b.call(SqlStdOperatorTable.GREATER_THAN, b.field("DEPTNO"),
+                b.literal(10)))
+        .project(b.fields(), ImmutableList.of(), true)
+        .build();
+
+    final HepProgramBuilder programBuilder = HepProgram.builder();
+    programBuilder.addMatchOrder(HepMatchOrder.BOTTOM_UP);
+    programBuilder.addRuleInstance(ReduceExpressionsRule.FILTER_INSTANCE);
+    programBuilder.addRuleInstance(ProjectRemoveRule.INSTANCE);
+    final HepPlanner planner = new HepPlanner(programBuilder.build());
+    final RuleProfiler profiler = new RuleProfiler();
+    planner.addListener(profiler);
+    planner.setRoot(rel);
+    final RelNode best = planner.findBestExp();
+
+    final String expected = ""
+        + "LogicalFilter(condition=[>($0, 10)])\n"
+        + "  LogicalTableScan(table=[[scott, DEPT]])\n";
+    assertThat(RelOptUtil.toString(best), is(expected));
+
+    // ReduceExpressionsRule fires on the filter before ProjectRemoveRule
+    // removes the project above it, and not again when the planner restarts
+    // from the root.
+    int attempts = -1;
+    for (RuleProfiler.RuleStats stats : profiler.snapshot().getRules()) {
+      if (stats.getRule()
+          .equals(ReduceExpressionsRule.FILTER_INSTANCE.toString())) {
+        attempts = stats.getAttempts();
+      }
+    }
+    assertThat(attempts, is(1));
+  }
+
+  /** Tests that garbage collection does work proportional to the garbage
+   * that each transformation creates, not to the size of the graph. Merging
+   * a chain of {@code n} filters used to walk the whole graph after each of
+   * the {@code n - 1} merges, visiting about {@code n * n / 2} vertices. */
+  @Test public void testGarbageCollectionIsIncremental() {
+    final int n = 100;
+    final RelBuilder b = RelBuilder.create(RelBuilderTest.config().build());
+    b.scan("DEPT");
+    for (int i = 0; i < n; i++) {
+      b.filter(
+          b.call(SqlStdOperatorTable.GREATER_THAN, b.field("DEPTNO"),
+              b.literal(i)));
+    }
+    final RelNode rel = b.build();
+
+    final HepProgramBuilder programBuilder = HepProgram.builder();
+    programBuilder.addMatchOrder(HepMatchOrder.BOTTOM_UP);
+    programBuilder.addRuleInstance(FilterMergeRule.INSTANCE);
+    final HepPlanner planner = new HepPlanner(programBuilder.build());
+    planner.setRoot(rel);
+    final String plan = RelOptUtil.toString(planner.findBestExp());
+    assertThat(plan, startsWith("LogicalFilter("));
+    assertThat(plan, endsWith("  LogicalTableScan(table=[[scott, DEPT]])\n"));
+    assertThat(plan.split("\n").length, is(2));
+
+    // One full collection when the program starts (n + 1 vertices), then a
+    // few vertices per merge
+    assertThat(planner.getGarbageCollectionVisitCount() < 10 * n, is(true));
   }
 
   @Test public void testMaterialization() throws Exception {
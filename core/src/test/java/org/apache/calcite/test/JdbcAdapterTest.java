@@ -16,7 +16,17 @@
  */
 package org.apache.calcite.test;
 
+import org.apache.calcite.adapter.enumerable.EnumerableBatchNestedLoopJoinRule;
+import org.apache.calcite.adapter.enumerable.EnumerableRules;
+import org.apache.calcite.adapter.jdbc.JdbcConnectionPool;
+import org.apache.calcite.adapter.jdbc.JdbcSchema;
 import org.apache.calcite.config.Lex;
+import org.apache.calcite.linq4j.Enumerator;
+import org.apache.calcite.plan.RelOptPlanner;
+import org.apache.calcite.rel.core.RelFactories;
+import org.apache.calcite.runtime.Hook;
+import org.apache.calcite.runtime.ResultSetEnumerable;
+import org.apache.calcite.test.CalciteAssert.AssertQuery;
 import org.apache.calcite.test.CalciteAssert.AssertThat;
 import org.apache.calcite.test.CalciteAssert.DatabaseInstance;
 import org.apache.calcite.util.TestUtil;
@@ -26,13 +36,20 @@
 
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Properties;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import javax.sql.DataSource;
 
+import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertFalse;
@@ -926,6 +943,294 @@ private LockWrapper exclusiveCleanDb(Connection c) throws SQLException {
         .planHasSql("SELECT \"EMPNO\", \"ENAME\"\nFROM \"SCOTT\".\"EMP\"\nWHERE \"EMPNO\" = ?");
   }
 
+  /** Tests a JDBC schema that sets the fetch size, streams rows and
+   * prefetches rows in a background thread. */
+  @Test public void testFetchSizeStreamingPrefetch() {
+    final String model = JdbcTest.SCOTT_MODEL
+        .replace("       jdbcCatalog: ",
+            "       fetchSize: 5,\n"
+                + "       streaming: true,\n"
+                + "       prefetchSize: 3,\n"
+                + "       jdbcCatalog: ");
+    final String sql = "select empno, ename from emp";
+    CalciteAssert.model(model)
+        .query(sql)
+        .planContains("enumerable.setFetchSize(5);")
+        .planContains("enumerable.setStreaming(true);")
+        .planContains("enumerable.setPrefetchSize(3);")
+        .returnsCount(14);
+    final String sql2 = "select e.ename, d.dname\n"
+        + "from emp as e join dept as d on e.deptno = d.deptno\n"
+        + "where d.deptno = 10 order by e.ename";
+    CalciteAssert.model(model)
+        .query(sql2)
+        .returns("ENAME=CLARK; DNAME=ACCOUNTING\n"
+            + "ENAME=KING; DNAME=ACCOUNTING\n"
+            + "ENAME=MILLER; DNAME=ACCOUNTING\n");
+  }
+
+  /** Tests that an enumerator that prefetches rows can be reset, and that
+   * it then executes the query again. */
+  @Test public void testPrefetchReset() {
+    final ConnectionSpec spec = JdbcTest.SCOTT;
+    final DataSource dataSource =
+        JdbcSchema.dataSource(spec.url, spec.driver, spec.username,
+            spec.password);
+    final ResultSetEnumerable<Object> enumerable =
+        ResultSetEnumerable.of(dataSource,
+            "select ename from scott.emp where deptno = 10 order by ename");
+    enumerable.setStreaming(true);
+    enumerable.setPrefetchSize(2);
+    final List<Object> expected = Arrays.asList("CLARK", "KING", "MILLER");
+    try (Enumerator<Object> enumerator = enumerable.enumerator()) {
+      final List<Object> list = new ArrayList<>();
+      while (enumerator.moveNext()) {
+        list.add(enumerator.current());
+      }
+      assertThat(list, is(expected));
+
+      // Reset after reading part of the rows, and read them all again
+      enumerator.reset();
+      assertThat(enumerator.moveNext(), is(true));
+      enumerator.reset();
+      list.clear();
+      while (enumerator.moveNext()) {
+        list.add(enumerator.current());
+      }
+      assertThat(list, is(expected));
+    }
+  }
+
+  /** Tests a batch nested loop join whose right input is a JDBC table; each
+   * batch of rows from the left input becomes one parameterized query. The
+   * left input is a reflective table, so that the join cannot be executed in
+   * the database. */
+  @Test public void testBatchNestedLoopJoinPushesLookupToJdbc() {
+    final String sql = "select e.\"ENAME\"\n"
+        + "from \"hr\".\"depts\" as d\n"
+        + "join \"JDBC_SCOTT\".\"EMP\" as e on d.\"deptno\" = e.\"DEPTNO\"";
+    CalciteAssert.that()
+        .with(CalciteAssert.SchemaSpec.HR, CalciteAssert.SchemaSpec.JDBC_SCOTT)
+        .query(sql)
+        .withHook(Hook.PLANNER, (Consumer<RelOptPlanner>) planner -> {
+          planner.removeRule(EnumerableRules.ENUMERABLE_CORRELATE_RULE);
+          planner.removeRule(EnumerableRules.ENUMERABLE_JOIN_RULE);
+          planner.removeRule(EnumerableRules.ENUMERABLE_MERGE_JOIN_RULE);
+          planner.addRule(
+              new EnumerableBatchNestedLoopJoinRule(
+                  RelFactories.LOGICAL_BUILDER, 2));
+        })
+        .explainContains("EnumerableBatchNestedLoopJoin")
+        .queryContains(list -> {
+          assertThat(list.size(), is(1));
+          final String jdbcSql = list.get(0).toString();
+          assertThat(jdbcSql, containsString("?"));
+          assertThat(jdbcSql, containsString(" OR "));
+        })
+        .returnsUnordered("ENAME=CLARK", "ENAME=KING", "ENAME=MILLER",
+            "ENAME=ALLEN", "ENAME=WARD", "ENAME=MARTIN", "ENAME=BLAKE",
+            "ENAME=TURNER", "ENAME=JAMES");
+  }
+
+  /** Tests reading a table as several partitions in parallel. */
+  @Test public void testPartitionedScan() {
+    final String model = JdbcTest.SCOTT_MODEL
+        .replace("       jdbcCatalog: ",
+            "       partitions: {\n"
+                + "         EMP: {column: 'EMPNO', partitionCount: 3}\n"
+                + "       },\n"
+                + "       jdbcCatalog: ");
+    CalciteAssert.model(model)
+        .query("select empno, ename from emp")
+        .planContains("ResultSetEnumerable.union(")
+        .returnsCount(14);
+    CalciteAssert.model(model)
+        .query("select ename from emp where deptno = 20")
+        .planContains("ResultSetEnumerable.union(")
+        .returnsUnordered("ENAME=SMITH", "ENAME=JONES", "ENAME=SCOTT",
+            "ENAME=ADAMS", "ENAME=FORD");
+    // Aggregate is over the union of the partitions, or is executed in the
+    // database as a single query; either way, each row is counted once
+    CalciteAssert.model(model)
+        .query("select count(*) as c from emp")
+        .returns("C=14\n");
+
+    // Ordered, with bounds that do not cover all values
+    final String model2 = JdbcTest.SCOTT_MODEL
+        .replace("       jdbcCatalog: ",
+            "       partitions: {\n"
+                + "         EMP: {column: 'EMPNO', partitionCount: 4,\n"
+                + "           lowerBound: 7500, upperBound: 7700,\n"
+                + "           ordered: true}\n"
+                + "       },\n"
+                + "       jdbcCatalog: ");
+    CalciteAssert.model(model2)
+        .query("select empno from emp where empno < 7600")
+        .planContains("ResultSetEnumerable.union(")
+        .returns("EMPNO=7369\n"
+            + "EMPNO=7499\n"
+            + "EMPNO=7521\n"
+            + "EMPNO=7566\n");
+
+    // More partitions than connections (the data source allows 8);
+    // partitions are read at most 8 at a time, and bounds are read from the
+    // database for each query
+    for (boolean ordered : new boolean[] {false, true}) {
+      final String model3 = JdbcTest.SCOTT_MODEL
+          .replace("       jdbcCatalog: ",
+              "       partitions: {\n"
+                  + "         EMP: {column: 'EMPNO', partitionCount: 10,\n"
+                  + "           ordered: " + ordered + ", boundsTtl: 0}\n"
+                  + "       },\n"
+                  + "       jdbcCatalog: ");
+      for (int i = 0; i < 2; i++) {
+        final AssertQuery query = CalciteAssert.model(model3)
+            .query("select empno from emp where deptno = 10")
+            .planContains("ResultSetEnumerable.union(")
+            .planContains(ordered + ", 8)");
+        if (ordered) {
+          query.returns("EMPNO=7782\nEMPNO=7839\nEMPNO=7934\n");
+        } else {
+          query.returnsUnordered("EMPNO=7782", "EMPNO=7839", "EMPNO=7934");
+        }
+      }
+    }
+
+    // A pool with one connection; partitions are read one at a time
+    for (boolean ordered : new boolean[] {false, true}) {
+      final String model4 = JdbcTest.SCOTT_MODEL
+          .replace("       jdbcCatalog: ",
+              "       maxConnections: 1,\n"
+                  + "       partitions: {\n"
+                  + "         EMP: {column: 'EMPNO', partitionCount: 4,\n"
+                  + "           ordered: " + ordered + "}\n"
+                  + "       },\n"
+                  + "       jdbcCatalog: ");
+      final AssertQuery query = CalciteAssert.model(model4)
+          .query("select empno from emp where deptno = 10")
+          .planContains("ResultSetEnumerable.union(")
+          .planContains(ordered + ", 1)");
+      if (ordered) {
+        query.returns("EMPNO=7782\nEMPNO=7839\nEMPNO=7934\n");
+      } else {
+        query.returnsUnordered("EMPNO=7782", "EMPNO=7839", "EMPNO=7934");
+      }
+    }
+  }
+
+  /** Tests a windowed query against a partitioned table. Whether the
+   * windowed aggregates are executed in the database (if its dialect
+   * supports them) or by Calcite, each is computed over all rows, not over
+   * the rows of one partition. */
+  @Test public void testPartitionedScanWindow() {
+    final String model = JdbcTest.SCOTT_MODEL
+        .replace("       jdbcCatalog: ",
+            "       partitions: {\n"
+                + "         EMP: {column: 'EMPNO', partitionCount: 3}\n"
+                + "       },\n"
+                + "       jdbcCatalog: ");
+    CalciteAssert.model(model)
+        .query("select empno, count(*) over () as c,\n"
+            + "  row_number() over (order by empno) as rn\n"
+            + "from emp where deptno = 20")
+        .returnsUnordered("EMPNO=7369; C=5; RN=1",
+            "EMPNO=7566; C=5; RN=2",
+            "EMPNO=7788; C=5; RN=3",
+            "EMPNO=7876; C=5; RN=4",
+            "EMPNO=7902; C=5; RN=5");
+  }
+
+  /** Tests that a JDBC schema with a connection pool and statement cache
+   * reuses the prepared statement when a query is executed again. */
+  @Test public void testStatementCache() throws Exception {
+    final String model = JdbcTest.SCOTT_MODEL
+        .replace("       jdbcCatalog: ",
+            "       maxConnections: 2,\n"
+                + "       statementCacheSize: 10,\n"
+                + "       jdbcCatalog: ");
+    final String sql =
+        "select ename from emp where deptno = 10 order by ename";
+    CalciteAssert.model(model)
+        .query(sql)
+        .planContains("ResultSetEnumerable.of(")
+        .planContains("createEnricher(")
+        .returnsUnordered("ENAME=CLARK", "ENAME=KING", "ENAME=MILLER");
+    CalciteAssert.model(model)
+        .doWithConnection(connection -> {
+          try (Statement statement = connection.createStatement()) {
+            final JdbcSchema schema =
+                connection.getRootSchema().getSubSchema("SCOTT")
+                    .unwrap(JdbcSchema.class);
+            final JdbcConnectionPool pool =
+                schema.getDataSource().unwrap(JdbcConnectionPool.class);
+            final JdbcConnectionPool.Metrics before = pool.metrics();
+            for (int i = 0; i < 3; i++) {
+              try (ResultSet resultSet = statement.executeQuery(sql)) {
+                assertThat(CalciteAssert.toString(resultSet),
+                    is("ENAME=CLARK\nENAME=KING\nENAME=MILLER\n"));
+              }
+            }
+            final JdbcConnectionPool.Metrics after = pool.metrics();
+            final String message = before + " " + after;
+            // Each execution prepares the same statement. At most the first
+            // prepares it (the pool is shared with the schema of the first
+            // query, whose connection may already have it cached); the
+            // others must take the statement from the cache.
+            final long hits =
+                after.statementCacheHits - before.statementCacheHits;
+            final long misses =
+                after.statementCacheMisses - before.statementCacheMisses;
+            assertThat(message, hits + misses, is(3L));
+            assertThat(message, misses <= 1, is(true));
+            assertThat(message, after.activeConnections, is(0));
+            assertThat(message, after.connectionsCreated <= 2, is(true));
+          } catch (SQLException e) {
+            throw new RuntimeException(e);
+          }
+        });
+  }
+
+  /** Tests that a statement taken from the cache has the driver's default
+   * query timeout, fetch size and maximum number of rows, not the values set
+   * by the previous user. */
+  @Test public void testStatementCacheResetsSettings() throws Exception {
+    final ConnectionSpec spec = JdbcTest.SCOTT;
+    final JdbcConnectionPool pool =
+        (JdbcConnectionPool) JdbcConnectionPool.wrap(
+            JdbcSchema.dataSource(spec.url, spec.driver, spec.username,
+                spec.password), 1, 10);
+    final String sql =
+        "select ename from scott.emp where deptno = 10 order by ename";
+    try (Connection connection = pool.getConnection()) {
+      final int queryTimeout;
+      final int fetchSize;
+      final int maxRows;
+      try (PreparedStatement statement = connection.prepareStatement(sql)) {
+        queryTimeout = statement.getQueryTimeout();
+        fetchSize = statement.getFetchSize();
+        maxRows = statement.getMaxRows();
+        statement.setQueryTimeout(queryTimeout + 30);
+        statement.setFetchSize(fetchSize + 2);
+        statement.setMaxRows(1);
+        try (ResultSet resultSet = statement.executeQuery()) {
+          assertThat(CalciteAssert.toString(resultSet), is("ENAME=CLARK\n"));
+        }
+      }
+      try (PreparedStatement statement = connection.prepareStatement(sql)) {
+        assertThat(pool.metrics().statementCacheHits, is(1L));
+        assertThat(statement.getQueryTimeout(), is(queryTimeout));
+        assertThat(statement.getFetchSize(), is(fetchSize));
+        assertThat(statement.getMaxRows(), is(maxRows));
+        try (ResultSet resultSet = statement.executeQuery()) {
+          assertThat(CalciteAssert.toString(resultSet),
+              is("ENAME=CLARK\nENAME=KING\nENAME=MILLER\n"));
+        }
+      }
+    } finally {
+      pool.close();
+    }
+  }
+
   /** Acquires a lock, and releases it when closed. */
   static class LockWrapper implements AutoCloseable {
     private final Lock lock;
@@ -51,6 +51,7 @@
 import org.apache.calcite.plan.RelOptTable;
 import org.apache.calcite.plan.RelOptUtil;
 import org.apache.calcite.prepare.CalcitePrepareImpl;
+import org.apache.calcite.prepare.PlanCache;
 import org.apache.calcite.prepare.Prepare;
 import org.apache.calcite.rel.RelNode;
 import org.apache.calcite.rel.core.TableModify;
@@ -135,6 +136,7 @@
 import java.util.Properties;
 import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.regex.Pattern;
 import java.util.stream.Stream;
@@ -2377,6 +2379,41 @@ private void checkNullableTimestamp(CalciteAssert.Config config) {
             + "T=Y\n");
   }
 
+  /** Tests that the pattern of {@code LIKE} is compiled once, into a static
+   * field, if it is a literal. */
+  @Test public void testLikeLiteralPattern() {
+    CalciteAssert.hr()
+        .query("select \"name\" from \"hr\".\"emps\"\n"
+            + "where \"name\" like 'S%' or \"name\" like '%o_e'\n"
+            + "or \"name\" like 'Bi!%' escape '!'")
+        .planContains("static final org.apache.calcite.runtime.Like.Matcher ")
+        .planContains("org.apache.calcite.runtime.SqlFunctions"
+            + ".likeMatcher(\"S%\");")
+        .planContains("org.apache.calcite.runtime.SqlFunctions"
+            + ".likeMatcher(\"%o_e\");")
+        .planContains("org.apache.calcite.runtime.SqlFunctions"
+            + ".likeMatcher(\"Bi!%\", \"!\");")
+        .returnsUnordered("name=Sebastian",
+            "name=Theodore");
+  }
+
+  /** Tests that the pattern of {@code REGEXP_REPLACE} is compiled once, into
+   * a static field, if it is a literal, including when the call is in the
+   * program of an {@code EnumerableCalc}. */
+  @Test public void testRegexpReplaceLiteralPattern() {
+    CalciteAssert.hr()
+        .with(CalciteConnectionProperty.FUN, "oracle")
+        .query("select regexp_replace(\"name\", '[ae]', '*') as n\n"
+            + "from \"hr\".\"emps\"")
+        .planContains("static final java.util.regex.Pattern ")
+        .planContains("org.apache.calcite.runtime.SqlFunctions"
+            + ".regexpPattern(\"[ae]\", ")
+        .returnsUnordered("N=Bill",
+            "N=Eric",
+            "N=S*b*sti*n",
+            "N=Th*odor*");
+  }
+
   @Test public void testReuseExpressionWhenNullChecking2() {
     CalciteAssert.hr()
         .query(
@@ -2844,6 +2881,55 @@ private void checkNullableTimestamp(CalciteAssert.Config config) {
             + "store_id=0; grocery_sqft=null\n");
   }
 
+  /** Tests that ORDER BY with a small LIMIT is implemented as a top-N
+   * operation, and with a large or dynamic LIMIT as a sort followed by a
+   * limit. */
+  @Test public void testOrderByLimitTopN() {
+    final String sql = "select \"store_id\" from \"store\"\n"
+        + "where \"store_id\" < 6 order by \"grocery_sqft\" limit ";
+    final CalciteAssert.AssertThat with = CalciteAssert.that()
+        .with(CalciteAssert.Config.FOODMART_CLONE);
+    with.query(sql + "2 offset 1")
+        .planContains("EnumerableDefaults.orderBy(")
+        .returns("store_id=4\n"
+            + "store_id=1\n");
+    with.query(sql + "20000")
+        .planContains(".take(20000)")
+        .returnsCount(6);
+    with.query(sql + "9999 offset 2")
+        .planContains(".take(")
+        .returnsCount(4);
+  }
+
+  /** Tests ORDER BY with a sort that spills sorted runs to disk. */
+  @Test public void testOrderBySpill() {
+    CalciteAssert.that()
+        .with(CalciteAssert.Config.FOODMART_CLONE)
+        .with(CalciteConnectionProperty.SORT_SPILL_THRESHOLD, 2)
+        .query("select \"store_id\", \"grocery_sqft\" from \"store\"\n"
+            + "where \"store_id\" < 6 order by 2")
+        .returns("store_id=5; grocery_sqft=15012\n"
+            + "store_id=4; grocery_sqft=16844\n"
+            + "store_id=1; grocery_sqft=17475\n"
+            + "store_id=2; grocery_sqft=22271\n"
+            + "store_id=3; grocery_sqft=24390\n"
+            + "store_id=0; grocery_sqft=null\n");
+  }
+
+  /** Tests ORDER BY with a sort that may spill, over a table whose rows are
+   * objects of a class that is not {@link java.io.Serializable}; the sort
+   * converts them to arrays before it spills. */
+  @Test public void testOrderBySpillCustomRows() {
+    CalciteAssert.hr()
+        .with(CalciteConnectionProperty.SORT_SPILL_THRESHOLD, 2)
+        .query("select * from \"hr\".\"emps\" order by \"empid\" desc")
+        .planContains("EnumerableDefaults.orderBy(")
+        .returns("empid=200; deptno=20; name=Eric; salary=8000.0; commission=500\n"
+            + "empid=150; deptno=10; name=Sebastian; salary=7000.0; commission=null\n"
+            + "empid=110; deptno=10; name=Theodore; salary=11500.0; commission=250\n"
+            + "empid=100; deptno=10; name=Bill; salary=10000.0; commission=1000\n");
+  }
+
   /** Tests ORDER BY ... DESC. Nulls come first (they come last for ASC). */
   @Test public void testOrderByDesc() {
     CalciteAssert.that()
@@ -4973,6 +5059,88 @@ private void checkPreparedOffsetFetch(final int offset, final int fetch,
         });
   }
 
+  /** Tests that queries that differ only in literals share a plan if the
+   * plan cache is enabled. */
+  @Test public void testPlanCache() throws Exception {
+    final String sql = "select \"name\" from \"hr\".\"emps\"\n"
+        + "where \"empid\" > %d and \"name\" <> '%s'";
+    final long hitCount0 = PlanCache.stats().hitCount();
+    CalciteAssert.hr()
+        .with(CalciteConnectionProperty.PLAN_CACHE, true)
+        .doWithConnection(connection -> {
+          try (Statement s = connection.createStatement()) {
+            final ResultSet r0 =
+                s.executeQuery(String.format(Locale.ROOT, sql, 120, "Bill"));
+            assertThat(r0,
+                Matchers.returnsUnordered("name=Eric", "name=Sebastian"));
+            final ResultSet r1 =
+                s.executeQuery(String.format(Locale.ROOT, sql, 100, "Eric"));
+            assertThat(r1,
+                Matchers.returnsUnordered("name=Sebastian", "name=Theodore"));
+          } catch (SQLException e) {
+            throw TestUtil.rethrow(e);
+          }
+        });
+    assertThat(PlanCache.stats().hitCount() > hitCount0, is(true));
+  }
+
+  /** Tests that the plan cache reuses a plan only within the connection that
+   * prepared it; another connection, even with the same schema, prepares the
+   * query again. */
+  @Test public void testPlanCacheIsPerConnection() throws Exception {
+    final String sql = "select \"name\" from \"hr\".\"emps\"\n"
+        + "where \"empid\" > %d and \"deptno\" < 25";
+    final AtomicInteger conversions = new AtomicInteger();
+    try (Hook.Closeable ignored =
+             Hook.CONVERTED.addThread(
+                 (Consumer<RelNode>) rel -> conversions.incrementAndGet())) {
+      for (int i = 0; i < 2; i++) {
+        final int conversions0 = conversions.get();
+        CalciteAssert.hr()
+            .with(CalciteConnectionProperty.PLAN_CACHE, true)
+            .doWithConnection(connection -> {
+              try (Statement s = connection.createStatement()) {
+                final ResultSet r0 =
+                    s.executeQuery(String.format(Locale.ROOT, sql, 120));
+                assertThat(r0,
+                    Matchers.returnsUnordered("name=Eric", "name=Sebastian"));
+                final ResultSet r1 =
+                    s.executeQuery(String.format(Locale.ROOT, sql, 140));
+                assertThat(r1,
+                    Matchers.returnsUnordered("name=Eric", "name=Sebastian"));
+              } catch (SQLException e) {
+                throw TestUtil.rethrow(e);
+              }
+            });
+        // Each connection prepares the query once, and reuses the plan for
+        // the second execution
+        assertThat(conversions.get() - conversions0, is(1));
+      }
+    }
+  }
+
+  /** Tests that EXPLAIN PLAN prints statistics of the rules that the planner
+   * fired if the rule profile is enabled. */
+  @Test public void testRuleProfile() {
+    final String sql = "select \"name\" from \"hr\".\"emps\"\n"
+        + "where \"empid\" > 120";
+    CalciteAssert.hr()
+        .with(CalciteConnectionProperty.RULE_PROFILE, true)
+        .query(sql)
+        .explainContains("Attempts  Success")
+        .explainContains("EnumerableFilterRule");
+    CalciteAssert.hr()
+        .query(sql)
+        .explainMatches("", resultSet -> {
+          try {
+            assertThat(resultSet.next(), is(true));
+            assertThat(resultSet.getString(1), not(containsString("Attempts")));
+          } catch (SQLException e) {
+            throw TestUtil.rethrow(e);
+          }
+        });
+  }
+
   /** Tests a JDBC connection that provides a model (a single schema based on
    * a JDBC database). */
   @Test public void testModel() {
@@ -16,8 +16,11 @@
  */
 package org.apache.calcite.test;
 
+import org.apache.calcite.DataContext;
 import org.apache.calcite.adapter.enumerable.EnumerableMergeJoin;
 import org.apache.calcite.config.CalciteSystemProperty;
+import org.apache.calcite.linq4j.Enumerable;
+import org.apache.calcite.linq4j.Linq4j;
 import org.apache.calcite.linq4j.tree.Types;
 import org.apache.calcite.plan.RelOptCluster;
 import org.apache.calcite.plan.RelOptPlanner;
@@ -60,6 +63,7 @@
 import org.apache.calcite.rel.metadata.DefaultRelMetadataProvider;
 import org.apache.calcite.rel.metadata.JaninoRelMetadataProvider;
 import org.apache.calcite.rel.metadata.Metadata;
+import org.apache.calcite.rel.metadata.MetadataCache;
 import org.apache.calcite.rel.metadata.MetadataDef;
 import org.apache.calcite.rel.metadata.MetadataHandler;
 import org.apache.calcite.rel.metadata.ReflectiveRelMetadataProvider;
@@ -70,6 +74,7 @@
 import org.apache.calcite.rel.metadata.RelMetadataProvider;
 import org.apache.calcite.rel.metadata.RelMetadataQuery;
 import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeFactory;
 import org.apache.calcite.rex.RexBuilder;
 import org.apache.calcite.rex.RexCall;
 import org.apache.calcite.rex.RexInputRef;
@@ -77,6 +82,12 @@
 import org.apache.calcite.rex.RexNode;
 import org.apache.calcite.rex.RexTableInputRef;
 import org.apache.calcite.rex.RexTableInputRef.RelTableRef;
+import org.apache.calcite.schema.ColumnStatistic;
+import org.apache.calcite.schema.ScannableTable;
+import org.apache.calcite.schema.SchemaPlus;
+import org.apache.calcite.schema.Statistic;
+import org.apache.calcite.schema.Statistics;
+import org.apache.calcite.schema.impl.AbstractTable;
 import org.apache.calcite.sql.SqlKind;
 import org.apache.calcite.sql.SqlOperator;
 import org.apache.calcite.sql.SqlSpecialOperator;
@@ -91,6 +102,7 @@
 import org.apache.calcite.util.ImmutableIntList;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Multimap;
@@ -119,6 +131,7 @@
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
 
 import static org.apache.calcite.test.Matchers.within;
 
@@ -829,6 +842,39 @@ private void checkRelSelectivity(
     }
   }
 
+  /** Tests that a metadata handler for a new provider (which happens if the
+   * provider does not implement {@code equals}) gives the same results as the
+   * handler for the cluster's provider. By default, such a handler
+   * dispatches via method handles and is cheap to create; see
+   * {@link CalciteSystemProperty#METADATA_HANDLER_COMPILE}. */
+  @Test public void testMetadataHandlerForNewProvider() {
+    final RelNode rel =
+        convertSql("select empno, deptno from emp where deptno = 10");
+    final ImmutableBitSet empno = ImmutableBitSet.of(0);
+    final ImmutableBitSet deptno = ImmutableBitSet.of(1);
+    final RelMetadataQuery mq0 = RelMetadataQuery.instance();
+    final Double rowCount = mq0.getRowCount(rel);
+    final Boolean unique = mq0.areColumnsUnique(rel, empno);
+    final Double distinctRowCount = mq0.getDistinctRowCount(rel, deptno, null);
+    final RelMetadataProvider metadataProvider =
+        rel.getCluster().getMetadataProvider();
+    final RelOptPlanner planner = rel.getCluster().getPlanner();
+    try {
+      for (int i = 0; i < 20; i++) {
+        RelMetadataQuery.THREAD_PROVIDERS.set(
+            JaninoRelMetadataProvider.of(
+                new CachingRelMetadataProvider(metadataProvider, planner)));
+        final RelMetadataQuery mq = RelMetadataQuery.instance();
+        assertThat(mq.getRowCount(rel), is(rowCount));
+        assertThat(mq.areColumnsUnique(rel, empno), is(unique));
+        assertThat(mq.getDistinctRowCount(rel, deptno, null),
+            is(distinctRowCount));
+      }
+    } finally {
+      RelMetadataQuery.THREAD_PROVIDERS.remove();
+    }
+  }
+
   @Test public void testDistinctRowCountTable() {
     // no unique key information is available so return null
     RelNode rel = convertSql("select * from emp where deptno = 10");
@@ -999,6 +1045,34 @@ private boolean isUnique(Set<ImmutableBitSet> uniqueKeys, ImmutableBitSet key) {
     }
   }
 
+  /** Tests that, unless {@link CalciteSystemProperty#METADATA_HANDLER_COMPILE}
+   * is set, the handler for a custom provider dispatches via method handles
+   * rather than generated code. */
+  @Test public void testMethodHandleMetadataHandler() {
+    Assume.assumeFalse(CalciteSystemProperty.METADATA_HANDLER_COMPILE.value());
+    final List<String> buf = new ArrayList<>();
+    ColTypeImpl.THREAD_LIST.set(buf);
+
+    final String sql = "select deptno, count(*) from emp where deptno > 10 "
+        + "group by deptno having count(*) = 0";
+    final RelRoot root = tester
+        .withClusterFactory(cluster -> {
+          cluster.setMetadataProvider(
+              ChainedRelMetadataProvider.of(
+                  ImmutableList.of(ColTypeImpl.SOURCE,
+                      cluster.getMetadataProvider())));
+          return cluster;
+        })
+        .convertSqlToRel(sql);
+    final RelNode rel = root.rel;
+    final MyRelMetadataQuery mq = new MyRelMetadataQuery();
+    assertThat(mq.colType(rel, 0), equalTo("DEPTNO-rel"));
+    assertThat(mq.colType(rel.getInput(0), 0), equalTo("DEPTNO-agg"));
+    assertThat(mq.colTypeHandler.toString(),
+        is("MethodHandleMetadataHandler(ColType)"));
+    assertThat(buf.toString(), equalTo("[DEPTNO-rel, DEPTNO-agg]"));
+  }
+
   public String colType(RelMetadataQuery mq, RelNode rel, int column) {
     if (mq instanceof MyRelMetadataQuery) {
       return ((MyRelMetadataQuery) mq).colType(rel, column);
@@ -2471,6 +2545,149 @@ private void checkNodeTypeCount(String sql, Map<Class<? extends RelNode>, Intege
         mq.getPulledUpPredicates(filter1).pulledUpPredicates.get(0).toString());
   }
 
+  /** Tests that selectivity and distinct row count of a table scan are
+   * estimated from the {@link ColumnStatistic} of the table's columns. */
+  @Test public void testColumnStatistic() {
+    final ColumnStatistic a =
+        new ColumnStatistic(100d, 0.1d,
+            ColumnStatistic.Histogram.of(
+                ImmutableList.of(0, 250, 500, 750, 1000)),
+            ImmutableMap.of(7, 0.2d));
+    final SchemaPlus rootSchema = Frameworks.createRootSchema(true);
+    rootSchema.add("T",
+        new ColumnStatisticTable(
+            Statistics.of(1000d, ImmutableList.of(), ImmutableList.of(),
+                ImmutableList.of(), ImmutableList.of(a))));
+    final RelBuilder b =
+        RelBuilder.create(
+            Frameworks.newConfigBuilder().defaultSchema(rootSchema).build());
+    final RelNode scan = b.scan("T").build();
+    final RelMetadataQuery mq = scan.getCluster().getMetadataQuery();
+    b.push(scan);
+
+    // Most common value
+    assertThat(mq.getSelectivity(scan, b.equals(b.field("A"), b.literal(7))),
+        within(0.2d, EPSILON));
+    // Other value: the remaining non-null rows, over the remaining values
+    assertThat(mq.getSelectivity(scan, b.equals(b.field("A"), b.literal(8))),
+        within(0.7d / 98d, EPSILON));
+    // Value outside the histogram
+    assertThat(
+        mq.getSelectivity(scan, b.equals(b.field("A"), b.literal(2000))),
+        within(0d, EPSILON));
+    assertThat(
+        mq.getSelectivity(scan,
+            b.call(SqlStdOperatorTable.LESS_THAN, b.field("A"),
+                b.literal(500))),
+        within(0.45d, EPSILON));
+    assertThat(
+        mq.getSelectivity(scan,
+            b.call(SqlStdOperatorTable.GREATER_THAN, b.literal(500),
+                b.field("A"))),
+        within(0.45d, EPSILON));
+    assertThat(mq.getSelectivity(scan, b.isNull(b.field("A"))),
+        within(0.1d, EPSILON));
+    // Column "B" has no statistics, so its condition is guessed
+    assertThat(
+        mq.getSelectivity(scan,
+            b.and(
+                b.call(SqlStdOperatorTable.GREATER_THAN_OR_EQUAL,
+                    b.field("A"), b.literal(500)),
+                b.equals(b.field("B"), b.literal("x")))),
+        within(0.45d * 0.15d, EPSILON));
+
+    assertThat(mq.getDistinctRowCount(scan, ImmutableBitSet.of(0), null),
+        within(100d, EPSILON));
+    assertThat(mq.getDistinctRowCount(scan, ImmutableBitSet.of(1), null),
+        nullValue());
+  }
+
+  /** Table with columns "A" and "B" and a given {@link Statistic}. */
+  private static class ColumnStatisticTable extends AbstractTable
+      implements ScannableTable {
+    private final Statistic statistic;
+
+    ColumnStatisticTable(Statistic statistic) {
+      this.statistic = statistic;
+    }
+
+    public RelDataType getRowType(RelDataTypeFactory typeFactory) {
+      return typeFactory.builder()
+          .add("A", SqlTypeName.INTEGER)
+          .add("B", SqlTypeName.VARCHAR, 10)
+          .build();
+    }
+
+    @Override public Statistic getStatistic() {
+      return statistic;
+    }
+
+    public Enumerable<Object[]> scan(DataContext root) {
+      return Linq4j.emptyEnumerable();
+    }
+  }
+
+  /** Tests that statements that build the same expression share metadata
+   * values via a {@link MetadataCache}. */
+  @Test public void testSharedMetadataCache() {
+    final MetadataCache cache = new MetadataCache(100);
+    final Function<RelBuilder, RelNode> f = b -> b.scan("emps")
+        .filter(b.equals(b.field("deptno"), b.literal(10)))
+        .project(b.field("empid"), b.field("name"))
+        .build();
+
+    // Each expression has its own builder and cluster, but they share a
+    // schema, and therefore table objects
+    final FrameworkConfig config = hrConfig();
+    final RelNode rel1 = f.apply(RelBuilder.create(config));
+    rel1.getCluster().setMetadataCache(cache);
+    final RelMetadataQuery mq1 = rel1.getCluster().getMetadataQuery();
+    final Double rowCount = mq1.getRowCount(rel1);
+    final Set<ImmutableBitSet> uniqueKeys = mq1.getUniqueKeys(rel1);
+    final long size = cache.size();
+    final long hitCount = cache.stats().hitCount();
+    assertThat(size > 0, is(true));
+
+    final RelNode rel2 = f.apply(RelBuilder.create(config));
+    assertThat(rel2.getCluster() != rel1.getCluster(), is(true));
+    rel2.getCluster().setMetadataCache(cache);
+    final RelMetadataQuery mq2 = rel2.getCluster().getMetadataQuery();
+    assertThat(mq2.getRowCount(rel2), is(rowCount));
+    assertThat(mq2.getUniqueKeys(rel2), is(uniqueKeys));
+    assertThat(cache.stats().hitCount(), is(hitCount + 2));
+    assertThat(cache.size(), is(size));
+
+    // A different expression does not share values
+    final RelBuilder b = RelBuilder.create(config);
+    final RelNode rel3 = b.scan("emps")
+        .filter(b.equals(b.field("deptno"), b.literal(20)))
+        .build();
+    rel3.getCluster().setMetadataCache(cache);
+    rel3.getCluster().getMetadataQuery().getRowCount(rel3);
+    assertThat(cache.stats().hitCount() > hitCount + 2, is(true));
+    assertThat(cache.size(), is(size + 1));
+
+    // The same expression over a different schema, whose tables have the
+    // same names, does not share values
+    final long hitCount3 = cache.stats().hitCount();
+    final RelNode rel4 = f.apply(RelBuilder.create(hrConfig()));
+    rel4.getCluster().setMetadataCache(cache);
+    rel4.getCluster().getMetadataQuery().getRowCount(rel4);
+    assertThat(cache.stats().hitCount(), is(hitCount3));
+    assertThat(cache.size() > size + 1, is(true));
+  }
+
+  /** Creates a config whose default schema is a new instance of the "hr"
+   * reflective schema. Unlike the "scott" schema, which is cloned from JDBC,
+   * it returns the same table object each time a table is looked up. */
+  private static FrameworkConfig hrConfig() {
+    final SchemaPlus rootSchema = Frameworks.createRootSchema(true);
+    return Frameworks.newConfigBuilder()
+        .defaultSchema(
+            CalciteAssert.addSchema(rootSchema, CalciteAssert.SchemaSpec.HR))
+        .build();
+  }
+
   /**
    * Matcher that succeeds for any collection that, when converted to strings
    * and sorted on those strings, matches the given reference string.
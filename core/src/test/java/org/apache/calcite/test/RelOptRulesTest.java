@@ -493,6 +493,53 @@ protected DiffRepository getDiffRepos() {
     SqlToRelTestBase.assertValid(output);
   }
 
+  /** Tests that {@link FilterJoinRule} does not pull up a condition of a
+   * semi-join that its predicate rejects: the semi-join does not output the
+   * fields of its right input, so the condition could not be evaluated
+   * above it. */
+  @Test public void testFilterJoinRuleKeepsSemiJoinConditions() {
+    final RelBuilder relBuilder = RelBuilder.create(RelBuilderTest.config().build());
+    // build a rel equivalent to sql:
+    // select empno from emp
+    // where exists (select 1 from dept
+    //   where emp.deptno = dept.deptno and emp.empno > dept.deptno)
+    // and emp.sal > 1000
+    RelNode relNode = relBuilder.scan("EMP")
+        .scan("DEPT")
+        .semiJoin(
+            relBuilder.equals(
+                relBuilder.field(2, 0, "DEPTNO"),
+                relBuilder.field(2, 1, "DEPTNO")),
+            relBuilder.call(SqlStdOperatorTable.GREATER_THAN,
+                relBuilder.field(2, 0, "EMPNO"),
+                relBuilder.field(2, 1, "DEPTNO")))
+        .filter(
+            relBuilder.call(SqlStdOperatorTable.GREATER_THAN,
+                relBuilder.field("SAL"),
+                relBuilder.literal(1000)))
+        .project(relBuilder.field("EMPNO"))
+        .build();
+
+    // The filter on EMP is pushed into the left input. The predicate rejects
+    // every join condition, as FilterJoinRule.FILTER_ON_JOIN does for an
+    // enumerable join, but they must stay in the semi-join
+    final FilterJoinRule rule =
+        new FilterJoinRule.FilterIntoJoinRule(true, RelBuilder.proto(),
+            (join, joinType, exp) -> false);
+    HepProgram program = new HepProgramBuilder()
+        .addRuleInstance(rule)
+        .build();
+
+    HepPlanner hepPlanner = new HepPlanner(program);
+    hepPlanner.setRoot(relNode);
+    RelNode output = hepPlanner.findBestExp();
+
+    final String planAfter = NL + RelOptUtil.toString(output);
+    final DiffRepository diffRepos = getDiffRepos();
+    diffRepos.assertEquals("planAfter", "${planAfter}", planAfter);
+    SqlToRelTestBase.assertValid(output);
+  }
+
   /** Test case for
    * <a href="https://issues.apache.org/jira/browse/CALCITE-3171">[CALCITE-3171]
    * SemiJoin on conditions push down throws IndexOutOfBoundsException</a>. */
@@ -38,6 +38,8 @@
 import static org.apache.calcite.runtime.SqlFunctions.greater;
 import static org.apache.calcite.runtime.SqlFunctions.initcap;
 import static org.apache.calcite.runtime.SqlFunctions.lesser;
+import static org.apache.calcite.runtime.SqlFunctions.like;
+import static org.apache.calcite.runtime.SqlFunctions.likeMatcher;
 import static org.apache.calcite.runtime.SqlFunctions.lower;
 import static org.apache.calcite.runtime.SqlFunctions.ltrim;
 import static org.apache.calcite.runtime.SqlFunctions.md5;
@@ -45,6 +47,7 @@
 import static org.apache.calcite.runtime.SqlFunctions.regexpReplace;
 import static org.apache.calcite.runtime.SqlFunctions.rtrim;
 import static org.apache.calcite.runtime.SqlFunctions.sha1;
+import static org.apache.calcite.runtime.SqlFunctions.similar;
 import static org.apache.calcite.runtime.SqlFunctions.subtractMonths;
 import static org.apache.calcite.runtime.SqlFunctions.toBase64;
 import static org.apache.calcite.runtime.SqlFunctions.trim;
@@ -103,6 +106,59 @@ public class SqlFunctionsTest {
     assertThat(posixRegex("abcq", "[[:xdigit:]]", false), is(true));
   }
 
+  @Test public void testLike() {
+    // Patterns that are matched without a regular expression
+    checkLike("abc", "abc", true);
+    checkLike("abcd", "abc", false);
+    checkLike("abc", "ab%", true);
+    checkLike("ab", "ab%", true);
+    checkLike("xabc", "ab%", false);
+    checkLike("abc", "%bc", true);
+    checkLike("abcx", "%bc", false);
+    checkLike("abc", "%b%", true);
+    checkLike("ac", "%b%", false);
+    checkLike("", "%", true);
+    checkLike("a\nb", "%%", true);
+    checkLike("a\nb", "a%b", true);
+    checkLike("ab", "ab%b", false);
+    checkLike("abxb", "ab%b", true);
+    checkLike("ABC", "abc", false);
+
+    // Patterns that are translated to a regular expression
+    checkLike("abc", "a_c", true);
+    checkLike("abbc", "a_c", false);
+    checkLike("abcbd", "a%b%d", true);
+    checkLike("ab", "%a%b%", true);
+
+    // Escape
+    assertThat(like("a%c", "a!%c", "!"), is(true));
+    assertThat(like("abc", "a!%c", "!"), is(false));
+    assertThat(like("a%", "%!%", "!"), is(true));
+    assertThat(like("a_", "%!_", "!"), is(true));
+    assertThat(like("ab", "%!_", "!"), is(false));
+    assertThat(likeMatcher("a!%%", "!").matches("a%bc"), is(true));
+    assertThat(likeMatcher("a!%%", "!").matches("abc"), is(false));
+    try {
+      like("abc", "a!", "!");
+      fail("expected error");
+    } catch (RuntimeException e) {
+      assertThat(e.getMessage(), is("Invalid escape sequence 'a!', 1"));
+    }
+  }
+
+  private void checkLike(String s, String pattern, boolean expected) {
+    assertThat(likeMatcher(pattern).matches(s), is(expected));
+    assertThat(like(s, pattern), is(expected));
+    // Second call uses the cached pattern
+    assertThat(like(s, pattern), is(expected));
+  }
+
+  @Test public void testSimilar() {
+    assertThat(similar("abc", "a(b|c)c"), is(true));
+    assertThat(similar("abd", "a(b|c)c"), is(false));
+    assertThat(similar("abc", "%c"), is(true));
+  }
+
   @Test public void testRegexpReplace() {
     assertThat(regexpReplace("a b c", "b", "X"), is("a X c"));
     assertThat(regexpReplace("abc def ghi", "[g-z]+", "X"), is("abc def X"));
@@ -16,6 +16,7 @@
  */
 package org.apache.calcite.test;
 
+import org.apache.calcite.avatica.AvaticaUtils;
 import org.apache.calcite.config.CalciteSystemProperty;
 import org.apache.calcite.materialize.SqlStatisticProvider;
 import org.apache.calcite.plan.RelOptTable;
@@ -25,6 +26,7 @@
 import org.apache.calcite.sql.parser.SqlParser;
 import org.apache.calcite.statistic.CachingSqlStatisticProvider;
 import org.apache.calcite.statistic.MapSqlStatisticProvider;
+import org.apache.calcite.statistic.PersistentSqlStatisticProvider;
 import org.apache.calcite.statistic.QuerySqlStatisticProvider;
 import org.apache.calcite.tools.Frameworks;
 import org.apache.calcite.tools.Programs;
@@ -36,13 +38,19 @@
 
 import org.junit.Test;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
+import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertThat;
 
@@ -90,6 +98,174 @@ public static Frameworks.ConfigBuilder config() {
     assertThat(counter.get(), is(expectedQueryCount)); // no more queries
   }
 
+  @Test public void testPersistentProvider() throws IOException {
+    final File directory = Files.createTempDirectory("statistics").toFile();
+    try {
+      final AtomicInteger counter = new AtomicInteger();
+      final long hour = TimeUnit.HOURS.toMillis(1);
+
+      // Executor runs refreshes in the calling thread, so each statistic is
+      // computed the first time it is requested
+      final SqlStatisticProvider provider =
+          new PersistentSqlStatisticProvider(
+              new QuerySqlStatisticProvider(sql -> counter.incrementAndGet()),
+              directory, Runnable::run, hour, hour);
+      check(provider);
+      final int expectedQueryCount = 6;
+      assertThat(counter.get(), is(expectedQueryCount));
+      check(provider);
+      assertThat(counter.get(), is(expectedQueryCount)); // no more queries
+      assertThat(new File(directory, "foodmart.product.json").exists(),
+          is(true));
+
+      // A new provider reads the statistics from the files
+      final SqlStatisticProvider provider2 =
+          new PersistentSqlStatisticProvider(
+              new QuerySqlStatisticProvider(sql -> counter.incrementAndGet()),
+              directory, Runnable::run, hour, hour);
+      check(provider2);
+      assertThat(counter.get(), is(expectedQueryCount)); // no more queries
+    } finally {
+      deleteDirectory(directory);
+    }
+  }
+
+  /** Tests that {@link PersistentSqlStatisticProvider} does not wait for a
+   * statistic to be computed, but uses the fallback provider until it is. */
+  @Test public void testPersistentProviderRefreshesInBackground()
+      throws IOException {
+    final File directory = Files.createTempDirectory("statistics").toFile();
+    try {
+      final AtomicInteger counter = new AtomicInteger();
+      final AtomicInteger resolveCount = new AtomicInteger();
+      final List<Runnable> tasks = new ArrayList<>();
+      final PersistentSqlStatisticProvider provider =
+          new PersistentSqlStatisticProvider(
+              new QuerySqlStatisticProvider(sql -> counter.incrementAndGet()),
+              MapSqlStatisticProvider.INSTANCE, directory, tasks::add,
+              TimeUnit.HOURS.toMillis(1), TimeUnit.HOURS.toMillis(1),
+              resolver(resolveCount));
+      check(provider);
+      assertThat(counter.get(), is(0));
+      assertThat(tasks.size(), is(6));
+
+      // While tasks are pending, requests do not submit more tasks
+      check(provider);
+      assertThat(tasks.size(), is(6));
+
+      tasks.forEach(Runnable::run);
+      tasks.clear();
+      assertThat(counter.get(), is(6));
+      check(provider);
+      provider.refreshStale();
+      assertThat(tasks.size(), is(0));
+      assertThat(counter.get(), is(6));
+      assertThat(resolveCount.get(), is(0));
+
+      // A provider whose statistics are always due for a refresh. The
+      // background refresh looks up the tables again, rather than using the
+      // tables of the original requests.
+      final PersistentSqlStatisticProvider provider2 =
+          new PersistentSqlStatisticProvider(
+              new QuerySqlStatisticProvider(sql -> counter.incrementAndGet()),
+              MapSqlStatisticProvider.INSTANCE, directory, tasks::add,
+              -1L, TimeUnit.HOURS.toMillis(1), resolver(resolveCount));
+      check(provider2);
+      tasks.forEach(Runnable::run);
+      tasks.clear();
+      assertThat(counter.get(), is(12));
+      assertThat(resolveCount.get(), is(0));
+      provider2.refreshStale();
+      assertThat(tasks.size(), is(6));
+      tasks.forEach(Runnable::run);
+      assertThat(counter.get(), is(18));
+      // Each foreign-key statistic resolves two tables
+      assertThat(resolveCount.get(), is(9));
+    } finally {
+      deleteDirectory(directory);
+    }
+  }
+
+  /** Tests that a {@link PersistentSqlStatisticProvider} that writes a file
+   * keeps the statistics that another provider has written to it since it
+   * read it. */
+  @Test public void testPersistentProviderMergesFile() throws IOException {
+    final File directory = Files.createTempDirectory("statistics").toFile();
+    try {
+      final AtomicInteger counter = new AtomicInteger();
+      final long hour = TimeUnit.HOURS.toMillis(1);
+      final RelOptTable productTable =
+          RelBuilder.create(config().build()).scan("product").build()
+              .getTable();
+      final List<Integer> productId =
+          columns(productTable, "product_id");
+
+      // Provider 1 reads the file for "product", which does not exist yet,
+      // and defers computing the statistic
+      final List<Runnable> tasks = new ArrayList<>();
+      final SqlStatisticProvider provider1 =
+          new PersistentSqlStatisticProvider(
+              new QuerySqlStatisticProvider(sql -> counter.incrementAndGet()),
+              directory, tasks::add, hour, hour);
+      provider1.isKey(productTable, productId);
+      assertThat(tasks.size(), is(1));
+
+      // Provider 2 computes and writes a different statistic of "product"
+      final SqlStatisticProvider provider2 =
+          new PersistentSqlStatisticProvider(
+              new QuerySqlStatisticProvider(sql -> counter.incrementAndGet()),
+              directory, Runnable::run, hour, hour);
+      assertThat(provider2.tableCardinality(productTable), is(1_560.0d));
+
+      // Provider 1 writes its statistic, and keeps that of provider 2
+      tasks.forEach(Runnable::run);
+      assertThat(counter.get(), is(2));
+
+      final SqlStatisticProvider provider3 =
+          new PersistentSqlStatisticProvider(
+              new QuerySqlStatisticProvider(sql -> counter.incrementAndGet()),
+              directory, Runnable::run, hour, hour);
+      assertThat(provider3.tableCardinality(productTable), is(1_560.0d));
+      assertThat(provider3.isKey(productTable, productId), is(true));
+      assertThat(counter.get(), is(2)); // no more queries
+    } finally {
+      deleteDirectory(directory);
+    }
+  }
+
+  /** Tests that a {@link PersistentSqlStatisticProvider} can be instantiated
+   * as a plugin, by class name, as configuration does. */
+  @Test public void testPersistentProviderPlugin() {
+    final SqlStatisticProvider provider =
+        AvaticaUtils.instantiatePlugin(SqlStatisticProvider.class,
+            PersistentSqlStatisticProvider.class.getName());
+    assertThat(provider, instanceOf(PersistentSqlStatisticProvider.class));
+    check(provider);
+  }
+
+  /** Returns a function that looks up a table by qualified name, in a new
+   * catalog each time, and counts the calls. */
+  private static Function<List<String>, RelOptTable> resolver(
+      AtomicInteger resolveCount) {
+    return name -> {
+      resolveCount.incrementAndGet();
+      return RelBuilder.create(config().build()).scan(name).build()
+          .getTable();
+    };
+  }
+
+  private static void deleteDirectory(File directory) {
+    final File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+      }
+    }
+    //noinspection ResultOfMethodCallIgnored
+    directory.delete();
+  }
+
   private void check(SqlStatisticProvider provider) {
     final RelBuilder relBuilder = RelBuilder.create(config().build());
     final RelNode productScan = relBuilder.scan("product").build();
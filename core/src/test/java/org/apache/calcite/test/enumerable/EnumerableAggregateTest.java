@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.calcite.test.enumerable;
+
+import org.apache.calcite.adapter.java.ReflectiveSchema;
+import org.apache.calcite.config.CalciteConnectionProperty;
+import org.apache.calcite.config.Lex;
+import org.apache.calcite.test.CalciteAssert;
+import org.apache.calcite.test.JdbcTest;
+
+import org.junit.Test;
+
+/**
+ * Unit test for
+ * {@link org.apache.calcite.adapter.enumerable.EnumerableAggregate},
+ * in particular when implemented by
+ * {@link org.apache.calcite.linq4j.PrimitiveHashAggregate} and when it
+ * spills to disk.
+ */
+public class EnumerableAggregateTest {
+  @Test public void primitiveAggregate() {
+    tester()
+        .query("select deptno, count(*) as c, count(commission) as cc,\n"
+            + "  sum(commission) as s, min(commission) as mn, max(empid) as mx\n"
+            + "from emps\n"
+            + "group by deptno")
+        .planContains("new org.apache.calcite.linq4j.PrimitiveHashAggregate(")
+        .returnsUnordered("deptno=10; c=3; cc=2; s=1250; mn=250; mx=150",
+            "deptno=20; c=1; cc=1; s=500; mn=500; mx=200");
+  }
+
+  /** Groups on a key that has null values. */
+  @Test public void primitiveAggregateNullKey() {
+    tester()
+        .query("select commission, count(*) as c, sum(empid) as s\n"
+            + "from emps\n"
+            + "group by commission")
+        .planContains("new org.apache.calcite.linq4j.PrimitiveHashAggregate(")
+        .returnsUnordered("commission=null; c=1; s=150",
+            "commission=250; c=1; s=110",
+            "commission=500; c=1; s=200",
+            "commission=1000; c=1; s=100");
+  }
+
+  /** Groups whose values are all null; {@code SUM} returns null. */
+  @Test public void primitiveAggregateAllNull() {
+    tester()
+        .query("select empid, sum(commission) as s, max(commission) as m\n"
+            + "from emps\n"
+            + "where empid in (100, 150)\n"
+            + "group by empid")
+        .returnsUnordered("empid=100; s=1000; m=1000",
+            "empid=150; s=null; m=null");
+  }
+
+  /** {@code SUM} of a {@code REAL} column is not eligible, and uses the
+   * general implementation. */
+  @Test public void nonPrimitiveAggregate() {
+    tester()
+        .query("select deptno, sum(salary) as s\n"
+            + "from emps\n"
+            + "group by deptno")
+        .returnsUnordered("deptno=10; s=28500.0",
+            "deptno=20; s=8000.0");
+  }
+
+  /** Tests an aggregate that has more groups than
+   * {@link CalciteConnectionProperty#AGGREGATE_SPILL_THRESHOLD}, and
+   * therefore partitions rows to disk. */
+  @Test public void spillingAggregate() {
+    tester()
+        .with(CalciteConnectionProperty.AGGREGATE_SPILL_THRESHOLD, 1)
+        .query("select deptno, count(*) as c, sum(salary) as s,\n"
+            + "  max(commission) as m\n"
+            + "from emps\n"
+            + "group by deptno")
+        .planContains("org.apache.calcite.linq4j.EnumerableDefaults.groupBy(")
+        .returnsUnordered("deptno=10; c=3; s=28500.0; m=1000",
+            "deptno=20; c=1; s=8000.0; m=500");
+  }
+
+  @Test public void spillingGroupingSets() {
+    tester()
+        .with(CalciteConnectionProperty.AGGREGATE_SPILL_THRESHOLD, 1)
+        .query("select deptno, count(*) as c\n"
+            + "from emps\n"
+            + "group by grouping sets ((deptno), ())")
+        .returnsUnordered("deptno=10; c=3",
+            "deptno=20; c=1",
+            "deptno=null; c=4");
+  }
+
+  private CalciteAssert.AssertThat tester() {
+    return CalciteAssert.that()
+        .with(CalciteConnectionProperty.LEX, Lex.JAVA)
+        .withSchema("s", new ReflectiveSchema(new JdbcTest.HrSchema()));
+  }
+}
+
+// End EnumerableAggregateTest.java
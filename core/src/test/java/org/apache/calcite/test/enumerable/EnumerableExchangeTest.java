@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.calcite.test.enumerable;
+
+import org.apache.calcite.adapter.java.ReflectiveSchema;
+import org.apache.calcite.config.CalciteConnectionProperty;
+import org.apache.calcite.config.Lex;
+import org.apache.calcite.test.CalciteAssert;
+import org.apache.calcite.test.JdbcTest;
+
+import org.junit.Test;
+
+/**
+ * Unit test for
+ * {@link org.apache.calcite.adapter.enumerable.EnumerableExchange} and
+ * parallel execution of the aggregates and joins above it.
+ */
+public class EnumerableExchangeTest {
+  @Test public void partitionedAggregate() {
+    tester(4)
+        .query("select deptno, count(*) as c, sum(salary) as s\n"
+            + "from emps\n"
+            + "group by deptno")
+        .explainContains("EnumerableExchange(distribution=[hash[")
+        .returnsUnordered("deptno=10; c=3; s=28500.0",
+            "deptno=20; c=1; s=8000.0");
+  }
+
+  /** Tests a join whose build (right) side is partitioned; the probe
+   * (left) side is not exchanged, and is streamed. */
+  @Test public void partitionedHashJoin() {
+    tester(4)
+        .query("select e.empid, e.name, d.name as dept\n"
+            + "from emps e\n"
+            + "left join depts d on e.deptno = d.deptno")
+        .explainContains("EnumerableHashJoin(condition=[=($1, $3)], "
+            + "joinType=[left])\n"
+            + "    EnumerableCalc(expr#0..4=[{inputs}], proj#0..2=[{exprs}])\n"
+            + "      EnumerableTableScan(table=[[s, emps]])\n"
+            + "    EnumerableExchange(distribution=[hash[0]], "
+            + "partitionCount=[4])\n")
+        .returnsUnordered("empid=100; name=Bill; dept=Sales",
+            "empid=110; name=Theodore; dept=Sales",
+            "empid=150; name=Sebastian; dept=Sales",
+            "empid=200; name=Eric; dept=null");
+  }
+
+  /** With parallelism 1 (the default), no exchange is added. */
+  @Test public void serial() {
+    tester(1)
+        .query("select deptno, count(*) as c from emps group by deptno")
+        .explainMatches("",
+            CalciteAssert.checkResultContains("EnumerableExchange", 0))
+        .returnsUnordered("deptno=10; c=3",
+            "deptno=20; c=1");
+  }
+
+  private CalciteAssert.AssertThat tester(int parallelism) {
+    return CalciteAssert.that()
+        .with(CalciteConnectionProperty.LEX, Lex.JAVA)
+        .with(CalciteConnectionProperty.PARALLELISM, parallelism)
+        .with(CalciteConnectionProperty.PARALLELISM_THRESHOLD, 1)
+        .withSchema("s", new ReflectiveSchema(new JdbcTest.HrSchema()));
+  }
+}
+
+// End EnumerableExchangeTest.java
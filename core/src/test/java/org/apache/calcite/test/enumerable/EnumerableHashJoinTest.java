@@ -106,6 +106,55 @@ public class EnumerableHashJoinTest {
             "empid=null; name=null; dept=HR");
   }
 
+  /** Tests a right outer join whose build input is larger than
+   * {@link CalciteConnectionProperty#HASH_JOIN_SPILL_THRESHOLD}, and is
+   * therefore partitioned to disk. */
+  @Test public void rightOuterJoinSpill() {
+    tester(false, new JdbcTest.HrSchema())
+        .with(CalciteConnectionProperty.HASH_JOIN_SPILL_THRESHOLD, 1)
+        .query(
+            "select e.empid, e.name, d.name as dept from emps e  right outer "
+                + "join depts d on e.deptno=d.deptno")
+        .explainContains(
+            "  EnumerableHashJoin(condition=[=($1, $3)], joinType=[right])\n")
+        .returnsUnordered(
+            "empid=100; name=Bill; dept=Sales",
+            "empid=110; name=Theodore; dept=Sales",
+            "empid=150; name=Sebastian; dept=Sales",
+            "empid=null; name=null; dept=Marketing",
+            "empid=null; name=null; dept=HR");
+  }
+
+  /** Tests a join that spills and whose inputs are table scans, whose rows
+   * are objects of a class that is not {@link java.io.Serializable}; the
+   * join converts them to arrays before it spills. */
+  @Test public void innerJoinSpillCustomRows() {
+    tester(false, new JdbcTest.HrSchema())
+        .with(CalciteConnectionProperty.HASH_JOIN_SPILL_THRESHOLD, 1)
+        .query(
+            "select * from emps e1 join emps e2 on e1.deptno = e2.deptno")
+        .explainContains(
+            "EnumerableHashJoin(condition=[=($1, $6)], joinType=[inner])\n"
+                + "  EnumerableTableScan(table=[[s, emps]])\n"
+                + "  EnumerableTableScan(table=[[s, emps]])\n")
+        .returnsCount(10);
+  }
+
+  /** Tests a join that may spill but whose rows contain values that cannot
+   * be serialized (a list of employees and a location); it runs in
+   * memory. */
+  @Test public void innerJoinSpillNotSerializable() {
+    tester(false, new JdbcTest.HrSchema())
+        .with(CalciteConnectionProperty.HASH_JOIN_SPILL_THRESHOLD, 1)
+        .query(
+            "select * from emps e join depts d on e.deptno = d.deptno")
+        .explainContains(
+            "EnumerableHashJoin(condition=[=($1, $5)], joinType=[inner])\n"
+                + "  EnumerableTableScan(table=[[s, emps]])\n"
+                + "  EnumerableTableScan(table=[[s, depts]])\n")
+        .returnsCount(3);
+  }
+
   @Test public void leftOuterJoinWithPredicate() {
     tester(false, new JdbcTest.HrSchema())
         .query(
@@ -161,6 +210,22 @@ public class EnumerableHashJoinTest {
             "deptno=10; name=Sales");
   }
 
+  /** Tests a semi-join that spills, and whose right input is a table scan
+   * of custom rows. */
+  @Test public void semiJoinSpill() {
+    tester(false, new JdbcTest.HrSchema())
+        .with(CalciteConnectionProperty.HASH_JOIN_SPILL_THRESHOLD, 1)
+        .query(
+            "SELECT d.deptno, d.name FROM depts d WHERE d.deptno in (SELECT e.deptno FROM emps e)")
+        .explainContains("EnumerableHashJoin(condition=[=($0, $3)], "
+            + "joinType=[semi])\n"
+            + "  EnumerableCalc(expr#0..3=[{inputs}], proj#0..1=[{exprs}])\n"
+            + "    EnumerableTableScan(table=[[s, depts]])\n"
+            + "  EnumerableTableScan(table=[[s, emps]])")
+        .returnsUnordered(
+            "deptno=10; name=Sales");
+  }
+
   @Test public void semiJoinWithPredicate() {
     tester(false, new JdbcTest.HrSchema())
         .query("?")
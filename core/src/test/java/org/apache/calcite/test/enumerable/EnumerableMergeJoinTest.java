@@ -0,0 +1,217 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.calcite.test.enumerable;
+
+import org.apache.calcite.adapter.enumerable.EnumerableRules;
+import org.apache.calcite.adapter.java.ReflectiveSchema;
+import org.apache.calcite.config.CalciteConnectionProperty;
+import org.apache.calcite.config.Lex;
+import org.apache.calcite.plan.RelOptPlanner;
+import org.apache.calcite.rel.RelCollationTraitDef;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.JoinRelType;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.runtime.Hook;
+import org.apache.calcite.sql.fun.SqlStdOperatorTable;
+import org.apache.calcite.test.CalciteAssert;
+import org.apache.calcite.test.JdbcTest;
+import org.apache.calcite.tools.RelBuilder;
+
+import org.junit.Test;
+
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Unit test for
+ * {@link org.apache.calcite.adapter.enumerable.EnumerableMergeJoin}.
+ */
+public class EnumerableMergeJoinTest {
+
+  @Test public void leftOuterJoin() {
+    tester(false, new JdbcTest.HrSchema())
+        .query("?")
+        .withHook(Hook.PLANNER,
+            (Consumer<RelOptPlanner>) EnumerableMergeJoinTest::mergeJoin)
+        .withRel(builder -> empsJoinDepts(builder, JoinRelType.LEFT, null))
+        .planContains("EnumerableDefaults.mergeJoin(")
+        .planContains("JoinType.LEFT")
+        .returnsUnordered(
+            "empid=100; dept=Sales",
+            "empid=110; dept=Sales",
+            "empid=150; dept=Sales",
+            "empid=200; dept=null");
+  }
+
+  @Test public void rightOuterJoin() {
+    tester(false, new JdbcTest.HrSchema())
+        .query("?")
+        .withHook(Hook.PLANNER,
+            (Consumer<RelOptPlanner>) EnumerableMergeJoinTest::mergeJoin)
+        .withRel(builder -> empsJoinDepts(builder, JoinRelType.RIGHT, null))
+        .planContains("EnumerableDefaults.mergeJoin(")
+        .planContains("JoinType.RIGHT")
+        .returnsUnordered(
+            "empid=100; dept=Sales",
+            "empid=110; dept=Sales",
+            "empid=150; dept=Sales",
+            "empid=null; dept=Marketing",
+            "empid=null; dept=HR");
+  }
+
+  /** The non-equi condition is evaluated while matching rows; a filter on
+   * top of the join would also remove the unmatched rows. */
+  @Test public void fullOuterJoinWithPredicate() {
+    tester(false, new JdbcTest.HrSchema())
+        .query("?")
+        .withHook(Hook.PLANNER,
+            (Consumer<RelOptPlanner>) EnumerableMergeJoinTest::mergeJoin)
+        .withRel(builder ->
+            empsJoinDepts(builder, JoinRelType.FULL,
+                b -> b.call(SqlStdOperatorTable.LESS_THAN,
+                    b.field(2, "e", "empid"),
+                    b.literal(150))))
+        .planContains("EnumerableDefaults.mergeJoin(")
+        .planContains("JoinType.FULL")
+        .returnsUnordered(
+            "empid=100; dept=Sales",
+            "empid=110; dept=Sales",
+            "empid=150; dept=null",
+            "empid=200; dept=null",
+            "empid=null; dept=Marketing",
+            "empid=null; dept=HR");
+  }
+
+  @Test public void semiJoinWithPredicate() {
+    tester(false, new JdbcTest.HrSchema())
+        .query("?")
+        .withHook(Hook.PLANNER,
+            (Consumer<RelOptPlanner>) EnumerableMergeJoinTest::mergeJoin)
+        .withRel(
+            // Employees who earn less than a colleague in the same department
+            builder -> builder
+                .scan("s", "emps").sort(1).as("e")
+                .scan("s", "emps").sort(1).as("e2")
+                .semiJoin(
+                    builder.and(
+                        builder.equals(
+                            builder.field(2, "e", "deptno"),
+                            builder.field(2, "e2", "deptno")),
+                        builder.call(
+                            SqlStdOperatorTable.GREATER_THAN,
+                            builder.field(2, "e2", "salary"),
+                            builder.field(2, "e", "salary"))))
+                .project(builder.field("name"))
+                .build())
+        .planContains("EnumerableDefaults.mergeJoin(")
+        .planContains("JoinType.SEMI")
+        .returnsUnordered(
+            "name=Bill",
+            "name=Sebastian");
+  }
+
+  @Test public void antiJoin() {
+    tester(false, new JdbcTest.HrSchema())
+        .query("?")
+        .withHook(Hook.PLANNER,
+            (Consumer<RelOptPlanner>) EnumerableMergeJoinTest::mergeJoin)
+        .withRel(
+            // Employees whose department does not exist
+            builder -> builder
+                .scan("s", "emps").sort(1).as("e")
+                .scan("s", "depts").sort(0).as("d")
+                .join(JoinRelType.ANTI,
+                    builder.equals(
+                        builder.field(2, "e", "deptno"),
+                        builder.field(2, "d", "deptno")))
+                .project(builder.field("name"))
+                .build())
+        .planContains("EnumerableDefaults.mergeJoin(")
+        .planContains("JoinType.ANTI")
+        .returnsUnordered("name=Eric");
+  }
+
+  /** Anti-join whose output is a single nullable column; each output row is
+   * a scalar, and the row of an employee without commission is null. */
+  @Test public void antiJoinSingleNullableColumn() {
+    tester(false, new JdbcTest.HrSchema())
+        .query("?")
+        .withHook(Hook.PLANNER,
+            (Consumer<RelOptPlanner>) EnumerableMergeJoinTest::mergeJoin)
+        .withRel(
+            // Commissions that are not also a department number
+            builder -> builder
+                .scan("s", "emps").project(builder.field("commission"))
+                .sort(0).as("e")
+                .scan("s", "depts").project(builder.field("deptno"))
+                .sort(0).as("d")
+                .join(JoinRelType.ANTI,
+                    builder.equals(
+                        builder.field(2, "e", "commission"),
+                        builder.field(2, "d", "deptno")))
+                .build())
+        .planContains("EnumerableDefaults.mergeJoin(")
+        .planContains("JoinType.ANTI")
+        .returnsUnordered(
+            "commission=1000",
+            "commission=500",
+            "commission=250",
+            "commission=null");
+  }
+
+  /** Makes the planner implement joins as merge joins.
+   *
+   * <p>Unless
+   * {@link org.apache.calcite.config.CalciteSystemProperty#ENABLE_COLLATION_TRAIT}
+   * is set, the planner does not track collations, and so would not know
+   * that the inputs are sorted. It does not add sorts to satisfy a required
+   * collation, so each test sorts the inputs of its join. */
+  private static void mergeJoin(RelOptPlanner planner) {
+    planner.addRelTraitDef(RelCollationTraitDef.INSTANCE);
+    planner.removeRule(EnumerableRules.ENUMERABLE_JOIN_RULE);
+  }
+
+  /** Joins employees to departments on {@code deptno}, and returns each
+   * employee's id and department name. Each input is sorted on the join
+   * key. */
+  private static RelNode empsJoinDepts(RelBuilder builder,
+      JoinRelType joinType, Function<RelBuilder, RexNode> extraCondition) {
+    builder.scan("s", "emps").sort(1).as("e")
+        .scan("s", "depts").sort(0).as("d");
+    final RexNode condition =
+        builder.equals(builder.field(2, "e", "deptno"),
+            builder.field(2, "d", "deptno"));
+    return builder
+        .join(joinType,
+            extraCondition == null
+                ? condition
+                : builder.and(condition, extraCondition.apply(builder)))
+        .project(builder.field("e", "empid"),
+            builder.alias(builder.field("d", "name"), "dept"))
+        .build();
+  }
+
+  private CalciteAssert.AssertThat tester(boolean forceDecorrelate,
+      Object schema) {
+    return CalciteAssert.that()
+        .with(CalciteConnectionProperty.LEX, Lex.JAVA)
+        .with(CalciteConnectionProperty.FORCE_DECORRELATE, forceDecorrelate)
+        .withSchema("s", new ReflectiveSchema(schema));
+  }
+}
+
+// End EnumerableMergeJoinTest.java
@@ -97,6 +97,7 @@
 
 import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
 import static org.hamcrest.CoreMatchers.notNullValue;
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertEquals;
@@ -1138,6 +1139,14 @@ private void checkHeuristic(String sql, String expected) throws Exception {
   /** Checks that a query returns a particular plan, using a planner with
    * MultiJoinOptimizeBushyRule enabled. */
   private void checkBushy(String sql, String expected) throws Exception {
+    final Program program =
+        Programs.heuristicJoinOrder(Programs.RULE_SET, true, 2);
+    assertThat(planJoins(program, sql), containsString(expected));
+  }
+
+  /** Plans a query using a given join-order program, and returns the plan
+   * as a string. */
+  private String planJoins(Program program, String sql) throws Exception {
     final SchemaPlus rootSchema = Frameworks.createRootSchema(true);
     final FrameworkConfig config = Frameworks.newConfigBuilder()
         .parserConfig(SqlParser.Config.DEFAULT)
@@ -1145,7 +1154,7 @@ private void checkBushy(String sql, String expected) throws Exception {
             CalciteAssert.addSchema(rootSchema,
                 CalciteAssert.SchemaSpec.CLONE_FOODMART))
         .traitDefs((List<RelTraitDef>) null)
-        .programs(Programs.heuristicJoinOrder(Programs.RULE_SET, true, 2))
+        .programs(program)
         .build();
     Planner planner = Frameworks.getPlanner(config);
     SqlNode parse = planner.parse(sql);
@@ -1155,7 +1164,103 @@ private void checkBushy(String sql, String expected) throws Exception {
     RelTraitSet traitSet = convert.getTraitSet()
         .replace(EnumerableConvention.INSTANCE);
     RelNode transform = planner.transform(0, traitSet, convert);
-    assertThat(toString(transform), containsString(expected));
+    return toString(transform);
+  }
+
+  /** Tests {@link org.apache.calcite.rel.rules.MultiJoinOptimizeDpRule} on a
+   * star join. Every join has a condition, so there is no cross product. */
+  @Test public void testDpJoinOrder() throws Exception {
+    final String sql = "select * from \"sales_fact_1997\" as s\n"
+        + "join \"customer\" as c\n"
+        + "  on s.\"customer_id\" = c.\"customer_id\"\n"
+        + "join \"product\" as p\n"
+        + "  on s.\"product_id\" = p.\"product_id\"\n"
+        + "join \"time_by_day\" as t\n"
+        + "  on s.\"time_id\" = t.\"time_id\"\n"
+        + "join \"store\" as st\n"
+        + "  on s.\"store_id\" = st.\"store_id\"\n"
+        + "where st.\"store_state\" = 'CA'";
+    // The filtered "store" is the most selective dimension, so it is joined
+    // first; the other dimensions follow in increasing order of size
+    final String expected = ""
+        + "EnumerableHashJoin(condition=[...], joinType=[inner])\n"
+        + "    EnumerableTableScan(table=[[foodmart2, customer]])\n"
+        + "    EnumerableHashJoin(condition=[...], joinType=[inner])\n"
+        + "      EnumerableTableScan(table=[[foodmart2, product]])\n"
+        + "      EnumerableHashJoin(condition=[...], joinType=[inner])\n"
+        + "        EnumerableTableScan(table=[[foodmart2, time_by_day]])\n"
+        + "        EnumerableHashJoin(condition=[...], joinType=[inner])\n"
+        + "          EnumerableTableScan(table=[[foodmart2, sales_fact_1997]])\n"
+        + "          EnumerableFilter(condition=[=($7, 'CA')])\n"
+        + "            EnumerableTableScan(table=[[foodmart2, store]])\n";
+    final String plan =
+        planJoins(Programs.dpJoinOrder(Programs.RULE_SET, 2, 15), sql);
+    assertThat(maskJoinConditions(plan), containsString(expected));
+    assertThat(countMatches(plan, "EnumerableHashJoin"), is(4));
+  }
+
+  /** Replaces the conditions of hash joins in a plan with "...", so that a
+   * test checks the order of joins but not the order of operands within
+   * each condition. */
+  private static String maskJoinConditions(String plan) {
+    return plan.replaceAll("EnumerableHashJoin\\(condition=\\[[^\\]]*\\]",
+        "EnumerableHashJoin(condition=[...]");
+  }
+
+  /** Tests that {@link org.apache.calcite.rel.rules.MultiJoinOptimizeDpRule}
+   * falls back to the heuristic algorithm if a join has more factors than
+   * its limit, or if its join graph is not connected. */
+  @Test public void testDpJoinOrderFallback() throws Exception {
+    final String sql = "select * from \"sales_fact_1997\" as s\n"
+        + "join \"customer\" as c\n"
+        + "  on s.\"customer_id\" = c.\"customer_id\"\n"
+        + "join \"product\" as p\n"
+        + "  on s.\"product_id\" = p.\"product_id\"";
+    final Program greedy =
+        Programs.heuristicJoinOrder(Programs.RULE_SET, false, 2);
+
+    // With 3 factors, dynamic programming joins the smaller "product" first,
+    // and puts the larger "customer" on the left of the top join
+    final String dpPlan =
+        planJoins(Programs.dpJoinOrder(Programs.RULE_SET, 2, 15), sql);
+    assertThat(maskJoinConditions(dpPlan),
+        containsString("EnumerableHashJoin(condition=[...], "
+            + "joinType=[inner])\n"
+            + "    EnumerableTableScan(table=[[foodmart2, customer]])\n"
+            + "    EnumerableHashJoin(condition=[...], joinType=[inner])\n"
+            + "      EnumerableTableScan(table=[[foodmart2, sales_fact_1997]])\n"
+            + "      EnumerableTableScan(table=[[foodmart2, product]])\n"));
+
+    // With a limit of 2 factors, the rule falls back to the greedy algorithm
+    final String plan =
+        planJoins(Programs.dpJoinOrder(Programs.RULE_SET, 2, 2), sql);
+    assertThat(maskJoinConditions(plan),
+        containsString("EnumerableHashJoin(condition=[...], "
+            + "joinType=[inner])\n"
+            + "        EnumerableTableScan(table=[[foodmart2, sales_fact_1997]])\n"
+            + "        EnumerableTableScan(table=[[foodmart2, product]])\n"));
+    assertThat(plan, is(planJoins(greedy, sql)));
+    assertThat(plan, not(is(dpPlan)));
+
+    final String sql2 = "select * from \"sales_fact_1997\" as s\n"
+        + "join \"customer\" as c\n"
+        + "  on s.\"customer_id\" = c.\"customer_id\"\n"
+        + "cross join \"department\"";
+    // The join graph is not connected, so dynamic programming finds no plan,
+    // and the rule falls back to the greedy algorithm
+    final String plan2 =
+        planJoins(Programs.dpJoinOrder(Programs.RULE_SET, 2, 15), sql2);
+    assertThat(plan2, containsString("condition=[true]"));
+    assertThat(plan2, is(planJoins(greedy, sql2)));
+  }
+
+  private static int countMatches(String s, String pattern) {
+    int count = 0;
+    for (int i = s.indexOf(pattern); i >= 0;
+         i = s.indexOf(pattern, i + pattern.length())) {
+      ++count;
+    }
+    return count;
   }
 
   /**
@@ -0,0 +1,248 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.calcite.util.javac;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit tests for {@link CompiledClassCache} and {@link ClassCachePopulator}.
+ */
+public class CompiledClassCacheTest {
+  private static final ClassLoader LOADER =
+      CompiledClassCacheTest.class.getClassLoader();
+
+  /** Returns the source of a class that supplies a given string. */
+  private static String source(String className, String value) {
+    return "public class " + className
+        + " implements java.util.function.Supplier {\n"
+        + "  public Object get() {\n"
+        + "    return new Inner().value();\n"
+        + "  }\n"
+        + "  static class Inner {\n"
+        + "    String value() { return \"" + value + "\"; }\n"
+        + "  }\n"
+        + "}\n";
+  }
+
+  private static Object get(Class<?> clazz) throws Exception {
+    return ((Supplier) clazz.getDeclaredConstructor().newInstance()).get();
+  }
+
+  @Test public void testCompileAndReload() throws Exception {
+    final File directory = Files.createTempDirectory("classes").toFile();
+    try {
+      final CompiledClassCache cache =
+          new CompiledClassCache(directory, "v1", 0);
+      final Class<?> c = cache.loadClass("Foo", source("Foo", "a"), LOADER);
+      assertThat(get(c), is("a"));
+      assertThat(cache.getMissCount(), is(1L));
+      assertThat(cache.getHitCount(), is(0L));
+      assertThat(entries(directory).size(), is(1));
+
+      // A new cache on the same directory, as after a restart, reads the
+      // classes from disk, including the inner class
+      final CompiledClassCache cache2 =
+          new CompiledClassCache(directory, "v1", 0);
+      final Class<?> c2 = cache2.loadClass("Foo", source("Foo", "a"), LOADER);
+      assertThat(get(c2), is("a"));
+      assertThat(cache2.getHitCount(), is(1L));
+      assertThat(cache2.getMissCount(), is(0L));
+
+      // A different version does not use the entry
+      final CompiledClassCache cache3 =
+          new CompiledClassCache(directory, "v2", 0);
+      cache3.loadClass("Foo", source("Foo", "a"), LOADER);
+      assertThat(cache3.getMissCount(), is(1L));
+      assertThat(entries(directory).size(), is(2));
+    } finally {
+      deleteDirectory(directory);
+    }
+  }
+
+  /** Tests that an entry whose bytecode has been modified is not loaded,
+   * but is deleted and compiled again. */
+  @Test public void testCorruptEntryIsRecompiled() throws Exception {
+    final File directory = Files.createTempDirectory("classes").toFile();
+    try {
+      final String source = source("Foo", "a");
+      new CompiledClassCache(directory, "v1", 0)
+          .loadClass("Foo", source, LOADER);
+      final Path entry = entries(directory).get(0);
+      final Path classFile = entry.resolve("Foo.class");
+      final byte[] bytes = Files.readAllBytes(classFile);
+      Files.write(classFile, Arrays.copyOf(bytes, bytes.length - 1));
+
+      final CompiledClassCache cache =
+          new CompiledClassCache(directory, "v1", 0);
+      final Class<?> c = cache.loadClass("Foo", source, LOADER);
+      assertThat(get(c), is("a"));
+      assertThat(cache.getInvalidCount(), is(1L));
+      assertThat(cache.getHitCount(), is(0L));
+      assertThat(cache.getMissCount(), is(1L));
+
+      // The entry was written again, and is now valid
+      final CompiledClassCache cache2 =
+          new CompiledClassCache(directory, "v1", 0);
+      cache2.loadClass("Foo", source, LOADER);
+      assertThat(cache2.getHitCount(), is(1L));
+      assertThat(cache2.getInvalidCount(), is(0L));
+
+      // An entry without a checksum is invalid too
+      Files.delete(entries(directory).get(0).resolve("checksum"));
+      final CompiledClassCache cache3 =
+          new CompiledClassCache(directory, "v1", 0);
+      cache3.loadClass("Foo", source, LOADER);
+      assertThat(cache3.getInvalidCount(), is(1L));
+      assertThat(cache3.getMissCount(), is(1L));
+    } finally {
+      deleteDirectory(directory);
+    }
+  }
+
+  /** Tests that the cache deletes the least recently used entries when it
+   * has more than its maximum number of entries. */
+  @Test public void testEviction() throws Exception {
+    final File directory = Files.createTempDirectory("classes").toFile();
+    try {
+      final CompiledClassCache cache =
+          new CompiledClassCache(directory, "v1", 2);
+      cache.loadClass("A", source("A", "a"), LOADER);
+      cache.loadClass("B", source("B", "b"), LOADER);
+      assertThat(entries(directory).size(), is(2));
+
+      // Make A more recently used than B
+      final long now = System.currentTimeMillis();
+      for (Path entry : entries(directory)) {
+        //noinspection ResultOfMethodCallIgnored
+        entry.toFile().setLastModified(now - 60_000L);
+      }
+      cache.loadClass("A", source("A", "a"), LOADER);
+      assertThat(cache.getHitCount(), is(1L));
+
+      cache.loadClass("C", source("C", "c"), LOADER);
+      assertThat(entries(directory).size(), is(2));
+      assertThat(cache.getEvictionCount(), is(1L));
+
+      // A and C remain; B was evicted
+      final CompiledClassCache cache2 =
+          new CompiledClassCache(directory, "v1", 2);
+      cache2.loadClass("A", source("A", "a"), LOADER);
+      cache2.loadClass("C", source("C", "c"), LOADER);
+      assertThat(cache2.getHitCount(), is(2L));
+      cache2.loadClass("B", source("B", "b"), LOADER);
+      assertThat(cache2.getMissCount(), is(1L));
+    } finally {
+      deleteDirectory(directory);
+    }
+  }
+
+  /** Tests that eviction frees a tenth of the entries, so that the next
+   * write does not evict again. */
+  @Test public void testEvictionFreesRoom() throws Exception {
+    final File directory = Files.createTempDirectory("classes").toFile();
+    try {
+      final CompiledClassCache cache =
+          new CompiledClassCache(directory, "v1", 10);
+      for (int i = 0; i < 10; i++) {
+        cache.loadClass("A" + i, source("A" + i, "a"), LOADER);
+      }
+      assertThat(entries(directory).size(), is(10));
+      assertThat(cache.getEvictionCount(), is(0L));
+
+      cache.loadClass("B", source("B", "b"), LOADER);
+      assertThat(entries(directory).size(), is(9));
+      assertThat(cache.getEvictionCount(), is(2L));
+
+      cache.loadClass("C", source("C", "c"), LOADER);
+      assertThat(entries(directory).size(), is(10));
+      assertThat(cache.getEvictionCount(), is(2L));
+    } finally {
+      deleteDirectory(directory);
+    }
+  }
+
+  @Test public void testPopulatorParse() throws IOException {
+    final String log = "-- a comment\n"
+        + "select *\n"
+        + "from emp;\n"
+        + "\n"
+        + "values 1;\n"
+        + "values 2";
+    final List<String> queries =
+        ClassCachePopulator.parse(new BufferedReader(new StringReader(log)));
+    assertThat(queries,
+        is(Arrays.asList("select *\nfrom emp", "values 1", "values 2")));
+  }
+
+  @Test public void testPopulatorPrepare() throws Exception {
+    final StringWriter sw = new StringWriter();
+    try (Connection connection = DriverManager.getConnection("jdbc:calcite:");
+         PrintWriter pw = new PrintWriter(sw)) {
+      final int failed =
+          ClassCachePopulator.prepareAll(connection,
+              Arrays.asList("values 1", "select * from nonexistent"), pw);
+      assertThat(failed, is(1));
+    }
+    final String expected =
+        "Error while preparing query: select * from nonexistent";
+    assertThat(sw.toString().startsWith(expected), is(true));
+  }
+
+  private static List<Path> entries(File directory) throws IOException {
+    try (Stream<Path> files = Files.list(directory.toPath())) {
+      return files.filter(Files::isDirectory).sorted()
+          .collect(Collectors.toList());
+    }
+  }
+
+  private static void deleteDirectory(File directory) {
+    final File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        if (file.isDirectory()) {
+          deleteDirectory(file);
+        } else {
+          //noinspection ResultOfMethodCallIgnored
+          file.delete();
+        }
+      }
+    }
+    //noinspection ResultOfMethodCallIgnored
+    directory.delete();
+  }
+}
+
+// End CompiledClassCacheTest.java
@@ -36,7 +36,6 @@
 
 import com.google.common.base.Supplier;
 import com.google.common.base.Suppliers;
-import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Sets;
 
 import java.math.BigDecimal;
@@ -45,6 +44,7 @@
 import java.util.AbstractSet;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -56,9 +56,11 @@
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Objects;
+import java.util.PriorityQueue;
 import java.util.RandomAccess;
 import java.util.Set;
-import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.function.ToIntFunction;
 
 import static org.apache.calcite.linq4j.Linq4j.CollectionEnumerable;
 import static org.apache.calcite.linq4j.Linq4j.ListEnumerable;
@@ -792,6 +794,114 @@ public static <TSource, TKey, TAccumulate, TResult> Enumerable<TResult> groupBy(
         resultSelector);
   }
 
+  /**
+   * Groups the elements of a sequence according to a specified key selector
+   * function, as
+   * {@link #groupBy(Enumerable, Function1, Function0, Function2, Function2, EqualityComparer)},
+   * holding at most {@code spillThreshold} groups in memory.
+   *
+   * <p>Once there are {@code spillThreshold} groups in memory, elements whose
+   * key is not one of those groups are hash-partitioned on their key into
+   * temporary files. After the sequence has been read, the groups in memory
+   * are returned, then each partition is grouped in turn (and is
+   * re-partitioned if it, too, has too many groups). Elements, not
+   * accumulators, are spilled, so accumulators need not be serializable or
+   * mergeable; but elements must be {@link java.io.Serializable}. If the
+   * sequence does not spill, the results are in the same order as the
+   * in-memory {@code groupBy}.
+   *
+   * @param comparer Key comparer, or null to use the keys' own
+   *   {@code equals} and {@code hashCode} methods
+   * @param spillThreshold Maximum number of groups to hold in memory, or a
+   *   non-positive value to hold all groups in memory
+   */
+  public static <TSource, TKey, TAccumulate, TResult> Enumerable<TResult> groupBy(
+      Enumerable<TSource> enumerable, Function1<TSource, TKey> keySelector,
+      Function0<TAccumulate> accumulatorInitializer,
+      Function2<TAccumulate, TSource, TAccumulate> accumulatorAdder,
+      Function2<TKey, TAccumulate, TResult> resultSelector,
+      EqualityComparer<TKey> comparer, int spillThreshold) {
+    if (spillThreshold <= 0) {
+      return comparer == null
+          ? groupBy(enumerable, keySelector, accumulatorInitializer,
+              accumulatorAdder, resultSelector)
+          : groupBy(enumerable, keySelector, accumulatorInitializer,
+              accumulatorAdder, resultSelector, comparer);
+    }
+    return spillingGroupBy_(enumerable,
+        Collections.singletonList(keySelector), accumulatorInitializer,
+        accumulatorAdder, resultSelector, comparer, spillThreshold, 0);
+  }
+
+  /**
+   * Groups the elements of a sequence according to a list of specified key
+   * selector functions, as
+   * {@link #groupByMultiple(Enumerable, List, Function0, Function2, Function2)},
+   * holding at most {@code spillThreshold} groups in memory.
+   *
+   * @see #groupBy(Enumerable, Function1, Function0, Function2, Function2, EqualityComparer, int)
+   */
+  public static <TSource, TKey, TAccumulate, TResult> Enumerable<TResult> groupByMultiple(
+      Enumerable<TSource> enumerable,
+      List<Function1<TSource, TKey>> keySelectors,
+      Function0<TAccumulate> accumulatorInitializer,
+      Function2<TAccumulate, TSource, TAccumulate> accumulatorAdder,
+      Function2<TKey, TAccumulate, TResult> resultSelector,
+      EqualityComparer<TKey> comparer, int spillThreshold) {
+    if (spillThreshold <= 0 && comparer == null) {
+      return groupByMultiple(enumerable, keySelectors, accumulatorInitializer,
+          accumulatorAdder, resultSelector);
+    }
+    return spillingGroupBy_(enumerable, keySelectors, accumulatorInitializer,
+        accumulatorAdder, resultSelector, comparer, spillThreshold, 0);
+  }
+
+  /**
+   * Groups the elements of a sequence according to a specified key selector
+   * function, as
+   * {@link #groupBy(Enumerable, Function1, Function0, Function2, Function2, EqualityComparer)},
+   * grouping each partition in parallel if the sequence is a
+   * {@link PartitionedEnumerable}.
+   *
+   * <p>The sequence must be partitioned on a key such that elements with
+   * equal group keys are in the same partition. Each worker groups the
+   * elements of its partitions as they are read; the results of each worker
+   * are returned in turn, read directly from that worker's accumulators.
+   *
+   * @param comparer Key comparer, or null to use the keys' own
+   *   {@code equals} and {@code hashCode} methods
+   * @param executor Executor in which to run the workers
+   * @param parallelism Number of workers
+   */
+  public static <TSource, TKey, TAccumulate, TResult> Enumerable<TResult> partitionedGroupBy(
+      final Enumerable<TSource> enumerable,
+      final Function1<TSource, TKey> keySelector,
+      final Function0<TAccumulate> accumulatorInitializer,
+      final Function2<TAccumulate, TSource, TAccumulate> accumulatorAdder,
+      final Function2<TKey, TAccumulate, TResult> resultSelector,
+      final EqualityComparer<TKey> comparer, final Executor executor,
+      final int parallelism) {
+    final Function1<Enumerable<TSource>, Enumerable<TResult>> grouper =
+        source -> comparer == null
+            ? groupBy(source, keySelector, accumulatorInitializer,
+                accumulatorAdder, resultSelector)
+            : groupBy(source, keySelector, accumulatorInitializer,
+                accumulatorAdder, resultSelector, comparer);
+    if (!(enumerable instanceof PartitionedEnumerable)) {
+      return grouper.apply(enumerable);
+    }
+    final PartitionedEnumerable<TSource> partitioned =
+        (PartitionedEnumerable<TSource>) enumerable;
+    return new AbstractEnumerable<TResult>() {
+      public Enumerator<TResult> enumerator() {
+        // Grouping is eager; each result is a view of the accumulators
+        final List<Enumerable<TResult>> results =
+            partitioned.process(executor, parallelism, grouper);
+        return Linq4j.concat(results).enumerator();
+      }
+    };
+  }
+
   private static <TSource, TKey, TAccumulate, TResult> Enumerable<TResult> groupBy_(
       final Map<TKey, TAccumulate> map, Enumerable<TSource> enumerable,
       Function1<TSource, TKey> keySelector,
@@ -848,6 +958,91 @@ private static <TSource, TKey, TAccumulate, TResult> Enumerable<TResult> groupBy
     return new LookupResultEnumerable<>(map, resultSelector);
   }
 
+  /** Implementation of grouping that holds at most {@code spillThreshold}
+   * groups in memory, spilling elements of other groups to disk.
+   *
+   * <p>If there are several key selectors, each element belongs to several
+   * groups, and is spilled as an {@code Object[]} containing the ordinal of
+   * the key selector and the element. */
+  private static <TSource, TKey, TAccumulate, TResult> Enumerable<TResult> spillingGroupBy_(
+      final Enumerable<TSource> enumerable,
+      final List<Function1<TSource, TKey>> keySelectors,
+      final Function0<TAccumulate> accumulatorInitializer,
+      final Function2<TAccumulate, TSource, TAccumulate> accumulatorAdder,
+      final Function2<TKey, TAccumulate, TResult> resultSelector,
+      final EqualityComparer<TKey> comparer, final int spillThreshold,
+      final int depth) {
+    return new AbstractEnumerable<TResult>() {
+      public Enumerator<TResult> enumerator() {
+        final Map<TKey, TAccumulate> map = comparer == null
+            ? new HashMap<>()
+            : new WrapMap<>(() -> new HashMap<Wrapped<TKey>, TAccumulate>(),
+                comparer);
+        final boolean canSpill = spillThreshold > 0 && depth < MAX_SPILL_DEPTH;
+        List<SpillFile<Object>> files = null;
+        boolean success = false;
+        try (Enumerator<TSource> os = enumerable.enumerator()) {
+          while (os.moveNext()) {
+            final TSource o = os.current();
+            for (int i = 0; i < keySelectors.size(); i++) {
+              final TKey key = keySelectors.get(i).apply(o);
+              TAccumulate accumulator = map.get(key);
+              if (accumulator == null) {
+                if (canSpill && map.size() >= spillThreshold) {
+                  if (files == null) {
+                    files = spillPartitions(SPILL_PARTITION_COUNT);
+                  }
+                  files.get(spillPartition(key, comparer, depth))
+                      .add(keySelectors.size() == 1 ? o : new Object[] {i, o});
+                  continue;
+                }
+                accumulator = accumulatorInitializer.apply();
+                accumulator = accumulatorAdder.apply(accumulator, o);
+                map.put(key, accumulator);
+              } else {
+                TAccumulate accumulator0 = accumulator;
+                accumulator = accumulatorAdder.apply(accumulator, o);
+                if (accumulator != accumulator0) {
+                  map.put(key, accumulator);
+                }
+              }
+            }
+          }
+          success = true;
+        } finally {
+          if (!success && files != null) {
+            closeAll(files);
+          }
+        }
+        final Enumerator<TResult> results =
+            new LookupResultEnumerable<>(map, resultSelector).enumerator();
+        if (files == null) {
+          return results;
+        }
+        return new SpilledPartitionEnumerator<>(results, files,
+            file -> groupPartition(file));
+      }
+
+      /** Groups the elements in a spilled partition. */
+      @SuppressWarnings("unchecked")
+      private Enumerable<TResult> groupPartition(SpillFile<Object> file) {
+        if (keySelectors.size() == 1) {
+          return spillingGroupBy_((Enumerable<TSource>) (Enumerable) file,
+              keySelectors, accumulatorInitializer, accumulatorAdder,
+              resultSelector, comparer, spillThreshold, depth + 1);
+        }
+        // Each spilled element is a pair [key selector ordinal, element].
+        final Function1<Object[], TKey> keySelector = pair ->
+            keySelectors.get((Integer) pair[0]).apply((TSource) pair[1]);
+        return spillingGroupBy_((Enumerable<Object[]>) (Enumerable) file,
+            Collections.singletonList(keySelector), accumulatorInitializer,
+            (TAccumulate accumulator, Object[] pair) ->
+                accumulatorAdder.apply(accumulator, (TSource) pair[1]),
+            resultSelector, comparer, spillThreshold, depth + 1);
+      }
+    };
+  }
+
   private static <TSource, TKey, TResult> Enumerable<TResult> groupBy_(
       final Set<TKey> map, Enumerable<TSource> enumerable,
       Function1<TSource, TKey> keySelector,
@@ -1093,6 +1288,153 @@ public static <TSource, TInner, TKey, TResult> Enumerable<TResult> hashJoin(
     }
   }
 
+  /**
+   * Correlates the elements of two sequences based on
+   * matching keys, spilling to disk if the inner sequence is large.
+   *
+   * <p>If {@code spillThreshold} is positive and {@code inner} has more than
+   * {@code spillThreshold} elements, both inputs are hash-partitioned on
+   * their keys into temporary files, and each pair of partitions is joined
+   * in memory (a "grace" hash join). Elements must be
+   * {@link java.io.Serializable}. The order of the results is not preserved
+   * if the join spills. Otherwise behaves as
+   * {@link #hashJoin(Enumerable, Enumerable, Function1, Function1, Function2, EqualityComparer, boolean, boolean, Predicate2)}.
+   */
+  public static <TSource, TInner, TKey, TResult> Enumerable<TResult> hashJoin(
+      final Enumerable<TSource> outer, final Enumerable<TInner> inner,
+      final Function1<TSource, TKey> outerKeySelector,
+      final Function1<TInner, TKey> innerKeySelector,
+      final Function2<TSource, TInner, TResult> resultSelector,
+      final EqualityComparer<TKey> comparer, final boolean generateNullsOnLeft,
+      final boolean generateNullsOnRight,
+      final Predicate2<TSource, TInner> predicate, final int spillThreshold) {
+    if (spillThreshold <= 0) {
+      return hashJoin(outer, inner, outerKeySelector, innerKeySelector,
+          resultSelector, comparer, generateNullsOnLeft, generateNullsOnRight,
+          predicate);
+    }
+    return spillingJoin_(outer, inner, outerKeySelector, innerKeySelector,
+        comparer, generateNullsOnRight, generateNullsOnLeft, spillThreshold, 0,
+        (outers, inners) ->
+            hashJoin(outers, inners, outerKeySelector, innerKeySelector,
+                resultSelector, comparer, generateNullsOnLeft,
+                generateNullsOnRight, predicate));
+  }
+
+  /**
+   * Returns a sequence whose elements are those of a source sequence, and
+   * which can also be read as partitions on a key.
+   *
+   * <p>Operators that receive the result, such as
+   * {@link #partitionedGroupBy} and {@link #partitionedHashJoin}, may process
+   * the partitions in parallel; other operators see the source sequence
+   * unchanged.
+   *
+   * @param source Source sequence
+   * @param keySelector Function that returns the partitioning key of an
+   *   element
+   * @param partitionCount Number of partitions
+   */
+  public static <TSource, TKey> Enumerable<TSource> exchange(
+      Enumerable<TSource> source, Function1<TSource, TKey> keySelector,
+      int partitionCount) {
+    return new PartitionedEnumerable<>(source, keySelector, partitionCount);
+  }
+
+  /**
+   * Correlates the elements of two sequences based on matching keys, as
+   * {@link #hashJoin(Enumerable, Enumerable, Function1, Function1, Function2, EqualityComparer, boolean, boolean, Predicate2)},
+   * building the hash table of the inner (build) sequence in parallel if it
+   * is a {@link PartitionedEnumerable}.
+   *
+   * <p>The inner sequence is routed to workers by the hash of its join key,
+   * and each worker hashes its elements into a table of its own as they are
+   * read. The tables are not merged; each key is looked up in the table of
+   * the worker it was routed to. The outer (probe) sequence is not
+   * partitioned; it is read once, and each of its elements is looked up as it
+   * arrives, so the first results are returned without reading the whole
+   * outer sequence.
+   *
+   * @param executor Executor in which to run the workers
+   * @param parallelism Number of workers
+   */
+  public static <TSource, TInner, TKey, TResult> Enumerable<TResult> partitionedHashJoin(
+      final Enumerable<TSource> outer, final Enumerable<TInner> inner,
+      final Function1<TSource, TKey> outerKeySelector,
+      final Function1<TInner, TKey> innerKeySelector,
+      final Function2<TSource, TInner, TResult> resultSelector,
+      final EqualityComparer<TKey> comparer, final boolean generateNullsOnLeft,
+      final boolean generateNullsOnRight,
+      final Predicate2<TSource, TInner> predicate, final Executor executor,
+      final int parallelism) {
+    if (!(inner instanceof PartitionedEnumerable)) {
+      return hashJoin(outer, inner, outerKeySelector, innerKeySelector,
+          resultSelector, comparer, generateNullsOnLeft, generateNullsOnRight,
+          predicate);
+    }
+    final PartitionedEnumerable<TInner> partitionedInner =
+        (PartitionedEnumerable<TInner>) inner;
+    final Function0<Lookup<TKey, TInner>> lookupBuilder = () ->
+        partitionedLookup(partitionedInner, innerKeySelector, comparer,
+            executor, parallelism);
+    if (predicate == null) {
+      return hashEquiJoin_(outer, inner, outerKeySelector, innerKeySelector,
+          resultSelector, comparer, generateNullsOnLeft, generateNullsOnRight,
+          lookupBuilder);
+    } else {
+      return hashJoinWithPredicate_(outer, inner, outerKeySelector,
+          innerKeySelector, resultSelector, comparer, generateNullsOnLeft,
+          generateNullsOnRight, predicate, lookupBuilder);
+    }
+  }
+
+  /** Builds a lookup of a partitioned sequence, hashing in parallel.
+   *
+   * <p>The sequence need not be partitioned on the lookup key, so its
+   * elements are re-routed to workers by the hash of the lookup key; elements
+   * with equal keys therefore reach the same worker, and the workers' tables
+   * have disjoint keys. Probes are routed by the same hash. */
+  private static <TSource, TKey> Lookup<TKey, TSource> partitionedLookup(
+      PartitionedEnumerable<TSource> source,
+      Function1<TSource, TKey> keySelector, EqualityComparer<TKey> comparer,
+      Executor executor, int parallelism) {
+    final ToIntFunction<TKey> hasher = key -> key == null ? 0
+        : comparer == null ? key.hashCode()
+        : comparer.hashCode(key);
+    final List<Map<TKey, List<TSource>>> maps =
+        source.process(executor, parallelism,
+            e -> hasher.applyAsInt(keySelector.apply(e)),
+            partition -> {
+              final Map<TKey, List<TSource>> map = lookupMap(comparer);
+              toLookup_(map, partition, keySelector,
+                  Functions.identitySelector());
+              return map;
+            });
+    return new LookupImpl<>(
+        maps.size() == 1 ? maps.get(0) : new RoutingMap<>(maps, hasher));
+  }
+
+  /** Returns a list of all values in a lookup. */
+  private static <TKey, TElement> List<TElement> lookupValues(
+      Lookup<TKey, TElement> lookup) {
+    final List<TElement> list = new ArrayList<>();
+    for (Enumerable<TElement> values : lookup.values()) {
+      values.into(list);
+    }
+    return list;
+  }
+
+  /** Creates an empty map for a lookup, using a key comparer if not null. */
+  private static <TKey, TElement> Map<TKey, List<TElement>> lookupMap(
+      EqualityComparer<TKey> comparer) {
+    return comparer == null
+        ? new HashMap<>()
+        : new WrapMap<>(
+            // Java 8 cannot infer return type with HashMap::new is used
+            () -> new HashMap<Wrapped<TKey>, List<TElement>>(),
+            comparer);
+  }
+
   /** Implementation of join that builds the right input and probes with the
    * left. */
   private static <TSource, TInner, TKey, TResult> Enumerable<TResult> hashEquiJoin_(
@@ -1102,10 +1444,28 @@ private static <TSource, TInner, TKey, TResult> Enumerable<TResult> hashEquiJoin
       final Function2<TSource, TInner, TResult> resultSelector,
       final EqualityComparer<TKey> comparer, final boolean generateNullsOnLeft,
       final boolean generateNullsOnRight) {
+    return hashEquiJoin_(outer, inner, outerKeySelector, innerKeySelector,
+        resultSelector, comparer, generateNullsOnLeft, generateNullsOnRight,
+        null);
+  }
+
+  /** Implementation of hash equi-join; builds the lookup of the inner
+   * sequence using {@code lookupBuilder} if it is not null, otherwise by
+   * reading the inner sequence. */
+  private static <TSource, TInner, TKey, TResult> Enumerable<TResult> hashEquiJoin_(
+      final Enumerable<TSource> outer, final Enumerable<TInner> inner,
+      final Function1<TSource, TKey> outerKeySelector,
+      final Function1<TInner, TKey> innerKeySelector,
+      final Function2<TSource, TInner, TResult> resultSelector,
+      final EqualityComparer<TKey> comparer, final boolean generateNullsOnLeft,
+      final boolean generateNullsOnRight,
+      final Function0<Lookup<TKey, TInner>> lookupBuilder) {
     return new AbstractEnumerable<TResult>() {
       public Enumerator<TResult> enumerator() {
         final Lookup<TKey, TInner> innerLookup =
-            comparer == null
+            lookupBuilder != null
+                ? lookupBuilder.apply()
+                : comparer == null
                 ? inner.toLookup(innerKeySelector)
                 : inner.toLookup(innerKeySelector, comparer);
 
@@ -1195,6 +1555,22 @@ private static <TSource, TInner, TKey, TResult> Enumerable<TResult> hashJoinWith
       final Function2<TSource, TInner, TResult> resultSelector,
       final EqualityComparer<TKey> comparer, final boolean generateNullsOnLeft,
       final boolean generateNullsOnRight, final Predicate2<TSource, TInner> predicate) {
+    return hashJoinWithPredicate_(outer, inner, outerKeySelector,
+        innerKeySelector, resultSelector, comparer, generateNullsOnLeft,
+        generateNullsOnRight, predicate, null);
+  }
+
+  /** Implementation of hash join with a predicate; builds the lookup of the
+   * inner sequence using {@code lookupBuilder} if it is not null, otherwise
+   * by reading the inner sequence. */
+  private static <TSource, TInner, TKey, TResult> Enumerable<TResult> hashJoinWithPredicate_(
+      final Enumerable<TSource> outer, final Enumerable<TInner> inner,
+      final Function1<TSource, TKey> outerKeySelector,
+      final Function1<TInner, TKey> innerKeySelector,
+      final Function2<TSource, TInner, TResult> resultSelector,
+      final EqualityComparer<TKey> comparer, final boolean generateNullsOnLeft,
+      final boolean generateNullsOnRight, final Predicate2<TSource, TInner> predicate,
+      final Function0<Lookup<TKey, TInner>> lookupBuilder) {
 
     return new AbstractEnumerable<TResult>() {
       public Enumerator<TResult> enumerator() {
@@ -1203,12 +1579,15 @@ public Enumerator<TResult> enumerator() {
          * is a right join, we should figure out the right list first, if
          * not, then keep the original inner here.
          */
-        final Enumerable<TInner> innerToLookUp = generateNullsOnLeft
-            ? Linq4j.asEnumerable(inner.toList())
-            : inner;
+        final Enumerable<TInner> innerToLookUp =
+            generateNullsOnLeft && lookupBuilder == null
+                ? Linq4j.asEnumerable(inner.toList())
+                : inner;
 
         final Lookup<TKey, TInner> innerLookup =
-            comparer == null
+            lookupBuilder != null
+                ? lookupBuilder.apply()
+                : comparer == null
                 ? innerToLookUp.toLookup(innerKeySelector)
                 : innerToLookUp
                     .toLookup(innerKeySelector, comparer);
@@ -1217,9 +1596,11 @@ public Enumerator<TResult> enumerator() {
           Enumerator<TSource> outers = outer.enumerator();
           Enumerator<TInner> inners = Linq4j.emptyEnumerator();
           List<TInner> innersUnmatched =
-              generateNullsOnLeft
-                  ? new ArrayList<>(innerToLookUp.toList())
-                  : null;
+              !generateNullsOnLeft
+                  ? null
+                  : lookupBuilder != null
+                  ? lookupValues(innerLookup)
+                  : new ArrayList<>(innerToLookUp.toList());
 
           public TResult current() {
             return resultSelector.apply(outers.current(), inners.current());
@@ -1295,6 +1676,259 @@ public void close() {
     };
   }
 
+  /** Number of partitions into which each input of a spilling join is
+   * split. */
+  private static final int SPILL_PARTITION_COUNT = 16;
+
+  /** Maximum depth of re-partitioning; beyond this (for instance, if a
+   * single key has more than {@code spillThreshold} inner elements) a
+   * partition is joined in memory regardless of its size. */
+  private static final int MAX_SPILL_DEPTH = 3;
+
+  /** Implementation of a join that reads the inner input into memory, or, if
+   * it has more than {@code spillThreshold} elements, partitions both inputs
+   * to disk and joins partition by partition.
+   *
+   * <p>Elements with equal keys always land in the same partition, so any
+   * join that matches only on keys gives the same results partition by
+   * partition as it would on the whole inputs.
+   *
+   * @param outerWithoutInner Whether outer elements produce results even if
+   *   there is no inner element with the same key (for example LEFT and ANTI
+   *   joins); if false, partitions with an empty inner are skipped
+   * @param innerWithoutOuter Whether inner elements produce results even if
+   *   there is no outer element with the same key (for example RIGHT joins);
+   *   if false, partitions with an empty outer are skipped
+   * @param joiner Joins (in memory) an outer and inner partition
+   */
+  private static <TSource, TInner, TKey, TResult> Enumerable<TResult> spillingJoin_(
+      final Enumerable<TSource> outer, final Enumerable<TInner> inner,
+      final Function1<TSource, TKey> outerKeySelector,
+      final Function1<TInner, TKey> innerKeySelector,
+      final EqualityComparer<TKey> comparer, final boolean outerWithoutInner,
+      final boolean innerWithoutOuter, final int spillThreshold,
+      final int depth,
+      final Function2<Enumerable<TSource>, Enumerable<TInner>,
+          Enumerable<TResult>> joiner) {
+    return new AbstractEnumerable<TResult>() {
+      public Enumerator<TResult> enumerator() {
+        final List<TInner> buffer = new ArrayList<>();
+        final Enumerator<TInner> inners = inner.enumerator();
+        try {
+          while (buffer.size() <= spillThreshold) {
+            if (!inners.moveNext()) {
+              // The inner input fits in memory.
+              return joiner.apply(outer, Linq4j.asEnumerable(buffer))
+                  .enumerator();
+            }
+            buffer.add(inners.current());
+          }
+          final List<SpillFile<TInner>> innerFiles =
+              spillPartitions(SPILL_PARTITION_COUNT);
+          final List<SpillFile<TSource>> outerFiles =
+              spillPartitions(SPILL_PARTITION_COUNT);
+          boolean success = false;
+          try {
+            for (TInner e : buffer) {
+              innerFiles.get(
+                  spillPartition(innerKeySelector.apply(e), comparer, depth))
+                  .add(e);
+            }
+            buffer.clear();
+            while (inners.moveNext()) {
+              final TInner e = inners.current();
+              innerFiles.get(
+                  spillPartition(innerKeySelector.apply(e), comparer, depth))
+                  .add(e);
+            }
+            try (Enumerator<TSource> outers = outer.enumerator()) {
+              while (outers.moveNext()) {
+                final TSource e = outers.current();
+                final TKey key = e == null ? null : outerKeySelector.apply(e);
+                final int i = spillPartition(key, comparer, depth);
+                if (outerWithoutInner || innerFiles.get(i).size() > 0) {
+                  outerFiles.get(i).add(e);
+                }
+              }
+            }
+            success = true;
+          } finally {
+            if (!success) {
+              closeAll(innerFiles);
+              closeAll(outerFiles);
+            }
+          }
+          return new SpillingJoinEnumerator<>(outerFiles, innerFiles,
+              innerWithoutOuter,
+              (outers, inners2) -> {
+                if (inners2.size() > spillThreshold
+                    && depth < MAX_SPILL_DEPTH) {
+                  return spillingJoin_(outers, inners2, outerKeySelector,
+                      innerKeySelector, comparer, outerWithoutInner,
+                      innerWithoutOuter, spillThreshold, depth + 1, joiner);
+                }
+                return joiner.apply(outers, inners2);
+              });
+        } finally {
+          inners.close();
+        }
+      }
+    };
+  }
+
+  private static <E> List<SpillFile<E>> spillPartitions(int n) {
+    final List<SpillFile<E>> files = new ArrayList<>(n);
+    try {
+      for (int i = 0; i < n; i++) {
+        files.add(new SpillFile<>());
+      }
+    } catch (RuntimeException e) {
+      closeAll(files);
+      throw e;
+    }
+    return files;
+  }
+
+  private static void closeAll(List<? extends SpillFile<?>> files) {
+    for (SpillFile<?> file : files) {
+      file.close();
+    }
+  }
+
+  /** Returns the partition that a key belongs to. Each level of
+   * re-partitioning uses a different hash function, so that elements that
+   * collided at one level are distributed at the next. */
+  private static <TKey> int spillPartition(TKey key,
+      EqualityComparer<TKey> comparer, int depth) {
+    if (key == null) {
+      return 0;
+    }
+    int h = comparer == null ? key.hashCode() : comparer.hashCode(key);
+    h ^= depth * 0x9E3779B9;
+    h *= 0x85EBCA6B;
+    h ^= h >>> 16;
+    return (h & Integer.MAX_VALUE) % SPILL_PARTITION_COUNT;
+  }
+
+  /** Enumerator that joins pairs of spilled partitions, one pair at a time,
+   * and deletes each pair of files once it has been joined.
+   *
+   * @param <TSource> Outer element type
+   * @param <TInner> Inner element type
+   * @param <TResult> Result type */
+  private static class SpillingJoinEnumerator<TSource, TInner, TResult>
+      implements Enumerator<TResult> {
+    private final List<SpillFile<TSource>> outerFiles;
+    private final List<SpillFile<TInner>> innerFiles;
+    private final boolean innerWithoutOuter;
+    private final Function2<Enumerable<TSource>, SpillFile<TInner>,
+        Enumerable<TResult>> joiner;
+    private int partition = -1;
+    private Enumerator<TResult> current = Linq4j.emptyEnumerator();
+
+    SpillingJoinEnumerator(List<SpillFile<TSource>> outerFiles,
+        List<SpillFile<TInner>> innerFiles, boolean innerWithoutOuter,
+        Function2<Enumerable<TSource>, SpillFile<TInner>,
+            Enumerable<TResult>> joiner) {
+      this.outerFiles = outerFiles;
+      this.innerFiles = innerFiles;
+      this.innerWithoutOuter = innerWithoutOuter;
+      this.joiner = joiner;
+    }
+
+    public TResult current() {
+      return current.current();
+    }
+
+    public boolean moveNext() {
+      for (;;) {
+        if (current.moveNext()) {
+          return true;
+        }
+        current.close();
+        if (partition >= 0) {
+          outerFiles.get(partition).close();
+          innerFiles.get(partition).close();
+        }
+        if (++partition >= outerFiles.size()) {
+          current = Linq4j.emptyEnumerator();
+          return false;
+        }
+        final SpillFile<TSource> outerFile =
+            outerFiles.get(partition).finish();
+        final SpillFile<TInner> innerFile = innerFiles.get(partition).finish();
+        current = outerFile.size() == 0 && !innerWithoutOuter
+            ? Linq4j.emptyEnumerator()
+            : joiner.apply(outerFile, innerFile).enumerator();
+      }
+    }
+
+    public void reset() {
+      throw new UnsupportedOperationException();
+    }
+
+    public void close() {
+      current.close();
+      closeAll(outerFiles);
+      closeAll(innerFiles);
+    }
+  }
+
+  /** Enumerator that returns the results of an enumerator over the data
+   * that stayed in memory, then the results of each spilled partition in
+   * turn, deleting each partition's file once it has been read.
+   *
+   * @param <E> Element type of the spilled partitions
+   * @param <TResult> Result type */
+  private static class SpilledPartitionEnumerator<E, TResult>
+      implements Enumerator<TResult> {
+    private final List<SpillFile<E>> files;
+    private final Function1<SpillFile<E>, Enumerable<TResult>> function;
+    private int partition = -1;
+    private Enumerator<TResult> current;
+
+    SpilledPartitionEnumerator(Enumerator<TResult> first,
+        List<SpillFile<E>> files,
+        Function1<SpillFile<E>, Enumerable<TResult>> function) {
+      this.current = first;
+      this.files = files;
+      this.function = function;
+    }
+
+    public TResult current() {
+      return current.current();
+    }
+
+    public boolean moveNext() {
+      for (;;) {
+        if (current.moveNext()) {
+          return true;
+        }
+        current.close();
+        if (partition >= 0) {
+          files.get(partition).close();
+        }
+        if (++partition >= files.size()) {
+          current = Linq4j.emptyEnumerator();
+          return false;
+        }
+        final SpillFile<E> file = files.get(partition).finish();
+        current = file.size() == 0
+            ? Linq4j.emptyEnumerator()
+            : function.apply(file).enumerator();
+      }
+    }
+
+    public void reset() {
+      throw new UnsupportedOperationException();
+    }
+
+    public void close() {
+      current.close();
+      closeAll(files);
+    }
+  }
+
   /**
    * For each row of the {@code outer} enumerable returns the correlated rows
    * from the {@code inner} enumerable.
@@ -1680,6 +2314,32 @@ public static <TSource, TInner, TKey> Enumerable<TSource> semiJoin(
     }
   }
 
+  /**
+   * Returns elements of {@code outer} for which there is (semi-join) / is not
+   * (anti-semi-join) a member of {@code inner} with a matching key, spilling
+   * to disk if {@code inner} has more than {@code spillThreshold} elements.
+   *
+   * @see #hashJoin(Enumerable, Enumerable, Function1, Function1, Function2, EqualityComparer, boolean, boolean, Predicate2, int)
+   */
+  public static <TSource, TInner, TKey> Enumerable<TSource> semiJoin(
+      final Enumerable<TSource> outer, final Enumerable<TInner> inner,
+      final Function1<TSource, TKey> outerKeySelector,
+      final Function1<TInner, TKey> innerKeySelector,
+      final EqualityComparer<TKey> comparer,
+      final boolean anti,
+      final Predicate2<TSource, TInner> nonEquiPredicate,
+      final int spillThreshold) {
+    if (spillThreshold <= 0) {
+      return semiJoin(outer, inner, outerKeySelector, innerKeySelector,
+          comparer, anti, nonEquiPredicate);
+    }
+    return spillingJoin_(outer, inner, outerKeySelector, innerKeySelector,
+        comparer, anti, false, spillThreshold, 0,
+        (outers, inners) ->
+            semiJoin(outers, inners, outerKeySelector, innerKeySelector,
+                comparer, anti, nonEquiPredicate));
+  }
+
   private static <TSource, TInner, TKey> Enumerable<TSource> semiJoinWithPredicate_(
       final Enumerable<TSource> outer, final Enumerable<TInner> inner,
       final Function1<TSource, TKey> outerKeySelector,
@@ -1813,19 +2473,46 @@ public static <TSource, TInner, TResult> Enumerable<TResult> nestedLoopJoin(
       final Function2<TSource, TInner, TResult> resultSelector,
       boolean generateNullsOnLeft,
       boolean generateNullsOnRight) {
-    if (generateNullsOnLeft) {
-      throw new UnsupportedOperationException(
-        "not implemented, mergeJoin with generateNullsOnLeft");
-    }
-    if (generateNullsOnRight) {
-      throw new UnsupportedOperationException(
-        "not implemented, mergeJoin with generateNullsOnRight");
-    }
+    final JoinType joinType = generateNullsOnLeft
+        ? (generateNullsOnRight ? JoinType.FULL : JoinType.RIGHT)
+        : (generateNullsOnRight ? JoinType.LEFT : JoinType.INNER);
+    return mergeJoin(outer, inner, outerKeySelector, innerKeySelector, null,
+        resultSelector, joinType);
+  }
+
+  /**
+   * Joins two inputs that are sorted on the key, with a given join type.
+   *
+   * <p>Both inputs must be sorted in ascending order of their keys. Elements
+   * whose key is null never match; they may occur anywhere in the input
+   * (which allows keys that are lists, some of whose components are null,
+   * sorted with nulls last).
+   *
+   * <p>Reads each input once, and holds in memory only the inner elements
+   * that have the current key. The results of inner, left, semi and anti
+   * joins are in the order of the outer input; right joins emit each inner
+   * element that has no match in the position of its key.
+   *
+   * @param extraPredicate Predicate that a pair of elements with matching
+   *   keys must also satisfy, or null
+   * @param resultSelector Function that creates a result from a pair of
+   *   elements; for semi- and anti-joins, and for elements without a match,
+   *   the other argument is null
+   * @param joinType Join type
+   */
+  public static <TSource, TInner, TKey extends Comparable<TKey>, TResult> Enumerable<TResult>
+      mergeJoin(final Enumerable<TSource> outer,
+      final Enumerable<TInner> inner,
+      final Function1<TSource, TKey> outerKeySelector,
+      final Function1<TInner, TKey> innerKeySelector,
+      final Predicate2<TSource, TInner> extraPredicate,
+      final Function2<TSource, TInner, TResult> resultSelector,
+      final JoinType joinType) {
     return new AbstractEnumerable<TResult>() {
       public Enumerator<TResult> enumerator() {
         return new MergeJoinEnumerator<>(outer.enumerator(),
             inner.enumerator(), outerKeySelector, innerKeySelector,
-            resultSelector);
+            extraPredicate, resultSelector, joinType);
       }
     };
   }
@@ -2252,13 +2939,115 @@ public static <TSource, TKey extends Comparable> Enumerable<TSource> orderBy(
   public static <TSource, TKey> Enumerable<TSource> orderBy(
       Enumerable<TSource> source, Function1<TSource, TKey> keySelector,
       Comparator<TKey> comparator) {
-    // NOTE: TreeMap allows null comparator. But the caller of this method
-    // must supply a comparator if the key does not extend Comparable.
-    // Otherwise there will be a ClassCastException while retrieving.
-    final Map<TKey, List<TSource>> map = new TreeMap<>(comparator);
-    LookupImpl<TKey, TSource> lookup = toLookup_(map, source, keySelector,
-        Functions.identitySelector());
-    return lookup.valuesEnumerable();
+    return orderBy(source, keySelector, comparator, -1);
+  }
+
+  /**
+   * Sorts the elements of a sequence in ascending
+   * order by using a specified comparer, spilling to disk if the sequence
+   * has more than {@code spillThreshold} elements.
+   *
+   * <p>Elements are sorted in memory in batches of at most
+   * {@code spillThreshold} elements; each sorted batch is written to a
+   * temporary file, and the files are merged. Elements must be
+   * {@link java.io.Serializable} if the sort spills. If
+   * {@code spillThreshold} is not positive, the sort never spills.
+   *
+   * <p>The sort is stable. The caller must supply a comparator if the key
+   * does not extend {@link Comparable}.
+   */
+  public static <TSource, TKey> Enumerable<TSource> orderBy(
+      final Enumerable<TSource> source,
+      final Function1<TSource, TKey> keySelector,
+      final Comparator<TKey> comparator, final int spillThreshold) {
+    return new AbstractEnumerable<TSource>() {
+      public Enumerator<TSource> enumerator() {
+        return ExternalSort.sort(source.enumerator(), keySelector, comparator,
+            spillThreshold);
+      }
+    };
+  }
+
+  /**
+   * Returns the elements of a sequence that would be at positions
+   * {@code offset} to {@code offset + fetch - 1} if the sequence were sorted
+   * using a specified comparer.
+   *
+   * <p>Equivalent to {@code orderBy(source, keySelector, comparator)
+   * .skip(offset).take(fetch)}, but only keeps {@code offset + fetch}
+   * elements in memory, in a bounded heap.
+   */
+  public static <TSource, TKey> Enumerable<TSource> orderBy(
+      final Enumerable<TSource> source,
+      final Function1<TSource, TKey> keySelector,
+      final Comparator<TKey> comparator, final int offset, final int fetch) {
+    return new AbstractEnumerable<TSource>() {
+      public Enumerator<TSource> enumerator() {
+        if (fetch <= 0) {
+          return Linq4j.emptyEnumerator();
+        }
+        return topN_(source, keySelector, comparator,
+            (int) Math.min((long) offset + fetch, Integer.MAX_VALUE - 8))
+            .skip(offset)
+            .enumerator();
+      }
+    };
+  }
+
+  /** Returns the first {@code n} elements of a sequence, in sorted order.
+   * Uses a max-heap of size {@code n}; each element is compared with the
+   * largest element retained so far, and either replaces it or is
+   * discarded. Elements with equal keys are ordered by arrival, so the
+   * result is the same as that of a stable sort. */
+  @SuppressWarnings("unchecked")
+  private static <TSource, TKey> Enumerable<TSource> topN_(
+      Enumerable<TSource> source, Function1<TSource, TKey> keySelector,
+      Comparator<TKey> comparator, int n) {
+    final Comparator<TKey> keyComparator = comparator == null
+        ? (Comparator) Comparator.naturalOrder()
+        : comparator;
+    final Comparator<TopNEntry<TSource, TKey>> entryComparator = (e0, e1) -> {
+      final int c = keyComparator.compare(e1.key, e0.key);
+      return c != 0 ? c : Long.compare(e1.ordinal, e0.ordinal);
+    };
+    final PriorityQueue<TopNEntry<TSource, TKey>> heap =
+        new PriorityQueue<>(Math.min(n, 1024), entryComparator);
+    long ordinal = 0;
+    try (Enumerator<TSource> os = source.enumerator()) {
+      while (os.moveNext()) {
+        final TSource o = os.current();
+        final TKey key = keySelector.apply(o);
+        if (heap.size() < n) {
+          heap.add(new TopNEntry<>(key, o, ordinal++));
+        } else if (keyComparator.compare(key, heap.peek().key) < 0) {
+          // Smaller than the largest retained element; since it arrived
+          // later, it would lose a tie, so the comparison is strict.
+          heap.poll();
+          heap.add(new TopNEntry<>(key, o, ordinal++));
+        }
+      }
+    }
+    final Object[] rows = new Object[heap.size()];
+    for (int i = rows.length - 1; i >= 0; i--) {
+      rows[i] = heap.poll().row;
+    }
+    return Linq4j.asEnumerable((List<TSource>) Arrays.asList(rows));
+  }
+
+  /** Element retained by the heap of a top-N sort.
+   *
+   * @param <TSource> Element type
+   * @param <TKey> Key type */
+  private static class TopNEntry<TSource, TKey> {
+    final TKey key;
+    final TSource row;
+    final long ordinal;
+
+    TopNEntry(TKey key, TSource row, long ordinal) {
+      this.key = key;
+      this.row = row;
+      this.ordinal = ordinal;
+    }
   }
 
   /**
@@ -3589,6 +4378,77 @@ private Wrapped<K> wrap(K key) {
     }
   }
 
+  /** Read-only map that is the union of several maps with disjoint keys,
+   * each key being in the map chosen by
+   * {@link PartitionedEnumerable#partition(int, int)} from its hash.
+   *
+   * @param <K> key type
+   * @param <V> value type */
+  private static class RoutingMap<K, V> extends AbstractMap<K, V> {
+    private final List<Map<K, V>> maps;
+    private final ToIntFunction<K> hasher;
+
+    RoutingMap(List<Map<K, V>> maps, ToIntFunction<K> hasher) {
+      this.maps = maps;
+      this.hasher = hasher;
+    }
+
+    private Map<K, V> route(Object key) {
+      return maps.get(
+          PartitionedEnumerable.partition(hasher.applyAsInt((K) key),
+              maps.size()));
+    }
+
+    @Override public Set<Entry<K, V>> entrySet() {
+      return new AbstractSet<Entry<K, V>>() {
+        @Override public Iterator<Entry<K, V>> iterator() {
+          return new Iterator<Entry<K, V>>() {
+            int i = 0;
+            Iterator<Entry<K, V>> iterator =
+                maps.get(0).entrySet().iterator();
+
+            public boolean hasNext() {
+              while (!iterator.hasNext()) {
+                if (++i >= maps.size()) {
+                  return false;
+                }
+                iterator = maps.get(i).entrySet().iterator();
+              }
+              return true;
+            }
+
+            public Entry<K, V> next() {
+              if (!hasNext()) {
+                throw new NoSuchElementException();
+              }
+              return iterator.next();
+            }
+          };
+        }
+
+        @Override public int size() {
+          return RoutingMap.this.size();
+        }
+      };
+    }
+
+    @Override public int size() {
+      int size = 0;
+      for (Map<K, V> map : maps) {
+        size += map.size();
+      }
+      return size;
+    }
+
+    @Override public boolean containsKey(Object key) {
+      return route(key).containsKey(key);
+    }
+
+    @Override public V get(Object key) {
+      return route(key).get(key);
+    }
+  }
+
   /** Reads a populated map, applying a selector function.
    *
    * @param <TResult> result type
@@ -3626,6 +4486,10 @@ public void remove() {
   }
 
   /** Enumerator that performs a merge join on its sorted inputs.
+   *
+   * <p>Each call to {@link #moveNext()} takes one step (consumes one left
+   * row, one right row, or a group of right rows with the same key), until
+   * the step has produced results.
    *
    * @param <TResult> result type
    * @param <TSource> left input record type
@@ -3633,144 +4497,244 @@ public void remove() {
    * @param <TInner> right input record type */
   private static class MergeJoinEnumerator<TResult, TSource, TInner, TKey extends Comparable<TKey>>
       implements Enumerator<TResult> {
-    final List<TSource> lefts = new ArrayList<>();
-    final List<TInner> rights = new ArrayList<>();
     private final Enumerator<TSource> leftEnumerator;
     private final Enumerator<TInner> rightEnumerator;
     private final Function1<TSource, TKey> outerKeySelector;
     private final Function1<TInner, TKey> innerKeySelector;
+    private final Predicate2<TSource, TInner> extraPredicate;
     private final Function2<TSource, TInner, TResult> resultSelector;
-    boolean done;
-    Enumerator<List<Object>> cartesians;
+    private final JoinType joinType;
+    private final boolean emitsUnmatchedLeft;
+    private final boolean emitsUnmatchedRight;
+
+    /** Results of the current step; those before {@link #resultIndex} have
+     * been returned. A list rather than a queue, because a result may be
+     * null. */
+    private final List<TResult> results = new ArrayList<>();
+    private int resultIndex;
+    /** Right rows whose key is {@link #groupKey}. */
+    private final List<TInner> rights = new ArrayList<>();
+    /** Which of {@link #rights} have matched a left row. */
+    private final BitSet matched = new BitSet();
+    /** Key of the current group of right rows, or null if there is no
+     * current group. */
+    private TKey groupKey;
+
+    private TSource left;
+    private TKey leftKey;
+    private TKey previousLeftKey;
+    private boolean leftDone;
+    private TInner right;
+    private TKey rightKey;
+    private TKey previousRightKey;
+    private boolean rightDone;
+    private boolean done;
+    private TResult current;
 
     MergeJoinEnumerator(Enumerator<TSource> leftEnumerator,
         Enumerator<TInner> rightEnumerator,
         Function1<TSource, TKey> outerKeySelector,
         Function1<TInner, TKey> innerKeySelector,
-        Function2<TSource, TInner, TResult> resultSelector) {
+        Predicate2<TSource, TInner> extraPredicate,
+        Function2<TSource, TInner, TResult> resultSelector,
+        JoinType joinType) {
       this.leftEnumerator = leftEnumerator;
       this.rightEnumerator = rightEnumerator;
       this.outerKeySelector = outerKeySelector;
       this.innerKeySelector = innerKeySelector;
+      this.extraPredicate = extraPredicate;
       this.resultSelector = resultSelector;
+      this.joinType = joinType;
+      this.emitsUnmatchedLeft = joinType.generatesNullsOnRight()
+          || joinType == JoinType.ANTI;
+      this.emitsUnmatchedRight = joinType.generatesNullsOnLeft();
       start();
     }
 
     private void start() {
-      if (!leftEnumerator.moveNext()
-          || !rightEnumerator.moveNext()
-          || !advance()) {
-        done = true;
-        cartesians = Linq4j.emptyEnumerator();
-      }
-    }
-
-    /** Moves to the next key that is present in both sides. Populates
-     * lefts and rights with the rows. Restarts the cross-join
-     * enumerator. */
-    private boolean advance() {
-      TSource left = leftEnumerator.current();
-      TKey leftKey = outerKeySelector.apply(left);
-      TInner right = rightEnumerator.current();
-      TKey rightKey = innerKeySelector.apply(right);
-      for (;;) {
-        int c = leftKey.compareTo(rightKey);
-        if (c == 0) {
-          break;
+      results.clear();
+      resultIndex = 0;
+      rights.clear();
+      groupKey = null;
+      previousLeftKey = null;
+      previousRightKey = null;
+      leftDone = false;
+      rightDone = false;
+      done = false;
+      current = null;
+      advanceLeft();
+      advanceRight();
+    }
+
+    private void advanceLeft() {
+      if (!leftEnumerator.moveNext()) {
+        leftDone = true;
+        left = null;
+        leftKey = null;
+        return;
+      }
+      left = leftEnumerator.current();
+      leftKey = outerKeySelector.apply(left);
+      if (leftKey != null) {
+        if (previousLeftKey != null && previousLeftKey.compareTo(leftKey) > 0) {
+          throw new IllegalStateException(
+              "mergeJoin assumes inputs sorted in ascending order, "
+                  + "however " + previousLeftKey + " is greater than "
+                  + leftKey);
         }
-        if (c < 0) {
-          if (!leftEnumerator.moveNext()) {
-            done = true;
-            return false;
-          }
-          left = leftEnumerator.current();
-          leftKey = outerKeySelector.apply(left);
+        previousLeftKey = leftKey;
+      }
+    }
+
+    private void advanceRight() {
+      if (!rightEnumerator.moveNext()) {
+        rightDone = true;
+        right = null;
+        rightKey = null;
+        return;
+      }
+      right = rightEnumerator.current();
+      rightKey = innerKeySelector.apply(right);
+      if (rightKey != null) {
+        if (previousRightKey != null
+            && previousRightKey.compareTo(rightKey) > 0) {
+          throw new IllegalStateException(
+              "mergeJoin assumes input sorted in ascending order, "
+                  + "however " + previousRightKey + " is greater than "
+                  + rightKey);
+        }
+        previousRightKey = rightKey;
+      }
+    }
+
+    /** Consumes some input, adding any results to {@link #results}. */
+    private void step() {
+      if (groupKey != null) {
+        if (!leftDone && leftKey != null && leftKey.compareTo(groupKey) == 0) {
+          joinLeft();
+          advanceLeft();
         } else {
-          if (!rightEnumerator.moveNext()) {
-            done = true;
-            return false;
+          // No more left rows have this key
+          if (emitsUnmatchedRight) {
+            for (int i = matched.nextClearBit(0); i < rights.size();
+                 i = matched.nextClearBit(i + 1)) {
+              results.add(resultSelector.apply(null, rights.get(i)));
+            }
           }
-          right = rightEnumerator.current();
-          rightKey = innerKeySelector.apply(right);
+          rights.clear();
+          groupKey = null;
         }
+        return;
       }
-      lefts.clear();
-      lefts.add(left);
-      for (;;) {
-        if (!leftEnumerator.moveNext()) {
+      if (!leftDone && leftKey == null) {
+        unmatchedLeft();
+        return;
+      }
+      if (!rightDone && rightKey == null) {
+        unmatchedRight();
+        return;
+      }
+      if (leftDone) {
+        if (rightDone || !emitsUnmatchedRight) {
           done = true;
-          break;
-        }
-        left = leftEnumerator.current();
-        TKey leftKey2 = outerKeySelector.apply(left);
-        int c = leftKey.compareTo(leftKey2);
-        if (c != 0) {
-          if (c > 0) {
-            throw new IllegalStateException(
-              "mergeJoin assumes inputs sorted in ascending order, "
-                 + "however " + leftKey + " is greater than " + leftKey2);
-          }
-          break;
+        } else {
+          unmatchedRight();
         }
-        lefts.add(left);
+        return;
       }
-      rights.clear();
-      rights.add(right);
-      for (;;) {
-        if (!rightEnumerator.moveNext()) {
+      if (rightDone) {
+        if (!emitsUnmatchedLeft) {
           done = true;
-          break;
+        } else {
+          unmatchedLeft();
         }
-        right = rightEnumerator.current();
-        TKey rightKey2 = innerKeySelector.apply(right);
-        int c = rightKey.compareTo(rightKey2);
-        if (c != 0) {
-          if (c > 0) {
-            throw new IllegalStateException(
-              "mergeJoin assumes input sorted in ascending order, "
-                 + "however " + rightKey + " is greater than " + rightKey2);
+        return;
+      }
+      final int c = leftKey.compareTo(rightKey);
+      if (c < 0) {
+        unmatchedLeft();
+      } else if (c > 0) {
+        unmatchedRight();
+      } else {
+        // Read the right rows with this key; the left rows with this key
+        // will be joined to them, one per step.
+        groupKey = rightKey;
+        matched.clear();
+        do {
+          rights.add(right);
+          advanceRight();
+        } while (!rightDone && rightKey != null
+            && rightKey.compareTo(groupKey) == 0);
+      }
+    }
+
+    /** Joins the current left row to the current group of right rows. */
+    private void joinLeft() {
+      boolean any = false;
+      for (int i = 0; i < rights.size(); i++) {
+        final TInner r = rights.get(i);
+        if (extraPredicate == null || extraPredicate.apply(left, r)) {
+          switch (joinType) {
+          case SEMI:
+            results.add(resultSelector.apply(left, null));
+            return;
+          case ANTI:
+            return;
+          default:
+            any = true;
+            matched.set(i);
+            results.add(resultSelector.apply(left, r));
           }
-          break;
         }
-        rights.add(right);
       }
-      cartesians = Linq4j.product(
-          ImmutableList.of(Linq4j.enumerator(lefts),
-              Linq4j.enumerator(rights)));
-      return true;
+      if (!any && emitsUnmatchedLeft) {
+        results.add(resultSelector.apply(left, null));
+      }
+    }
+
+    /** Consumes the current left row, which has no match. */
+    private void unmatchedLeft() {
+      if (emitsUnmatchedLeft) {
+        results.add(resultSelector.apply(left, null));
+      }
+      advanceLeft();
+    }
+
+    /** Consumes the current right row, which has no match. */
+    private void unmatchedRight() {
+      if (emitsUnmatchedRight) {
+        results.add(resultSelector.apply(null, right));
+      }
+      advanceRight();
     }
 
     public TResult current() {
-      final List<Object> list = cartesians.current();
-      @SuppressWarnings("unchecked") final TSource left =
-          (TSource) list.get(0);
-      @SuppressWarnings("unchecked") final TInner right =
-          (TInner) list.get(1);
-      return resultSelector.apply(left, right);
+      return current;
     }
 
     public boolean moveNext() {
-      for (;;) {
-        if (cartesians.moveNext()) {
-          return true;
-        }
+      while (resultIndex == results.size()) {
+        results.clear();
+        resultIndex = 0;
         if (done) {
+          current = null;
           return false;
         }
-        if (!advance()) {
-          return false;
-        }
+        step();
       }
+      current = results.get(resultIndex++);
+      return true;
     }
 
     public void reset() {
-      done = false;
       leftEnumerator.reset();
       rightEnumerator.reset();
       start();
     }
 
     public void close() {
+      leftEnumerator.close();
+      rightEnumerator.close();
     }
   }
 
@@ -0,0 +1,338 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.calcite.linq4j;
+
+import org.apache.calcite.linq4j.function.Function1;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Stable sort of a sequence, spilling sorted runs to disk if the sequence
+ * has more elements than a given threshold.
+ *
+ * <p>Elements are buffered in a pair of arrays (sort keys and elements) and
+ * sorted using a merge sort, so there is no per-element allocation other than
+ * the key. If the buffer fills, it is sorted and written to a
+ * {@link SpillFile} as a "run", and the runs are merged when the input is
+ * exhausted. At most {@link #MAX_FAN_IN} runs are read at a time; if there
+ * are more, consecutive runs are first merged into longer runs, in as many
+ * passes as necessary.
+ *
+ * @param <TSource> Element type
+ * @param <TKey> Sort key type
+ */
+class ExternalSort<TSource, TKey> {
+  /** Size of the blocks that are sorted by insertion sort before merging. */
+  private static final int INSERTION_SORT_THRESHOLD = 16;
+
+  /** Maximum number of runs that are merged at once, and therefore the
+   * maximum number of spill files that are open at once. */
+  static final int MAX_FAN_IN = 64;
+
+  private final Function1<TSource, TKey> keySelector;
+  private final Comparator<Object> comparator;
+  private final int spillThreshold;
+
+  private Object[] keys = new Object[16];
+  private Object[] rows = new Object[16];
+  private int size;
+  private final List<SpillFile<TSource>> runs = new ArrayList<>();
+
+  @SuppressWarnings("unchecked")
+  ExternalSort(Function1<TSource, TKey> keySelector,
+      Comparator<TKey> comparator, int spillThreshold) {
+    this.keySelector = keySelector;
+    this.comparator = comparator == null
+        ? (Comparator) Comparator.naturalOrder()
+        : (Comparator) comparator;
+    this.spillThreshold = spillThreshold;
+  }
+
+  /** Sorts the elements of an enumerator. */
+  static <TSource, TKey> Enumerator<TSource> sort(Enumerator<TSource> input,
+      Function1<TSource, TKey> keySelector, Comparator<TKey> comparator,
+      int spillThreshold) {
+    final ExternalSort<TSource, TKey> sort =
+        new ExternalSort<>(keySelector, comparator, spillThreshold);
+    boolean success = false;
+    try {
+      while (input.moveNext()) {
+        sort.add(input.current());
+      }
+      success = true;
+    } finally {
+      input.close();
+      if (!success) {
+        sort.close();
+      }
+    }
+    return sort.enumerator();
+  }
+
+  private void add(TSource row) {
+    if (size == keys.length) {
+      if (spillThreshold > 0 && size >= spillThreshold) {
+        spill();
+      } else {
+        final int newLength = spillThreshold > 0
+            ? Math.min(size * 2, spillThreshold)
+            : size * 2;
+        keys = Arrays.copyOf(keys, Math.max(newLength, size + 1));
+        rows = Arrays.copyOf(rows, keys.length);
+      }
+    }
+    keys[size] = keySelector.apply(row);
+    rows[size] = row;
+    ++size;
+  }
+
+  /** Sorts the buffer and writes it to a new run. */
+  @SuppressWarnings("unchecked")
+  private void spill() {
+    sort(keys, rows, size, comparator);
+    final SpillFile<TSource> run = new SpillFile<>();
+    runs.add(run);
+    for (int i = 0; i < size; i++) {
+      run.add((TSource) rows[i]);
+      keys[i] = null;
+      rows[i] = null;
+    }
+    run.finish();
+    size = 0;
+  }
+
+  private void close() {
+    for (SpillFile<TSource> run : runs) {
+      run.close();
+    }
+    runs.clear();
+  }
+
+  @SuppressWarnings("unchecked")
+  private Enumerator<TSource> enumerator() {
+    sort(keys, rows, size, comparator);
+    final List<TSource> list =
+        (List<TSource>) Arrays.asList(rows).subList(0, size);
+    if (runs.isEmpty()) {
+      return Linq4j.enumerator(list);
+    }
+    // The buffered elements are the last run; there is no need to write them
+    // to disk.
+    while (runs.size() + 1 > MAX_FAN_IN) {
+      mergeRuns();
+    }
+    final List<Enumerator<TSource>> enumerators = new ArrayList<>();
+    for (SpillFile<TSource> run : runs) {
+      enumerators.add(run.enumerator());
+    }
+    enumerators.add(Linq4j.enumerator(list));
+    return new MergeEnumerator(enumerators) {
+      @Override public void close() {
+        super.close();
+        ExternalSort.this.close();
+      }
+    };
+  }
+
+  /** Makes one merge pass, replacing each group of {@link #MAX_FAN_IN}
+   * consecutive runs with a single run. Because the groups stay in order,
+   * the merge remains stable. */
+  private void mergeRuns() {
+    for (int i = 0; i < runs.size(); i++) {
+      final List<SpillFile<TSource>> group =
+          runs.subList(i, Math.min(i + MAX_FAN_IN, runs.size()));
+      if (group.size() == 1) {
+        break;
+      }
+      final SpillFile<TSource> merged = new SpillFile<>();
+      final List<Enumerator<TSource>> enumerators = new ArrayList<>();
+      boolean success = false;
+      try {
+        for (SpillFile<TSource> run : group) {
+          enumerators.add(run.enumerator());
+        }
+        final MergeEnumerator enumerator = new MergeEnumerator(enumerators);
+        while (enumerator.moveNext()) {
+          merged.add(enumerator.current());
+        }
+        merged.finish();
+        success = true;
+      } finally {
+        for (Enumerator<TSource> enumerator : enumerators) {
+          enumerator.close();
+        }
+        if (!success) {
+          merged.close();
+        }
+      }
+      for (SpillFile<TSource> run : group) {
+        run.close();
+      }
+      group.clear();
+      runs.add(i, merged);
+    }
+  }
+
+  /** Sorts the first {@code n} entries of a pair of arrays by key. The sort is
+   * stable. */
+  static void sort(Object[] keys, Object[] rows, int n,
+      Comparator<Object> comparator) {
+    for (int lo = 0; lo < n; lo += INSERTION_SORT_THRESHOLD) {
+      insertionSort(keys, rows, lo, Math.min(lo + INSERTION_SORT_THRESHOLD, n),
+          comparator);
+    }
+    if (n <= INSERTION_SORT_THRESHOLD) {
+      return;
+    }
+    Object[] srcKeys = keys;
+    Object[] srcRows = rows;
+    Object[] dstKeys = new Object[n];
+    Object[] dstRows = new Object[n];
+    for (int width = INSERTION_SORT_THRESHOLD; width < n; width *= 2) {
+      for (int lo = 0; lo < n; lo += 2 * width) {
+        final int mid = Math.min(lo + width, n);
+        final int hi = Math.min(lo + 2 * width, n);
+        merge(srcKeys, srcRows, dstKeys, dstRows, lo, mid, hi, comparator);
+      }
+      final Object[] tk = srcKeys;
+      srcKeys = dstKeys;
+      dstKeys = tk;
+      final Object[] tr = srcRows;
+      srcRows = dstRows;
+      dstRows = tr;
+    }
+    if (srcKeys != keys) {
+      System.arraycopy(srcKeys, 0, keys, 0, n);
+      System.arraycopy(srcRows, 0, rows, 0, n);
+    }
+  }
+
+  private static void insertionSort(Object[] keys, Object[] rows, int lo,
+      int hi, Comparator<Object> comparator) {
+    for (int i = lo + 1; i < hi; i++) {
+      final Object key = keys[i];
+      final Object row = rows[i];
+      int j = i - 1;
+      while (j >= lo && comparator.compare(keys[j], key) > 0) {
+        keys[j + 1] = keys[j];
+        rows[j + 1] = rows[j];
+        --j;
+      }
+      keys[j + 1] = key;
+      rows[j + 1] = row;
+    }
+  }
+
+  private static void merge(Object[] srcKeys, Object[] srcRows,
+      Object[] dstKeys, Object[] dstRows, int lo, int mid, int hi,
+      Comparator<Object> comparator) {
+    int i = lo;
+    int j = mid;
+    int k = lo;
+    while (i < mid && j < hi) {
+      // Take from the right only if strictly less; this keeps the sort stable
+      if (comparator.compare(srcKeys[j], srcKeys[i]) < 0) {
+        dstKeys[k] = srcKeys[j];
+        dstRows[k++] = srcRows[j++];
+      } else {
+        dstKeys[k] = srcKeys[i];
+        dstRows[k++] = srcRows[i++];
+      }
+    }
+    System.arraycopy(srcKeys, i, dstKeys, k, mid - i);
+    System.arraycopy(srcRows, i, dstRows, k, mid - i);
+    k += mid - i;
+    System.arraycopy(srcKeys, j, dstKeys, k, hi - j);
+    System.arraycopy(srcRows, j, dstRows, k, hi - j);
+  }
+
+  /** Enumerator that merges sorted runs. Where keys are equal, elements from
+   * earlier runs come first, so the merge is stable. */
+  private class MergeEnumerator implements Enumerator<TSource> {
+    private final List<Enumerator<TSource>> enumerators;
+    private final PriorityQueue<Cursor> queue;
+    private TSource current;
+
+    MergeEnumerator(List<Enumerator<TSource>> enumerators) {
+      this.enumerators = enumerators;
+      this.queue = new PriorityQueue<>(enumerators.size(), (c0, c1) -> {
+        final int c = comparator.compare(c0.key, c1.key);
+        return c != 0 ? c : Integer.compare(c0.ordinal, c1.ordinal);
+      });
+      for (int i = 0; i < enumerators.size(); i++) {
+        final Cursor cursor = new Cursor(i, enumerators.get(i));
+        if (cursor.advance()) {
+          queue.add(cursor);
+        }
+      }
+    }
+
+    public TSource current() {
+      return current;
+    }
+
+    public boolean moveNext() {
+      final Cursor cursor = queue.poll();
+      if (cursor == null) {
+        current = null;
+        return false;
+      }
+      current = cursor.enumerator.current();
+      if (cursor.advance()) {
+        queue.add(cursor);
+      }
+      return true;
+    }
+
+    public void reset() {
+      throw new UnsupportedOperationException();
+    }
+
+    public void close() {
+      for (Enumerator<TSource> enumerator : enumerators) {
+        enumerator.close();
+      }
+      queue.clear();
+    }
+
+    /** Position in a run. */
+    private class Cursor {
+      final int ordinal;
+      final Enumerator<TSource> enumerator;
+      TKey key;
+
+      Cursor(int ordinal, Enumerator<TSource> enumerator) {
+        this.ordinal = ordinal;
+        this.enumerator = enumerator;
+      }
+
+      boolean advance() {
+        if (enumerator.moveNext()) {
+          key = keySelector.apply(enumerator.current());
+          return true;
+        }
+        return false;
+      }
+    }
+  }
+}
+
+// End ExternalSort.java
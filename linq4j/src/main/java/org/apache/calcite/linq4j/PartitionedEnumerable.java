@@ -0,0 +1,310 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.calcite.linq4j;
+
+import org.apache.calcite.linq4j.function.Function1;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntFunction;
+
+/**
+ * Sequence whose elements can be read as a number of partitions, each
+ * containing the elements with a particular hash of their key.
+ *
+ * <p>Enumerating the sequence returns the elements of the source, in their
+ * original order. Operators that know that they only combine elements with
+ * equal keys (for example, {@code GROUP BY} on a superset of the key) may
+ * instead call {@link #process} to process the partitions independently, in
+ * parallel.
+ *
+ * <p>The source is read in the calling thread, which hands each element to
+ * the worker of its partition as it is read; the workers run concurrently
+ * with the reader and with each other. Elements are passed in batches through
+ * bounded queues, so the source is never held in memory as a whole.
+ *
+ * <p>Created by
+ * {@link EnumerableDefaults#exchange(Enumerable, Function1, int)}.
+ *
+ * @param <T> Element type
+ */
+public class PartitionedEnumerable<T> extends AbstractEnumerable<T> {
+  /** Number of elements that the reader collects for a worker before handing
+   * them over. */
+  static final int BATCH_SIZE = 1024;
+
+  /** Number of batches that may be waiting for each worker. */
+  private static final int QUEUE_SIZE = 4;
+
+  /** Batch that marks the end of a worker's elements. */
+  private static final List<Object> END = Collections.emptyList();
+
+  /** Batch that tells a worker to stop, because the reader failed. */
+  private static final List<Object> ABORT = new ArrayList<>(0);
+
+  private final Enumerable<T> source;
+  private final Function1<T, ?> keySelector;
+  public final int partitionCount;
+
+  PartitionedEnumerable(Enumerable<T> source, Function1<T, ?> keySelector,
+      int partitionCount) {
+    if (partitionCount < 1) {
+      throw new IllegalArgumentException("partitionCount: " + partitionCount);
+    }
+    this.source = source;
+    this.keySelector = keySelector;
+    this.partitionCount = partitionCount;
+  }
+
+  public Enumerator<T> enumerator() {
+    return source.enumerator();
+  }
+
+  /** Processes the partitions of this sequence in parallel, routing elements
+   * by the hash of their partitioning key, and returns the results of the
+   * workers.
+   *
+   * @see #process(Executor, int, ToIntFunction, Function1) */
+  public <R> List<R> process(Executor executor, int parallelism,
+      Function1<Enumerable<T>, R> worker) {
+    return process(executor, parallelism, e -> hash(keySelector.apply(e)),
+        worker);
+  }
+
+  /** Processes the elements of this sequence in parallel, and returns the
+   * results of the workers, in worker order.
+   *
+   * <p>There are {@code min(parallelism, partitionCount)} workers. Element
+   * {@code e} goes to worker
+   * {@link #partition(int, int) partition(hasher(e), workerCount)}, so
+   * elements whose hashes are equal go to the same worker, and a value can
+   * be routed to the worker that holds elements with the same hash. Each
+   * worker sees its elements, in their original order, as an
+   * {@link Enumerable} that can be enumerated once.
+   *
+   * <p>The source is read in the calling thread. Each worker runs as a task
+   * in {@code executor}, and all workers must be able to run at once; if the
+   * executor is a {@link ForkJoinPool}, the pool adds threads while workers
+   * wait for elements. If the reader or a worker fails, rethrows its
+   * exception.
+   *
+   * @param executor Executor in which to run the workers
+   * @param parallelism Maximum number of workers
+   * @param hasher Function that returns the hash by which an element is
+   *               routed
+   * @param worker Function that processes the elements of a worker
+   */
+  public <R> List<R> process(Executor executor, int parallelism,
+      ToIntFunction<T> hasher, Function1<Enumerable<T>, R> worker) {
+    final int workerCount = Math.max(1, Math.min(parallelism, partitionCount));
+    if (workerCount == 1) {
+      return Collections.singletonList(worker.apply(source));
+    }
+    final List<BlockingQueue<List<Object>>> queues =
+        new ArrayList<>(workerCount);
+    final List<FutureTask<R>> futures = new ArrayList<>(workerCount);
+    for (int i = 0; i < workerCount; i++) {
+      final BlockingQueue<List<Object>> queue =
+          new ArrayBlockingQueue<>(QUEUE_SIZE);
+      final FutureTask<R> future =
+          new FutureTask<>(() -> worker.apply(new QueueEnumerable<>(queue)));
+      queues.add(queue);
+      futures.add(future);
+      executor.execute(future);
+    }
+    try {
+      final List<List<Object>> batches = new ArrayList<>(workerCount);
+      for (int i = 0; i < workerCount; i++) {
+        batches.add(new ArrayList<>(BATCH_SIZE));
+      }
+      try (Enumerator<T> enumerator = source.enumerator()) {
+        while (enumerator.moveNext()) {
+          final T e = enumerator.current();
+          final int i = partition(hasher.applyAsInt(e), workerCount);
+          final List<Object> batch = batches.get(i);
+          batch.add(e);
+          if (batch.size() == BATCH_SIZE) {
+            put(queues.get(i), batch, futures.get(i));
+            batches.set(i, new ArrayList<>(BATCH_SIZE));
+          }
+        }
+      }
+      for (int i = 0; i < workerCount; i++) {
+        if (!batches.get(i).isEmpty()) {
+          put(queues.get(i), batches.get(i), futures.get(i));
+        }
+        put(queues.get(i), END, futures.get(i));
+      }
+    } catch (RuntimeException | Error e) {
+      for (int i = 0; i < workerCount; i++) {
+        // Make room for the signal; the worker will not need what it had
+        // not yet read
+        queues.get(i).clear();
+        queues.get(i).offer(ABORT);
+      }
+      throw e;
+    }
+    final List<R> results = new ArrayList<>(workerCount);
+    for (Future<R> future : futures) {
+      results.add(get(future));
+    }
+    return results;
+  }
+
+  /** Returns the hash code of a key, or 0 if the key is null. */
+  static int hash(Object key) {
+    return key == null ? 0 : key.hashCode();
+  }
+
+  /** Returns the partition of a hash code.
+   *
+   * <p>Mixes the bits of the hash code, so that keys whose hash codes differ
+   * only in their high bits (such as small {@code double} values) are
+   * spread across partitions. */
+  public static int partition(int hash, int partitionCount) {
+    int h = hash * 0x9E3779B9;
+    h ^= h >>> 16;
+    return (h & Integer.MAX_VALUE) % partitionCount;
+  }
+
+  /** Adds a batch to a worker's queue, waiting while the queue is full.
+   * Drops the batch if the worker has already finished (perhaps because it
+   * failed, in which case {@link #get} will rethrow its exception). */
+  private static void put(BlockingQueue<List<Object>> queue,
+      List<Object> batch, Future<?> worker) {
+    block(new ForkJoinPool.ManagedBlocker() {
+      boolean done;
+
+      public boolean block() throws InterruptedException {
+        while (!done) {
+          done = queue.offer(batch, 10, TimeUnit.MILLISECONDS)
+              || worker.isDone();
+        }
+        return true;
+      }
+
+      public boolean isReleasable() {
+        return done || (done = queue.offer(batch) || worker.isDone());
+      }
+    });
+  }
+
+  /** Waits for a worker to finish, and returns its result. */
+  private static <R> R get(Future<R> future) {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      if (e.getCause() instanceof Error) {
+        throw (Error) e.getCause();
+      }
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  /** Calls a blocker; if the current thread is in a {@link ForkJoinPool}, the
+   * pool may add a thread while this one is blocked. */
+  private static void block(ForkJoinPool.ManagedBlocker blocker) {
+    try {
+      ForkJoinPool.managedBlock(blocker);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    }
+  }
+
+  /** Sequence that reads, once, the batches of elements that the reader
+   * puts on a worker's queue.
+   *
+   * @param <T> Element type */
+  private static class QueueEnumerable<T> extends AbstractEnumerable<T> {
+    private final BlockingQueue<List<Object>> queue;
+
+    QueueEnumerable(BlockingQueue<List<Object>> queue) {
+      this.queue = queue;
+    }
+
+    public Enumerator<T> enumerator() {
+      return new Enumerator<T>() {
+        List<Object> batch = Collections.emptyList();
+        int i = -1;
+        boolean done;
+
+        @SuppressWarnings("unchecked")
+        public T current() {
+          return (T) batch.get(i);
+        }
+
+        public boolean moveNext() {
+          while (!done) {
+            if (++i < batch.size()) {
+              return true;
+            }
+            batch = take();
+            i = -1;
+            if (batch == ABORT) {
+              throw new CancellationException();
+            }
+            done = batch == END;
+          }
+          return false;
+        }
+
+        private List<Object> take() {
+          final List<Object>[] holder = new List[1];
+          block(new ForkJoinPool.ManagedBlocker() {
+            public boolean block() throws InterruptedException {
+              if (holder[0] == null) {
+                holder[0] = queue.take();
+              }
+              return true;
+            }
+
+            public boolean isReleasable() {
+              return holder[0] != null || (holder[0] = queue.poll()) != null;
+            }
+          });
+          return holder[0];
+        }
+
+        public void reset() {
+          throw new UnsupportedOperationException();
+        }
+
+        public void close() {
+        }
+      };
+    }
+  }
+}
+
+// End PartitionedEnumerable.java
@@ -0,0 +1,475 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.calcite.linq4j;
+
+import org.apache.calcite.linq4j.function.DoubleFunction1;
+import org.apache.calcite.linq4j.function.Function0;
+import org.apache.calcite.linq4j.function.LongFunction1;
+import org.apache.calcite.linq4j.function.Predicate1;
+import org.apache.calcite.linq4j.tree.Primitive;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Hash aggregation on a single integral key, whose accumulators are held in
+ * primitive arrays.
+ *
+ * <p>Computes the same result as
+ * {@link EnumerableDefaults#groupBy} with {@code COUNT}, {@code SUM},
+ * {@code MIN} and {@code MAX} accumulators, but without allocating per row
+ * or per group: keys are held as {@code long} values in an open-addressing
+ * hash table, and each accumulator holds the values of all groups in an
+ * array indexed by group ordinal.
+ *
+ * <p>To use, call {@link #count}, {@link #sumLong}, {@link #sumDouble},
+ * {@link #minMaxLong} or {@link #minMaxDouble} once per aggregate function,
+ * then {@link #aggregate}. Each output row is an {@code Object[]} containing
+ * the key followed by the value of each aggregate function, boxed as the
+ * given {@link Primitive}.
+ *
+ * <p>Groups are returned in the order in which a {@link java.util.HashMap}
+ * of boxed keys would return them, so that results are the same as
+ * {@code groupBy}.
+ *
+ * @param <TSource> Element type
+ */
+public class PrimitiveHashAggregate<TSource> {
+  private static final int EMPTY = -1;
+
+  private final Predicate1<TSource> keyIsNull;
+  private final LongFunction1<TSource> keySelector;
+  private final Primitive keyPrimitive;
+  private final List<Function0<Accumulator<TSource>>> accumulatorFactories =
+      new ArrayList<>();
+
+  /** Creates a PrimitiveHashAggregate.
+   *
+   * @param keyIsNull Predicate that returns whether an element's key is null,
+   *   or null if keys are never null
+   * @param keySelector Function that returns an element's key
+   * @param keyPrimitive Type of the key in output rows
+   */
+  public PrimitiveHashAggregate(Predicate1<TSource> keyIsNull,
+      LongFunction1<TSource> keySelector, Primitive keyPrimitive) {
+    this.keyIsNull = keyIsNull;
+    this.keySelector = keySelector;
+    this.keyPrimitive = keyPrimitive;
+  }
+
+  /** Adds a {@code COUNT} aggregate function, which returns a
+   * {@code long}.
+   *
+   * @param isNull Predicate that returns whether an element's value is null
+   *   (such elements are not counted), or null to count all elements
+   */
+  public PrimitiveHashAggregate<TSource> count(Predicate1<TSource> isNull) {
+    accumulatorFactories.add(() -> new CountAccumulator<>(isNull));
+    return this;
+  }
+
+  /** Adds a {@code SUM} aggregate function over integral values.
+   *
+   * @param isNull Predicate that returns whether an element's value is null,
+   *   or null if values are never null
+   * @param selector Function that returns an element's value
+   * @param primitive Type of the result
+   * @param zeroIfEmpty Whether to return 0 rather than null if a group has
+   *   no non-null values (as {@code $SUM0})
+   */
+  public PrimitiveHashAggregate<TSource> sumLong(Predicate1<TSource> isNull,
+      LongFunction1<TSource> selector, Primitive primitive,
+      boolean zeroIfEmpty) {
+    accumulatorFactories.add(() ->
+        new LongAccumulator<TSource>(isNull, selector, primitive,
+            zeroIfEmpty) {
+          long combine(long acc, long v) {
+            return acc + v;
+          }
+        });
+    return this;
+  }
+
+  /** Adds a {@code SUM} aggregate function over {@code double} values.
+   *
+   * @see #sumLong */
+  public PrimitiveHashAggregate<TSource> sumDouble(Predicate1<TSource> isNull,
+      DoubleFunction1<TSource> selector, Primitive primitive,
+      boolean zeroIfEmpty) {
+    accumulatorFactories.add(() ->
+        new DoubleAccumulator<TSource>(isNull, selector, primitive,
+            zeroIfEmpty) {
+          double combine(double acc, double v) {
+            return acc + v;
+          }
+        });
+    return this;
+  }
+
+  /** Adds a {@code MIN} or {@code MAX} aggregate function over integral
+   * values, which returns null if a group has no non-null values.
+   *
+   * @param isNull Predicate that returns whether an element's value is null,
+   *   or null if values are never null
+   * @param selector Function that returns an element's value
+   * @param primitive Type of the result
+   * @param max Whether to return the maximum value (otherwise the minimum)
+   */
+  public PrimitiveHashAggregate<TSource> minMaxLong(Predicate1<TSource> isNull,
+      LongFunction1<TSource> selector, Primitive primitive, boolean max) {
+    accumulatorFactories.add(() -> max
+        ? new LongAccumulator<TSource>(isNull, selector, primitive, false) {
+          long combine(long acc, long v) {
+            return acc > v ? acc : v;
+          }
+        }
+        : new LongAccumulator<TSource>(isNull, selector, primitive, false) {
+          long combine(long acc, long v) {
+            return acc > v ? v : acc;
+          }
+        });
+    return this;
+  }
+
+  /** Adds a {@code MIN} or {@code MAX} aggregate function over
+   * {@code double} values.
+   *
+   * @see #minMaxLong */
+  public PrimitiveHashAggregate<TSource> minMaxDouble(
+      Predicate1<TSource> isNull, DoubleFunction1<TSource> selector,
+      Primitive primitive, boolean max) {
+    accumulatorFactories.add(() -> max
+        ? new DoubleAccumulator<TSource>(isNull, selector, primitive, false) {
+          double combine(double acc, double v) {
+            return acc > v ? acc : v;
+          }
+        }
+        : new DoubleAccumulator<TSource>(isNull, selector, primitive, false) {
+          double combine(double acc, double v) {
+            return acc > v ? v : acc;
+          }
+        });
+    return this;
+  }
+
+  /** Returns a sequence containing a row for each distinct key in a source
+   * sequence. The source is read each time the result is enumerated. */
+  public Enumerable<Object[]> aggregate(final Enumerable<TSource> source) {
+    return new AbstractEnumerable<Object[]>() {
+      public Enumerator<Object[]> enumerator() {
+        final Table table = new Table();
+        try (Enumerator<TSource> enumerator = source.enumerator()) {
+          while (enumerator.moveNext()) {
+            table.add(enumerator.current());
+          }
+        }
+        return Linq4j.enumerator(table.rows());
+      }
+    };
+  }
+
+  /** Converts an integral value to the boxed type of a primitive. */
+  static Object box(long v, Primitive primitive) {
+    switch (primitive) {
+    case BYTE:
+      return (byte) v;
+    case SHORT:
+      return (short) v;
+    case CHAR:
+      return (char) v;
+    case INT:
+      return (int) v;
+    default:
+      return v;
+    }
+  }
+
+  /** Converts a floating-point value to the boxed type of a primitive. */
+  static Object box(double v, Primitive primitive) {
+    return primitive == Primitive.FLOAT ? (Object) (float) v : (Object) v;
+  }
+
+  /** Groups, and the state of each accumulator for each group, while
+   * aggregating one enumeration of the source. */
+  private class Table {
+    private final List<Accumulator<TSource>> accumulators = new ArrayList<>();
+    /** Open-addressing hash table; each slot holds a group ordinal or
+     * {@link #EMPTY}. */
+    private int[] slots = new int[64];
+    /** Key of each group, indexed by group ordinal. */
+    private long[] keys = new long[16];
+    private int groupCount;
+    private int nullGroup = EMPTY;
+
+    Table() {
+      Arrays.fill(slots, EMPTY);
+      for (Function0<Accumulator<TSource>> factory : accumulatorFactories) {
+        final Accumulator<TSource> accumulator = factory.apply();
+        accumulator.ensureCapacity(keys.length);
+        accumulators.add(accumulator);
+      }
+    }
+
+    void add(TSource e) {
+      final int group;
+      if (keyIsNull != null && keyIsNull.apply(e)) {
+        if (nullGroup == EMPTY) {
+          nullGroup = newGroup(0L);
+        }
+        group = nullGroup;
+      } else {
+        group = group(keySelector.apply(e));
+      }
+      for (Accumulator<TSource> accumulator : accumulators) {
+        accumulator.add(group, e);
+      }
+    }
+
+    /** Returns the ordinal of the group with a given key, creating it if
+     * necessary. */
+    private int group(long key) {
+      final int mask = slots.length - 1;
+      int i = hash(key) & mask;
+      for (;;) {
+        final int group = slots[i];
+        if (group == EMPTY) {
+          final int newGroup = newGroup(key);
+          slots[i] = newGroup;
+          if (groupCount * 2 > slots.length) {
+            rehash(slots.length * 2);
+          }
+          return newGroup;
+        }
+        if (keys[group] == key && group != nullGroup) {
+          return group;
+        }
+        i = (i + 1) & mask;
+      }
+    }
+
+    private int newGroup(long key) {
+      if (groupCount == keys.length) {
+        keys = Arrays.copyOf(keys, keys.length * 2);
+        for (Accumulator<TSource> accumulator : accumulators) {
+          accumulator.ensureCapacity(keys.length);
+        }
+      }
+      keys[groupCount] = key;
+      return groupCount++;
+    }
+
+    private void rehash(int capacity) {
+      slots = new int[capacity];
+      Arrays.fill(slots, EMPTY);
+      final int mask = capacity - 1;
+      for (int group = 0; group < groupCount; group++) {
+        if (group != nullGroup) {
+          int i = hash(keys[group]) & mask;
+          while (slots[i] != EMPTY) {
+            i = (i + 1) & mask;
+          }
+          slots[i] = group;
+        }
+      }
+    }
+
+    /** Returns the output rows, in the order that a {@link java.util.HashMap}
+     * with the same keys, added in the same order, would iterate (ignoring
+     * the rare case that a HashMap converts a bucket to a tree). */
+    List<Object[]> rows() {
+      // The capacity of the HashMap's table, which starts at 16 and doubles
+      // whenever the size exceeds 0.75 of the capacity.
+      int capacity = 16;
+      while (groupCount > capacity / 4 * 3) {
+        capacity *= 2;
+      }
+
+      // Stable counting sort of groups by HashMap bucket.
+      final int[] buckets = new int[groupCount];
+      final int[] starts = new int[capacity + 1];
+      for (int group = 0; group < groupCount; group++) {
+        final int h =
+            group == nullGroup ? 0 : boxedHashCode(keys[group]);
+        buckets[group] = (h ^ (h >>> 16)) & (capacity - 1);
+        ++starts[buckets[group] + 1];
+      }
+      for (int i = 0; i < capacity; i++) {
+        starts[i + 1] += starts[i];
+      }
+      final int[] order = new int[groupCount];
+      for (int group = 0; group < groupCount; group++) {
+        order[starts[buckets[group]]++] = group;
+      }
+
+      final List<Object[]> rows = new ArrayList<>(groupCount);
+      for (int group : order) {
+        final Object[] row = new Object[1 + accumulators.size()];
+        row[0] = group == nullGroup ? null : box(keys[group], keyPrimitive);
+        for (int i = 0; i < accumulators.size(); i++) {
+          row[i + 1] = accumulators.get(i).result(group);
+        }
+        rows.add(row);
+      }
+      return rows;
+    }
+
+    /** Returns the hash code of a key boxed as {@link #keyPrimitive}; for
+     * example, {@link Long#hashCode(long)} if the key is a {@code long}. */
+    private int boxedHashCode(long key) {
+      return keyPrimitive == Primitive.LONG ? Long.hashCode(key) : (int) key;
+    }
+  }
+
+  /** Spreads the bits of a key, so that keys that differ only in their high
+   * bits fall into different slots. */
+  private static int hash(long key) {
+    final long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32));
+  }
+
+  /** Aggregate function that holds the state of every group.
+   *
+   * @param <TSource> Element type */
+  private abstract static class Accumulator<TSource> {
+    /** Grows the state to hold at least {@code n} groups. */
+    abstract void ensureCapacity(int n);
+
+    /** Adds an element to a group. */
+    abstract void add(int group, TSource e);
+
+    /** Returns the result of a group. */
+    abstract Object result(int group);
+  }
+
+  /** Accumulator for {@code COUNT}.
+   *
+   * @param <TSource> Element type */
+  private static class CountAccumulator<TSource> extends Accumulator<TSource> {
+    private final Predicate1<TSource> isNull;
+    private long[] counts = new long[0];
+
+    CountAccumulator(Predicate1<TSource> isNull) {
+      this.isNull = isNull;
+    }
+
+    void ensureCapacity(int n) {
+      counts = Arrays.copyOf(counts, n);
+    }
+
+    void add(int group, TSource e) {
+      if (isNull == null || !isNull.apply(e)) {
+        ++counts[group];
+      }
+    }
+
+    Object result(int group) {
+      return counts[group];
+    }
+  }
+
+  /** Accumulator that combines integral values.
+   *
+   * @param <TSource> Element type */
+  private abstract static class LongAccumulator<TSource>
+      extends Accumulator<TSource> {
+    private final Predicate1<TSource> isNull;
+    private final LongFunction1<TSource> selector;
+    private final Primitive primitive;
+    private final boolean zeroIfEmpty;
+    private long[] values = new long[0];
+    /** Whether each group has seen a non-null value. */
+    private boolean[] seen = new boolean[0];
+
+    LongAccumulator(Predicate1<TSource> isNull,
+        LongFunction1<TSource> selector, Primitive primitive,
+        boolean zeroIfEmpty) {
+      this.isNull = isNull;
+      this.selector = selector;
+      this.primitive = primitive;
+      this.zeroIfEmpty = zeroIfEmpty;
+    }
+
+    abstract long combine(long acc, long v);
+
+    void ensureCapacity(int n) {
+      values = Arrays.copyOf(values, n);
+      seen = Arrays.copyOf(seen, n);
+    }
+
+    void add(int group, TSource e) {
+      if (isNull == null || !isNull.apply(e)) {
+        final long v = selector.apply(e);
+        values[group] = seen[group] ? combine(values[group], v) : v;
+        seen[group] = true;
+      }
+    }
+
+    Object result(int group) {
+      if (!seen[group]) {
+        return zeroIfEmpty ? box(0L, primitive) : null;
+      }
+      return box(values[group], primitive);
+    }
+  }
+
+  /** Accumulator that combines {@code double} values.
+   *
+   * @param <TSource> Element type */
+  private abstract static class DoubleAccumulator<TSource>
+      extends Accumulator<TSource> {
+    private final Predicate1<TSource> isNull;
+    private final DoubleFunction1<TSource> selector;
+    private final Primitive primitive;
+    private final boolean zeroIfEmpty;
+    private double[] values = new double[0];
+    private boolean[] seen = new boolean[0];
+
+    DoubleAccumulator(Predicate1<TSource> isNull,
+        DoubleFunction1<TSource> selector, Primitive primitive,
+        boolean zeroIfEmpty) {
+      this.isNull = isNull;
+      this.selector = selector;
+      this.primitive = primitive;
+      this.zeroIfEmpty = zeroIfEmpty;
+    }
+
+    abstract double combine(double acc, double v);
+
+    void ensureCapacity(int n) {
+      values = Arrays.copyOf(values, n);
+      seen = Arrays.copyOf(seen, n);
+    }
+
+    void add(int group, TSource e) {
+      if (isNull == null || !isNull.apply(e)) {
+        final double v = selector.apply(e);
+        values[group] = seen[group] ? combine(values[group], v) : v;
+        seen[group] = true;
+      }
+    }
+
+    Object result(int group) {
+      if (!seen[group]) {
+        return zeroIfEmpty ? box(0d, primitive) : null;
+      }
+      return box(values[group], primitive);
+    }
+  }
+}
+
+// End PrimitiveHashAggregate.java
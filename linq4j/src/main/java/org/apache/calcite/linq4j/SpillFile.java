@@ -0,0 +1,222 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.calcite.linq4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.NoSuchElementException;
+
+/**
+ * Temporary file that holds a sequence of rows that did not fit in memory.
+ *
+ * <p>Rows are written using Java serialization, so they must be
+ * {@link java.io.Serializable}. Rows of custom classes, such as those from a
+ * reflective schema, need not be; operators that may spill convert such
+ * rows to arrays first. Once {@link #finish()} has been called, the rows can
+ * be read back (any number of times) by enumerating it.
+ *
+ * <p>The file is deleted when the spill file is {@link #close() closed};
+ * whoever creates a spill file must close it, even if an error occurs.
+ *
+ * @param <E> Element type
+ */
+class SpillFile<E> extends AbstractEnumerable<E> implements AutoCloseable {
+  /** Number of rows after which the output stream forgets the objects it
+   * has written. Without the reset, {@link ObjectOutputStream} would keep a
+   * reference to every row, defeating the purpose of spilling. */
+  private static final int RESET_INTERVAL = 1024;
+
+  private final File file;
+  private ObjectOutputStream out;
+  private ClassLoader classLoader;
+  private int count;
+
+  SpillFile() {
+    try {
+      file = Files.createTempFile("calcite-spill-", ".bin").toFile();
+    } catch (IOException e) {
+      throw new UncheckedIOException("Error while creating spill file", e);
+    }
+    boolean created = false;
+    try {
+      out = new ObjectOutputStream(
+          new BufferedOutputStream(Files.newOutputStream(file.toPath())));
+      created = true;
+    } catch (IOException e) {
+      throw new UncheckedIOException("Error while creating spill file", e);
+    } finally {
+      if (!created) {
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+      }
+    }
+  }
+
+  /** Appends a row. */
+  void add(E e) {
+    if (out == null) {
+      throw new IllegalStateException("spill file is read-only");
+    }
+    if (classLoader == null && e != null) {
+      // Rows may be instances of generated classes, which are not visible
+      // to the class loader that loaded this class.
+      classLoader = e.getClass().getClassLoader();
+    }
+    try {
+      out.writeObject(e);
+      if (++count % RESET_INTERVAL == 0) {
+        out.reset();
+      }
+    } catch (IOException ex) {
+      throw new UncheckedIOException("Error while writing spill file", ex);
+    }
+  }
+
+  /** Returns the number of rows written. */
+  int size() {
+    return count;
+  }
+
+  /** Completes writing. After this method, the file can be read. */
+  SpillFile<E> finish() {
+    if (out != null) {
+      try {
+        out.close();
+      } catch (IOException e) {
+        throw new UncheckedIOException("Error while writing spill file", e);
+      }
+      out = null;
+    }
+    return this;
+  }
+
+  public Enumerator<E> enumerator() {
+    finish();
+    return new SpillEnumerator();
+  }
+
+  public void close() {
+    if (out != null) {
+      try {
+        out.close();
+      } catch (IOException e) {
+        // ignore; we are about to delete the file
+      }
+      out = null;
+    }
+    //noinspection ResultOfMethodCallIgnored
+    file.delete();
+  }
+
+  /** Enumerator that reads rows from the file. */
+  private class SpillEnumerator implements Enumerator<E> {
+    private ObjectInputStream in;
+    private int remaining;
+    private E current;
+
+    SpillEnumerator() {
+      reset();
+    }
+
+    public E current() {
+      if (in == null) {
+        throw new NoSuchElementException();
+      }
+      return current;
+    }
+
+    @SuppressWarnings("unchecked")
+    public boolean moveNext() {
+      if (remaining <= 0) {
+        current = null;
+        return false;
+      }
+      try {
+        current = (E) in.readObject();
+        --remaining;
+        return true;
+      } catch (EOFException e) {
+        remaining = 0;
+        current = null;
+        return false;
+      } catch (IOException e) {
+        throw new UncheckedIOException("Error while reading spill file", e);
+      } catch (ClassNotFoundException e) {
+        throw new IllegalStateException("Error while reading spill file", e);
+      }
+    }
+
+    public void reset() {
+      close();
+      try {
+        in = new LoaderObjectInputStream(
+            new BufferedInputStream(Files.newInputStream(file.toPath())),
+            classLoader);
+      } catch (IOException e) {
+        throw new UncheckedIOException("Error while reading spill file", e);
+      }
+      remaining = count;
+      current = null;
+    }
+
+    public void close() {
+      if (in != null) {
+        try {
+          in.close();
+        } catch (IOException e) {
+          // ignore
+        }
+        in = null;
+      }
+    }
+  }
+
+  /** Object input stream that resolves classes using a given class loader
+   * before falling back to the default mechanism. */
+  private static class LoaderObjectInputStream extends ObjectInputStream {
+    private final ClassLoader classLoader;
+
+    LoaderObjectInputStream(InputStream in, ClassLoader classLoader)
+        throws IOException {
+      super(in);
+      this.classLoader = classLoader;
+    }
+
+    @Override protected Class<?> resolveClass(ObjectStreamClass desc)
+        throws IOException, ClassNotFoundException {
+      if (classLoader != null) {
+        try {
+          return Class.forName(desc.getName(), false, classLoader);
+        } catch (ClassNotFoundException e) {
+          // fall through
+        }
+      }
+      return super.resolveClass(desc);
+    }
+  }
+}
+
+// End SpillFile.java
@@ -0,0 +1,362 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.calcite.linq4j.tree;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.lang.reflect.Type;
+import java.util.List;
+
+/**
+ * Computes a digest of an expression tree without converting it to Java
+ * source.
+ *
+ * <p>Two trees that would generate the same source code have the same
+ * digest. The digest is a SHA-256 hash, so it is compact enough to be used as
+ * the key of a cache of compiled code, and trees that generate different code
+ * have different digests in all but a negligible number of cases, even if
+ * the trees are derived from user input.
+ *
+ * <p>Nodes that are rarely used in generated code, and whose structure is
+ * not exposed, are digested by converting them to source.
+ */
+public class NodeDigester implements Visitor<Void> {
+  private static final int NULL = -1;
+
+  private final Hasher hasher = Hashing.sha256().newHasher();
+
+  /** Creates a NodeDigester. */
+  public NodeDigester() {
+  }
+
+  /** Computes the digest of a node. */
+  public static HashCode digest(Node node) {
+    return new NodeDigester().add(node).hash();
+  }
+
+  /** Adds a node to the digest. */
+  public NodeDigester add(Node node) {
+    if (node == null) {
+      hasher.putInt(NULL);
+    } else {
+      node.accept(this);
+    }
+    return this;
+  }
+
+  /** Adds a list of nodes to the digest. */
+  public NodeDigester add(List<? extends Node> nodes) {
+    if (nodes == null) {
+      hasher.putInt(NULL);
+    } else {
+      hasher.putInt(nodes.size());
+      for (Node node : nodes) {
+        add(node);
+      }
+    }
+    return this;
+  }
+
+  /** Adds an integer to the digest. */
+  public NodeDigester add(int i) {
+    hasher.putInt(i);
+    return this;
+  }
+
+  /** Adds a string to the digest. */
+  public NodeDigester add(String s) {
+    if (s == null) {
+      hasher.putInt(NULL);
+    } else {
+      hasher.putInt(s.length()).putUnencodedChars(s);
+    }
+    return this;
+  }
+
+  /** Returns the digest. Must be called at most once. */
+  public HashCode hash() {
+    return hasher.hash();
+  }
+
+  private NodeDigester add(Type type) {
+    return add(type == null ? null : type.getTypeName());
+  }
+
+  private NodeDigester addTypes(List<Type> types) {
+    hasher.putInt(types.size());
+    for (Type type : types) {
+      add(type);
+    }
+    return this;
+  }
+
+  /** Adds the kind of a node, plus its type and node type if it is an
+   * {@link AbstractNode}. */
+  private NodeDigester start(Node node) {
+    add(node.getClass().getName());
+    if (node instanceof AbstractNode) {
+      final AbstractNode abstractNode = (AbstractNode) node;
+      add(abstractNode.nodeType == null ? null : abstractNode.nodeType.name());
+      add(abstractNode.type);
+    }
+    return this;
+  }
+
+  /** Digests a node by converting it to source code. */
+  private Void source(Node node) {
+    start(node);
+    add(node.toString());
+    return null;
+  }
+
+  public Void visit(BinaryExpression binaryExpression) {
+    start(binaryExpression)
+        .add(binaryExpression.expression0)
+        .add(binaryExpression.expression1);
+    return null;
+  }
+
+  public Void visit(BlockStatement blockStatement) {
+    start(blockStatement).add(blockStatement.statements);
+    return null;
+  }
+
+  public Void visit(ClassDeclaration classDeclaration) {
+    start(classDeclaration)
+        .add(classDeclaration.modifier)
+        .add(classDeclaration.name)
+        .add(classDeclaration.extended)
+        .addTypes(classDeclaration.implemented)
+        .add(classDeclaration.memberDeclarations);
+    return null;
+  }
+
+  public Void visit(ConditionalExpression conditionalExpression) {
+    start(conditionalExpression).add(conditionalExpression.expressionList);
+    return null;
+  }
+
+  public Void visit(ConditionalStatement conditionalStatement) {
+    start(conditionalStatement).add(conditionalStatement.expressionList);
+    return null;
+  }
+
+  public Void visit(ConstantExpression constantExpression) {
+    return source(constantExpression);
+  }
+
+  public Void visit(ConstructorDeclaration constructorDeclaration) {
+    start(constructorDeclaration)
+        .add(constructorDeclaration.modifier)
+        .add(constructorDeclaration.resultType)
+        .add(constructorDeclaration.parameters)
+        .add(constructorDeclaration.body);
+    return null;
+  }
+
+  public Void visit(DeclarationStatement declarationStatement) {
+    start(declarationStatement)
+        .add(declarationStatement.modifiers)
+        .add(declarationStatement.parameter)
+        .add(declarationStatement.initializer);
+    return null;
+  }
+
+  public Void visit(DefaultExpression defaultExpression) {
+    return source(defaultExpression);
+  }
+
+  public Void visit(DynamicExpression dynamicExpression) {
+    return source(dynamicExpression);
+  }
+
+  public Void visit(FieldDeclaration fieldDeclaration) {
+    start(fieldDeclaration)
+        .add(fieldDeclaration.modifier)
+        .add(fieldDeclaration.parameter)
+        .add(fieldDeclaration.initializer);
+    return null;
+  }
+
+  public Void visit(ForStatement forStatement) {
+    start(forStatement)
+        .add(forStatement.declarations)
+        .add(forStatement.condition)
+        .add(forStatement.post)
+        .add(forStatement.body);
+    return null;
+  }
+
+  public Void visit(ForEachStatement forEachStatement) {
+    start(forEachStatement)
+        .add(forEachStatement.parameter)
+        .add(forEachStatement.iterable)
+        .add(forEachStatement.body);
+    return null;
+  }
+
+  public Void visit(FunctionExpression functionExpression) {
+    if (functionExpression.body == null) {
+      return source(functionExpression);
+    }
+    start(functionExpression)
+        .add(functionExpression.parameterList)
+        .add(functionExpression.body);
+    return null;
+  }
+
+  public Void visit(GotoStatement gotoStatement) {
+    start(gotoStatement)
+        .add(gotoStatement.kind == null ? null : gotoStatement.kind.name())
+        .add(gotoStatement.labelTarget == null
+            ? null
+            : gotoStatement.labelTarget.name)
+        .add(gotoStatement.expression);
+    return null;
+  }
+
+  public Void visit(IndexExpression indexExpression) {
+    start(indexExpression)
+        .add(indexExpression.array)
+        .add(indexExpression.indexExpressions);
+    return null;
+  }
+
+  public Void visit(InvocationExpression invocationExpression) {
+    return source(invocationExpression);
+  }
+
+  public Void visit(LabelStatement labelStatement) {
+    return source(labelStatement);
+  }
+
+  public Void visit(LambdaExpression lambdaExpression) {
+    return source(lambdaExpression);
+  }
+
+  public Void visit(ListInitExpression listInitExpression) {
+    return source(listInitExpression);
+  }
+
+  public Void visit(MemberExpression memberExpression) {
+    final PseudoField field = memberExpression.field;
+    start(memberExpression)
+        .add(memberExpression.expression)
+        .add(field.getDeclaringClass())
+        .add(field.getName())
+        .add(field.getType())
+        .add(field.getModifiers());
+    return null;
+  }
+
+  public Void visit(MemberInitExpression memberInitExpression) {
+    return source(memberInitExpression);
+  }
+
+  public Void visit(MethodCallExpression methodCallExpression) {
+    start(methodCallExpression)
+        .add(methodCallExpression.method.toGenericString())
+        .add(methodCallExpression.targetExpression)
+        .add(methodCallExpression.expressions);
+    return null;
+  }
+
+  public Void visit(MethodDeclaration methodDeclaration) {
+    start(methodDeclaration)
+        .add(methodDeclaration.modifier)
+        .add(methodDeclaration.name)
+        .add(methodDeclaration.resultType)
+        .add(methodDeclaration.parameters)
+        .add(methodDeclaration.body);
+    return null;
+  }
+
+  public Void visit(NewArrayExpression newArrayExpression) {
+    start(newArrayExpression)
+        .add(newArrayExpression.dimension)
+        .add(newArrayExpression.bound)
+        .add(newArrayExpression.expressions);
+    return null;
+  }
+
+  public Void visit(NewExpression newExpression) {
+    start(newExpression)
+        .add(newExpression.type)
+        .add(newExpression.arguments)
+        .add(newExpression.memberDeclarations);
+    return null;
+  }
+
+  public Void visit(ParameterExpression parameterExpression) {
+    start(parameterExpression)
+        .add(parameterExpression.modifier)
+        .add(parameterExpression.name);
+    return null;
+  }
+
+  public Void visit(SwitchStatement switchStatement) {
+    return source(switchStatement);
+  }
+
+  public Void visit(TernaryExpression ternaryExpression) {
+    start(ternaryExpression)
+        .add(ternaryExpression.expression0)
+        .add(ternaryExpression.expression1)
+        .add(ternaryExpression.expression2);
+    return null;
+  }
+
+  public Void visit(ThrowStatement throwStatement) {
+    start(throwStatement).add(throwStatement.expression);
+    return null;
+  }
+
+  public Void visit(TryStatement tryStatement) {
+    start(tryStatement).add(tryStatement.body);
+    hasher.putInt(tryStatement.catchBlocks.size());
+    for (CatchBlock catchBlock : tryStatement.catchBlocks) {
+      add(catchBlock.parameter).add(catchBlock.body);
+    }
+    add(tryStatement.fynally);
+    return null;
+  }
+
+  public Void visit(TypeBinaryExpression typeBinaryExpression) {
+    // TypeBinaryExpression.type (the type being tested) hides
+    // AbstractNode.type
+    start(typeBinaryExpression)
+        .add(typeBinaryExpression.type)
+        .add(typeBinaryExpression.expression);
+    return null;
+  }
+
+  public Void visit(UnaryExpression unaryExpression) {
+    start(unaryExpression).add(unaryExpression.expression);
+    return null;
+  }
+
+  public Void visit(WhileStatement whileStatement) {
+    start(whileStatement)
+        .add(whileStatement.condition)
+        .add(whileStatement.body);
+    return null;
+  }
+}
+
+// End NodeDigester.java
@@ -29,12 +29,14 @@
 import org.apache.calcite.linq4j.tree.MethodCallExpression;
 import org.apache.calcite.linq4j.tree.NewExpression;
 import org.apache.calcite.linq4j.tree.Node;
+import org.apache.calcite.linq4j.tree.NodeDigester;
 import org.apache.calcite.linq4j.tree.ParameterExpression;
 import org.apache.calcite.linq4j.tree.Shuttle;
 import org.apache.calcite.linq4j.tree.Types;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
 
 import org.junit.Test;
 
@@ -1515,6 +1517,26 @@ public void checkBlockBuilder(boolean optimizing, String expected) {
     assertThat(value, is(3));
   }
 
+  /** Tests {@link NodeDigester}: trees that generate the same code have the
+   * same digest, trees that generate different code have different digests. */
+  @Test public void testDigest() {
+    final HashCode digest0 = NodeDigester.digest(whileLoop("x", 5));
+    assertThat(NodeDigester.digest(whileLoop("x", 5)), is(digest0));
+    assertThat(NodeDigester.digest(whileLoop("x", 6)).equals(digest0),
+        is(false));
+    assertThat(NodeDigester.digest(whileLoop("z", 5)).equals(digest0),
+        is(false));
+  }
+
+  private static Node whileLoop(String name, int limit) {
+    final ParameterExpression x = Expressions.parameter(int.class, name);
+    return Expressions.block(
+        Expressions.declare(0, x, Expressions.constant(10)),
+        Expressions.while_(
+            Expressions.lessThan(x, Expressions.constant(limit)),
+            Expressions.statement(Expressions.preIncrementAssign(x))));
+  }
+
   /** An enum. */
   enum MyEnum {
     X,
@@ -24,6 +24,8 @@
 import org.apache.calcite.linq4j.Grouping;
 import org.apache.calcite.linq4j.Linq4j;
 import org.apache.calcite.linq4j.Lookup;
+import org.apache.calcite.linq4j.PartitionedEnumerable;
+import org.apache.calcite.linq4j.PrimitiveHashAggregate;
 import org.apache.calcite.linq4j.Queryable;
 import org.apache.calcite.linq4j.QueryableDefaults;
 import org.apache.calcite.linq4j.function.EqualityComparer;
@@ -37,6 +39,7 @@
 import org.apache.calcite.linq4j.tree.ConstantExpression;
 import org.apache.calcite.linq4j.tree.Expressions;
 import org.apache.calcite.linq4j.tree.ParameterExpression;
+import org.apache.calcite.linq4j.tree.Primitive;
 
 import com.example.Linq4jExample;
 import com.google.common.collect.ImmutableList;
@@ -48,14 +51,19 @@
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Objects;
+import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.hamcrest.CoreMatchers.endsWith;
 import static org.hamcrest.CoreMatchers.equalTo;
@@ -99,6 +107,9 @@ public class Linq4jTest {
 
   private static final Function2<Object, Object, Integer> PAIR_SELECTOR = (employee, v2) -> 1;
 
+  /** Pool in which tests run the partitions of partitioned sequences. */
+  private static final ForkJoinPool PARALLEL = new ForkJoinPool(4);
+
   @Test public void testSelect() {
     List<String> names =
         Linq4j.asEnumerable(emps)
@@ -1071,6 +1082,378 @@ public int hashCode(Integer integer) {
         s);
   }
 
+  /** Tests a hash join whose inner input is larger than the spill threshold,
+   * so that both inputs are partitioned to disk. The results must be the same
+   * as an in-memory hash join, for each join type. */
+  @Test public void testHashJoinSpill() {
+    final List<Integer> lefts = new ArrayList<>();
+    final List<Integer> rights = new ArrayList<>();
+    for (int i = 0; i < 500; i++) {
+      lefts.add(i % 7 == 0 ? null : i % 150);
+      rights.add(i % 200);
+    }
+    final Enumerable<Integer> outer = Linq4j.asEnumerable(lefts);
+    final Enumerable<Integer> inner = Linq4j.asEnumerable(rights);
+    final Function1<Integer, Integer> keySelector = v -> v;
+    final Function2<Integer, Integer, String> resultSelector =
+        (v1, v2) -> v1 + "-" + v2;
+    final Predicate2<Integer, Integer> predicate = (v1, v2) -> v2 % 3 != 0;
+    for (boolean nullsOnLeft : new boolean[] {false, true}) {
+      for (boolean nullsOnRight : new boolean[] {false, true}) {
+        for (Predicate2<Integer, Integer> p : Arrays.asList(null, predicate)) {
+          final List<String> expected =
+              EnumerableDefaults.hashJoin(outer, inner, keySelector,
+                  keySelector, resultSelector, null, nullsOnLeft, nullsOnRight,
+                  p)
+                  .orderBy(Functions.identitySelector())
+                  .toList();
+          final List<String> actual =
+              EnumerableDefaults.hashJoin(outer, inner, keySelector,
+                  keySelector, resultSelector, null, nullsOnLeft, nullsOnRight,
+                  p, 10)
+                  .orderBy(Functions.identitySelector())
+                  .toList();
+          assertThat(actual, equalTo(expected));
+        }
+      }
+    }
+    for (boolean anti : new boolean[] {false, true}) {
+      final List<Integer> expected =
+          EnumerableDefaults.semiJoin(outer, inner, keySelector, keySelector,
+              null, anti, null)
+              .orderBy(Functions.identitySelector(),
+                  Functions.nullsComparator(true, false))
+              .toList();
+      final List<Integer> actual =
+          EnumerableDefaults.semiJoin(outer, inner, keySelector, keySelector,
+              null, anti, null, 10)
+              .orderBy(Functions.identitySelector(),
+                  Functions.nullsComparator(true, false))
+              .toList();
+      assertThat(actual, equalTo(expected));
+    }
+  }
+
+  /** Tests a hash join whose inner input is partitioned, so that its hash
+   * table is built in parallel. The results must be the same as an
+   * unpartitioned hash join, for each join type, with and without a
+   * predicate. */
+  @Test public void testPartitionedHashJoin() {
+    final List<Integer> lefts = new ArrayList<>();
+    final List<Integer> rights = new ArrayList<>();
+    for (int i = 0; i < 500; i++) {
+      lefts.add(i % 7 == 0 ? null : i % 150);
+      rights.add(i % 11 == 0 ? null : i % 200);
+    }
+    final Enumerable<Integer> outer = Linq4j.asEnumerable(lefts);
+    final Enumerable<Integer> inner = Linq4j.asEnumerable(rights);
+    final Function1<Integer, Integer> keySelector = v -> v;
+    final Function2<Integer, Integer, String> resultSelector =
+        (v1, v2) -> v1 + "-" + v2;
+    for (boolean nullsOnLeft : new boolean[] {false, true}) {
+      for (boolean nullsOnRight : new boolean[] {false, true}) {
+        final List<String> expected =
+            EnumerableDefaults.hashJoin(outer, inner, keySelector,
+                keySelector, resultSelector, null, nullsOnLeft, nullsOnRight,
+                null)
+                .orderBy(Functions.identitySelector())
+                .toList();
+        final List<String> actual =
+            EnumerableDefaults.partitionedHashJoin(outer,
+                EnumerableDefaults.exchange(inner, keySelector, 4),
+                keySelector, keySelector, resultSelector, null, nullsOnLeft,
+                nullsOnRight, null, PARALLEL, 4)
+                .orderBy(Functions.identitySelector())
+                .toList();
+        assertThat(actual, equalTo(expected));
+
+        final Predicate2<Integer, Integer> predicate = (v1, v2) -> v1 % 3 != 0;
+        final List<String> expected2 =
+            EnumerableDefaults.hashJoin(outer, inner, keySelector,
+                keySelector, resultSelector, null, nullsOnLeft, nullsOnRight,
+                predicate)
+                .orderBy(Functions.identitySelector())
+                .toList();
+        final List<String> actual2 =
+            EnumerableDefaults.partitionedHashJoin(outer,
+                EnumerableDefaults.exchange(inner, keySelector, 4),
+                keySelector, keySelector, resultSelector, null, nullsOnLeft,
+                nullsOnRight, predicate, PARALLEL, 4)
+                .orderBy(Functions.identitySelector())
+                .toList();
+        assertThat(actual2, equalTo(expected2));
+
+        // Inner partitioned on a different key; the elements are re-routed
+        // by the join key
+        final List<String> actual3 =
+            EnumerableDefaults.partitionedHashJoin(outer,
+                EnumerableDefaults.exchange(inner, v -> v == null ? 0 : v % 5,
+                    3),
+                keySelector, keySelector, resultSelector, null, nullsOnLeft,
+                nullsOnRight, null, PARALLEL, 3)
+                .orderBy(Functions.identitySelector())
+                .toList();
+        assertThat(actual3, equalTo(expected));
+      }
+    }
+  }
+
+  /** Tests that a hash join whose inner input is partitioned streams its
+   * outer input: the first results are returned without reading the rest of
+   * an outer input that never ends. */
+  @Test public void testPartitionedHashJoinStreamsOuter() {
+    final Enumerable<Integer> outer = new AbstractEnumerable<Integer>() {
+      public Enumerator<Integer> enumerator() {
+        return new Enumerator<Integer>() {
+          int i = -1;
+
+          public Integer current() {
+            return i;
+          }
+
+          public boolean moveNext() {
+            ++i;
+            return true;
+          }
+
+          public void reset() {
+            i = -1;
+          }
+
+          public void close() {
+          }
+        };
+      }
+    };
+    final Function1<Integer, Integer> keySelector = v -> v % 10;
+    final List<String> actual =
+        EnumerableDefaults.partitionedHashJoin(outer,
+            EnumerableDefaults.exchange(Linq4j.asEnumerable(Arrays.asList(3, 4)),
+                keySelector, 2),
+            keySelector, keySelector, (v1, v2) -> v1 + "-" + v2, null,
+            false, false, null, PARALLEL, 2)
+            .take(3)
+            .toList();
+    assertThat(actual.toString(), equalTo("[3-3, 4-4, 13-3]"));
+  }
+
+  /** Tests grouping a partitioned sequence; each partition is grouped in
+   * parallel. */
+  @Test public void testPartitionedGroupBy() {
+    final List<Integer> values = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      values.add(i % 13 == 0 ? null : i % 37);
+    }
+    final Function1<Integer, Integer> keySelector = v -> v;
+    final Enumerable<Integer> partitioned =
+        EnumerableDefaults.exchange(Linq4j.asEnumerable(values), keySelector,
+            3);
+    assertThat(partitioned.count(), equalTo(values.size()));
+    final List<String> expected =
+        EnumerableDefaults.groupBy(Linq4j.asEnumerable(values), keySelector,
+            () -> 0, (acc, v) -> acc + 1, (k, acc) -> k + ":" + acc)
+            .orderBy(Functions.identitySelector())
+            .toList();
+    final List<String> actual =
+        EnumerableDefaults.partitionedGroupBy(partitioned, keySelector,
+            () -> 0, (Integer acc, Integer v) -> acc + 1,
+            (Integer k, Integer acc) -> k + ":" + acc, null, PARALLEL, 3)
+            .orderBy(Functions.identitySelector())
+            .toList();
+    assertThat(actual.size(), equalTo(38));
+    assertThat(actual, equalTo(expected));
+  }
+
+  /** Tests that {@link PartitionedEnumerable#process} hands elements to the
+   * workers while the source is being read, routes equal keys to the same
+   * worker, and rethrows a worker's exception. */
+  @Test public void testPartitionedProcess() {
+    final int n = 100_000;
+    final AtomicInteger readCount = new AtomicInteger();
+    final Enumerable<Integer> source = new AbstractEnumerable<Integer>() {
+      public Enumerator<Integer> enumerator() {
+        return new Enumerator<Integer>() {
+          int i = -1;
+
+          public Integer current() {
+            return i;
+          }
+
+          public boolean moveNext() {
+            readCount.incrementAndGet();
+            return ++i < n;
+          }
+
+          public void reset() {
+            i = -1;
+          }
+
+          public void close() {
+          }
+        };
+      }
+    };
+    final PartitionedEnumerable<Integer> partitioned =
+        (PartitionedEnumerable<Integer>)
+            EnumerableDefaults.exchange(source, v -> v % 100, 4);
+    final List<int[]> results =
+        partitioned.process(PARALLEL, 4, partition -> {
+          // {elements, elements read from the source at the first element,
+          // number of distinct keys}
+          final int[] result = {0, -1, 0};
+          final Set<Integer> keys = new HashSet<>();
+          for (Integer v : partition) {
+            if (result[1] < 0) {
+              result[1] = readCount.get();
+            }
+            ++result[0];
+            keys.add(v % 100);
+          }
+          result[2] = keys.size();
+          return result;
+        });
+    assertThat(results.size(), is(4));
+    int count = 0;
+    int keyCount = 0;
+    for (int[] result : results) {
+      count += result[0];
+      keyCount += result[2];
+      // The bounded queues stop the reader from getting far ahead
+      assertThat(result[1] < n, is(true));
+    }
+    assertThat(count, is(n));
+    assertThat(keyCount, is(100));
+
+    try {
+      partitioned.process(PARALLEL, 4, partition -> {
+        for (Integer v : partition) {
+          if (v == 5_000) {
+            throw new IllegalStateException("worker failed");
+          }
+        }
+        return 0;
+      });
+      fail("expected exception");
+    } catch (IllegalStateException e) {
+      assertThat(e.getMessage(), is("worker failed"));
+    }
+  }
+
+  @Test public void testSpillingGroupBy() {
+    final List<Integer> values = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      values.add(i % 13 == 0 ? null : i % 137);
+    }
+    final Enumerable<Integer> source = Linq4j.asEnumerable(values);
+    final Function1<Integer, Integer> keySelector = v -> v;
+    final List<String> expected =
+        EnumerableDefaults.groupBy(source, keySelector, () -> 0,
+            (acc, v) -> acc + 1, (k, acc) -> k + ":" + acc)
+            .toList();
+    // Does not spill; same results in the same order
+    final List<String> actual =
+        EnumerableDefaults.groupBy(source, keySelector, () -> 0,
+            (Integer acc, Integer v) -> acc + 1,
+            (Integer k, Integer acc) -> k + ":" + acc, null, 1000)
+            .toList();
+    assertThat(actual, equalTo(expected));
+    // Spills, and re-partitions some partitions; same results
+    final List<String> spilled =
+        EnumerableDefaults.groupBy(source, keySelector, () -> 0,
+            (Integer acc, Integer v) -> acc + 1,
+            (Integer k, Integer acc) -> k + ":" + acc, null, 5)
+            .orderBy(Functions.identitySelector())
+            .toList();
+    assertThat(spilled.size(), equalTo(138));
+    assertThat(spilled,
+        equalTo(Linq4j.asEnumerable(expected)
+            .orderBy(Functions.identitySelector())
+            .toList()));
+  }
+
+  @Test public void testSpillingGroupByMultiple() {
+    final List<Integer> values = new ArrayList<>();
+    for (int i = 0; i < 500; i++) {
+      values.add(i % 61);
+    }
+    final Enumerable<Integer> source = Linq4j.asEnumerable(values);
+    final List<Function1<Integer, String>> keySelectors =
+        Arrays.asList(v -> "a" + v, v -> "b" + v % 7, v -> "c");
+    final List<String> expected =
+        EnumerableDefaults.groupByMultiple(source, keySelectors, () -> 0,
+            (acc, v) -> acc + 1, (k, acc) -> k + ":" + acc)
+            .orderBy(Functions.identitySelector())
+            .toList();
+    final List<String> actual =
+        EnumerableDefaults.groupByMultiple(source, keySelectors, () -> 0,
+            (Integer acc, Integer v) -> acc + 1,
+            (String k, Integer acc) -> k + ":" + acc, null, 3)
+            .orderBy(Functions.identitySelector())
+            .toList();
+    assertThat(actual.size(), equalTo(61 + 7 + 1));
+    assertThat(actual, equalTo(expected));
+  }
+
+  @Test public void testPrimitiveHashAggregate() {
+    final List<Integer[]> rows = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      rows.add(
+          new Integer[] {i % 13 == 0 ? null : (i % 37) * 1000 - 5000,
+              i % 7 == 0 ? null : i});
+    }
+    final Enumerable<Integer[]> source = Linq4j.asEnumerable(rows);
+    final List<String> expected =
+        EnumerableDefaults.groupBy(source, row -> row[0],
+            () -> new int[] {0, 0, 0, Integer.MAX_VALUE},
+            (int[] acc, Integer[] row) -> {
+              acc[0]++;
+              if (row[1] != null) {
+                acc[1]++;
+                acc[2] += row[1];
+                acc[3] = Math.min(acc[3], row[1]);
+              }
+              return acc;
+            },
+            (Integer k, int[] acc) -> k + ":" + acc[0] + ":" + acc[1] + ":"
+                + acc[2] + ":" + acc[3])
+            .toList();
+    final List<String> actual =
+        new PrimitiveHashAggregate<Integer[]>(row -> row[0] == null,
+            row -> row[0], Primitive.INT)
+            .count(null)
+            .count(row -> row[1] == null)
+            .sumLong(row -> row[1] == null, row -> row[1], Primitive.INT, true)
+            .minMaxLong(row -> row[1] == null, row -> row[1], Primitive.INT,
+                false)
+            .aggregate(source)
+            .select(row -> row[0] + ":" + row[1] + ":" + row[2] + ":" + row[3]
+                + ":" + row[4])
+            .toList();
+    assertThat(actual.size(), equalTo(38));
+    // Same groups, in the same order
+    assertThat(actual, equalTo(expected));
+  }
+
+  @Test public void testPrimitiveHashAggregateEmptyGroup() {
+    final List<Object[]> rows =
+        Arrays.asList(new Object[] {1L, null}, new Object[] {2L, 1.5d},
+            new Object[] {1L, null}, new Object[] {2L, -2.5d});
+    final String s =
+        new PrimitiveHashAggregate<Object[]>(null, row -> (Long) row[0],
+            Primitive.LONG)
+            .sumDouble(row -> row[1] == null, row -> (Double) row[1],
+                Primitive.DOUBLE, false)
+            .sumDouble(row -> row[1] == null, row -> (Double) row[1],
+                Primitive.DOUBLE, true)
+            .minMaxDouble(row -> row[1] == null, row -> (Double) row[1],
+                Primitive.DOUBLE, true)
+            .aggregate(Linq4j.asEnumerable(rows))
+            .select(Arrays::toString)
+            .toList()
+            .toString();
+    assertThat(s, equalTo("[[1, null, 0.0, null], [2, -1.0, -1.0, 1.5]]"));
+  }
+
   @Test public void testJoinCartesianProduct() {
     int n =
         Linq4j.asEnumerable(emps)
@@ -1436,6 +1819,75 @@ public boolean apply(Department v1, Integer v2) {
             .toList().toString());
   }
 
+  /** Tests a sort with more elements than the spill threshold, so that
+   * sorted runs are written to disk and merged. The sort must still be
+   * stable. */
+  @Test public void testOrderBySpill() {
+    final List<String> list = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      list.add((i * 37) % 101 + ":" + i);
+    }
+    final Function1<String, Integer> keySelector =
+        v -> Integer.valueOf(v.substring(0, v.indexOf(':')));
+    final List<String> expected = new ArrayList<>(list);
+    expected.sort(Comparator.comparing(keySelector::apply));
+    assertThat(
+        EnumerableDefaults.orderBy(Linq4j.asEnumerable(list), keySelector,
+            null, 30).toList(),
+        equalTo(expected));
+    final List<String> expectedDesc = new ArrayList<>(list);
+    expectedDesc.sort(Collections.reverseOrder());
+    assertThat(
+        EnumerableDefaults.orderBy(Linq4j.asEnumerable(list),
+            Functions.<String>identitySelector(),
+            Collections.<String>reverseOrder(), 30).toList(),
+        equalTo(expectedDesc));
+  }
+
+  /** Tests a sort that spills more runs than can be merged at once, so that
+   * runs are merged in several passes. The sort must still be stable. */
+  @Test public void testOrderBySpillMultiPass() {
+    final List<String> list = new ArrayList<>();
+    for (int i = 0; i < 5000; i++) {
+      list.add((i * 37) % 101 + ":" + i);
+    }
+    final Function1<String, Integer> keySelector =
+        v -> Integer.valueOf(v.substring(0, v.indexOf(':')));
+    final List<String> expected = new ArrayList<>(list);
+    expected.sort(Comparator.comparing(keySelector::apply));
+    // The buffer holds at least 16 elements, so there are about 300 runs
+    assertThat(
+        EnumerableDefaults.orderBy(Linq4j.asEnumerable(list), keySelector,
+            null, 3).toList(),
+        equalTo(expected));
+  }
+
+  /** Tests the "top N" variant of sort, which keeps only the first
+   * {@code offset + fetch} elements in memory. */
+  @Test public void testOrderByOffsetFetch() {
+    // Note: sort is stable. Records occur Fred, Eric, Janet in input.
+    assertEquals(
+        "[Employee(name: Eric, deptno:10),"
+            + " Employee(name: Janet, deptno:10)]",
+        EnumerableDefaults.orderBy(Linq4j.asEnumerable(emps),
+            EMP_DEPTNO_SELECTOR, null, 1, 2)
+            .toList().toString());
+    assertEquals(
+        "[Employee(name: Bill, deptno:30),"
+            + " Employee(name: Fred, deptno:10)]",
+        EnumerableDefaults.orderBy(Linq4j.asEnumerable(emps),
+            EMP_DEPTNO_SELECTOR, Collections.reverseOrder(), 0, 2)
+            .toList().toString());
+    assertEquals("[]",
+        EnumerableDefaults.orderBy(Linq4j.asEnumerable(emps),
+            EMP_DEPTNO_SELECTOR, null, 0, 0)
+            .toList().toString());
+    assertEquals("[Employee(name: Bill, deptno:30)]",
+        EnumerableDefaults.orderBy(Linq4j.asEnumerable(emps),
+            EMP_DEPTNO_SELECTOR, null, 3, 100)
+            .toList().toString());
+  }
+
   @Test public void testOrderByDescending() {
     assertEquals(
         "[Employee(name: Janet, deptno:10),"
@@ -0,0 +1,176 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.calcite.benchmarks;
+
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.metadata.JaninoRelMetadataProvider;
+import org.apache.calcite.rel.metadata.Metadata;
+import org.apache.calcite.rel.metadata.MetadataDef;
+import org.apache.calcite.rel.metadata.MetadataHandler;
+import org.apache.calcite.rel.metadata.RelMetadataProvider;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.rel.metadata.UnboundMetadata;
+import org.apache.calcite.tools.Frameworks;
+import org.apache.calcite.tools.RelBuilder;
+import org.apache.calcite.util.ImmutableBitSet;
+
+import com.google.common.collect.Multimap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the handlers that dispatch metadata requests to providers:
+ * handlers that use method handles (the default) versus handlers compiled by
+ * Janino.
+ *
+ * <p>"firstCall" benchmarks use a new provider each time, so they include
+ * the cost of creating a handler for each kind of metadata requested, as in
+ * a short-lived JVM or with a provider that does not implement
+ * {@code equals}. "steadyState" benchmarks re-use the handlers and measure
+ * the cost of dispatch.
+ */
+@Fork(value = 1, jvmArgsPrepend = "-Xmx1024m")
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Threads(1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MetadataBenchmark {
+  private static final String COMPILE =
+      "-Dcalcite.metadata.handler.compile=true";
+
+  RelNode rel;
+  RelMetadataQuery mq;
+
+  @Setup
+  public void setup() {
+    final RelBuilder b =
+        RelBuilder.create(
+            Frameworks.newConfigBuilder()
+                .defaultSchema(Frameworks.createRootSchema(true))
+                .build());
+    rel = b.values(new String[] {"a", "b"}, 1, 2, 3, 4, 5, 6, 1, 8)
+        .filter(b.equals(b.field("a"), b.literal(1)))
+        .project(b.field("b"), b.field("a"))
+        .aggregate(b.groupKey("b"), b.count())
+        .build();
+    mq = RelMetadataQuery.instance();
+  }
+
+  /** Requests several kinds of metadata for every node in the tree. */
+  private static double query(RelMetadataQuery mq, RelNode rel) {
+    double d = 0;
+    for (RelNode input : rel.getInputs()) {
+      d += query(mq, input);
+    }
+    d += mq.getRowCount(rel);
+    d += mq.getCumulativeCost(rel).getRows();
+    final Boolean unique = mq.areColumnsUnique(rel, ImmutableBitSet.of(0));
+    d += unique == null ? 0 : unique ? 1 : 2;
+    return d + mq.getPulledUpPredicates(rel).pulledUpPredicates.size();
+  }
+
+  private double firstCall() {
+    final RelOptCluster cluster = rel.getCluster();
+    RelMetadataQuery.THREAD_PROVIDERS.set(
+        JaninoRelMetadataProvider.of(
+            new IdentityProvider(cluster.getMetadataProvider())));
+    try {
+      return query(RelMetadataQuery.instance(), rel);
+    } finally {
+      RelMetadataQuery.THREAD_PROVIDERS.remove();
+    }
+  }
+
+  private double steadyState() {
+    mq.map.clear();
+    return query(mq, rel);
+  }
+
+  @Benchmark
+  public double firstCallMethodHandle() {
+    return firstCall();
+  }
+
+  @Benchmark
+  @Fork(value = 1, jvmArgsAppend = COMPILE)
+  public double firstCallJanino() {
+    return firstCall();
+  }
+
+  @Benchmark
+  public double steadyStateMethodHandle() {
+    return steadyState();
+  }
+
+  @Benchmark
+  @Fork(value = 1, jvmArgsAppend = COMPILE)
+  public double steadyStateJanino() {
+    return steadyState();
+  }
+
+  /** Provider that delegates to another provider, and uses the default
+   * (identity) implementation of {@code equals}, so that each instance needs
+   * its own handlers. */
+  private static class IdentityProvider implements RelMetadataProvider {
+    private final RelMetadataProvider provider;
+
+    IdentityProvider(RelMetadataProvider provider) {
+      this.provider = provider;
+    }
+
+    public <M extends Metadata> UnboundMetadata<M> apply(
+        Class<? extends RelNode> relClass, Class<? extends M> metadataClass) {
+      return provider.apply(relClass, metadataClass);
+    }
+
+    public <M extends Metadata> Multimap<Method, MetadataHandler<M>>
+        handlers(MetadataDef<M> def) {
+      return provider.handlers(def);
+    }
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+        .include(MetadataBenchmark.class.getSimpleName())
+        .detectJvmArgs()
+        .build();
+
+    new Runner(opt).run();
+  }
+}
+
+// End MetadataBenchmark.java